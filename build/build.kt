@@ -21,3 +21,23 @@ val retinazer by project(Archetypes.JavaProject, Archetypes.JUnitLayer) {
 	libraryDependencies add { Dependency(JUnitAPI, ScopeTest) }
 	libraryDependencies add { Dependency(JUnitEngine, ScopeTest) }
 }
+
+/** Annotation processor which generates wiring and component indices, see [com.darkyen.retinazer.GeneratedWiring]. */
+val retinazerProcessor by project(path("processor"), Archetypes.JavaProject, Archetypes.JUnitLayer) {
+
+	projectGroup set { "com.darkyen" }
+	projectName set { "retinazer-processor" }
+	projectVersion set { "0.3.1" }
+
+	compilerOptions[JavaCompilerFlags.customFlags] = { it + "-encoding" + "UTF-8" }
+
+	// The processor itself refers to retinazer only by class names, its tests use it
+	projectDependencies add { ProjectDependency(retinazer, scope = ScopeTest) }
+
+	repositories add { Jitpack }
+	libraryDependencies add { dependency("com.github.mp911de.microbenchmark-runner", "microbenchmark-runner-junit5", "0.2.0.RELEASE", scope = ScopeTest) }
+	libraryDependencies add { dependency("org.openjdk.jmh", "jmh-generator-annprocess", "1.21", scope = ScopeTest) }
+
+	libraryDependencies add { Dependency(JUnitAPI, ScopeTest) }
+	libraryDependencies add { Dependency(JUnitEngine, ScopeTest) }
+}
@@ -0,0 +1,342 @@
+package com.darkyen.retinazer.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates code which replaces reflection at startup:
+ * <ul>
+ *     <li>{@code com.darkyen.retinazer.GeneratedWiring} for each class with {@code @Wire} fields,
+ *     named after the class with a {@code $$Wiring} suffix</li>
+ *     <li>a class with constant component indices for each type annotated with {@code @ComponentDomain},
+ *     named after the type with a {@code Components} suffix</li>
+ * </ul>
+ * Refers to the classes of retinazer only by name, so it does not depend on it.
+ * Wiring is generated for each class which declares {@code @Wire} fields, its subclasses without own wired fields use it too.
+ * Classes whose own fields can't be wired by generated code, for example because of a private {@code @Wire} field,
+ * are reported as a note and are wired by reflection at runtime.
+ * Inherited fields which are not accessible, like the protected {@code EntitySystem.engine}, are wired by reflection
+ * after the generated code, see {@code GeneratedWiring.getReflectivelyWiredClasses()}.
+ */
+@SupportedAnnotationTypes({"com.darkyen.retinazer.Wire", "com.darkyen.retinazer.ComponentDomain"})
+public final class RetinazerProcessor extends AbstractProcessor {
+
+	private static final String WIRE             = "com.darkyen.retinazer.Wire";
+	private static final String ENGINE           = "com.darkyen.retinazer.Engine";
+	private static final String MAPPER           = "com.darkyen.retinazer.Mapper";
+	private static final String ENGINE_SERVICE   = "com.darkyen.retinazer.EngineService";
+	private static final String COMPONENT_DOMAIN = "com.darkyen.retinazer.ComponentDomain";
+	private static final String GENERATED_WIRING = "com.darkyen.retinazer.GeneratedWiring";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		final Elements elements = processingEnv.getElementUtils();
+		final TypeElement wire = elements.getTypeElement(WIRE);
+		if (wire == null) {
+			// Retinazer is not on the classpath
+			return false;
+		}
+
+		final Set<TypeElement> wiredTypes = new LinkedHashSet<>();
+		for (Element field : round.getElementsAnnotatedWith(wire)) {
+			final Element type = field.getEnclosingElement();
+			if (field.getKind() == ElementKind.FIELD && type.getKind() == ElementKind.CLASS) {
+				wiredTypes.add((TypeElement) type);
+			}
+		}
+		for (TypeElement type : wiredTypes) {
+			generateWiring(type);
+		}
+
+		final TypeElement componentDomain = elements.getTypeElement(COMPONENT_DOMAIN);
+		if (componentDomain != null) {
+			for (Element element : round.getElementsAnnotatedWith(componentDomain)) {
+				generateComponents((TypeElement) element);
+			}
+		}
+		// Other processors may be interested in the annotations as well
+		return false;
+	}
+
+	private void generateWiring(TypeElement type) {
+		final Elements elements = processingEnv.getElementUtils();
+		final TypeElement wire = elements.getTypeElement(WIRE);
+		final PackageElement pkg = elements.getPackageOf(type);
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && type.getNestingKind() != NestingKind.MEMBER || !isAccessible(type, pkg)) {
+			note(type, "class is not accessible from its package");
+			return;
+		}
+
+		// Each class in the hierarchy is either wired here or, if it is a superclass, by reflection
+		final StringBuilder statements = new StringBuilder();
+		final List<TypeElement> reflective = new ArrayList<>();
+		for (TypeElement current = type; current != null; current = superclass(current)) {
+			final StringBuilder currentStatements = new StringBuilder();
+			String reason = null;
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				if (!hasAnnotation(field, wire)) {
+					continue;
+				}
+				final Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) {
+					// Reported by reflection at runtime
+					return;
+				}
+				final String value = isAccessible(field, pkg) && isAccessible(current, pkg) ? wiredValue(field, pkg) : null;
+				if (value == null) {
+					if (reason == null) {
+						reason = "field " + current.getSimpleName() + "." + field.getSimpleName()
+								+ (isAccessible(field, pkg) ? " is not wired by the engine itself" : " is not accessible");
+					}
+					continue;
+				}
+				currentStatements.append("\t\t((").append(current.getQualifiedName()).append(") object).")
+						.append(field.getSimpleName()).append(" = ").append(value).append(";\n");
+			}
+
+			if (reason == null) {
+				statements.append(currentStatements);
+			} else if (current != type && isAccessible(current, pkg)) {
+				reflective.add(current);
+			} else {
+				note(type, reason);
+				return;
+			}
+		}
+
+		final String packageName = pkg.getQualifiedName().toString();
+		final String binaryName = elements.getBinaryName(type).toString();
+		final String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + "$$Wiring";
+		final StringBuilder source = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("/** Wires {@link ").append(type.getQualifiedName()).append("}, generated by ")
+				.append(RetinazerProcessor.class.getName()).append(". */\n");
+		source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+		source.append("public final class ").append(simpleName).append(" implements ").append(GENERATED_WIRING).append(" {\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void wire(Object object, ").append(ENGINE).append(" engine) {\n");
+		source.append(statements);
+		source.append("\t}\n");
+		if (!reflective.isEmpty()) {
+			source.append("\n\t@Override\n");
+			source.append("\tpublic Class<?>[] getReflectivelyWiredClasses() {\n");
+			source.append("\t\treturn new Class<?>[]{");
+			for (int i = 0; i < reflective.size(); i++) {
+				source.append(i == 0 ? "" : ", ").append(reflective.get(i).getQualifiedName()).append(".class");
+			}
+			source.append("};\n");
+			source.append("\t}\n");
+		}
+		source.append("}\n");
+		write(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, source, type);
+	}
+
+	/** @return expression of the value of the field, null if it is not wired by the engine itself */
+	private String wiredValue(VariableElement field, PackageElement pkg) {
+		final Elements elements = processingEnv.getElementUtils();
+		final Types types = processingEnv.getTypeUtils();
+		final TypeMirror fieldType = field.asType();
+		if (fieldType.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		final TypeElement fieldElement = (TypeElement) ((DeclaredType) fieldType).asElement();
+		final String fieldTypeName = fieldElement.getQualifiedName().toString();
+
+		if (fieldTypeName.equals(ENGINE)) {
+			return "engine";
+		}
+		if (fieldTypeName.equals(MAPPER)) {
+			final TypeElement component = typeArgument(fieldType, pkg);
+			return component == null ? null : "engine.getMapper(" + component.getQualifiedName() + ".class)";
+		}
+		final TypeElement engineService = elements.getTypeElement(ENGINE_SERVICE);
+		if (engineService != null && types.isAssignable(types.erasure(fieldType), types.erasure(engineService.asType()))) {
+			return isAccessible(fieldElement, pkg) ? "engine.getService(" + fieldTypeName + ".class)" : null;
+		}
+		if (fieldTypeName.equals(List.class.getName())) {
+			final TypeElement service = typeArgument(fieldType, pkg);
+			return service == null ? null : "engine.getServices(" + service.getQualifiedName() + ".class)";
+		}
+		return null;
+	}
+
+	/** @return the only type argument of the type, if it is a class accessible from the package */
+	private TypeElement typeArgument(TypeMirror type, PackageElement pkg) {
+		final List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+		if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		final TypeElement argument = (TypeElement) ((DeclaredType) arguments.get(0)).asElement();
+		return isAccessible(argument, pkg) ? argument : null;
+	}
+
+	private void generateComponents(TypeElement type) {
+		final Elements elements = processingEnv.getElementUtils();
+		final TypeElement componentDomain = elements.getTypeElement(COMPONENT_DOMAIN);
+		final List<TypeElement> components = new ArrayList<>();
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			if (!annotation.getAnnotationType().asElement().equals(componentDomain)) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+				@SuppressWarnings("unchecked")
+				final List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) entry.getValue().getValue();
+				for (AnnotationValue value : values) {
+					components.add((TypeElement) ((DeclaredType) value.getValue()).asElement());
+				}
+			}
+		}
+
+		final PackageElement pkg = elements.getPackageOf(type);
+		final String packageName = pkg.getQualifiedName().toString();
+		final String simpleName = type.getSimpleName() + "Components";
+		final StringBuilder source = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("/** Components of {@link ").append(type.getQualifiedName()).append("}, generated by ")
+				.append(RetinazerProcessor.class.getName()).append(". */\n");
+		source.append("@SuppressWarnings(\"unchecked\")\n");
+		source.append("public final class ").append(simpleName).append(" {\n\n");
+
+		source.append("\tpublic static final com.darkyen.retinazer.ComponentSet SET = new com.darkyen.retinazer.ComponentSet(");
+		for (int i = 0; i < components.size(); i++) {
+			source.append(i == 0 ? "" : ", ").append(components.get(i).getQualifiedName()).append(".class");
+		}
+		source.append(");\n\n");
+
+		final Set<String> names = new HashSet<>();
+		for (int i = 0; i < components.size(); i++) {
+			final TypeElement component = components.get(i);
+			if (!isAccessible(component, pkg)) {
+				error(type, "component " + component.getQualifiedName() + " is not accessible");
+				return;
+			}
+			final String name = component.getSimpleName().toString();
+			if (!names.add(name)) {
+				error(type, "multiple components are named " + name);
+				return;
+			}
+			source.append("\t/** Index of {@link ").append(component.getQualifiedName()).append("} */\n");
+			source.append("\tpublic static final int ").append(constantName(name)).append(" = ").append(i).append(";\n");
+		}
+
+		for (TypeElement component : components) {
+			final String name = component.getSimpleName().toString();
+			final String qualifiedName = component.getQualifiedName().toString();
+			source.append("\n\t/** @return mapper of {@link ").append(qualifiedName).append("} in the engine, which must use {@link #SET} */\n");
+			source.append("\tpublic static com.darkyen.retinazer.Mapper<").append(qualifiedName).append("> ")
+					.append(Character.toLowerCase(name.charAt(0))).append(name.substring(1))
+					.append("(com.darkyen.retinazer.Engine engine) {\n");
+			source.append("\t\treturn (com.darkyen.retinazer.Mapper<").append(qualifiedName).append(">) engine.getMappers()[")
+					.append(constantName(name)).append("];\n");
+			source.append("\t}\n");
+		}
+
+		source.append("\n\tprivate ").append(simpleName).append("() {\n\t}\n");
+		source.append("}\n");
+		write(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, source, type);
+	}
+
+	/** @return the name in upper snake case, for example FlagComponentA becomes FLAG_COMPONENT_A */
+	static String constantName(String name) {
+		final StringBuilder result = new StringBuilder(name.length() + 8);
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (i > 0 && Character.isUpperCase(c)) {
+				final char previous = name.charAt(i - 1);
+				final boolean nextIsLower = i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1));
+				if (!Character.isUpperCase(previous) || nextIsLower) {
+					result.append('_');
+				}
+			}
+			result.append(Character.toUpperCase(c));
+		}
+		return result.toString();
+	}
+
+	private TypeElement superclass(TypeElement type) {
+		final TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		final TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+		return element.getQualifiedName().contentEquals(Object.class.getName()) ? null : element;
+	}
+
+	private static boolean hasAnnotation(Element element, TypeElement annotationType) {
+		for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+			if (annotation.getAnnotationType().asElement().equals(annotationType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** @return whether the element and all elements which enclose it can be accessed from the package */
+	private boolean isAccessible(Element element, PackageElement pkg) {
+		final Elements elements = processingEnv.getElementUtils();
+		for (Element e = element; e != null && e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+			final Set<Modifier> modifiers = e.getModifiers();
+			if (modifiers.contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			if (!modifiers.contains(Modifier.PUBLIC) && !elements.getPackageOf(e).equals(pkg)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void write(String name, CharSequence source, Element origin) {
+		try (Writer writer = processingEnv.getFiler().createSourceFile(name, origin).openWriter()) {
+			writer.append(source);
+		} catch (IOException e) {
+			error(origin, "can't write " + name + ": " + e);
+		}
+	}
+
+	private void note(Element element, String reason) {
+		final Messager messager = processingEnv.getMessager();
+		messager.printMessage(Diagnostic.Kind.NOTE, "Wiring of " + element + " is not generated, " + reason + ", reflection will be used", element);
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,145 @@
+package com.darkyen.retinazer.processor;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentDomain;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.GeneratedWiring;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The processor runs on this file when the tests are compiled, so the generated classes are tested here. */
+public class RetinazerProcessorTest {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component {
+		public float x, y;
+	}
+
+	@ComponentDomain({Position.class, Velocity.class})
+	interface Game {}
+
+	public static class BaseService implements EngineService {
+		@Wire
+		Engine engine;
+	}
+
+	public static final class GeneratedService extends BaseService {
+		@Wire
+		Mapper<Position>  position;
+		@Wire
+		OtherService      other;
+		@Wire
+		List<BaseService> services;
+	}
+
+	public static final class OtherService implements EngineService {
+		@Wire
+		Mapper<Velocity> velocity;
+	}
+
+	public static final class ReflectiveService implements EngineService {
+		@Wire
+		private Mapper<Position> position;
+	}
+
+	/** Uses the wiring of its superclass */
+	public static final class InheritingService extends BaseService {
+	}
+
+	/** The protected engine field of the library is not accessible from here, so it is wired by reflection */
+	public static final class GeneratedSystem extends EntityProcessorSystem {
+		@Wire
+		Mapper<Position> position;
+		int processed;
+
+		public GeneratedSystem() {
+			super(GameComponents.SET.familyWith(Position.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			position.get(entity).x++;
+			processed++;
+		}
+	}
+
+	private static boolean hasGeneratedWiring(Class<?> type) {
+		try {
+			return GeneratedWiring.class.isAssignableFrom(Class.forName(type.getName() + "$$Wiring"));
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testWiring() {
+		assertTrue(hasGeneratedWiring(BaseService.class));
+		assertTrue(hasGeneratedWiring(GeneratedService.class));
+		assertTrue(hasGeneratedWiring(OtherService.class));
+		assertFalse(hasGeneratedWiring(ReflectiveService.class));
+		assertFalse(hasGeneratedWiring(InheritingService.class));
+
+		final GeneratedService generated = new GeneratedService();
+		final OtherService other = new OtherService();
+		final ReflectiveService reflective = new ReflectiveService();
+		final InheritingService inheriting = new InheritingService();
+		final Engine engine = new Engine(GameComponents.SET, generated, other, reflective, inheriting);
+
+		assertSame(engine, generated.engine);
+		assertSame(engine.getMapper(Position.class), generated.position);
+		assertSame(other, generated.other);
+		assertEquals(2, generated.services.size());
+		assertSame(generated, generated.services.get(0));
+		assertSame(inheriting, generated.services.get(1));
+		assertSame(engine.getMapper(Velocity.class), other.velocity);
+		assertSame(engine.getMapper(Position.class), reflective.position);
+		assertSame(engine, inheriting.engine);
+	}
+
+	@Test
+	public void testPartialWiring() throws ReflectiveOperationException {
+		final GeneratedWiring wiring = (GeneratedWiring) Class.forName(GeneratedSystem.class.getName() + "$$Wiring").getConstructor().newInstance();
+		assertArrayEquals(new Class<?>[]{com.darkyen.retinazer.EntitySystem.class}, wiring.getReflectivelyWiredClasses());
+
+		final GeneratedSystem system = new GeneratedSystem();
+		final Engine engine = new Engine(GameComponents.SET, system);
+		assertSame(engine.getMapper(Position.class), system.position);
+
+		final int entity = engine.createEntity();
+		system.position.create(entity);
+		engine.update();
+		assertEquals(1, system.processed);
+		assertEquals(1f, system.position.get(entity).x);
+	}
+
+	@Test
+	public void testComponentDomain() {
+		assertEquals(0, GameComponents.POSITION);
+		assertEquals(1, GameComponents.VELOCITY);
+
+		final Engine engine = new Engine(GameComponents.SET);
+		assertSame(engine.getMapper(Position.class), GameComponents.position(engine));
+		assertSame(engine.getMapper(Velocity.class), GameComponents.velocity(engine));
+	}
+
+	@Test
+	public void testConstantName() {
+		assertEquals("POSITION", RetinazerProcessor.constantName("Position"));
+		assertEquals("FLAG_COMPONENT_A", RetinazerProcessor.constantName("FlagComponentA"));
+		assertEquals("HTTP_REQUEST", RetinazerProcessor.constantName("HTTPRequest"));
+	}
+}
@@ -0,0 +1,221 @@
+package com.darkyen.retinazer.processor.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySystem;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the startup of an {@link Engine} with 30 systems, whose wiring is generated by the annotation processor,
+ * against the same systems wired by reflection, because their fields are private.
+ * Like real systems, they extend {@link EntitySystem}, whose protected engine field is wired by reflection in both cases.
+ * Each fork constructs the engine only once, so the benchmarks include loading the classes and building the wiring plans.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+@Measurement(iterations = 1)
+@Warmup(iterations = 0)
+@Fork(20)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class);
+
+	/** Fields are accessible from the package, so the wiring of subclasses is generated */
+	public static class GeneratedSystem extends EntityProcessorSystem {
+		@Wire
+		Mapper<Position> position;
+		@Wire
+		Mapper<Velocity> velocity;
+		@Wire
+		GS00             first;
+
+		public GeneratedSystem() {
+			super(DOMAIN.familyWith(Position.class, Velocity.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Position position = this.position.get(entity);
+			final Velocity velocity = this.velocity.get(entity);
+			position.x += velocity.x;
+			position.y += velocity.y;
+		}
+	}
+
+	/** Fields are private, so the subclasses are wired by reflection */
+	public static class ReflectiveSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Position> position;
+		@Wire
+		private Mapper<Velocity> velocity;
+		@Wire
+		private RS00             first;
+
+		public ReflectiveSystem() {
+			super(DOMAIN.familyWith(Position.class, Velocity.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Position position = this.position.get(entity);
+			final Velocity velocity = this.velocity.get(entity);
+			position.x += velocity.x;
+			position.y += velocity.y;
+		}
+	}
+
+	public static final class GS00 extends GeneratedSystem {}
+	public static final class GS01 extends GeneratedSystem {}
+	public static final class GS02 extends GeneratedSystem {}
+	public static final class GS03 extends GeneratedSystem {}
+	public static final class GS04 extends GeneratedSystem {}
+	public static final class GS05 extends GeneratedSystem {}
+	public static final class GS06 extends GeneratedSystem {}
+	public static final class GS07 extends GeneratedSystem {}
+	public static final class GS08 extends GeneratedSystem {}
+	public static final class GS09 extends GeneratedSystem {}
+	public static final class GS10 extends GeneratedSystem {}
+	public static final class GS11 extends GeneratedSystem {}
+	public static final class GS12 extends GeneratedSystem {}
+	public static final class GS13 extends GeneratedSystem {}
+	public static final class GS14 extends GeneratedSystem {}
+	public static final class GS15 extends GeneratedSystem {}
+	public static final class GS16 extends GeneratedSystem {}
+	public static final class GS17 extends GeneratedSystem {}
+	public static final class GS18 extends GeneratedSystem {}
+	public static final class GS19 extends GeneratedSystem {}
+	public static final class GS20 extends GeneratedSystem {}
+	public static final class GS21 extends GeneratedSystem {}
+	public static final class GS22 extends GeneratedSystem {}
+	public static final class GS23 extends GeneratedSystem {}
+	public static final class GS24 extends GeneratedSystem {}
+	public static final class GS25 extends GeneratedSystem {}
+	public static final class GS26 extends GeneratedSystem {}
+	public static final class GS27 extends GeneratedSystem {}
+	public static final class GS28 extends GeneratedSystem {}
+	public static final class GS29 extends GeneratedSystem {}
+
+	public static final class RS00 extends ReflectiveSystem {}
+	public static final class RS01 extends ReflectiveSystem {}
+	public static final class RS02 extends ReflectiveSystem {}
+	public static final class RS03 extends ReflectiveSystem {}
+	public static final class RS04 extends ReflectiveSystem {}
+	public static final class RS05 extends ReflectiveSystem {}
+	public static final class RS06 extends ReflectiveSystem {}
+	public static final class RS07 extends ReflectiveSystem {}
+	public static final class RS08 extends ReflectiveSystem {}
+	public static final class RS09 extends ReflectiveSystem {}
+	public static final class RS10 extends ReflectiveSystem {}
+	public static final class RS11 extends ReflectiveSystem {}
+	public static final class RS12 extends ReflectiveSystem {}
+	public static final class RS13 extends ReflectiveSystem {}
+	public static final class RS14 extends ReflectiveSystem {}
+	public static final class RS15 extends ReflectiveSystem {}
+	public static final class RS16 extends ReflectiveSystem {}
+	public static final class RS17 extends ReflectiveSystem {}
+	public static final class RS18 extends ReflectiveSystem {}
+	public static final class RS19 extends ReflectiveSystem {}
+	public static final class RS20 extends ReflectiveSystem {}
+	public static final class RS21 extends ReflectiveSystem {}
+	public static final class RS22 extends ReflectiveSystem {}
+	public static final class RS23 extends ReflectiveSystem {}
+	public static final class RS24 extends ReflectiveSystem {}
+	public static final class RS25 extends ReflectiveSystem {}
+	public static final class RS26 extends ReflectiveSystem {}
+	public static final class RS27 extends ReflectiveSystem {}
+	public static final class RS28 extends ReflectiveSystem {}
+	public static final class RS29 extends ReflectiveSystem {}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public Engine generated() {
+		return new Engine(DOMAIN,
+				new GS00(),
+				new GS01(),
+				new GS02(),
+				new GS03(),
+				new GS04(),
+				new GS05(),
+				new GS06(),
+				new GS07(),
+				new GS08(),
+				new GS09(),
+				new GS10(),
+				new GS11(),
+				new GS12(),
+				new GS13(),
+				new GS14(),
+				new GS15(),
+				new GS16(),
+				new GS17(),
+				new GS18(),
+				new GS19(),
+				new GS20(),
+				new GS21(),
+				new GS22(),
+				new GS23(),
+				new GS24(),
+				new GS25(),
+				new GS26(),
+				new GS27(),
+				new GS28(),
+				new GS29());
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public Engine reflective() {
+		return new Engine(DOMAIN,
+				new RS00(),
+				new RS01(),
+				new RS02(),
+				new RS03(),
+				new RS04(),
+				new RS05(),
+				new RS06(),
+				new RS07(),
+				new RS08(),
+				new RS09(),
+				new RS10(),
+				new RS11(),
+				new RS12(),
+				new RS13(),
+				new RS14(),
+				new RS15(),
+				new RS16(),
+				new RS17(),
+				new RS18(),
+				new RS19(),
+				new RS20(),
+				new RS21(),
+				new RS22(),
+				new RS23(),
+				new RS24(),
+				new RS25(),
+				new RS26(),
+				new RS27(),
+				new RS28(),
+				new RS29());
+	}
+}
@@ -0,0 +1,17 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link EngineService} which declares which components it accesses during its {@link #update()}.
+ * This allows {@link UpdateScheduler}s, such as {@link com.darkyen.retinazer.schedulers.ParallelUpdateScheduler},
+ * to run it concurrently with other services that access different components.
+ */
+public interface AccessDeclaringService extends EngineService {
+
+	/**
+	 * Declare the components which are accessed in {@link #update()}.
+	 * Called once, after {@link #initialize()}. The declaration must not change afterwards.
+	 */
+	void declareAccess(@NotNull ComponentAccess access);
+}
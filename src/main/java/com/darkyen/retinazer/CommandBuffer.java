@@ -0,0 +1,233 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Records structural changes (entity creation and destruction, component addition and removal)
+ * and changes of {@link Component.Tracked} components,
+ * which are applied to the {@link Engine} on its next {@link Engine#flush()}.
+ * <p>
+ * Each thread has its own buffer, obtained through {@link Engine#getCommandBuffer()},
+ * so recording is cheap and needs no synchronization. Buffers of threads which have terminated are discarded
+ * on the next {@link Engine#flush()}. This makes it possible to do structural changes
+ * from parallel code, for example from {@link com.darkyen.retinazer.systems.EntityParallelProcessorSystem}.
+ * Buffers must not be used concurrently with {@link Engine#flush()} (and thus {@link Engine#update()}
+ * outside of the running service), which is naturally the case when the parallel work is finished before
+ * the service returns.
+ * <p>
+ * Commands of all buffers are applied in a deterministic order, given by the {@link #setOrderGroup(int) order group}
+ * and the {@link #setOrderKey(int) order key}, which are recorded with each command. Commands with lower group
+ * are applied first, then commands with lower key, commands with the same group and key from the same buffer
+ * are applied in the order in which they were recorded. The order of commands with the same group and key
+ * from different buffers is not defined, so code which records from multiple threads must use different groups or keys.
+ * {@link com.darkyen.retinazer.schedulers.ParallelUpdateScheduler} sets the group to the index of the running service
+ * and {@link com.darkyen.retinazer.systems.EntityParallelProcessorSystem} sets the key to the processed entity
+ * (and passes the group of its service to the worker threads), so the commands are applied in the same order
+ * as if the services and entities were processed sequentially.
+ */
+public final class CommandBuffer {
+
+	private static final int CREATE_ENTITY    = 0;
+	private static final int DESTROY_ENTITY   = 1;
+	private static final int ADD_COMPONENT    = 2;
+	private static final int REMOVE_COMPONENT = 3;
+	private static final int MARK_CHANGED     = 4;
+
+	/** Amount of ints in {@link #commands} per command */
+	static final int COMMAND_SIZE = 6;
+
+	@NotNull
+	private final Engine engine;
+
+	/** Commands, each is: order group, order key, operation, entity (or placeholder), component type index, index into {@link #components} */
+	@NotNull
+	final IntArray      commands   = new IntArray();
+	/** Components of {@link #ADD_COMPONENT} commands, in the order of the commands */
+	@NotNull
+	final Array<Object> components = new Array<>();
+
+	private int orderGroup = 0;
+	private int orderKey = 0;
+	/** Amount of entities created through this buffer since the last flush */
+	private int createdEntities = 0;
+	/** Real IDs of entities created through this buffer, filled during the flush, -1 when not created yet */
+	@NotNull
+	private int[] createdEntityIds = new int[0];
+
+	CommandBuffer(@NotNull Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Set the group which will be recorded with the subsequent commands and which determines the order
+	 * in which they are applied, before the {@link #setOrderKey(int) order key}. See the class documentation.
+	 */
+	public void setOrderGroup(int orderGroup) {
+		this.orderGroup = orderGroup;
+	}
+
+	/** @return the current order group */
+	public int getOrderGroup() {
+		return orderGroup;
+	}
+
+	/**
+	 * Set the key which will be recorded with the subsequent commands and which determines the order
+	 * in which they are applied. See the class documentation.
+	 */
+	public void setOrderKey(int orderKey) {
+		this.orderKey = orderKey;
+	}
+
+	/** @return the current order key */
+	public int getOrderKey() {
+		return orderKey;
+	}
+
+	/** @return true if there are no commands in this buffer */
+	public boolean isEmpty() {
+		return commands.size == 0;
+	}
+
+	private void record(int operation, int entity, int componentIndex) {
+		final IntArray commands = this.commands;
+		commands.ensureCapacity(COMMAND_SIZE);
+		final int[] items = commands.items;
+		final int size = commands.size;
+		items[size] = orderGroup;
+		items[size + 1] = orderKey;
+		items[size + 2] = operation;
+		items[size + 3] = entity;
+		items[size + 4] = componentIndex;
+		items[size + 5] = components.size;
+		commands.size = size + COMMAND_SIZE;
+	}
+
+	/**
+	 * Record a creation of a new entity, like {@link Engine#createEntity()}.
+	 * The entity ID is assigned on flush, so this returns a negative placeholder,
+	 * which may be used in the commands of this buffer until the flush, but nowhere else.
+	 *
+	 * @return placeholder of the entity
+	 */
+	public int createEntity() {
+		final int placeholder = -1 - createdEntities++;
+		record(CREATE_ENTITY, placeholder, 0);
+		return placeholder;
+	}
+
+	/** Record a destruction of an entity, like {@link Engine#destroyEntity(int)}. */
+	public void destroyEntity(int entity) {
+		record(DESTROY_ENTITY, entity, 0);
+	}
+
+	/**
+	 * Record an addition of a component, like {@link Mapper#add(int, Component)}.
+	 * Adding a component which already exists will throw on flush.
+	 *
+	 * @param entity ID or a placeholder of the entity
+	 */
+	public <T extends Component> void add(int entity, @NotNull Mapper<T> mapper, @NotNull T component) {
+		record(ADD_COMPONENT, entity, mapper.index);
+		components.add(component);
+	}
+
+	/**
+	 * Record a creation of a component, like {@link Mapper#create(int)}.
+	 * The returned component can be initialized right away, but it is added to the entity only on flush.
+	 * The component is never taken from the pool of the mapper.
+	 *
+	 * @param entity ID or a placeholder of the entity
+	 * @return the new component
+	 */
+	@NotNull
+	public <T extends Component> T create(int entity, @NotNull Mapper<T> mapper) {
+		final T component = mapper.createComponentUnpooled();
+		add(entity, mapper, component);
+		return component;
+	}
+
+	/**
+	 * Record a removal of a component, like {@link Mapper#remove(int)}.
+	 *
+	 * @param entity ID or a placeholder of the entity
+	 */
+	public void remove(int entity, @NotNull Mapper<?> mapper) {
+		record(REMOVE_COMPONENT, entity, mapper.index);
+	}
+
+	/**
+	 * Record a change of a {@link Component.Tracked} component, like {@link Mapper#markChanged(int)},
+	 * which, unlike this, must not be called concurrently.
+	 *
+	 * @param entity ID or a placeholder of the entity
+	 * @throws UnsupportedOperationException if the component is not tracked
+	 */
+	public void markChanged(int entity, @NotNull Mapper<?> mapper) {
+		if (mapper.changedMask == null) {
+			throw new UnsupportedOperationException("Component " + mapper.type.getName() + " is not tracked");
+		}
+		record(MARK_CHANGED, entity, mapper.index);
+	}
+
+	/**
+	 * @return the real ID of the entity or placeholder.
+	 * Placeholder entities are created on first use, even when it happens before their creation command,
+	 * which is possible when the order key was lowered in between.
+	 */
+	private int resolve(int entity) {
+		if (entity >= 0) {
+			return entity;
+		}
+		final int created = -1 - entity;
+		int[] ids = this.createdEntityIds;
+		if (created >= ids.length) {
+			final int oldLength = ids.length;
+			this.createdEntityIds = ids = Arrays.copyOf(ids, Math.max(created + 1, Math.max(16, oldLength * 2)));
+			Arrays.fill(ids, oldLength, ids.length, -1);
+		}
+		int id = ids[created];
+		if (id == -1) {
+			ids[created] = id = engine.createEntity();
+		}
+		return id;
+	}
+
+	/** Apply a single command, whose ints start at given index of {@link #commands}. */
+	@SuppressWarnings("unchecked")
+	void apply(int commandIndex) {
+		final int[] commands = this.commands.items;
+		final int entity = commands[commandIndex + 3];
+		switch (commands[commandIndex + 2]) {
+			case CREATE_ENTITY:
+				resolve(entity);
+				break;
+			case DESTROY_ENTITY:
+				engine.destroyEntity(resolve(entity));
+				break;
+			case ADD_COMPONENT:
+				((Mapper<Component>) engine.componentMappers[commands[commandIndex + 4]]).add(resolve(entity), (Component) components.get(commands[commandIndex + 5]));
+				break;
+			case REMOVE_COMPONENT:
+				engine.componentMappers[commands[commandIndex + 4]].remove(resolve(entity));
+				break;
+			case MARK_CHANGED:
+				engine.componentMappers[commands[commandIndex + 4]].markChanged(resolve(entity));
+				break;
+			default:
+				throw new AssertionError();
+		}
+	}
+
+	/** Discard all recorded commands, after they have been applied. */
+	void clear() {
+		commands.clear();
+		components.clear();
+		Arrays.fill(createdEntityIds, 0, Math.min(createdEntities, createdEntityIds.length), -1);
+		createdEntities = 0;
+	}
+}
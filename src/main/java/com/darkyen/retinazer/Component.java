@@ -10,7 +10,86 @@ public interface Component {
 	 * They MUST have no-arg constructor.
 	 * <p>
 	 * Pooled components may additionally implement {@link com.badlogic.gdx.utils.Pool.Poolable} for resetting.
+	 * The pool can be configured by the {@link PoolConfig} annotation and accessed through {@link Mapper#getPool()}.
 	 */
 	interface Pooled extends Component {
 	}
+
+	/**
+	 * These components are not stored as objects, but each of their fields is stored in its own primitive column,
+	 * indexed by entity ID, see {@link ComponentColumns}. This allows systems to process the fields of many entities
+	 * by streaming over contiguous arrays.
+	 * <p>
+	 * The class only declares the layout, all its non-static fields must be of type
+	 * {@code byte}, {@code short}, {@code int}, {@code long}, {@code float} or {@code double}.
+	 * Use {@link Mapper#getColumns()} to access the fields. {@link Mapper#get(int)} does not work for such components,
+	 * {@link Mapper#add(int, Component)} copies the fields of the given instance into the columns.
+	 */
+	interface Columnar extends Component {
+	}
+
+	/**
+	 * {@link Columnar} components whose columns are stored outside of the Java heap, in direct buffers,
+	 * so that the garbage collector does not have to copy them around. Good for huge amounts of component data.
+	 * The memory is released by {@link Engine#dispose()}.
+	 */
+	interface OffHeapColumnar extends Columnar {
+	}
+
+	/**
+	 * These components are stored densely packed in a {@link PackedComponentStorage}, obtained through
+	 * {@link Mapper#getPackedStorage()}, instead of an array indexed directly by entity ID.
+	 * This saves memory and allows linear iteration, when only a small part of entities has the component.
+	 * The lookup by entity ID is a bit slower.
+	 * <p>
+	 * Can't be combined with {@link Columnar}.
+	 */
+	interface Packed extends Component {
+	}
+
+	/**
+	 * These components exist only on a handful of entities, possibly with very large IDs.
+	 * They are stored in a {@link HashComponentStorage} and their mask is a {@link com.darkyen.retinazer.util.CompressedMask},
+	 * so the memory is proportional to the amount of components and not to the largest entity ID.
+	 * The lookup by entity ID is slower.
+	 * <p>
+	 * Can't be combined with {@link Columnar} or {@link Packed}.
+	 */
+	interface Rare extends Component {
+	}
+
+	/**
+	 * These components carry no data, only their presence matters, so their {@link Mapper} keeps just the mask
+	 * of entities which have them. All entities share a single instance, the first one which was added or created.
+	 * The class must have a public no-arg constructor, so that the instance can be created for tags restored from the storage.
+	 * Tags can be added to and removed from whole entity sets at once,
+	 * see {@link Mapper#addAll(EntitySetView)} and {@link Mapper#removeAll(EntitySetView)}.
+	 * <p>
+	 * Can't be combined with {@link Columnar}, {@link Packed} or {@link Rare}.
+	 */
+	interface Tag extends Component {
+	}
+
+	/**
+	 * Values of the fields of these components are replicated by {@link ReplicationRecorder},
+	 * other components are replicated only by their presence.
+	 * All non-static, non-transient fields, including the inherited ones, must be primitive and there can be at most 64 of them.
+	 * {@link Columnar} replicated components must not inherit such fields, because their columns don't hold them.
+	 * Only fields whose values have changed since the last capture are sent.
+	 * <p>
+	 * Can be combined with any other kind of component.
+	 */
+	interface Replicated extends Component {
+	}
+
+	/**
+	 * Changes of these components are tracked: {@link Mapper#markChanged(int)} marks the component of an entity as changed
+	 * and adding the component counts as a change too. Families derived by {@link Family#changed(Class[])}
+	 * then contain only entities whose component has changed, so that reactive systems don't have to process the rest.
+	 * When the component is also {@link Replicated}, {@link ReplicationRecorder} compares the values only of marked entities.
+	 * <p>
+	 * Can be combined with any other kind of component.
+	 */
+	interface Tracked extends Component {
+	}
 }
@@ -0,0 +1,86 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.Mask;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Declaration of which components does an {@link AccessDeclaringService} access during its {@link EngineService#update()}.
+ * Used by {@link UpdateScheduler}s to decide which services can run concurrently.
+ */
+public final class ComponentAccess {
+
+	@NotNull
+	private final ComponentSet domain;
+	/** Indices of components which are read (but not written) */
+	@NotNull
+	final         Mask         reads  = new Mask();
+	/** Indices of components which are written (and possibly read) */
+	@NotNull
+	final         Mask         writes = new Mask();
+	/** Whether the service makes structural changes */
+	boolean structural = false;
+
+	public ComponentAccess(@NotNull ComponentSet domain) {
+		this.domain = domain;
+	}
+
+	/** Declare that the service reads the state of these components. */
+	@SafeVarargs
+	@NotNull
+	public final ComponentAccess reads(@NotNull Class<? extends Component>... components) {
+		for (Class<? extends Component> component : components) {
+			final int index = domain.index(component);
+			if (!writes.get(index)) {
+				reads.set(index);
+			}
+		}
+		return this;
+	}
+
+	/** Declare that the service modifies (and possibly reads) the state of these components. */
+	@SafeVarargs
+	@NotNull
+	public final ComponentAccess writes(@NotNull Class<? extends Component>... components) {
+		for (Class<? extends Component> component : components) {
+			final int index = domain.index(component);
+			reads.clear(index);
+			writes.set(index);
+		}
+		return this;
+	}
+
+	/**
+	 * Declare that the service makes structural changes - creates or destroys entities, adds or removes components.
+	 * When running concurrently with other services, these changes must be recorded through
+	 * {@link Engine#getCommandBuffer()}.
+	 */
+	@NotNull
+	public ComponentAccess structural() {
+		structural = true;
+		return this;
+	}
+
+	/** @return whether the service makes structural changes */
+	public boolean isStructural() {
+		return structural;
+	}
+
+	/** @return whether the service reads the component */
+	public boolean isRead(@NotNull Class<? extends Component> component) {
+		final int index = domain.index(component);
+		return reads.get(index) || writes.get(index);
+	}
+
+	/** @return whether the service writes the component */
+	public boolean isWritten(@NotNull Class<? extends Component> component) {
+		return writes.get(domain.index(component));
+	}
+
+	/**
+	 * @return whether the two services can't run concurrently,
+	 * because one of them writes a component which the other one reads or writes
+	 */
+	public boolean conflictsWith(@NotNull ComponentAccess other) {
+		return writes.intersects(other.writes) || writes.intersects(other.reads) || reads.intersects(other.writes);
+	}
+}
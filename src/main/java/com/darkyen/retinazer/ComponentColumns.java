@@ -0,0 +1,390 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.darkyen.retinazer.util.ByteBag;
+import com.darkyen.retinazer.util.DoubleBag;
+import com.darkyen.retinazer.util.FloatBag;
+import com.darkyen.retinazer.util.IntBag;
+import com.darkyen.retinazer.util.LongBag;
+import com.darkyen.retinazer.util.OffHeapByteBag;
+import com.darkyen.retinazer.util.OffHeapDoubleBag;
+import com.darkyen.retinazer.util.OffHeapFloatBag;
+import com.darkyen.retinazer.util.OffHeapIntBag;
+import com.darkyen.retinazer.util.OffHeapLongBag;
+import com.darkyen.retinazer.util.OffHeapShortBag;
+import com.darkyen.retinazer.util.ShortBag;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Storage of a {@link Component.Columnar} component, obtained through {@link Mapper#getColumns()}.
+ * Each field of the component is stored in its own primitive bag, indexed by entity ID.
+ * <p>
+ * Values of entities which do not have the component are undefined.
+ * When the component is added through {@link #add(int)}, all its fields are zero.
+ * <p>
+ * The bags can be accessed directly, which allows hot systems to stream over contiguous primitive arrays:
+ * <pre>{@code
+ * final Mask mask = getEntities().getMask();
+ * final int length = mask.length();
+ * final float[] x = xColumn.ensureCapacity(length);
+ * final float[] vx = vxColumn.ensureCapacity(length);
+ * for (int e = mask.nextSetBit(0); e != -1; e = mask.nextSetBit(e + 1)) {
+ *     x[e] += vx[e];
+ * }
+ * }</pre>
+ * The arrays are replaced when they grow, so they must be obtained again after any structural change.
+ * <p>
+ * Columns of {@link Component.OffHeapColumnar} components are stored outside of the Java heap,
+ * in off-heap bags obtained through the {@code getOffHeap*Column} methods.
+ * When the engine has a {@link MappedStorage}, they are mapped from its files.
+ */
+public final class ComponentColumns {
+
+	private static final int BYTE     = 0;
+	private static final int SHORT    = 1;
+	private static final int INT      = 2;
+	private static final int LONG     = 3;
+	private static final int FLOAT    = 4;
+	private static final int DOUBLE   = 5;
+	/** Added to the kind of off-heap columns */
+	private static final int OFF_HEAP = 6;
+
+	@NotNull
+	private final Mapper<?> mapper;
+	/** Fields of the component, in declaration order */
+	@NotNull
+	private final Field[]   fields;
+	/** Kind of each field ({@link #BYTE}, {@link #SHORT}, ..., plus {@link #OFF_HEAP} for off-heap columns) */
+	@NotNull
+	private final int[]     kinds;
+	/** Bag of each field, of the type given by its kind */
+	@NotNull
+	private final Object[]  columns;
+
+	ComponentColumns(@NotNull Mapper<?> mapper) {
+		this.mapper = mapper;
+		final ArrayList<Field> fields = new ArrayList<>();
+		for (Field field : mapper.type.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			field.setAccessible(true);
+			fields.add(field);
+		}
+
+		this.fields = fields.toArray(new Field[0]);
+		this.kinds = new int[this.fields.length];
+		this.columns = new Object[this.fields.length];
+		final boolean offHeap = Component.OffHeapColumnar.class.isAssignableFrom(mapper.type);
+		final MappedStorage storage = offHeap ? mapper.engine.storage : null;
+		for (int i = 0; i < this.fields.length; i++) {
+			final Class<?> type = this.fields[i].getType();
+			// Off-heap columns are mapped from the storage, if any
+			final Path file = storage != null ? storage.column(mapper.type, this.fields[i]) : null;
+			try {
+				if (type == byte.class) {
+					kinds[i] = BYTE;
+					columns[i] = !offHeap ? new ByteBag() : file != null ? new OffHeapByteBag(file) : new OffHeapByteBag();
+				} else if (type == short.class) {
+					kinds[i] = SHORT;
+					columns[i] = !offHeap ? new ShortBag() : file != null ? new OffHeapShortBag(file) : new OffHeapShortBag();
+				} else if (type == int.class) {
+					kinds[i] = INT;
+					columns[i] = !offHeap ? new IntBag() : file != null ? new OffHeapIntBag(file) : new OffHeapIntBag();
+				} else if (type == long.class) {
+					kinds[i] = LONG;
+					columns[i] = !offHeap ? new LongBag() : file != null ? new OffHeapLongBag(file) : new OffHeapLongBag();
+				} else if (type == float.class) {
+					kinds[i] = FLOAT;
+					columns[i] = !offHeap ? new FloatBag() : file != null ? new OffHeapFloatBag(file) : new OffHeapFloatBag();
+				} else if (type == double.class) {
+					kinds[i] = DOUBLE;
+					columns[i] = !offHeap ? new DoubleBag() : file != null ? new OffHeapDoubleBag(file) : new OffHeapDoubleBag();
+				} else {
+					throw new IllegalArgumentException("Columnar component " + mapper.type.getName() + " has field " + this.fields[i].getName() + " of unsupported type " + type.getName());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not map " + file, e);
+			}
+			if (offHeap) {
+				kinds[i] += OFF_HEAP;
+			}
+		}
+	}
+
+	/** @return the mapper of the component */
+	@NotNull
+	public Mapper<?> getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * Add the component to the entity, with all fields zero.
+	 * Like {@link Mapper#add(int, Component)}, this takes effect immediately, but notifications are delayed
+	 * until the next {@link Engine#flush()}.
+	 */
+	public void add(int entity) {
+		mapper.addToMask(entity);
+		clear(entity);
+	}
+
+	/** Set all fields of the entity to zero. */
+	void clear(int entity) {
+		final Object[] columns = this.columns;
+		final int[] kinds = this.kinds;
+		for (int i = 0; i < columns.length; i++) {
+			switch (kinds[i]) {
+				case BYTE: ((ByteBag) columns[i]).set(entity, (byte) 0); break;
+				case SHORT: ((ShortBag) columns[i]).set(entity, (short) 0); break;
+				case INT: ((IntBag) columns[i]).set(entity, 0); break;
+				case LONG: ((LongBag) columns[i]).set(entity, 0L); break;
+				case FLOAT: ((FloatBag) columns[i]).set(entity, 0f); break;
+				case DOUBLE: ((DoubleBag) columns[i]).set(entity, 0.0); break;
+				case OFF_HEAP + BYTE: ((OffHeapByteBag) columns[i]).set(entity, (byte) 0); break;
+				case OFF_HEAP + SHORT: ((OffHeapShortBag) columns[i]).set(entity, (short) 0); break;
+				case OFF_HEAP + INT: ((OffHeapIntBag) columns[i]).set(entity, 0); break;
+				case OFF_HEAP + LONG: ((OffHeapLongBag) columns[i]).set(entity, 0L); break;
+				case OFF_HEAP + FLOAT: ((OffHeapFloatBag) columns[i]).set(entity, 0f); break;
+				case OFF_HEAP + DOUBLE: ((OffHeapDoubleBag) columns[i]).set(entity, 0.0); break;
+				default: throw new AssertionError();
+			}
+		}
+	}
+
+	/** Copy the fields of the component instance into the columns of the entity. */
+	void copyFrom(int entity, @NotNull Object component) {
+		final Field[] fields = this.fields;
+		final Object[] columns = this.columns;
+		final int[] kinds = this.kinds;
+		try {
+			for (int i = 0; i < columns.length; i++) {
+				final Field field = fields[i];
+				switch (kinds[i]) {
+					case BYTE: ((ByteBag) columns[i]).set(entity, field.getByte(component)); break;
+					case SHORT: ((ShortBag) columns[i]).set(entity, field.getShort(component)); break;
+					case INT: ((IntBag) columns[i]).set(entity, field.getInt(component)); break;
+					case LONG: ((LongBag) columns[i]).set(entity, field.getLong(component)); break;
+					case FLOAT: ((FloatBag) columns[i]).set(entity, field.getFloat(component)); break;
+					case DOUBLE: ((DoubleBag) columns[i]).set(entity, field.getDouble(component)); break;
+					case OFF_HEAP + BYTE: ((OffHeapByteBag) columns[i]).set(entity, field.getByte(component)); break;
+					case OFF_HEAP + SHORT: ((OffHeapShortBag) columns[i]).set(entity, field.getShort(component)); break;
+					case OFF_HEAP + INT: ((OffHeapIntBag) columns[i]).set(entity, field.getInt(component)); break;
+					case OFF_HEAP + LONG: ((OffHeapLongBag) columns[i]).set(entity, field.getLong(component)); break;
+					case OFF_HEAP + FLOAT: ((OffHeapFloatBag) columns[i]).set(entity, field.getFloat(component)); break;
+					case OFF_HEAP + DOUBLE: ((OffHeapDoubleBag) columns[i]).set(entity, field.getDouble(component)); break;
+					default: throw new AssertionError();
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Could not read fields of " + mapper.type.getName(), e);
+		}
+	}
+
+	@NotNull
+	private Object column(@NotNull String field, int kind) {
+		final Field[] fields = this.fields;
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getName().equals(field)) {
+				if (kinds[i] % OFF_HEAP != kind % OFF_HEAP) {
+					throw new IllegalArgumentException("Field " + field + " of " + mapper.type.getName() + " is of type " + fields[i].getType().getName());
+				}
+				if (kinds[i] != kind) {
+					throw new UnsupportedOperationException("Columns of " + mapper.type.getName() + (kind >= OFF_HEAP ? " are not off-heap" : " are off-heap"));
+				}
+				return columns[i];
+			}
+		}
+		throw new IllegalArgumentException("Component " + mapper.type.getName() + " has no field " + field);
+	}
+
+	/**
+	 * @return column of the {@code byte} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public ByteBag getByteColumn(@NotNull String field) {
+		return (ByteBag) column(field, BYTE);
+	}
+
+	/**
+	 * @return column of the {@code short} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public ShortBag getShortColumn(@NotNull String field) {
+		return (ShortBag) column(field, SHORT);
+	}
+
+	/**
+	 * @return column of the {@code int} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public IntBag getIntColumn(@NotNull String field) {
+		return (IntBag) column(field, INT);
+	}
+
+	/**
+	 * @return column of the {@code long} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public LongBag getLongColumn(@NotNull String field) {
+		return (LongBag) column(field, LONG);
+	}
+
+	/**
+	 * @return column of the {@code float} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public FloatBag getFloatColumn(@NotNull String field) {
+		return (FloatBag) column(field, FLOAT);
+	}
+
+	/**
+	 * @return column of the {@code double} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are off-heap
+	 */
+	@NotNull
+	public DoubleBag getDoubleColumn(@NotNull String field) {
+		return (DoubleBag) column(field, DOUBLE);
+	}
+
+	/**
+	 * @return off-heap column of the {@code byte} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapByteBag getOffHeapByteColumn(@NotNull String field) {
+		return (OffHeapByteBag) column(field, OFF_HEAP + BYTE);
+	}
+
+	/**
+	 * @return off-heap column of the {@code short} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapShortBag getOffHeapShortColumn(@NotNull String field) {
+		return (OffHeapShortBag) column(field, OFF_HEAP + SHORT);
+	}
+
+	/**
+	 * @return off-heap column of the {@code int} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapIntBag getOffHeapIntColumn(@NotNull String field) {
+		return (OffHeapIntBag) column(field, OFF_HEAP + INT);
+	}
+
+	/**
+	 * @return off-heap column of the {@code long} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapLongBag getOffHeapLongColumn(@NotNull String field) {
+		return (OffHeapLongBag) column(field, OFF_HEAP + LONG);
+	}
+
+	/**
+	 * @return off-heap column of the {@code float} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapFloatBag getOffHeapFloatColumn(@NotNull String field) {
+		return (OffHeapFloatBag) column(field, OFF_HEAP + FLOAT);
+	}
+
+	/**
+	 * @return off-heap column of the {@code double} field with given name
+	 * @throws IllegalArgumentException if there is no such field or it is of a different type
+	 * @throws UnsupportedOperationException if the columns are not off-heap
+	 */
+	@NotNull
+	public OffHeapDoubleBag getOffHeapDoubleColumn(@NotNull String field) {
+		return (OffHeapDoubleBag) column(field, OFF_HEAP + DOUBLE);
+	}
+
+	/** @return fields of the component, in the order of the columns - do not modify! */
+	@NotNull
+	Field[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return raw bits of the value of the field with given index for the entity, as given by
+	 * {@link Float#floatToRawIntBits(float)} and {@link Double#doubleToRawLongBits(double)} for floating point fields
+	 */
+	long getBits(int field, int entity) {
+		final Object column = columns[field];
+		switch (kinds[field]) {
+			case BYTE: return ((ByteBag) column).get(entity);
+			case SHORT: return ((ShortBag) column).get(entity);
+			case INT: return ((IntBag) column).get(entity);
+			case LONG: return ((LongBag) column).get(entity);
+			case FLOAT: return Float.floatToRawIntBits(((FloatBag) column).get(entity));
+			case DOUBLE: return Double.doubleToRawLongBits(((DoubleBag) column).get(entity));
+			case OFF_HEAP + BYTE: return ((OffHeapByteBag) column).get(entity);
+			case OFF_HEAP + SHORT: return ((OffHeapShortBag) column).get(entity);
+			case OFF_HEAP + INT: return ((OffHeapIntBag) column).get(entity);
+			case OFF_HEAP + LONG: return ((OffHeapLongBag) column).get(entity);
+			case OFF_HEAP + FLOAT: return Float.floatToRawIntBits(((OffHeapFloatBag) column).get(entity));
+			case OFF_HEAP + DOUBLE: return Double.doubleToRawLongBits(((OffHeapDoubleBag) column).get(entity));
+			default: throw new AssertionError();
+		}
+	}
+
+	/** Set the value of the field with given index for the entity from raw bits, see {@link #getBits(int, int)}. */
+	void setBits(int field, int entity, long bits) {
+		final Object column = columns[field];
+		switch (kinds[field]) {
+			case BYTE: ((ByteBag) column).set(entity, (byte) bits); break;
+			case SHORT: ((ShortBag) column).set(entity, (short) bits); break;
+			case INT: ((IntBag) column).set(entity, (int) bits); break;
+			case LONG: ((LongBag) column).set(entity, bits); break;
+			case FLOAT: ((FloatBag) column).set(entity, Float.intBitsToFloat((int) bits)); break;
+			case DOUBLE: ((DoubleBag) column).set(entity, Double.longBitsToDouble(bits)); break;
+			case OFF_HEAP + BYTE: ((OffHeapByteBag) column).set(entity, (byte) bits); break;
+			case OFF_HEAP + SHORT: ((OffHeapShortBag) column).set(entity, (short) bits); break;
+			case OFF_HEAP + INT: ((OffHeapIntBag) column).set(entity, (int) bits); break;
+			case OFF_HEAP + LONG: ((OffHeapLongBag) column).set(entity, bits); break;
+			case OFF_HEAP + FLOAT: ((OffHeapFloatBag) column).set(entity, Float.intBitsToFloat((int) bits)); break;
+			case OFF_HEAP + DOUBLE: ((OffHeapDoubleBag) column).set(entity, Double.longBitsToDouble(bits)); break;
+			default: throw new AssertionError();
+		}
+	}
+
+	/** Release the memory of off-heap columns. */
+	void dispose() {
+		for (Object column : columns) {
+			if (column instanceof Disposable) {
+				((Disposable) column).dispose();
+			}
+		}
+	}
+
+	@NotNull
+	@Override
+	public String toString() {
+		return mapper.type.getSimpleName() + " Columns";
+	}
+}
@@ -0,0 +1,28 @@
+package com.darkyen.retinazer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a {@link ComponentSet} at compile time. The annotation processor of the {@code retinazer-processor} module
+ * generates a class named after the annotated type with a {@code Components} suffix, which holds the
+ * {@link ComponentSet} as {@code SET}, a constant index of each component and a method
+ * which retrieves its {@link Mapper} from an {@link Engine} by that index, without any hashing.
+ * <pre>{@code
+ * @ComponentDomain({Position.class, Velocity.class})
+ * interface Game {}
+ *
+ * Engine engine = new Engine(GameComponents.SET);
+ * Mapper<Position> position = GameComponents.position(engine); // engine.getMappers()[GameComponents.POSITION]
+ * }</pre>
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.CLASS)
+@Documented
+public @interface ComponentDomain {
+	/** Components of the set, in the order of their indices. */
+	Class<? extends Component>[] value();
+}
@@ -0,0 +1,110 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.Pool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * Pool of {@link Component.Pooled} components of one type, obtained through {@link Mapper#getPool()}.
+ * Configured by the {@link PoolConfig} annotation of the component type.
+ * <p>
+ * Can be prewarmed before a burst of component creation, to avoid allocation spikes, see {@link #prewarm(int)},
+ * and trimmed afterwards, to not retain the peak amount of components forever, see {@link #trim()}.
+ * Counts its operations, so that the configuration can be tuned.
+ */
+public final class ComponentPool<T extends Component> extends Pool<T> {
+
+	@NotNull
+	private final Supplier<T> factory;
+	/** Amount of free components retained by {@link #trim()} */
+	private final int         trimTo;
+
+	private long obtained  = 0;
+	private long freed     = 0;
+	private long misses    = 0;
+	private long discarded = 0;
+
+	ComponentPool(@NotNull Supplier<T> factory, @Nullable PoolConfig config) {
+		super(config == null ? 16 : Math.max(Math.min(config.initial(), config.max()), 16), config == null ? Integer.MAX_VALUE : config.max());
+		this.factory = factory;
+		this.trimTo = config == null ? 0 : config.trimTo();
+		if (config != null && config.initial() > 0) {
+			fill(Math.min(config.initial(), config.max()));
+		}
+	}
+
+	@Override
+	protected T newObject() {
+		return factory.get();
+	}
+
+	@Override
+	public T obtain() {
+		obtained++;
+		if (getFree() == 0) {
+			misses++;
+		}
+		return super.obtain();
+	}
+
+	@Override
+	public void free(T object) {
+		freed++;
+		if (getFree() >= max) {
+			discarded++;
+		}
+		super.free(object);
+	}
+
+	/** Create new free components, so that there are at least the given amount of them, but at most {@link #max}. */
+	public void prewarm(int free) {
+		final int missing = Math.min(free, max) - getFree();
+		if (missing > 0) {
+			fill(missing);
+		}
+	}
+
+	/** Discard free components, so that at most {@link PoolConfig#trimTo()} of them remain. */
+	public void trim() {
+		trim(trimTo);
+	}
+
+	/** Discard free components, so that at most the given amount of them remains. */
+	public void trim(int free) {
+		while (getFree() > free) {
+			// Does not count as an obtain, the component is left to the garbage collector
+			super.obtain();
+			discarded++;
+		}
+	}
+
+	/** @return how many times was a component obtained from the pool */
+	public long getObtained() {
+		return obtained;
+	}
+
+	/** @return how many times was a component returned to the pool, including the discarded ones */
+	public long getFreed() {
+		return freed;
+	}
+
+	/** @return how many times was a component obtained from the pool when it had no free component, so a new one was created */
+	public long getMisses() {
+		return misses;
+	}
+
+	/** @return how many components were discarded, because the pool was full or trimmed */
+	public long getDiscarded() {
+		return discarded;
+	}
+
+	/** Set all counters to zero. */
+	public void resetCounters() {
+		obtained = 0;
+		freed = 0;
+		misses = 0;
+		discarded = 0;
+	}
+}
@@ -0,0 +1,34 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Alternative storage of components of a single type, which {@link Mapper} uses instead of
+ * the default {@link com.darkyen.retinazer.util.Bag} indexed directly by entity ID.
+ * The storage is chosen by the component type, see {@link Component.Packed}.
+ * <p>
+ * {@link Mapper} keeps track of which entities have the component, the storage only holds the instances.
+ * Components are added immediately, but removed only on {@link Engine#flush()}, like the bits of their mask.
+ *
+ * @param <T> the component type
+ */
+public abstract class ComponentStorage<T extends Component> {
+
+	ComponentStorage() {
+	}
+
+	/** @return the component of the entity or null if it does not have any */
+	@Nullable
+	abstract T get(int entity);
+
+	/** Store the component of the entity, which does not have any yet. */
+	abstract void put(int entity, @NotNull T component);
+
+	/** Remove the component of the entity, which has one, and return it. */
+	@NotNull
+	abstract T remove(int entity);
+
+	/** @return amount of stored components */
+	public abstract int size();
+}
@@ -0,0 +1,163 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Byte buffer of replication deltas, see {@link ReplicationRecorder}, which is written and read sequentially.
+ * Integers are written as variable length integers, 7 bits per byte, lowest bits first.
+ * Lists of entities are written in ascending order, each as the difference from the previous entity
+ * (the first one from -1), terminated by 0.
+ */
+final class DeltaBuffer {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	@NotNull
+	byte[] data = EMPTY;
+	/** Position of the next written or read byte */
+	int position = 0;
+	/** When reading, the position after the last byte */
+	private int limit = 0;
+	/** The last written or read entity of the current list */
+	private int lastEntity = -1;
+
+	/** Start writing from the beginning, over the previous content. */
+	void clearForWriting() {
+		position = 0;
+	}
+
+	/** Start reading the given bytes, without copying them. */
+	void startReading(@NotNull byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException("Range " + offset + " + " + length + " out of " + data.length);
+		}
+		this.data = data;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/** Stop reading, so that the read bytes are not referenced anymore. */
+	void finishReading() {
+		data = EMPTY;
+		position = 0;
+		limit = 0;
+	}
+
+	/** @return whether all bytes have been read */
+	boolean isFullyRead() {
+		return position == limit;
+	}
+
+	private byte[] ensureCapacity(int bytes) {
+		final byte[] data = this.data;
+		if (position + bytes <= data.length) {
+			return data;
+		}
+		return this.data = Arrays.copyOf(data, Math.max(position + bytes, data.length * 2));
+	}
+
+	void writeByte(int value) {
+		ensureCapacity(1)[position++] = (byte) value;
+	}
+
+	void writeVarLong(long value) {
+		final byte[] data = ensureCapacity(10);
+		int position = this.position;
+		while ((value & ~0x7FL) != 0L) {
+			data[position++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		data[position++] = (byte) value;
+		this.position = position;
+	}
+
+	/** Write the value so that small negative values are short too. */
+	void writeZigZag(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/** Write the lowest bytes of the value as they are, lowest first. */
+	void writeFixed(long value, int bytes) {
+		final byte[] data = ensureCapacity(bytes);
+		int position = this.position;
+		for (int i = 0; i < bytes; i++) {
+			data[position++] = (byte) value;
+			value >>>= 8;
+		}
+		this.position = position;
+	}
+
+	/** Start writing a list of entities. */
+	void startList() {
+		lastEntity = -1;
+	}
+
+	/** Write the next entity of the list, which must be larger than the previous one. */
+	void writeEntity(int entity) {
+		writeVarLong(entity - lastEntity);
+		lastEntity = entity;
+	}
+
+	/** Terminate the list of entities. */
+	void endList() {
+		writeByte(0);
+	}
+
+	byte readByte() {
+		if (position >= limit) {
+			throw new IllegalArgumentException("Delta is truncated");
+		}
+		return data[position++];
+	}
+
+	long readVarLong() {
+		long result = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Delta is malformed");
+	}
+
+	int readVarInt() {
+		final long value = readVarLong();
+		if (value < 0L || value > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Delta is malformed");
+		}
+		return (int) value;
+	}
+
+	long readZigZag() {
+		final long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1L);
+	}
+
+	long readFixed(int bytes) {
+		long value = 0L;
+		for (int i = 0; i < bytes; i++) {
+			value |= (readByte() & 0xFFL) << (i * 8);
+		}
+		return value;
+	}
+
+	/**
+	 * Read the next entity of the list, started by {@link #startList()}.
+	 * @return the entity, or -1 if the list has ended
+	 */
+	int readEntity() {
+		final int difference = readVarInt();
+		if (difference == 0) {
+			return -1;
+		}
+		final int entity = lastEntity + difference;
+		if (entity < 0) {
+			throw new IllegalArgumentException("Delta is malformed");
+		}
+		return lastEntity = entity;
+	}
+}
@@ -1,7 +1,10 @@
 package com.darkyen.retinazer;
 
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.darkyen.retinazer.util.Mask;
+import com.darkyen.retinazer.util.OffHeapMask;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -10,61 +13,188 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Engine is the core class of retinazer; it manages all active entities,
  * performs system processing and initialization.
  */
-public final class Engine {
+public final class Engine implements Disposable {
 
 	private final EngineService[]                                          services;
 	private final ObjectMap<Class<? extends EngineService>, EngineService> servicesByType = new ObjectMap<>();
 
+	/** Creates all entity masks of this engine. */
+	@NotNull
+	private final Supplier<@NotNull Mask> maskFactory;
+	/** Masks created by {@link #maskFactory} which hold off-heap memory, released in {@link #dispose()} */
+	@NotNull
+	private final ArrayList<Disposable>   disposableMasks = new ArrayList<>();
+	/** Holds the persistent masks and columns, null if the engine is not persistent */
+	@Nullable
+	final         MappedStorage         storage;
+
 	/** Entities that currently exist. */
 	@NotNull
-	final         Mask entities                    = new Mask();
+	final         Mask entities;
 	/** Subset of {@link #entities} - entities that will be removed on next {@link #flush()}. */
-	private final Mask entitiesScheduledForRemoval = new Mask();
+	private final Mask entitiesScheduledForRemoval;
 
 	/**
 	 * Entities which exist currently or did in the last update cycle.
 	 * Used to prevent reusing entity IDs too soon.
 	 */
-	private final Mask shadowEntities            = new Mask();
+	private final Mask shadowEntities;
 	/** Subset of {@link #shadowEntities} - entities that were removed (or were scheduled to be removed) this update cycle. */
-	private       Mask entitiesRemovedThisUpdate = new Mask();
+	private       Mask entitiesRemovedThisUpdate;
 	/**
 	 * {@link #entitiesRemovedThisUpdate} from the last update cycle.
 	 * These entity IDs will become available for allocation again after the end of this update cycle.
 	 */
-	private       Mask entitiesRemovedLastUpdate = new Mask();
+	private       Mask entitiesRemovedLastUpdate;
+	/**
+	 * All entity IDs below this are taken in {@link #shadowEntities}, so the search for a free ID can start here.
+	 * Moves back only when the IDs are freed at the end of {@link #update()}.
+	 */
+	private       int  freeEntityHint = 0;
 
 	public final  ComponentSet  componentDomain;
 	@NotNull
 	final         Mapper<?>[]   componentMappers;
 	private final FamilyManager familyManager;
 	private final WireManager   wireManager;
+	/** Runs the services in {@link #update()}, null for the default sequential behavior */
+	@Nullable
+	private final UpdateScheduler updateScheduler;
+	/** Captures the changes of this engine, null if there is none */
+	@Nullable
+	private final ReplicationRecorder replicationRecorder;
 
 	/** Tracks whether any components or entities have been modified; reset at every call to flush() */
 	boolean dirty  = false;
+	/** Tracks whether {@link #entities} have been modified; reset at every call to flush() */
+	boolean entitiesDirty = false;
+	/** Indices of components whose {@link Mapper#componentsMask} has been modified; reset at every call to flush() */
+	@NotNull
+	final Mask dirtyComponents = new Mask();
+	/** Indices of components whose {@link Mapper#changedMask} has been modified; reset at every call to flush() */
+	@NotNull
+	final Mask changedComponents = new Mask();
+	/**
+	 * Indices of {@link Mask} words (entity ID / 64) which contain entities whose existence or components
+	 * have been modified; reset at every call to flush(). Flush does not need to look at any other words.
+	 */
+	@NotNull
+	private final Mask     dirtyWords       = new Mask();
+	/** Decoded {@link #dirtyWords}, used during flush() */
+	@NotNull
+	private final IntArray dirtyWordIndices = new IntArray();
 	/** Tracks whether this engine is within a call to update() */
 	boolean update = false;
 
+	/**
+	 * Command buffers of the threads which have asked for one since they were last pruned, see {@link #getCommandBuffer()}.
+	 * Owned by the engine, unlike a {@link ThreadLocal}, so that neither the buffers of terminated threads,
+	 * nor discarded engines are kept alive by long-lived pool threads.
+	 */
+	@NotNull
+	final ConcurrentHashMap<Thread, CommandBuffer> commandBuffers = new ConcurrentHashMap<>();
+	/** Sort keys of the commands, as (order group, order key), used in {@link #applyCommandBuffers()} */
+	@NotNull
+	private long[]          commandOrder       = new long[0];
+	/** Sequence numbers of the commands, sorted along {@link #commandOrder}, used in {@link #applyCommandBuffers()} */
+	@NotNull
+	private int[]           commandSequence    = new int[0];
+	/** Buffers of the commands, by the sequence number, used in {@link #applyCommandBuffers()} */
+	@NotNull
+	private CommandBuffer[] commandSources     = new CommandBuffer[0];
+	/** Offsets of the commands in their buffers, by the sequence number, used in {@link #applyCommandBuffers()} */
+	@NotNull
+	private int[]           commandOffsets     = new int[0];
+	/** Scratch space of {@link #sortCommands(long[], int[], int)} */
+	@NotNull
+	private long[]          commandOrderTmp    = new long[0];
+	@NotNull
+	private int[]           commandSequenceTmp = new int[0];
+
 	/**
 	 * Creates a new {@link Engine} based on the specified configuration.
 	 *
 	 * @param domain set of components that this engine operates over
 	 * @param services of this engine. Services implementing {@link WireResolver} will
-	 * 		be used as wire resolvers. Order is significant.
+	 * 		be used as wire resolvers, service implementing {@link UpdateScheduler} will run the services
+	 * 		in {@link #update()}, {@link ReplicationRecorder} will capture the changes. Order is significant.
 	 */
 	public Engine(@NotNull ComponentSet domain, @NotNull EngineService... services) {
+		this(domain, Mask::new, services);
+	}
+
+	/**
+	 * Creates a new {@link Engine} based on the specified configuration.
+	 *
+	 * @param domain set of components that this engine operates over
+	 * @param maskFactory creates the masks which hold entity IDs - of all entities, of {@link Mapper} components
+	 * 		and of {@link EntitySetView}s returned by {@link #getEntities(Family)}.
+	 * 		For example {@link com.darkyen.retinazer.util.HierarchicalMask} is a good choice for sparse entity IDs.
+	 * @param services of this engine. Services implementing {@link WireResolver} will
+	 * 		be used as wire resolvers, service implementing {@link UpdateScheduler} will run the services
+	 * 		in {@link #update()}, {@link ReplicationRecorder} will capture the changes. Order is significant.
+	 */
+	public Engine(@NotNull ComponentSet domain, @NotNull Supplier<@NotNull Mask> maskFactory, @NotNull EngineService... services) {
+		this(domain, maskFactory, null, services);
+	}
+
+	/**
+	 * Creates a new {@link Engine} based on the specified configuration,
+	 * whose entities and some components are persisted in the storage, see {@link MappedStorage}.
+	 * If the storage holds entities and components of a previous engine, they are restored.
+	 *
+	 * @param domain set of components that this engine operates over
+	 * @param maskFactory creates the masks which hold entity IDs and are not persisted
+	 * @param storage to persist the engine in, null to not persist it. Can't be used by multiple engines.
+	 * @param services of this engine. Services implementing {@link WireResolver} will
+	 * 		be used as wire resolvers, service implementing {@link UpdateScheduler} will run the services
+	 * 		in {@link #update()}, {@link ReplicationRecorder} will capture the changes. Order is significant.
+	 * @see #Engine(ComponentSet, Supplier, EngineService...)
+	 */
+	public Engine(@NotNull ComponentSet domain, @NotNull Supplier<@NotNull Mask> maskFactory, @Nullable MappedStorage storage, @NotNull EngineService... services) {
+		if (storage != null) {
+			if (storage.used) {
+				throw new IllegalArgumentException("Storage " + storage.getDirectory() + " is already used by another engine");
+			}
+			storage.used = true;
+		}
+		this.maskFactory = maskFactory;
+		this.storage = storage;
+		this.entities = newStoredMask("entities");
+		this.entitiesScheduledForRemoval = newMask();
+		this.shadowEntities = newMask();
+		// Restored entities
+		this.shadowEntities.set(entities);
+		this.entitiesRemovedThisUpdate = newMask();
+		this.entitiesRemovedLastUpdate = newMask();
+
 		final ArrayList<WireResolver> wireResolvers = new ArrayList<>();
-		wireResolvers.add(new DefaultWireResolver(this));
+		UpdateScheduler updateScheduler = null;
+		ReplicationRecorder replicationRecorder = null;
 
 		for (EngineService service : services) {
 			if (service instanceof WireResolver) {
 				wireResolvers.add((WireResolver) service);
 			}
+			if (service instanceof UpdateScheduler) {
+				if (updateScheduler != null) {
+					throw new IllegalArgumentException("Only one UpdateScheduler is allowed, but got " + updateScheduler + " and " + service);
+				}
+				updateScheduler = (UpdateScheduler) service;
+			}
+			if (service instanceof ReplicationRecorder) {
+				if (replicationRecorder != null) {
+					throw new IllegalArgumentException("Only one ReplicationRecorder is allowed");
+				}
+				replicationRecorder = (ReplicationRecorder) service;
+			}
 			final EngineService previous = servicesByType.put(service.getClass(), service);
 			if (previous != null) {
 				throw new IllegalArgumentException("Types of services must be unique and " + previous + " is duplicated by " + service);
@@ -75,7 +205,9 @@ public final class Engine {
 		this.componentMappers = domain.buildComponentMappers(this);
 		this.services = services;
 		this.familyManager = new FamilyManager(this);
-		this.wireManager = new WireManager(wireResolvers);
+		this.wireManager = new WireManager(this, wireResolvers);
+		this.updateScheduler = updateScheduler;
+		this.replicationRecorder = replicationRecorder;
 
 		for (EngineService service : services)
 			wire(service);
@@ -83,7 +215,6 @@ public final class Engine {
 		for (EngineService service : services)
 			service.initialize();
 
-		this.wireManager.flushCache();
 		flush();
 	}
 
@@ -101,15 +232,24 @@ public final class Engine {
 
 		flush();
 
-		for (EngineService service : services) {
-			service.update();
-			flush();
+		final UpdateScheduler updateScheduler = this.updateScheduler;
+		if (updateScheduler != null) {
+			updateScheduler.updateServices(services);
+		} else {
+			for (EngineService service : services) {
+				service.update();
+				flush();
+			}
 		}
 
 		// Update shadow entities
 		final Mask entitiesRemovedLastUpdate = this.entitiesRemovedLastUpdate;
 		final Mask entitiesRemovedThisUpdate = this.entitiesRemovedThisUpdate;
 		// Allow the entity IDs to be used again
+		final int firstFreed = entitiesRemovedLastUpdate.nextSetBit(0);
+		if (firstFreed != -1 && firstFreed < freeEntityHint) {
+			freeEntityHint = firstFreed;
+		}
 		shadowEntities.andNot(entitiesRemovedLastUpdate);
 		entitiesRemovedLastUpdate.clear();
 		// Swap the masks
@@ -120,19 +260,246 @@ public final class Engine {
 	}
 
 	public void flush() {
+		applyCommandBuffers();
+
 		if (dirty) {
 			dirty = false;
 
-			entities.andNot(entitiesScheduledForRemoval);
+			final IntArray dirtyWordIndices = this.dirtyWordIndices;
+			dirtyWords.getIndices(dirtyWordIndices);
+			final int[] dirtyWords = dirtyWordIndices.items;
+			final int dirtyWordCount = dirtyWordIndices.size;
+
+			final Mask entities = this.entities;
+			final Mask entitiesScheduledForRemoval = this.entitiesScheduledForRemoval;
+			for (int i = 0; i < dirtyWordCount; i++) {
+				final int word = dirtyWords[i];
+				final long removed = entitiesScheduledForRemoval.getWord(word);
+				if (removed != 0L) {
+					entities.setWord(word, entities.getWord(word) & ~removed);
+					entitiesDirty = true;
+				}
+			}
+
 			for (Mapper<?> mapper : componentMappers) {
-				mapper.removeScheduled(entitiesScheduledForRemoval);
+				mapper.removeScheduled(entitiesScheduledForRemoval, dirtyWordIndices);
+			}
+
+			for (int i = 0; i < dirtyWordCount; i++) {
+				final int word = dirtyWords[i];
+				if (entitiesScheduledForRemoval.getWord(word) != 0L) {
+					entitiesScheduledForRemoval.setWord(word, 0L);
+				}
 			}
-			entitiesScheduledForRemoval.clear();
 
-			familyManager.updateFamilyMembership();
+			// Only families which depend on something that has changed are recomputed
+			familyManager.updateFamilyMembership(dirtyComponents, changedComponents, entitiesDirty, dirtyWordIndices);
+			dirtyComponents.clear();
+			final ReplicationRecorder replicationRecorder = this.replicationRecorder;
+			final Mask changedComponents = this.changedComponents;
+			for (int c = changedComponents.nextSetBit(0); c != -1; c = changedComponents.nextSetBit(c + 1)) {
+				if (replicationRecorder != null) {
+					replicationRecorder.recordChanges(componentMappers[c], dirtyWordIndices);
+				}
+				componentMappers[c].clearChanges(dirtyWordIndices);
+			}
+			changedComponents.clear();
+			entitiesDirty = false;
+			if (replicationRecorder != null) {
+				replicationRecorder.changedWords.or(this.dirtyWords);
+			}
+			this.dirtyWords.clear();
+			dirtyWordIndices.clear();
 		}
 	}
 
+	/**
+	 * Returns the {@link CommandBuffer} of the calling thread, which can be used to record structural changes
+	 * from any thread. Recorded changes are applied on the next {@link #flush()}.
+	 */
+	@NotNull
+	public CommandBuffer getCommandBuffer() {
+		final Thread thread = Thread.currentThread();
+		final CommandBuffer buffer = commandBuffers.get(thread);
+		if (buffer != null) {
+			return buffer;
+		}
+		return commandBuffers.computeIfAbsent(thread, t -> new CommandBuffer(this));
+	}
+
+	/** Apply commands of all {@link CommandBuffer}s, ordered by their order groups and keys. */
+	private void applyCommandBuffers() {
+		final ConcurrentHashMap<Thread, CommandBuffer> commandBuffers = this.commandBuffers;
+		if (commandBuffers.isEmpty()) {
+			return;
+		}
+
+		int commandCount = 0;
+		for (CommandBuffer buffer : commandBuffers.values()) {
+			commandCount += buffer.commands.size / CommandBuffer.COMMAND_SIZE;
+		}
+		if (commandCount == 0) {
+			pruneCommandBuffers();
+			return;
+		}
+
+		if (commandOrder.length < commandCount) {
+			final int capacity = Math.max(commandCount, commandOrder.length * 2);
+			commandOrder = new long[capacity];
+			commandSequence = new int[capacity];
+			commandSources = new CommandBuffer[capacity];
+			commandOffsets = new int[capacity];
+		}
+		final long[] commandOrder = this.commandOrder;
+		final int[] commandSequence = this.commandSequence;
+		final CommandBuffer[] commandSources = this.commandSources;
+		final int[] commandOffsets = this.commandOffsets;
+
+		int sequence = 0;
+		boolean sorted = true;
+		for (CommandBuffer buffer : commandBuffers.values()) {
+			final int[] commands = buffer.commands.items;
+			for (int offset = 0, size = buffer.commands.size; offset < size; offset += CommandBuffer.COMMAND_SIZE) {
+				// Group and key are the first two ints of the command, the key is flipped to compare as unsigned
+				final long order = ((long) commands[offset] << 32) | ((commands[offset + 1] ^ Integer.MIN_VALUE) & 0xFFFF_FFFFL);
+				sorted &= sequence == 0 || commandOrder[sequence - 1] <= order;
+				commandOrder[sequence] = order;
+				commandSequence[sequence] = sequence;
+				commandSources[sequence] = buffer;
+				commandOffsets[sequence] = offset;
+				sequence++;
+			}
+		}
+		if (!sorted) {
+			// Stable, so that the commands of each buffer keep their recorded order
+			sortCommands(commandOrder, commandSequence, commandCount);
+		}
+
+		try {
+			for (int i = 0; i < commandCount; i++) {
+				final int command = commandSequence[i];
+				commandSources[command].apply(commandOffsets[command]);
+			}
+		} finally {
+			for (CommandBuffer buffer : commandBuffers.values()) {
+				buffer.clear();
+			}
+			Arrays.fill(commandSources, 0, commandCount, null);
+			pruneCommandBuffers();
+		}
+	}
+
+	/** Discard the (already applied) buffers of threads which have terminated. */
+	private void pruneCommandBuffers() {
+		commandBuffers.keySet().removeIf(thread -> !thread.isAlive());
+	}
+
+	/** Stable merge sort of the first {@code count} orders, moving the sequence numbers along. */
+	private void sortCommands(@NotNull long[] order, @NotNull int[] sequence, int count) {
+		if (commandOrderTmp.length < count) {
+			commandOrderTmp = new long[order.length];
+			commandSequenceTmp = new int[order.length];
+		}
+		long[] fromOrder = order, toOrder = commandOrderTmp;
+		int[] fromSequence = sequence, toSequence = commandSequenceTmp;
+		for (int width = 1; width < count; width <<= 1) {
+			for (int left = 0; left < count; left += width << 1) {
+				final int middle = Math.min(left + width, count);
+				final int right = Math.min(left + (width << 1), count);
+				int l = left, r = middle, out = left;
+				while (l < middle && r < right) {
+					if (fromOrder[r] < fromOrder[l]) {
+						toOrder[out] = fromOrder[r];
+						toSequence[out++] = fromSequence[r++];
+					} else {
+						toOrder[out] = fromOrder[l];
+						toSequence[out++] = fromSequence[l++];
+					}
+				}
+				while (l < middle) {
+					toOrder[out] = fromOrder[l];
+					toSequence[out++] = fromSequence[l++];
+				}
+				while (r < right) {
+					toOrder[out] = fromOrder[r];
+					toSequence[out++] = fromSequence[r++];
+				}
+			}
+			final long[] swapOrder = fromOrder;
+			fromOrder = toOrder;
+			toOrder = swapOrder;
+			final int[] swapSequence = fromSequence;
+			fromSequence = toSequence;
+			toSequence = swapSequence;
+		}
+		if (fromOrder != order) {
+			System.arraycopy(fromOrder, 0, order, 0, count);
+			System.arraycopy(fromSequence, 0, sequence, 0, count);
+		}
+	}
+
+	/** @return a new empty mask for entity IDs */
+	@NotNull
+	Mask newMask() {
+		final Mask mask = maskFactory.get();
+		if (mask instanceof Disposable) {
+			disposableMasks.add((Disposable) mask);
+		}
+		return mask;
+	}
+
+	/** Release a mask created by {@link #newMask()}, which must not be used afterwards. */
+	void releaseMask(@NotNull Mask mask) {
+		if (mask instanceof Disposable && disposableMasks.remove(mask)) {
+			((Disposable) mask).dispose();
+		}
+	}
+
+	/**
+	 * @return mask for entity IDs, which is persisted in the {@link #storage} under the given name,
+	 * or a new empty mask when there is no storage
+	 */
+	@NotNull
+	Mask newStoredMask(@NotNull String name) {
+		final MappedStorage storage = this.storage;
+		if (storage == null) {
+			return newMask();
+		}
+		final OffHeapMask mask = storage.mask(name);
+		disposableMasks.add(mask);
+		return mask;
+	}
+
+	/**
+	 * Dispose the services (see {@link EngineService#dispose()}) and
+	 * release the off-heap memory held by this engine: of masks created by the mask factory which are {@link Disposable},
+	 * like {@link com.darkyen.retinazer.util.OffHeapMask}, and of {@link Component.OffHeapColumnar} components.
+	 * Unmaps the files of the {@link MappedStorage} and releases it, if any.
+	 * The engine must not be used afterwards. Does nothing when the engine holds no off-heap memory.
+	 */
+	@Override
+	public void dispose() {
+		for (EngineService service : services) {
+			service.dispose();
+		}
+		for (Mapper<?> mapper : componentMappers) {
+			mapper.dispose();
+		}
+		for (Disposable mask : disposableMasks) {
+			mask.dispose();
+		}
+		disposableMasks.clear();
+		if (storage != null) {
+			storage.dispose();
+		}
+	}
+
+	/** Mark the engine as {@link #dirty} because something has happened to the given entity. */
+	void markDirty(int entity) {
+		dirty = true;
+		dirtyWords.set(entity >> 6);
+	}
+
 	/**
 	 * Creates a new entity. This entity will be assigned a index, which is not
 	 * shared with any existing entity. Note that indices are reused once the
@@ -142,13 +509,70 @@ public final class Engine {
 	 * @return index of the created entity.
 	 */
 	public int createEntity() {
-		dirty = true;
-		int entity = shadowEntities.nextClearBit(0);
+		final int entity = shadowEntities.nextClearBit(freeEntityHint);
+		freeEntityHint = entity + 1;
 		entities.set(entity);
 		shadowEntities.set(entity);
+		entitiesDirty = true;
+		markDirty(entity);
 		return entity;
 	}
 
+	/**
+	 * Creates multiple new entities at once, as if by calling {@link #createEntity()} repeatedly,
+	 * but claims whole mask words at a time, which is much faster.
+	 *
+	 * @param count amount of entities to create
+	 * @param createdEntities the IDs of the created entities are added here, in ascending order
+	 */
+	public void createEntities(int count, @NotNull IntArray createdEntities) {
+		if (count <= 0) {
+			return;
+		}
+		createdEntities.ensureCapacity(count);
+		final int[] created = createdEntities.items;
+		int createdCount = createdEntities.size;
+
+		final Mask shadowEntities = this.shadowEntities;
+		final Mask entities = this.entities;
+		int wordIndex = freeEntityHint >> 6;
+		long free = ~shadowEntities.getWord(wordIndex) & (-1L << freeEntityHint);
+		while (true) {
+			if (free != 0L) {
+				long claimed = free;
+				final int freeCount = Long.bitCount(free);
+				if (freeCount > count) {
+					// Claim only the lowest count bits
+					long unclaimed = free;
+					for (int i = 0; i < count; i++) {
+						unclaimed &= unclaimed - 1L;
+					}
+					claimed = free & ~unclaimed;
+				}
+
+				shadowEntities.setWord(wordIndex, shadowEntities.getWord(wordIndex) | claimed);
+				entities.setWord(wordIndex, entities.getWord(wordIndex) | claimed);
+				dirtyWords.set(wordIndex);
+
+				final int wordBase = wordIndex << 6;
+				for (long bits = claimed; bits != 0L; bits &= bits - 1L) {
+					created[createdCount++] = wordBase + Long.numberOfTrailingZeros(bits);
+				}
+
+				count -= Long.bitCount(claimed);
+				if (count == 0) {
+					freeEntityHint = created[createdCount - 1] + 1;
+					break;
+				}
+			}
+			free = ~shadowEntities.getWord(++wordIndex);
+		}
+
+		createdEntities.size = createdCount;
+		entitiesDirty = true;
+		dirty = true;
+	}
+
 	/**
 	 * Create a new entity with defined ID.
 	 * Note that when an entity is removed, its ID is not available that update cycle, nor the one after,
@@ -159,7 +583,9 @@ public final class Engine {
 	public boolean createEntity(int entity) {
 		if (shadowEntities.setChanged(entity)) {
 			entities.set(entity);
-			return dirty = true;
+			entitiesDirty = true;
+			markDirty(entity);
+			return true;
 		}
 		return false;
 	}
@@ -173,7 +599,7 @@ public final class Engine {
 	public void destroyEntity(int entity) {
 		if (entitiesScheduledForRemoval.setChanged(entity)) {
 			entitiesRemovedThisUpdate.set(entity);
-			dirty = true;
+			markDirty(entity);
 		}
 	}
 
@@ -190,6 +616,11 @@ public final class Engine {
 	/**
 	 * Retrieves the set of entities belonging to the given {@link Family}.
 	 * The set is dynamically updated, so the returned object may be kept indefinitely.
+	 * <p>
+	 * When the family requires changes (see {@link Family#changed(Class[])}), the returned set accumulates the changed
+	 * entities until {@link #clearChanges(EntitySetView)} is called. The set is shared by all callers, like any other,
+	 * so its changes are cleared for all of them. Code which needs the changes since its own last run,
+	 * like the systems, should use {@link #trackChanges(Family)} instead.
 	 *
 	 * @param family specification of the entity family
 	 */
@@ -198,6 +629,67 @@ public final class Engine {
 		return familyManager.getFamily(family);
 	}
 
+	/**
+	 * Create a new set of the entities of a family which requires changes (see {@link Family#changed(Class[])}),
+	 * which accumulates the changed entities until {@link #clearChanges(EntitySetView)} is called,
+	 * independently of other such sets. It starts empty. Each set costs some time on every {@link #flush()}
+	 * which changes its components, so it should be released by {@link #releaseChanges(EntitySetView)}
+	 * when it is no longer needed. Systems do this for their family automatically, see {@link EntitySystem#getEntities()}.
+	 *
+	 * @throws IllegalArgumentException if the family does not require changes
+	 */
+	@NotNull
+	public EntitySetView trackChanges(@NotNull Family family) {
+		return familyManager.trackChanges(family);
+	}
+
+	/**
+	 * Stop updating a set returned by {@link #trackChanges(Family)}.
+	 *
+	 * @throws IllegalArgumentException if the set was not returned by {@link #trackChanges(Family)} or is already released
+	 */
+	public void releaseChanges(@NotNull EntitySetView changedEntities) {
+		familyManager.releaseChanges(changedEntities);
+	}
+
+	/**
+	 * Track the entities which join or leave the given {@link Family}.
+	 * Each call returns a new delta, which accumulates the changes made by each {@link #flush()}
+	 * until {@link FamilyDelta#clear()} is called. The new delta starts with all current members as added.
+	 * The difference is computed only once per flush and family, for all of its deltas.
+	 * Each delta is updated by every flush until it is released by {@link #releaseFamilyDelta(FamilyDelta)}.
+	 *
+	 * @param family specification of the entity family, which must not require changes
+	 * @throws IllegalArgumentException if the family requires changes (see {@link Family#changed(Class[])})
+	 * @see com.darkyen.retinazer.systems.FamilyWatcherSystem
+	 */
+	@NotNull
+	public FamilyDelta getFamilyDelta(@NotNull Family family) {
+		return familyManager.getFamilyDelta(family);
+	}
+
+	/**
+	 * Stop updating a delta returned by {@link #getFamilyDelta(Family)} and release its memory.
+	 * The delta must not be used afterwards.
+	 *
+	 * @throws IllegalArgumentException if the delta does not belong to this engine or is already released
+	 */
+	public void releaseFamilyDelta(@NotNull FamilyDelta delta) {
+		familyManager.releaseFamilyDelta(delta);
+	}
+
+	/**
+	 * Remove all entities from the set of a family which requires changes (see {@link Family#changed(Class[])}),
+	 * so that it accumulates only entities changed after this call. The processor systems call this after each update
+	 * (see {@link EntitySystem#clearChanges()}), other users of such sets must do it themselves.
+	 *
+	 * @param changedEntities set returned by {@link #trackChanges(Family)}, or by {@link #getEntities(Family)} for a family which requires changes
+	 * @throws IllegalArgumentException if the set is not such set
+	 */
+	public void clearChanges(@NotNull EntitySetView changedEntities) {
+		familyManager.clearChanges(changedEntities);
+	}
+
 	/**
 	 * Gets the service of the given type. Note that only one service of a type
 	 * can exist in an engine configuration.
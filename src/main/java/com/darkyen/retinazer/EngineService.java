@@ -18,4 +18,12 @@ public interface EngineService {
 	/** Called on each {@link Engine#update}. */
 	default void update() {
 	}
+
+	/**
+	 * Called by {@link Engine#dispose()}, before the engine releases its memory,
+	 * to release what the service has obtained from the engine, like {@link FamilyDelta}s.
+	 * If overriding, <b>ALWAYS</b> call {@code super}.
+	 */
+	default void dispose() {
+	}
 }
@@ -12,21 +12,35 @@ import java.util.function.IntConsumer;
  */
 public final class EntitySet implements EntitySetView {
 
-	private final Mask     entities     = new Mask();
+	private final Mask     entities;
 	private final IntArray indices      = new IntArray();
 	private       boolean  indicesDirty = false;
 
 	public EntitySet() {
+		this.entities = new Mask();
+	}
+
+	/**
+	 * Create a new {@link EntitySet} which stores its entities in the given mask.
+	 * Useful for choosing a different {@link Mask} implementation.
+	 *
+	 * @param entities empty mask, which will be owned by this set
+	 */
+	public EntitySet(@NotNull Mask entities) {
+		assert entities.isEmpty();
+		this.entities = entities;
 	}
 
 	/** Create a new {@link EntitySet} and add all entities from the other set into it. */
 	public EntitySet(@NotNull EntitySet copyEntities) {
+		this.entities = new Mask();
 		this.entities.set(copyEntities.entities);
 		this.indicesDirty = true;
 	}
 
 	/** Create a new {@link EntitySet} and add all entities from the other set into it. */
 	public EntitySet(@NotNull EntitySetView copyEntities) {
+		this.entities = new Mask();
 		this.entities.set(copyEntities.getMask());
 		this.indicesDirty = true;
 	}
@@ -73,6 +87,18 @@ public final class EntitySet implements EntitySetView {
 		}
 	}
 
+	/**
+	 * Set the word of the underlying mask at given index, as in {@link Mask#setWord(int, long)}.
+	 * Faster than {@link #setEntities(Mask)} when only a few words may have changed.
+	 */
+	void setWord(int index, long word) {
+		final Mask entities = this.entities;
+		if (entities.getWord(index) != word) {
+			entities.setWord(index, word);
+			this.indicesDirty = true;
+		}
+	}
+
 	/** Remove the specified entity from the set. Does nothing if the entity does not exist. */
 	public void removeEntity(int entity) {
 		if (entities.clearChanged(entity)) {
@@ -139,28 +165,20 @@ public final class EntitySet implements EntitySetView {
 		return indices;
 	}
 
+	@Override
+	public int getIndices(@NotNull int[] buffer, int fromEntity) {
+		return entities.getIndices(buffer, fromEntity);
+	}
+
 	/** For each entity in this set, call the action consumer with the entity ID. */
 	@Override
 	public void forEach(@NotNull IntConsumer action) {
-		final IntArray indices = this.indices;
-		if (indicesDirty) {
-			// Build indices
-			// After some benchmarking, this seems to be pretty fast, even though it calls IntArray.add repeatedly
-			indices.clear();
-			final Mask entities = this.entities;
-			for (int entity = entities.nextSetBit(0); entity != -1; entity = entities.nextSetBit(entity + 1)) {
-				indices.add(entity);
-				action.accept(entity);
-			}
-			// Done at the end, because action may throw, which would leave us in a wrong state
-			indicesDirty = false;
-		} else {
-			// Use indices
-			final int[] items = indices.items;
-			final int size = indices.size;
-			for (int i = 0; i < size; i++) {
-				action.accept(items[i]);
-			}
+		// Indices are decoded in bulk, which is faster than interleaving decoding with the action
+		final IntArray indices = getIndices();
+		final int[] items = indices.items;
+		final int size = indices.size;
+		for (int i = 0; i < size; i++) {
+			action.accept(items[i]);
 		}
 	}
 
@@ -39,6 +39,20 @@ public interface EntitySetView {
 	@NotNull
 	IntArray getIndices();
 
+	/**
+	 * Writes the entities of this set, which are equal to or greater than {@code fromEntity}, into the buffer,
+	 * in ascending order, until the buffer is full. Allows to iterate over the set in chunks,
+	 * without the need to reconstruct the whole {@link #getIndices()} array.
+	 *
+	 * @param buffer non-empty buffer to fill with entities
+	 * @param fromEntity the first entity to consider
+	 * @return the amount of entities written to the beginning of the buffer, 0 if there are no more entities
+	 * @see Mask#getIndices(int[], int)
+	 */
+	default int getIndices(@NotNull int[] buffer, int fromEntity) {
+		return getMask().getIndices(buffer, fromEntity);
+	}
+
 	/** For each entity in this set, call the action consumer with the entity ID. */
 	void forEach(@NotNull IntConsumer action);
 
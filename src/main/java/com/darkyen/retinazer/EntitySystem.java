@@ -22,15 +22,27 @@ public abstract class EntitySystem implements EngineService {
 		return family;
 	}
 
-	/** @return set of entities which match the set
-	 * @see Engine#getEntities(Family) precise semantics */
+	/** @return set of entities which match the set, own changes of the system when the family requires changes
+	 * @see Engine#getEntities(Family) precise semantics
+	 * @see Engine#trackChanges(Family) semantics for families which require changes */
 	@NotNull
 	public final EntitySetView getEntities() {
 		return familyEntities;
 	}
 
+	/**
+	 * When the family requires changes (see {@link Family#changed(Class[])}), forget the entities changed so far,
+	 * so that {@link #getEntities()} contains only entities changed after this call.
+	 * Call this when the entities have been processed, the processor systems do it at the end of each update.
+	 */
+	protected final void clearChanges() {
+		if (!family.changedComponents.isEmpty()) {
+			engine.clearChanges(familyEntities);
+		}
+	}
+
 	@Override
 	public void initialize() {
-		familyEntities = engine.getEntities(family);
+		familyEntities = family.changedComponents.isEmpty() ? engine.getEntities(family) : engine.trackChanges(family);
 	}
 }
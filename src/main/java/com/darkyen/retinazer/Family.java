@@ -4,7 +4,10 @@ import com.darkyen.retinazer.util.Mask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-/** Specifies a set of entities defined by what {@link Component}s they have or don't have. Immutable. */
+/**
+ * Specifies a set of entities defined by what {@link Component}s they have or don't have,
+ * and optionally which of their {@link Component.Tracked} components have changed. Immutable.
+ */
 public final class Family {
 
 	/** Empty {@link Mask} instance. DO NOT MODIFY. */
@@ -25,18 +28,27 @@ public final class Family {
 	/** Each family member must not have any of these components. */
 	@NotNull
 	final Mask         excludedComponents;
+	/** Each family member must have at least one of these {@link Component.Tracked} components changed, unless empty. */
+	@NotNull
+	final Mask         changedComponents;
 
 	private final transient int hashCode;
 
 	Family(@NotNull ComponentSet domain, @NotNull Mask requiredComponents, @NotNull Mask excludedComponents) {
+		this(domain, requiredComponents, excludedComponents, EMPTY_MASK);
+	}
+
+	Family(@NotNull ComponentSet domain, @NotNull Mask requiredComponents, @NotNull Mask excludedComponents, @NotNull Mask changedComponents) {
 		this.domain = domain;
 		this.requiredComponents = requiredComponents;
 		this.excludedComponents = excludedComponents;
+		this.changedComponents = changedComponents;
 
 		// Eager hash code computation, it will be used at least once and possibly many times
 		int result = domain.hashCode();
 		result = 31 * result + requiredComponents.hashCode();
 		result = 31 * result + excludedComponents.hashCode();
+		result = 31 * result + changedComponents.hashCode();
 		this.hashCode = result;
 	}
 
@@ -56,6 +68,14 @@ public final class Family {
 		return excludedComponents.get(domain.index(componentType));
 	}
 
+	/**
+	 * @return whether this family requires the given component type to change
+	 * @throws IllegalArgumentException when the component is not a part of the domain
+	 */
+	public boolean requiresChange(@NotNull Class<? extends Component> componentType) {
+		return changedComponents.get(domain.index(componentType));
+	}
+
 	/** Derive a new {@link Family} which also requires given components. */
 	@SafeVarargs
 	@NotNull
@@ -69,7 +89,7 @@ public final class Family {
 			return this;
 		}
 		assert !newRequiredComponents.intersects(excludedComponents);
-		return new Family(domain, newRequiredComponents, excludedComponents);
+		return new Family(domain, newRequiredComponents, excludedComponents, changedComponents);
 	}
 
 	/** Derive a new {@link Family} which also excludes given components. */
@@ -85,7 +105,30 @@ public final class Family {
 			return this;
 		}
 		assert !newExcludedComponents.intersects(requiredComponents);
-		return new Family(domain, requiredComponents, newExcludedComponents);
+		return new Family(domain, requiredComponents, newExcludedComponents, changedComponents);
+	}
+
+	/**
+	 * Derive a new {@link Family} which also requires given {@link Component.Tracked} components
+	 * and contains only entities on which at least one of them has changed,
+	 * see {@link Mapper#markChanged(int)} and {@link Engine#trackChanges(Family)}.
+	 *
+	 * @throws IllegalArgumentException if some of the components is not tracked
+	 */
+	@SafeVarargs
+	@NotNull
+	public final Family changed(@NotNull Class<? extends Component>... components) {
+		for (Class<? extends Component> component : components) {
+			if (!Component.Tracked.class.isAssignableFrom(component)) {
+				throw new IllegalArgumentException("Component " + component.getName() + " is not tracked");
+			}
+		}
+		final Family family = with(components);
+		final Mask newChangedComponents = Family.maskOf(changedComponents, domain, components);
+		if (newChangedComponents == changedComponents) {
+			return family;
+		}
+		return new Family(domain, family.requiredComponents, excludedComponents, newChangedComponents);
 	}
 
 	@NotNull
@@ -114,6 +157,7 @@ public final class Family {
 
 		return requiredComponents.equals(family.requiredComponents)
 				&& excludedComponents.equals(family.excludedComponents)
+				&& changedComponents.equals(family.changedComponents)
 				&& domain.equals(family.domain);
 	}
 
@@ -0,0 +1,131 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.util.Mask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Entities which were added to or removed from a {@link Family} since the last {@link #clear()}.
+ * Obtained through {@link Engine#getFamilyDelta(Family)} and maintained by {@link Engine#flush()},
+ * which computes the difference once per family, so reading and clearing the delta costs only as much
+ * as the amount of changed entities. A delta which is no longer needed should be released
+ * by {@link Engine#releaseFamilyDelta(FamilyDelta)}, because every flush updates it.
+ * <p>
+ * An entity which is added and then removed again between two clears is not reported at all.
+ * An entity which has left the family and joined it again, possibly as a new entity with a reused ID,
+ * is both in {@link #getRemoved()} and {@link #getAdded()}, so the removals should be processed first.
+ */
+public final class FamilyDelta {
+
+	private final EntitySet added;
+	private final EntitySet removed;
+	/** Indices of words which may be non-zero in {@link #added} or {@link #removed} */
+	private final IntArray  touchedWords       = new IntArray();
+	private       boolean   touchedWordsSorted = true;
+	/** Which word indices are in {@link #touchedWords} */
+	private final Mask      touched            = new Mask();
+
+	FamilyDelta(@NotNull Mask added, @NotNull Mask removed) {
+		this.added = new EntitySet(added);
+		this.removed = new EntitySet(removed);
+	}
+
+	/** @return entities which are in the family now, but were not at the last {@link #clear()} */
+	@NotNull
+	public EntitySetView getAdded() {
+		return added;
+	}
+
+	/** @return entities which were in the family at the last {@link #clear()}, but are not there now */
+	@NotNull
+	public EntitySetView getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * For each entity in {@link #getAdded()}, in ascending order, call the action with the entity ID.
+	 * Unlike iterating the set itself, this visits only the parts of the set which may contain changes.
+	 */
+	public void forEachAdded(@NotNull IntConsumer action) {
+		forEach(added.getMask(), action);
+	}
+
+	/**
+	 * For each entity in {@link #getRemoved()}, in ascending order, call the action with the entity ID.
+	 * Unlike iterating the set itself, this visits only the parts of the set which may contain changes.
+	 */
+	public void forEachRemoved(@NotNull IntConsumer action) {
+		forEach(removed.getMask(), action);
+	}
+
+	private void forEach(@NotNull Mask mask, @NotNull IntConsumer action) {
+		final IntArray touchedWords = this.touchedWords;
+		if (!touchedWordsSorted) {
+			touchedWords.sort();
+			touchedWordsSorted = true;
+		}
+		final int[] words = touchedWords.items;
+		for (int i = 0, n = touchedWords.size; i < n; i++) {
+			final int wordIndex = words[i];
+			long word = mask.getWord(wordIndex);
+			while (word != 0L) {
+				action.accept((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1L;
+			}
+		}
+	}
+
+	/** @return whether nothing has changed since the last {@link #clear()} */
+	public boolean isEmpty() {
+		final Mask addedMask = added.getMask();
+		final Mask removedMask = removed.getMask();
+		final int[] words = touchedWords.items;
+		for (int i = 0, n = touchedWords.size; i < n; i++) {
+			if ((addedMask.getWord(words[i]) | removedMask.getWord(words[i])) != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Forget all changes, so that only the changes after this call are reported. */
+	public void clear() {
+		final int[] words = touchedWords.items;
+		for (int i = 0, n = touchedWords.size; i < n; i++) {
+			final int wordIndex = words[i];
+			added.setWord(wordIndex, 0L);
+			removed.setWord(wordIndex, 0L);
+			touched.clear(wordIndex);
+		}
+		touchedWords.clear();
+	}
+
+	/** Record all current members of the family as added. */
+	void addMembers(@NotNull Mask members) {
+		for (int wordIndex = members.nextNonEmptyWord(0); wordIndex != -1; wordIndex = members.nextNonEmptyWord(wordIndex + 1)) {
+			update(wordIndex, members.getWord(wordIndex), 0L);
+		}
+	}
+
+	/**
+	 * Record a change of the family membership in a single word.
+	 *
+	 * @param wordIndex index of the mask word
+	 * @param addedBits entities which have joined the family in this word
+	 * @param removedBits entities which have left the family in this word, disjoint with {@code addedBits}
+	 */
+	void update(int wordIndex, long addedBits, long removedBits) {
+		final Mask addedMask = added.getMask();
+		final Mask removedMask = removed.getMask();
+		final long addedWord = addedMask.getWord(wordIndex);
+		// Removing an entity which was added since the last clear cancels the addition
+		removed.setWord(wordIndex, removedMask.getWord(wordIndex) | (removedBits & ~addedWord));
+		added.setWord(wordIndex, (addedWord & ~removedBits) | addedBits);
+		if (touched.setChanged(wordIndex)) {
+			touchedWords.add(wordIndex);
+			touchedWordsSorted = false;
+		}
+	}
+}
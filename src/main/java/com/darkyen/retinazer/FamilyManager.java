@@ -1,26 +1,53 @@
 package com.darkyen.retinazer;
 
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectMap;
 import com.darkyen.retinazer.util.Bag;
 import com.darkyen.retinazer.util.Mask;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 final class FamilyManager {
 
-	private final ObjectIntMap<Family> familyIndices = new ObjectIntMap<>();
-	private final Bag<FamilyHolder>    families      = new Bag<>();
-	private final Engine               engine;
+	private final ObjectIntMap<Family>    familyIndices   = new ObjectIntMap<>();
+	private final Bag<FamilyHolder>       families        = new Bag<>();
+	/** Families which require changes, both shared and tracked, see {@link Engine#trackChanges(Family)} */
+	private final ArrayList<FamilyHolder> changedFamilies = new ArrayList<>();
+	/** Shared sets of families which require changes, see {@link Engine#getEntities(Family)} */
+	private final ObjectMap<Family, FamilyHolder> sharedChangedFamilies = new ObjectMap<>();
+	private final Engine                  engine;
+	/** Evaluation plan of {@link #families}, null when it has to be rebuilt, because a family has been added */
+	private FamilyPlan                    plan;
+
+	/** Indices of families which depend on {@link #updatedFor}, prepared in the {@link #plan} */
+	private final IntArray                updatedFamilies   = new IntArray();
+	/** Dirty components of the last update, usually the same components change in each update */
+	private final Mask                    updatedFor        = new Mask();
+	private       boolean                 updatedForEntities;
+
+	private transient final Mask _matchedEntities;
 
 	FamilyManager(@NotNull Engine engine) {
 		this.engine = engine;
+		this._matchedEntities = engine.newMask();
 	}
 
-	private transient final Mask _matchedEntities = new Mask();
-
 	/** @return {@link EntitySet} conforming to the given configuration backed by the family */
 	@NotNull
 	public EntitySet getFamily(@NotNull Family spec) {
 		assert spec.domain.isSubsetOf(engine.componentDomain);
+		if (!spec.changedComponents.isEmpty()) {
+			FamilyHolder family = sharedChangedFamilies.get(spec);
+			if (family == null) {
+				family = trackChanges(spec, true);
+				sharedChangedFamilies.put(spec, family);
+			}
+			return family.entities;
+		}
+
 		final ObjectIntMap<Family> familyIndices = this.familyIndices;
 		final int index;
 		{
@@ -28,12 +55,13 @@ final class FamilyManager {
 		}
 
 		if (index == familyIndices.size) {
-			final FamilyHolder family = new FamilyHolder(spec.requiredComponents, spec.excludedComponents);
+			final Mapper<?>[] mappers = engine.componentMappers;
+			final FamilyHolder family = new FamilyHolder(spec, mappers, engine.newMask());
 			familyIndices.put(spec, index);
 			families.set(index, family);
+			plan = null;
 
 			// Find matching entities, and add them to the new family set.
-			final Mapper<?>[] mappers = engine.componentMappers;
 			final Mask matchedEntities = this._matchedEntities;
 			matchedEntities.set(engine.entities);
 			for (int componentI = spec.requiredComponents.nextSetBit(0); componentI != -1; componentI = spec.requiredComponents.nextSetBit(componentI + 1)) {
@@ -55,44 +83,269 @@ final class FamilyManager {
 
 	/**
 	 * Updates family membership for all entities. This will insert/remove entities
-	 * to/from family sets.
+	 * to/from family sets. Only families which depend on the changed components are recomputed
+	 * and only in the words which may contain changes. Intersections shared by multiple families
+	 * are computed only once, see {@link FamilyPlan}.
+	 *
+	 * Families which require changes accumulate the entities with changed components.
+	 *
+	 * @param dirtyComponents indices of components whose presence on entities has changed
+	 * @param changedComponents indices of components which were marked as changed on some entities
+	 * @param entitiesDirty whether the set of existing entities has changed
+	 * @param dirtyWords indices of mask words which may contain changes
 	 */
-	void updateFamilyMembership() {
-		final Engine engine = this.engine;
+	void updateFamilyMembership(@NotNull Mask dirtyComponents, @NotNull Mask changedComponents, boolean entitiesDirty, @NotNull IntArray dirtyWords) {
 		final Bag<FamilyHolder> families = this.families;
 		final int familyCount = familyIndices.size;
+		final IntArray updatedFamilies = this.updatedFamilies;
+		final boolean anyDirty = entitiesDirty || !dirtyComponents.isEmpty();
+		FamilyPlan plan = this.plan;
+		// Flushes with only changed components keep the families of the previous flush prepared
+		if (anyDirty && (plan == null || updatedForEntities != entitiesDirty || !updatedFor.equals(dirtyComponents))) {
+			if (plan == null) {
+				this.plan = plan = buildPlan();
+			}
+			updatedFor.set(dirtyComponents);
+			updatedForEntities = entitiesDirty;
 
-		final Mapper<?>[] mappers = engine.componentMappers;
-		final Mask matchedEntities = this._matchedEntities;
-		for (int i = 0; i < familyCount; i++) {
-			FamilyHolder family = families.get(i);
+			updatedFamilies.clear();
+			for (int i = 0; i < familyCount; i++) {
+				FamilyHolder family = families.get(i);
+				assert family != null;
+
+				if (!(entitiesDirty && family.dependsOnEntities)
+						&& !family.requiredComponents.intersects(dirtyComponents)
+						&& !family.excludedComponents.intersects(dirtyComponents)) {
+					// Nothing this family depends on has changed
+					continue;
+				}
+				updatedFamilies.add(i);
+				plan.require(i);
+			}
+			plan.prepare();
+		}
+
+		final Mask entities = engine.entities;
+		final int[] words = dirtyWords.items;
+		final int wordCount = dirtyWords.size;
+		if (anyDirty && updatedFamilies.size > 0) {
+			final int[] updated = updatedFamilies.items;
+			final int updatedCount = updatedFamilies.size;
+			for (int block = 0; block < wordCount; block += FamilyPlan.BLOCK) {
+				final int blockSize = Math.min(FamilyPlan.BLOCK, wordCount - block);
+				// Shared intersections are computed only once for all families
+				plan.evaluate(words, block, blockSize);
+				for (int u = 0; u < updatedCount; u++) {
+					final FamilyHolder family = families.get(updated[u]);
+					final EntitySet familyEntities = family.entities;
+					final Mask familyMask = familyEntities.getMask();
+					final FamilyDelta[] deltas = family.deltas;
+					for (int i = 0; i < blockSize; i++) {
+						final int wordIndex = words[block + i];
+						final long word = plan.getWord(updated[u], i);
+						final long oldWord = familyMask.getWord(wordIndex);
+						// It is likely that no modification happened here
+						if (oldWord != word) {
+							familyEntities.setWord(wordIndex, word);
+							for (FamilyDelta delta : deltas) {
+								delta.update(wordIndex, word & ~oldWord, oldWord & ~word);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		final ArrayList<FamilyHolder> changedFamilies = this.changedFamilies;
+		for (int i = 0, n = changedFamilies.size(); i < n; i++) {
+			final FamilyHolder family = changedFamilies.get(i);
+			if (!family.changedComponents.intersects(changedComponents)
+					&& !family.requiredComponents.intersects(dirtyComponents)
+					&& !family.excludedComponents.intersects(dirtyComponents)) {
+				// Nothing has changed and no member could have left
+				continue;
+			}
+
+			final Mask[] requiredMasks = family.requiredMasks;
+			final Mask[] excludedMasks = family.excludedMasks;
+			final Mask[] changedMasks = family.changedMasks;
+			final EntitySet familyEntities = family.entities;
+			final Mask familyMask = familyEntities.getMask();
+			for (int w = 0; w < wordCount; w++) {
+				final int wordIndex = words[w];
+				// Members stay until the changes are cleared, if they still match
+				long word = familyMask.getWord(wordIndex);
+				for (Mask changed : changedMasks) {
+					word |= changed.getWord(wordIndex);
+				}
+				if (word == 0L) {
+					continue;
+				}
+				word &= entities.getWord(wordIndex);
+				for (Mask required : requiredMasks) {
+					word &= required.getWord(wordIndex);
+				}
+				for (Mask excluded : excludedMasks) {
+					word &= ~excluded.getWord(wordIndex);
+				}
+				familyEntities.setWord(wordIndex, word);
+			}
+		}
+	}
+
+	/** See {@link Engine#getFamilyDelta(Family)}. */
+	@NotNull
+	FamilyDelta getFamilyDelta(@NotNull Family spec) {
+		if (!spec.changedComponents.isEmpty()) {
+			throw new IllegalArgumentException("Deltas of families which require changes are not supported");
+		}
+		getFamily(spec);
+		final FamilyHolder family = families.get(familyIndices.get(spec, -1));
+		assert family != null;
+
+		final FamilyDelta delta = new FamilyDelta(engine.newMask(), engine.newMask());
+		delta.addMembers(family.entities.getMask());
+		final FamilyDelta[] deltas = Arrays.copyOf(family.deltas, family.deltas.length + 1);
+		deltas[deltas.length - 1] = delta;
+		family.deltas = deltas;
+		return delta;
+	}
+
+	/** See {@link Engine#releaseFamilyDelta(FamilyDelta)}. */
+	void releaseFamilyDelta(@NotNull FamilyDelta delta) {
+		for (int i = 0, n = familyIndices.size; i < n; i++) {
+			final FamilyHolder family = families.get(i);
 			assert family != null;
+			final FamilyDelta[] deltas = family.deltas;
+			for (int d = 0; d < deltas.length; d++) {
+				if (deltas[d] != delta) {
+					continue;
+				}
+				final FamilyDelta[] remaining = deltas.length == 1 ? FamilyHolder.NO_DELTAS : new FamilyDelta[deltas.length - 1];
+				System.arraycopy(deltas, 0, remaining, 0, d);
+				System.arraycopy(deltas, d + 1, remaining, d, deltas.length - d - 1);
+				family.deltas = remaining;
+				engine.releaseMask(delta.getAdded().getMask());
+				engine.releaseMask(delta.getRemoved().getMask());
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Delta " + delta + " does not belong to this engine or has been released already");
+	}
 
-			matchedEntities.set(engine.entities);
+	/** See {@link Engine#trackChanges(Family)}. */
+	@NotNull
+	EntitySet trackChanges(@NotNull Family spec) {
+		assert spec.domain.isSubsetOf(engine.componentDomain);
+		if (spec.changedComponents.isEmpty()) {
+			throw new IllegalArgumentException("Family does not require changes, its entities are tracked by getEntities(Family)");
+		}
+		return trackChanges(spec, false).entities;
+	}
 
-			final Mask requiredComponents = family.requiredComponents;
-			for (int componentI = requiredComponents.nextSetBit(0); componentI != -1; componentI = requiredComponents.nextSetBit(componentI + 1)) {
-				matchedEntities.and(mappers[componentI].componentsMask);
+	@NotNull
+	private FamilyHolder trackChanges(@NotNull Family spec, boolean shared) {
+		// Starts empty, nothing has changed yet
+		final FamilyHolder family = new FamilyHolder(spec, engine.componentMappers, engine.newMask());
+		family.shared = shared;
+		changedFamilies.add(family);
+		return family;
+	}
+
+	/** See {@link Engine#releaseChanges(EntitySetView)}. */
+	void releaseChanges(@NotNull EntitySetView changedEntities) {
+		final ArrayList<FamilyHolder> changedFamilies = this.changedFamilies;
+		for (int i = 0, n = changedFamilies.size(); i < n; i++) {
+			final FamilyHolder family = changedFamilies.get(i);
+			if (family.entities == changedEntities && !family.shared) {
+				// The order of the families does not matter
+				changedFamilies.set(i, changedFamilies.get(n - 1));
+				changedFamilies.remove(n - 1);
+				return;
 			}
+		}
+		throw new IllegalArgumentException("Set " + changedEntities + " was not returned by trackChanges or has been released already");
+	}
 
-			final Mask excludedComponents = family.excludedComponents;
-			for (int componentI = excludedComponents.nextSetBit(0); componentI != -1; componentI = excludedComponents.nextSetBit(componentI + 1)) {
-				matchedEntities.andNot(mappers[componentI].componentsMask);
+	/** See {@link Engine#clearChanges(EntitySetView)}. */
+	void clearChanges(@NotNull EntitySetView changedEntities) {
+		final ArrayList<FamilyHolder> changedFamilies = this.changedFamilies;
+		for (int i = 0, n = changedFamilies.size(); i < n; i++) {
+			final FamilyHolder family = changedFamilies.get(i);
+			if (family.entities == changedEntities) {
+				family.entities.clear();
+				return;
 			}
+		}
+		throw new IllegalArgumentException("Set " + changedEntities + " does not belong to a family which requires changes");
+	}
+
+	@NotNull
+	private FamilyPlan buildPlan() {
+		final int familyCount = familyIndices.size;
+		final Mask[] requiredComponents = new Mask[familyCount];
+		final Mask[] excludedComponents = new Mask[familyCount];
+		for (int i = 0; i < familyCount; i++) {
+			final FamilyHolder family = families.get(i);
+			assert family != null;
+			requiredComponents[i] = family.requiredComponents;
+			excludedComponents[i] = family.excludedComponents;
+		}
+		return new FamilyPlan(engine.entities, engine.componentMappers, requiredComponents, excludedComponents);
+	}
 
-			// It is likely that no modification happened here
-			family.entities.setEntities(matchedEntities);
+	@NotNull
+	private static Mask[] componentMasks(@NotNull Mask components, @NotNull Mapper<?>[] mappers) {
+		final Mask[] masks = new Mask[components.cardinality()];
+		for (int i = 0, componentI = components.nextSetBit(0); componentI != -1; componentI = components.nextSetBit(componentI + 1)) {
+			masks[i++] = mappers[componentI].componentsMask;
 		}
+		return masks;
+	}
+
+	@NotNull
+	private static Mask[] changedMasks(@NotNull Mask components, @NotNull Mapper<?>[] mappers) {
+		final Mask[] masks = new Mask[components.cardinality()];
+		for (int i = 0, componentI = components.nextSetBit(0); componentI != -1; componentI = components.nextSetBit(componentI + 1)) {
+			masks[i++] = mappers[componentI].changedMask;
+		}
+		return masks;
 	}
 
 	private static final class FamilyHolder {
+		private static final FamilyDelta[] NO_DELTAS = new FamilyDelta[0];
+
 		final Mask      requiredComponents;
 		final Mask      excludedComponents;
-		final EntitySet entities = new EntitySet();
+		/** Components of which at least one must change, empty for families which don't require changes */
+		final Mask      changedComponents;
+		/**
+		 * Whether a change in the set of entities alone may change the membership.
+		 * When the family requires some components, new entities must get them first and destroyed entities
+		 * lose them, so such changes are caught by the component dirtiness.
+		 */
+		final boolean   dependsOnEntities;
+		/** {@link Mapper#componentsMask}s of {@link #requiredComponents} */
+		final Mask[]    requiredMasks;
+		/** {@link Mapper#componentsMask}s of {@link #excludedComponents} */
+		final Mask[]    excludedMasks;
+		/** {@link Mapper#changedMask}s of {@link #changedComponents} */
+		final Mask[]    changedMasks;
+		final EntitySet entities;
+		/** Deltas which are notified about changes of {@link #entities}, never used for families which require changes */
+		FamilyDelta[]   deltas = NO_DELTAS;
+		/** Whether this family requires changes and its set is returned by {@link #getFamily(Family)}, so it can't be released */
+		boolean         shared = false;
 
-		FamilyHolder(Mask requiredComponents, Mask excludedComponents) {
-			this.requiredComponents = requiredComponents;
-			this.excludedComponents = excludedComponents;
+		FamilyHolder(Family family, Mapper<?>[] mappers, Mask entities) {
+			this.entities = new EntitySet(entities);
+			this.requiredComponents = family.requiredComponents;
+			this.excludedComponents = family.excludedComponents;
+			this.changedComponents = family.changedComponents;
+			this.dependsOnEntities = requiredComponents.isEmpty();
+			this.requiredMasks = componentMasks(requiredComponents, mappers);
+			this.excludedMasks = componentMasks(excludedComponents, mappers);
+			this.changedMasks = changedMasks(changedComponents, mappers);
 		}
 	}
 }
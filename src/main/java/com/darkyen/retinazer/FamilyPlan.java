@@ -0,0 +1,184 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.darkyen.retinazer.util.Mask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Evaluation plan of family membership, which computes the intersections shared by multiple families only once.
+ * <p>
+ * Each family is a conjunction of literals: required components and negated excluded components.
+ * The plan is a tree of nodes, each node intersects the word of its parent with a single literal, the root holds
+ * the existing entities. Literals of each family are ordered by how many families use them, so that the most shared
+ * intersections come first and families like {A, B}, {A, B, C} and {A, B, !D} derive their words from the same
+ * {A, B} node, instead of intersecting A and B again. Nodes are stored in the order of creation, so each node
+ * comes after its parent and can be evaluated in a single pass.
+ * <p>
+ * The plan is immutable, it has to be rebuilt when a family is added.
+ */
+final class FamilyPlan {
+
+	/** Maximum amount of words evaluated at once, see {@link #evaluate(int[], int, int)} */
+	static final int BLOCK = 64;
+
+	/** Index of the parent of each node, -1 for the root */
+	private final int[]    parents;
+	/** Mask of the component of each node, {@link Engine#entities} for the root */
+	private final Mask[]   masks;
+	/** Word which is XOR-ed with the component word of each node, -1 for excluded components, otherwise 0 */
+	private final long[]   negations;
+	/** Node of each family */
+	private final int[]    familyNodes;
+
+	/** Whether each node is needed by the families passed to {@link #require(int)} */
+	private final boolean[] required;
+	/** Nodes needed by the required families, except the root, in the evaluation order */
+	private final IntArray  requiredNodes = new IntArray();
+	/** {@link #BLOCK} words of each node, computed by {@link #evaluate(int[], int, int)} */
+	private final long[]    words;
+
+	/**
+	 * @param entities mask of existing entities
+	 * @param mappers mappers of all components
+	 * @param requiredComponents indices of components required by each family
+	 * @param excludedComponents indices of components excluded by each family
+	 */
+	FamilyPlan(@NotNull Mask entities, @NotNull Mapper<?>[] mappers, @NotNull Mask[] requiredComponents, @NotNull Mask[] excludedComponents) {
+		final int familyCount = requiredComponents.length;
+		// Literal of required component C is 2*C, of excluded component 2*C + 1
+		final int literalCount = mappers.length * 2;
+		final int[] shares = new int[literalCount];
+		for (int f = 0; f < familyCount; f++) {
+			final Mask required = requiredComponents[f];
+			for (int c = required.nextSetBit(0); c != -1; c = required.nextSetBit(c + 1)) {
+				shares[c * 2]++;
+			}
+			final Mask excluded = excludedComponents[f];
+			for (int c = excluded.nextSetBit(0); c != -1; c = excluded.nextSetBit(c + 1)) {
+				shares[c * 2 + 1]++;
+			}
+		}
+
+		final IntArray parents = new IntArray();
+		final IntArray literals = new IntArray();
+		parents.add(-1);
+		literals.add(-1);
+		final ObjectIntMap<Long> children = new ObjectIntMap<>();
+		final IntArray familyLiterals = new IntArray();
+		final int[] familyNodes = new int[familyCount];
+		for (int f = 0; f < familyCount; f++) {
+			// Sort keys put the most shared literals first, ties are broken by the literal itself, so that the order is same in all families
+			familyLiterals.clear();
+			final Mask required = requiredComponents[f];
+			for (int c = required.nextSetBit(0); c != -1; c = required.nextSetBit(c + 1)) {
+				familyLiterals.add((familyCount - shares[c * 2]) * literalCount + c * 2);
+			}
+			final Mask excluded = excludedComponents[f];
+			for (int c = excluded.nextSetBit(0); c != -1; c = excluded.nextSetBit(c + 1)) {
+				familyLiterals.add((familyCount - shares[c * 2 + 1]) * literalCount + c * 2 + 1);
+			}
+			familyLiterals.sort();
+
+			int node = 0;
+			for (int i = 0; i < familyLiterals.size; i++) {
+				final int literal = familyLiterals.get(i) % literalCount;
+				final Long key = ((long) node << 32) | literal;
+				int child = children.get(key, -1);
+				if (child == -1) {
+					child = parents.size;
+					parents.add(node);
+					literals.add(literal);
+					children.put(key, child);
+				}
+				node = child;
+			}
+			familyNodes[f] = node;
+		}
+
+		final int nodeCount = parents.size;
+		this.parents = Arrays.copyOf(parents.items, nodeCount);
+		this.masks = new Mask[nodeCount];
+		this.negations = new long[nodeCount];
+		this.masks[0] = entities;
+		for (int n = 1; n < nodeCount; n++) {
+			final int literal = literals.get(n);
+			masks[n] = mappers[literal >> 1].componentsMask;
+			negations[n] = (literal & 1) == 0 ? 0L : -1L;
+		}
+		this.familyNodes = familyNodes;
+		this.required = new boolean[nodeCount];
+		this.words = new long[nodeCount * BLOCK];
+	}
+
+	/** @return the amount of nodes, including the root */
+	int size() {
+		return parents.length;
+	}
+
+	/** Mark the nodes of the family as needed by the following {@link #evaluate(int[], int, int)} calls. */
+	void require(int family) {
+		final boolean[] required = this.required;
+		for (int node = familyNodes[family]; node > 0 && !required[node]; node = parents[node]) {
+			required[node] = true;
+		}
+	}
+
+	/**
+	 * Collect the nodes marked by {@link #require(int)} since the last call, for the following {@link #evaluate(int[], int, int)} calls.
+	 * Visits all nodes, so it should be called only once for many {@link #evaluate(int[], int, int)} calls.
+	 */
+	void prepare() {
+		final boolean[] required = this.required;
+		final IntArray requiredNodes = this.requiredNodes;
+		requiredNodes.clear();
+		for (int n = 1; n < required.length; n++) {
+			if (required[n]) {
+				requiredNodes.add(n);
+				required[n] = false;
+			}
+		}
+	}
+
+	/**
+	 * Compute the words of the required nodes at the given word indices, see {@link #getWord(int, int)}.
+	 * Each node is evaluated for the whole block at once, so that the masks are read sequentially.
+	 *
+	 * @param wordIndices indices of the mask words
+	 * @param offset of the first word index
+	 * @param count of word indices, at most {@link #BLOCK}
+	 */
+	void evaluate(@NotNull int[] wordIndices, int offset, int count) {
+		assert count <= BLOCK;
+		final long[] words = this.words;
+		final int[] parents = this.parents;
+		final Mask[] masks = this.masks;
+		final long[] negations = this.negations;
+		final Mask entities = masks[0];
+		for (int i = 0; i < count; i++) {
+			words[i] = entities.getWord(wordIndices[offset + i]);
+		}
+		final int[] nodes = requiredNodes.items;
+		for (int r = 0, n = requiredNodes.size; r < n; r++) {
+			final int node = nodes[r];
+			final Mask mask = masks[node];
+			final long negation = negations[node];
+			final int parentStart = parents[node] * BLOCK;
+			final int nodeStart = node * BLOCK;
+			for (int i = 0; i < count; i++) {
+				words[nodeStart + i] = words[parentStart + i] & (mask.getWord(wordIndices[offset + i]) ^ negation);
+			}
+		}
+	}
+
+	/**
+	 * @param family which was required
+	 * @param i index of the word in the block given to the last {@link #evaluate(int[], int, int)}
+	 * @return the members of the family in the word
+	 */
+	long getWord(int family, int i) {
+		return words[familyNodes[family] * BLOCK + i];
+	}
+}
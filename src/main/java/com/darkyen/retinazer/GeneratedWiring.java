@@ -0,0 +1,31 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Wires the {@link Wire} fields of one class directly, without reflection.
+ * <p>
+ * Implementations are generated at compile time by the annotation processor of the {@code retinazer-processor} module,
+ * named after the wired class with a {@code $$Wiring} suffix, for example {@code com.example.Outer$MySystem$$Wiring}.
+ * {@link Engine#wire(Object)} uses them when present and falls back to reflection otherwise.
+ * They are generated only for classes which declare wired fields, whose own wired fields are accessible from their package
+ * and are wired by the engine itself ({@link Engine}, {@link Mapper}s, {@link EngineService}s and their lists),
+ * fields handled by {@link WireResolver}s need reflection. Subclasses without own wired fields use the wiring of their superclass.
+ * <p>
+ * Inherited fields which are not accessible to the generated class, like the protected {@link EntitySystem#engine},
+ * are left to reflection, see {@link #getReflectivelyWiredClasses()}.
+ */
+public interface GeneratedWiring {
+
+	/** Wire the fields of the object, which is an instance of the class of this wiring, with values from the engine. */
+	void wire(@NotNull Object object, @NotNull Engine engine);
+
+	/**
+	 * @return superclasses of the wired class whose {@link Wire} fields are not wired by {@link #wire(Object, Engine)},
+	 * because they are not accessible from the generated class, so they are wired by reflection after it
+	 */
+	@NotNull
+	default Class<?>[] getReflectivelyWiredClasses() {
+		return new Class<?>[0];
+	}
+}
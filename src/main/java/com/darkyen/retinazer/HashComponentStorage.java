@@ -0,0 +1,140 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ComponentStorage} of {@link Component.Rare} components.
+ * <p>
+ * Components are stored in an open-addressing hash map keyed by entity ID, with linear probing,
+ * so the memory is proportional to the amount of components, no matter how large the entity IDs are.
+ * The map shrinks when most of its components are removed.
+ *
+ * @param <T> the component type
+ */
+public final class HashComponentStorage<T extends Component> extends ComponentStorage<T> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	/** Entity of each slot, valid only when the slot in {@link #components} is not null */
+	@NotNull
+	private int[]    entities   = new int[MIN_CAPACITY];
+	/** Component of each slot, null for empty slots */
+	@NotNull
+	private Object[] components = new Object[MIN_CAPACITY];
+	private int      size       = 0;
+
+	HashComponentStorage() {
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/** @return amount of slots of the map, it grows when more than half of them is used */
+	public int capacity() {
+		return components.length;
+	}
+
+	private static int slotOf(int entity, int mask) {
+		final int hash = entity * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	@Nullable
+	@Override
+	@SuppressWarnings("unchecked")
+	T get(int entity) {
+		final int[] entities = this.entities;
+		final Object[] components = this.components;
+		final int mask = components.length - 1;
+		for (int slot = slotOf(entity, mask); ; slot = (slot + 1) & mask) {
+			final Object component = components[slot];
+			if (component == null) {
+				return null;
+			}
+			if (entities[slot] == entity) {
+				return (T) component;
+			}
+		}
+	}
+
+	@Override
+	void put(int entity, @NotNull T component) {
+		if ((size + 1) * 2 > components.length) {
+			resize(components.length * 2);
+		}
+		insert(entity, component);
+		size++;
+	}
+
+	/** Insert into a free slot, the entity must not be present. */
+	private void insert(int entity, @NotNull Object component) {
+		final int[] entities = this.entities;
+		final Object[] components = this.components;
+		final int mask = components.length - 1;
+		int slot = slotOf(entity, mask);
+		while (components[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		entities[slot] = entity;
+		components[slot] = component;
+	}
+
+	private void resize(int capacity) {
+		final int[] oldEntities = this.entities;
+		final Object[] oldComponents = this.components;
+		this.entities = new int[capacity];
+		this.components = new Object[capacity];
+		for (int i = 0; i < oldComponents.length; i++) {
+			final Object component = oldComponents[i];
+			if (component != null) {
+				insert(oldEntities[i], component);
+			}
+		}
+	}
+
+	/** @throws NoSuchElementException when the entity does not have a component */
+	@NotNull
+	@Override
+	@SuppressWarnings("unchecked")
+	T remove(int entity) {
+		final int[] entities = this.entities;
+		final Object[] components = this.components;
+		final int mask = components.length - 1;
+		int slot = slotOf(entity, mask);
+		while (entities[slot] != entity || components[slot] == null) {
+			if (components[slot] == null) {
+				throw new NoSuchElementException("Entity " + entity + " does not have a component");
+			}
+			slot = (slot + 1) & mask;
+		}
+		final T removed = (T) components[slot];
+
+		// Shift back the following entries which would not be reachable over the gap
+		int gap = slot;
+		for (int i = (gap + 1) & mask; components[i] != null; i = (i + 1) & mask) {
+			final int ideal = slotOf(entities[i], mask);
+			if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+				entities[gap] = entities[i];
+				components[gap] = components[i];
+				gap = i;
+			}
+		}
+		components[gap] = null;
+
+		if (--size * 8 < components.length && components.length > MIN_CAPACITY) {
+			resize(components.length / 2);
+		}
+		return removed;
+	}
+
+	@NotNull
+	@Override
+	public String toString() {
+		return "HashComponentStorage(" + size + ")";
+	}
+}
@@ -0,0 +1,110 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.darkyen.retinazer.util.OffHeapMask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Directory of memory-mapped files, which hold the state of an {@link Engine}, so that a restarted process
+ * can map the previous world state and continue right away, without deserializing anything.
+ * Pass it to {@link Engine#Engine(ComponentSet, java.util.function.Supplier, MappedStorage, EngineService...)}.
+ * <p>
+ * Stored are:
+ * <ul>
+ *     <li>existing entities, in file {@code entities.mask}</li>
+ *     <li>masks of {@link Component.Tag} and {@link Component.OffHeapColumnar} components, in {@code <component class>.mask}</li>
+ *     <li>columns of {@link Component.OffHeapColumnar} components, in {@code <component class>.<field>.<field type>}</li>
+ * </ul>
+ * The files have the same format as the memory: masks are arrays of {@link com.darkyen.retinazer.util.Mask} words
+ * and columns are arrays of values indexed by entity ID, all in the native byte order of the platform.
+ * <p>
+ * Other components are not stored, so entities restored from the storage don't have them,
+ * they have to be restored by other means, if needed.
+ * Changes are written to the files directly, except for removals, which are stored only when they are flushed.
+ * Written changes survive a crash of the process, but not a crash of the operating system.
+ * <p>
+ * The directory is locked, so that it can't be used by multiple engines at once. The lock is released
+ * by {@link Engine#dispose()}, which also unmaps all files.
+ */
+public final class MappedStorage implements Disposable {
+
+	@NotNull
+	private final Path        directory;
+	/** Holds the lock of {@link #directory}, which is released when it is closed */
+	@Nullable
+	private       FileChannel lockFile;
+	/** Whether an engine uses this storage already */
+	boolean used = false;
+
+	/**
+	 * Opens the storage in the given directory, which is created if it does not exist.
+	 *
+	 * @throws IOException if the directory can't be created, or if it is used by another storage
+	 */
+	public MappedStorage(@NotNull Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+		final FileChannel lockFile = FileChannel.open(directory.resolve("lock"), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		FileLock lock;
+		try {
+			lock = lockFile.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			lockFile.close();
+			throw new IOException("Storage " + directory + " is already in use");
+		}
+		this.lockFile = lockFile;
+	}
+
+	/** @return the directory with the files */
+	@NotNull
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/** @return the mask stored under the given name */
+	@NotNull
+	OffHeapMask mask(@NotNull String name) {
+		final Path file = directory.resolve(name + ".mask");
+		try {
+			return new OffHeapMask(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not map " + file, e);
+		}
+	}
+
+	/** @return the file which stores the column of the field of the component */
+	@NotNull
+	Path column(@NotNull Class<? extends Component> type, @NotNull Field field) {
+		// The field type is in the name, so that the content is never misinterpreted when it changes
+		return directory.resolve(type.getName() + "." + field.getName() + "." + field.getType().getName());
+	}
+
+	/** Release the lock of the directory. Files must be unmapped separately, see {@link Engine#dispose()}. */
+	@Override
+	public void dispose() {
+		final FileChannel lockFile = this.lockFile;
+		if (lockFile == null) {
+			return;
+		}
+		this.lockFile = null;
+		try {
+			lockFile.close();
+		} catch (IOException ignored) {
+			// The lock is released anyway
+		}
+	}
+}
@@ -1,14 +1,21 @@
 package com.darkyen.retinazer;
 
-import com.badlogic.gdx.utils.Pool;
+import com.badlogic.gdx.utils.IntArray;
 import com.darkyen.retinazer.util.Bag;
+import com.darkyen.retinazer.util.CompressedMask;
 import com.darkyen.retinazer.util.Mask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.NoSuchElementException;
+import java.util.function.Supplier;
 
 /**
  * {@link Mapper} stores and manages components of a specific type for an {@link Engine}.
@@ -25,59 +32,141 @@ public final class Mapper<T extends Component> {
 	/** The component type */
 	@NotNull
 	public final Class<T> type;
+	/** Index of {@link #type} in the {@link Engine#componentDomain} */
+	final        int      index;
 
-	/** Zero-arg constructor for the component */
+	/** Calls the zero-arg constructor of the component, null if there is none */
 	@Nullable
-	private final Constructor<T> constructor;
+	private final Supplier<T>      factory;
 	/** Pool of components this mapper maps or null if my component type is not poolable. */
 	@Nullable
-	private final Pool<T>        componentPool;
+	private final ComponentPool<T> componentPool;
 
-	/** Stores components */
+	/** Stores components, unless they are {@link Component.Columnar} or use a different {@link #storage} */
 	@NotNull
 	private final Bag<T> components     = new Bag<>();
+	/** Stores components instead of {@link #components}, null when not used */
+	@Nullable
+	private final ComponentStorage<T> storage;
+	/** Stores {@link Component.Columnar} components, null for other components */
+	@Nullable
+	private final ComponentColumns columns;
+	/** Whether the component is a {@link Component.Tag}, which is not stored at all */
+	private final boolean tag;
+	/** The instance returned for all entities with a {@link Component.Tag}, null until first needed */
+	@Nullable
+	private T tagInstance = null;
 	/** Mask of current components */
 	@NotNull
-	final         Mask   componentsMask = new Mask();
+	final         Mask   componentsMask;
 
 	/** Mask of components to be removed on next flush */
 	@NotNull
-	private final Mask scheduledForRemoval = new Mask();
+	private final Mask scheduledForRemoval;
+	/**
+	 * Entities whose {@link Component.Tracked} component has changed since the last flush,
+	 * null for components which are not tracked
+	 */
+	@Nullable
+	final         Mask   changedMask;
 
-	Mapper(@NotNull Engine engine, @NotNull Class<T> type) {
+	Mapper(@NotNull Engine engine, @NotNull Class<T> type, int index) {
 		this.engine = engine;
 		this.type = type;
-		Constructor<T> constructor;
-		try {
-			constructor = type.getConstructor();
-			constructor.setAccessible(true);
-		} catch (NoSuchMethodException ex) {
-			constructor = null;
+		this.index = index;
+		@SuppressWarnings("unchecked")
+		final Supplier<T> factory = (Supplier<T>) FACTORIES.get(type);
+		this.factory = factory;
+		this.tag = Component.Tag.class.isAssignableFrom(type);
+		if (tag && factory == null) {
+			// Tags restored from the storage need their shared instance to be created
+			throw new IllegalArgumentException("Tag component " + type.getName() + " must have a public no-arg constructor");
 		}
-		this.constructor = constructor;
+		final boolean rare = Component.Rare.class.isAssignableFrom(type);
+		// Only components which don't need instances can be restored from the storage
+		final boolean stored = tag || Component.OffHeapColumnar.class.isAssignableFrom(type);
+		this.componentsMask = rare ? new CompressedMask() : stored ? engine.newStoredMask(type.getName()) : engine.newMask();
+		this.scheduledForRemoval = rare ? new CompressedMask() : engine.newMask();
+		this.changedMask = !Component.Tracked.class.isAssignableFrom(type) ? null : rare ? new CompressedMask() : engine.newMask();
 		if (Component.Pooled.class.isAssignableFrom(type)) {
-			assert constructor != null : "Pooled component MUST have a no-arg constructor! (" + type + ")";
-			componentPool = new Pool<T>() {
-				@Override
-				protected T newObject() {
-					return newComponent();
-				}
-			};
+			assert factory != null : "Pooled component MUST have a no-arg constructor! (" + type + ")";
+			componentPool = new ComponentPool<>(factory, type.getAnnotation(PoolConfig.class));
 		} else {
 			componentPool = null;
 		}
+		this.columns = Component.Columnar.class.isAssignableFrom(type) ? new ComponentColumns(this) : null;
+		final boolean packed = Component.Packed.class.isAssignableFrom(type);
+		if ((columns != null ? 1 : 0) + (packed ? 1 : 0) + (rare ? 1 : 0) + (tag ? 1 : 0) > 1) {
+			throw new IllegalArgumentException("Component " + type.getName() + " can be only one of columnar, packed, rare and tag");
+		}
+		if (packed) {
+			this.storage = new PackedComponentStorage<>();
+		} else if (rare) {
+			this.storage = new HashComponentStorage<>();
+		} else {
+			this.storage = null;
+		}
+		if (tag && !componentsMask.isEmpty()) {
+			// Restored from the storage
+			tagInstance = createComponent();
+		}
+	}
+
+	/**
+	 * @return pool of {@link Component.Pooled} components, which can be prewarmed, trimmed and inspected
+	 * @throws UnsupportedOperationException if the component is not {@link Component.Pooled}
+	 */
+	@NotNull
+	public ComponentPool<T> getPool() {
+		final ComponentPool<T> pool = this.componentPool;
+		if (pool == null) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not pooled");
+		}
+		return pool;
+	}
+
+	/**
+	 * @return storage of {@link Component.Packed} components
+	 * @throws UnsupportedOperationException if the component is not {@link Component.Packed}
+	 */
+	@NotNull
+	public PackedComponentStorage<T> getPackedStorage() {
+		final ComponentStorage<T> storage = this.storage;
+		if (!(storage instanceof PackedComponentStorage)) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not packed");
+		}
+		return (PackedComponentStorage<T>) storage;
+	}
+
+	/**
+	 * @return storage of the fields of {@link Component.Columnar} components
+	 * @throws UnsupportedOperationException if the component is not {@link Component.Columnar}
+	 */
+	@NotNull
+	public ComponentColumns getColumns() {
+		final ComponentColumns columns = this.columns;
+		if (columns == null) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not columnar");
+		}
+		return columns;
 	}
 
 	/**
 	 * Retrieves a component of the type handled by this mapper. Returns {@code null}
 	 * if the specified entity does not have a component of the type.
+	 * Always returns {@code null} for {@link Component.Columnar} components.
 	 *
 	 * @param entity the index of the entity.
 	 * @return the component; may be {@code null}.
 	 */
 	@Nullable
 	public T getOrNull(int entity) {
-		return components.get(entity);
+		final ComponentStorage<T> storage = this.storage;
+		final T component = storage == null ? components.get(entity) : storage.get(entity);
+		if (component == null && tag && componentsMask.get(entity)) {
+			return tagInstance;
+		}
+		return component;
 	}
 
 	/**
@@ -88,8 +177,16 @@ public final class Mapper<T extends Component> {
 	 */
 	@NotNull
 	public T get(int entity) {
-		final T component = components.get(entity);
+		final ComponentStorage<T> storage = this.storage;
+		final T component = storage == null ? components.get(entity) : storage.get(entity);
 		if (component == null) {
+			if (tag && componentsMask.get(entity)) {
+				assert tagInstance != null;
+				return tagInstance;
+			}
+			if (columns != null) {
+				throw new UnsupportedOperationException("Component " + type.getName() + " is columnar, use getColumns()");
+			}
 			throw new NoSuchElementException("Entity "+entity+" does not have a component of type "+type.getName());
 		}
 		return component;
@@ -108,13 +205,18 @@ public final class Mapper<T extends Component> {
 
 	/**
 	 * Creates a component of the type handled by this mapper for the given entity.
+	 * For {@link Component.Columnar} components, use {@link ComponentColumns#add(int)} instead.
 	 *
 	 * @param entity the index of the entity.
 	 * @return the created component.
+	 * @throws UnsupportedOperationException for {@link Component.Columnar} components
 	 */
 	@NotNull
 	public T create(int entity) {
-		final T component = createComponent();
+		if (columns != null) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is columnar, use getColumns().add(entity)");
+		}
+		final T component = tag && tagInstance != null ? tagInstance : createComponent();
 		add(entity, component);
 		return component;
 	}
@@ -128,17 +230,79 @@ public final class Mapper<T extends Component> {
 	 * <p>
 	 * NOTE: For pooled components, use {@link #create(int)} instead.
 	 * Manually added instances will otherwise end up in the pool.
+	 * <p>
+	 * Fields of {@link Component.Columnar} components are copied into the {@link #getColumns() columns},
+	 * the instance itself is not kept.
+	 * Instances of {@link Component.Tag} components are not kept either, except for the first one,
+	 * which is then returned for all entities.
 	 *
 	 * @param entity the index of the entity.
 	 * @param instance the component instance.
 	 */
 	public void add(int entity, @NotNull T instance) {
+		addToMask(entity);
+		final ComponentColumns columns = this.columns;
+		final ComponentStorage<T> storage = this.storage;
+		if (storage != null) {
+			storage.put(entity, instance);
+		} else if (tag) {
+			if (tagInstance == null) {
+				tagInstance = instance;
+			}
+		} else if (columns != null) {
+			columns.copyFrom(entity, instance);
+		} else {
+			components.set(entity, instance);
+		}
+	}
+
+	/** Mark the component as present on the entity, throw if it already is. */
+	void addToMask(int entity) {
 		if (!componentsMask.setChanged(entity)) {
 			throw new IllegalArgumentException("Cannot insert a component that "
-					+ "already exists: " + instance.getClass().getName());
+					+ "already exists: " + type.getName());
+		}
+		final Engine engine = this.engine;
+		engine.markDirty(entity);
+		engine.dirtyComponents.set(index);
+		final Mask changedMask = this.changedMask;
+		if (changedMask != null) {
+			changedMask.set(entity);
+			engine.changedComponents.set(index);
+		}
+	}
+
+	/**
+	 * Mark the {@link Component.Tracked} component of the entity as changed, so that the entity appears
+	 * in families which require the component to change, see {@link Family#changed(Class[])}.
+	 * Like additions, this takes effect on the next {@link Engine#flush()}.
+	 * Must not be called concurrently, because it modifies state shared by all entities,
+	 * parallel code records the change with {@link CommandBuffer#markChanged(int, Mapper)} instead.
+	 *
+	 * @throws UnsupportedOperationException if the component is not tracked
+	 */
+	public void markChanged(int entity) {
+		final Mask changedMask = this.changedMask;
+		if (changedMask == null) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not tracked");
+		}
+		if (changedMask.setChanged(entity)) {
+			final Engine engine = this.engine;
+			engine.markDirty(entity);
+			engine.changedComponents.set(index);
+		}
+	}
+
+	/** Forget the changes marked since the last flush. Only the words given by {@code dirtyWords} may contain them. */
+	void clearChanges(@NotNull IntArray dirtyWords) {
+		final Mask changedMask = this.changedMask;
+		assert changedMask != null;
+		final int[] words = dirtyWords.items;
+		for (int i = 0, n = dirtyWords.size; i < n; i++) {
+			if (changedMask.getWord(words[i]) != 0L) {
+				changedMask.setWord(words[i], 0L);
+			}
 		}
-		engine.dirty = true;
-		components.set(entity, instance);
 	}
 
 	/**
@@ -151,27 +315,121 @@ public final class Mapper<T extends Component> {
 	 */
 	public void remove(int entity) {
 		if (componentsMask.get(entity) && scheduledForRemoval.setChanged(entity)) {
-			engine.dirty = true;
+			engine.markDirty(entity);
 		}
 	}
 
-	void removeScheduled(@NotNull Mask globallyRemoved) {
+	/**
+	 * Adds the {@link Component.Tag} component to all entities of the set, which don't have it yet.
+	 * Works with whole mask words at a time, which is much faster than calling {@link #add(int, Component)} for each entity.
+	 * Like {@link #add(int, Component)}, this takes effect immediately, but notifications are delayed
+	 * until the next {@link Engine#flush()}.
+	 *
+	 * @throws UnsupportedOperationException if the component is not a tag
+	 */
+	public void addAll(@NotNull EntitySetView entities) {
+		if (!tag) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not a tag");
+		}
+		if (tagInstance == null) {
+			tagInstance = createComponent();
+		}
+		final Mask entitiesMask = entities.getMask();
+		final Mask componentsMask = this.componentsMask;
+		final Mask changedMask = this.changedMask;
+		final Engine engine = this.engine;
+		boolean modified = false;
+		for (int w = entitiesMask.nextNonEmptyWord(0); w != -1; w = entitiesMask.nextNonEmptyWord(w + 1)) {
+			final long present = componentsMask.getWord(w);
+			final long added = entitiesMask.getWord(w) & ~present;
+			if (added != 0L) {
+				componentsMask.setWord(w, present | added);
+				if (changedMask != null) {
+					changedMask.setWord(w, changedMask.getWord(w) | added);
+				}
+				engine.markDirty(w << 6);
+				modified = true;
+			}
+		}
+		if (modified) {
+			engine.dirtyComponents.set(index);
+			if (changedMask != null) {
+				engine.changedComponents.set(index);
+			}
+		}
+	}
+
+	/**
+	 * Removes the {@link Component.Tag} component from all entities of the set, which have it.
+	 * Works with whole mask words at a time, which is much faster than calling {@link #remove(int)} for each entity.
+	 * Like {@link #remove(int)}, the removal is delayed until the next {@link Engine#flush()}.
+	 *
+	 * @throws UnsupportedOperationException if the component is not a tag
+	 */
+	public void removeAll(@NotNull EntitySetView entities) {
+		if (!tag) {
+			throw new UnsupportedOperationException("Component " + type.getName() + " is not a tag");
+		}
+		final Mask entitiesMask = entities.getMask();
+		final Mask componentsMask = this.componentsMask;
+		final Mask scheduledForRemoval = this.scheduledForRemoval;
+		for (int w = entitiesMask.nextNonEmptyWord(0); w != -1; w = entitiesMask.nextNonEmptyWord(w + 1)) {
+			final long scheduled = scheduledForRemoval.getWord(w);
+			final long removed = entitiesMask.getWord(w) & componentsMask.getWord(w) & ~scheduled;
+			if (removed != 0L) {
+				scheduledForRemoval.setWord(w, scheduled | removed);
+				engine.markDirty(w << 6);
+			}
+		}
+	}
+
+	/**
+	 * Removes components scheduled for removal and components of entities that were removed.
+	 * Only the words of the masks given by {@code dirtyWords} are considered, no other words may contain changes.
+	 * If this changed {@link #componentsMask}, the component is marked in {@link Engine#dirtyComponents}.
+	 */
+	void removeScheduled(@NotNull Mask globallyRemoved, @NotNull IntArray dirtyWords) {
 		final Bag<T> components = this.components;
 		final Mask componentsMask = this.componentsMask;
 		final Mask scheduledForRemoval = this.scheduledForRemoval;
+		final ComponentPool<T> pool = this.componentPool;
+		final ComponentColumns columns = this.columns;
+		final ComponentStorage<T> storage = this.storage;
 
-		scheduledForRemoval.or(globallyRemoved);
-		scheduledForRemoval.and(componentsMask);
+		boolean modified = false;
+		final int[] words = dirtyWords.items;
+		for (int i = 0, n = dirtyWords.size; i < n; i++) {
+			final int word = words[i];
+			final long scheduled = scheduledForRemoval.getWord(word);
+			final long present = componentsMask.getWord(word);
+			long removed = (scheduled | globallyRemoved.getWord(word)) & present;
+			if (scheduled != 0L) {
+				scheduledForRemoval.setWord(word, 0L);
+			}
+			if (removed == 0L) {
+				continue;
+			}
+			modified = true;
+			componentsMask.setWord(word, present & ~removed);
+			if (columns != null || tag) {
+				// Columns are cleared when the component is added, tags are not stored
+				continue;
+			}
 
-		final Pool<T> pool = this.componentPool;
-		for (int entity = scheduledForRemoval.nextSetBit(0); entity != -1; entity = scheduledForRemoval.nextSetBit(entity + 1)) {
-			final T component = components.remove(entity);
-			assert component != null;
-			if (pool != null) pool.free(component);
+			final int wordBase = word << 6;
+			do {
+				final int entity = wordBase + Long.numberOfTrailingZeros(removed);
+				final T component = storage == null ? components.remove(entity) : storage.remove(entity);
+				assert component != null;
+				if (pool != null) pool.free(component);
+				// Clear the lowest set bit
+				removed &= removed - 1L;
+			} while (removed != 0L);
 		}
 
-		componentsMask.andNot(scheduledForRemoval);
-		scheduledForRemoval.clear();
+		if (modified) {
+			engine.dirtyComponents.set(index);
+		}
 	}
 
 	/**
@@ -181,28 +439,100 @@ public final class Mapper<T extends Component> {
 	 */
 	@NotNull
 	public T createComponent() {
-		final Pool<T> pool = this.componentPool;
+		final ComponentPool<T> pool = this.componentPool;
 		if (pool != null) {
 			return pool.obtain();
 		}
 
-		if (constructor == null) {
+		if (factory == null) {
 			throw new UnsupportedOperationException("Can't create component " + type.getName() + " - zero-argument constructor is missing");
 		}
 
 		return newComponent();
 	}
 
-	private static final Object[] NO_ARGS = new Object[0];
+	/** Like {@link #createComponent()}, but never uses the pool, so it is safe to call from any thread. */
+	@NotNull
+	T createComponentUnpooled() {
+		if (factory == null) {
+			throw new UnsupportedOperationException("Can't create component " + type.getName() + " - zero-argument constructor is missing");
+		}
+		return newComponent();
+	}
 
 	@NotNull
 	private T newComponent() {
+		final Supplier<T> factory = this.factory;
+		assert factory != null;
+		return factory.get();
+	}
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	/**
+	 * Factories of component types, see {@link #createFactory(Class)}, shared by all engines,
+	 * because generating them is expensive. Null for types without a zero-arg constructor.
+	 * Entries are attached to the component class, so types of unloaded class loaders do not stay reachable
+	 * and a type is never mistaken for a different class of the same name.
+	 */
+	private static final ClassValue<Supplier<?>> FACTORIES = new ClassValue<Supplier<?>>() {
+		@Override
+		protected Supplier<?> computeValue(Class<?> type) {
+			return createFactory(type);
+		}
+	};
+
+	/**
+	 * Create a factory which calls the constructor directly, through a class generated by {@link LambdaMetafactory},
+	 * which is as fast as a plain {@code new}. When that is not possible, for example because the component class
+	 * is not accessible from here, fall back to slower reflective {@link Constructor#newInstance(Object...)}.
+	 * <p>
+	 * The generated class is defined next to {@link Mapper} and refers to the component class by name,
+	 * so it is used only when the class loader of {@link Mapper} resolves that name to the same class.
+	 * Component classes of child class loaders (plugins, hot-reloaded code) are always created reflectively.
+	 *
+	 * @return null if the type has no zero-arg constructor
+	 */
+	@Nullable
+	private static <T> Supplier<T> createFactory(@NotNull Class<T> type) {
+		final Constructor<T> constructor;
 		try {
-			final Constructor<T> constructor = this.constructor;
-			assert constructor != null;
-			return constructor.newInstance(NO_ARGS);
-		} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-			throw new RuntimeException("Could not create a new instance of " + this.type, e);
+			constructor = type.getConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+
+		if (isVisibleToMapper(type)) {
+			try {
+				final MethodHandles.Lookup lookup = MethodHandles.lookup();
+				final MethodHandle newInstance = lookup.findConstructor(type, MethodType.methodType(void.class));
+				final CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+						MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+						newInstance, MethodType.methodType(type));
+				@SuppressWarnings("unchecked")
+				final Supplier<T> factory = (Supplier<T>) site.getTarget().invoke();
+				return factory;
+			} catch (Throwable ignored) {
+				// Not accessible, or not supported by this JVM
+			}
+		}
+
+		return () -> {
+			try {
+				return constructor.newInstance(NO_ARGS);
+			} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+				throw new RuntimeException("Could not create a new instance of " + type, e);
+			}
+		};
+	}
+
+	/** @return whether the class loader of {@link Mapper} resolves the name of the type to the type itself */
+	private static boolean isVisibleToMapper(@NotNull Class<?> type) {
+		try {
+			return Class.forName(type.getName(), false, Mapper.class.getClassLoader()) == type;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
 		}
 	}
 
@@ -213,12 +543,20 @@ public final class Mapper<T extends Component> {
 	 * For non-pooled components this is a no-op, which can be safely omitted.
 	 */
 	public void destroyComponent(@NotNull T component) {
-		final Pool<T> pool = this.componentPool;
+		final ComponentPool<T> pool = this.componentPool;
 		if (pool != null) {
 			pool.free(component);
 		}
 	}
 
+	/** Release the off-heap memory of this mapper, see {@link Engine#dispose()}. */
+	void dispose() {
+		final ComponentColumns columns = this.columns;
+		if (columns != null) {
+			columns.dispose();
+		}
+	}
+
 	@NotNull
 	@Override
 	public String toString() {
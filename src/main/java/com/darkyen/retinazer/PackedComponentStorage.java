@@ -0,0 +1,153 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * {@link ComponentStorage} of {@link Component.Packed} components.
+ * <p>
+ * This is a sparse set: components and their entities are kept densely packed in two parallel arrays,
+ * so they can be iterated linearly, without visiting entities which don't have the component:
+ * <pre>{@code
+ * for (int i = 0, size = storage.size(); i < size; i++) {
+ *     process(storage.getEntity(i), storage.getComponent(i));
+ * }
+ * }</pre>
+ * A sparse index maps entity IDs to positions in the dense arrays. It is split into pages,
+ * which are allocated only for the ranges of entity IDs which ever had the component.
+ * <p>
+ * The dense order is not the order of entity IDs. When a component is removed, the last component
+ * is moved into its place, so the order changes on every {@link Engine#flush()} which removes a component.
+ * Components which were added since the last flush are already present,
+ * components which are scheduled for removal are still present.
+ *
+ * @param <T> the component type
+ */
+public final class PackedComponentStorage<T extends Component> extends ComponentStorage<T> {
+
+	private static final int PAGE_SHIFT = 10;
+	private static final int PAGE_SIZE  = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK  = PAGE_SIZE - 1;
+
+	private static final int[][] NO_PAGES = new int[0][];
+
+	/** Components, densely packed */
+	@NotNull
+	private Object[] components = new Object[16];
+	/** Entity of each component in {@link #components} */
+	@NotNull
+	private int[]    entities   = new int[16];
+	private int      size       = 0;
+
+	/**
+	 * Pages of the sparse index, which maps entity ID to the index into {@link #components}.
+	 * Values of entities without the component are stale and must be validated against {@link #entities}.
+	 */
+	@NotNull
+	private int[][] pages = NO_PAGES;
+
+	PackedComponentStorage() {
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index in range [0, {@link #size()})
+	 * @return entity of the component at given dense index
+	 */
+	public int getEntity(int index) {
+		return entities[index];
+	}
+
+	/**
+	 * @param index in range [0, {@link #size()})
+	 * @return component at given dense index
+	 */
+	@NotNull
+	@SuppressWarnings("unchecked")
+	public T getComponent(int index) {
+		return (T) components[index];
+	}
+
+	/** @return index into the dense arrays, or -1 if the entity has no component */
+	private int indexOf(int entity) {
+		final int pageIndex = entity >>> PAGE_SHIFT;
+		final int[][] pages = this.pages;
+		if (pageIndex >= pages.length) {
+			return -1;
+		}
+		final int[] page = pages[pageIndex];
+		if (page == null) {
+			return -1;
+		}
+		final int index = page[entity & PAGE_MASK];
+		return index < size && entities[index] == entity ? index : -1;
+	}
+
+	@Nullable
+	@Override
+	@SuppressWarnings("unchecked")
+	T get(int entity) {
+		final int index = indexOf(entity);
+		return index == -1 ? null : (T) components[index];
+	}
+
+	private void setIndex(int entity, int index) {
+		final int pageIndex = entity >>> PAGE_SHIFT;
+		int[][] pages = this.pages;
+		if (pageIndex >= pages.length) {
+			this.pages = pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length * 2));
+		}
+		int[] page = pages[pageIndex];
+		if (page == null) {
+			pages[pageIndex] = page = new int[PAGE_SIZE];
+		}
+		page[entity & PAGE_MASK] = index;
+	}
+
+	@Override
+	void put(int entity, @NotNull T component) {
+		final int size = this.size;
+		if (size == components.length) {
+			components = Arrays.copyOf(components, size * 2);
+			entities = Arrays.copyOf(entities, size * 2);
+		}
+		components[size] = component;
+		entities[size] = entity;
+		setIndex(entity, size);
+		this.size = size + 1;
+	}
+
+	@NotNull
+	@Override
+	@SuppressWarnings("unchecked")
+	T remove(int entity) {
+		final int index = indexOf(entity);
+		assert index != -1;
+		final Object[] components = this.components;
+		final int[] entities = this.entities;
+		final T removed = (T) components[index];
+
+		final int last = --size;
+		if (index != last) {
+			// Swap the last component in
+			final int movedEntity = entities[last];
+			components[index] = components[last];
+			entities[index] = movedEntity;
+			setIndex(movedEntity, index);
+		}
+		components[last] = null;
+		return removed;
+	}
+
+	@NotNull
+	@Override
+	public String toString() {
+		return "PackedComponentStorage(" + size + ")";
+	}
+}
@@ -0,0 +1,27 @@
+package com.darkyen.retinazer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Configures the {@link ComponentPool} of a {@link Component.Pooled} component type.
+ * Pools of component types without this annotation start empty and retain all freed components.
+ *
+ * @see Mapper#getPool()
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface PoolConfig {
+	/** Amount of components created in advance, when the {@link Engine} is created. */
+	int initial() default 0;
+
+	/** Maximum amount of free components retained by the pool, components freed above it are discarded. */
+	int max() default Integer.MAX_VALUE;
+
+	/** Amount of free components which are retained by {@link ComponentPool#trim()}. */
+	int trimTo() default 0;
+}
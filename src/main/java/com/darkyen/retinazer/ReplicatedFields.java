@@ -0,0 +1,193 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes the field values of {@link Component.Replicated} components of one {@link Mapper},
+ * as raw bits, see {@link ComponentColumns#getBits(int, int)}, and encodes them into {@link DeltaBuffer}s.
+ * Used by {@link ReplicationRecorder} and {@link ReplicationApplier}.
+ */
+final class ReplicatedFields {
+
+	private static final int BOOLEAN = 0;
+	private static final int BYTE    = 1;
+	private static final int CHAR    = 2;
+	private static final int SHORT   = 3;
+	private static final int INT     = 4;
+	private static final int LONG    = 5;
+	private static final int FLOAT   = 6;
+	private static final int DOUBLE  = 7;
+
+	@NotNull
+	private final Mapper<?>        mapper;
+	/** Columns of {@link Component.Columnar} components, null for other components */
+	@Nullable
+	private final ComponentColumns columns;
+	@NotNull
+	private final Field[]          fields;
+	/** Kind of each field, {@link #BOOLEAN}, {@link #BYTE}, ... */
+	@NotNull
+	private final int[]            kinds;
+
+	private ReplicatedFields(@NotNull Mapper<?> mapper) {
+		this.mapper = mapper;
+		final Field[] fields;
+		if (Component.Columnar.class.isAssignableFrom(mapper.type)) {
+			columns = mapper.getColumns();
+			fields = columns.getFields();
+			// Columns hold only the fields declared by the component class itself
+			final ArrayList<Field> inherited = new ArrayList<>();
+			for (Class<?> current = mapper.type.getSuperclass(); current != null && current != Object.class; current = current.getSuperclass()) {
+				addReplicatedFields(current, inherited);
+			}
+			if (!inherited.isEmpty()) {
+				throw new IllegalArgumentException("Replicated columnar component " + mapper.type.getName() + " inherits field " + inherited.get(0).getName() + ", which is not stored in its columns");
+			}
+		} else {
+			columns = null;
+			final ArrayList<Field> list = new ArrayList<>();
+			for (Class<?> current = mapper.type; current != null && current != Object.class; current = current.getSuperclass()) {
+				addReplicatedFields(current, list);
+			}
+			fields = list.toArray(new Field[0]);
+		}
+		if (fields.length > 64) {
+			throw new IllegalArgumentException("Replicated component " + mapper.type.getName() + " has more than 64 fields");
+		}
+
+		this.fields = fields;
+		this.kinds = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			final Class<?> type = fields[i].getType();
+			if (type == boolean.class) {
+				kinds[i] = BOOLEAN;
+			} else if (type == byte.class) {
+				kinds[i] = BYTE;
+			} else if (type == char.class) {
+				kinds[i] = CHAR;
+			} else if (type == short.class) {
+				kinds[i] = SHORT;
+			} else if (type == int.class) {
+				kinds[i] = INT;
+			} else if (type == long.class) {
+				kinds[i] = LONG;
+			} else if (type == float.class) {
+				kinds[i] = FLOAT;
+			} else if (type == double.class) {
+				kinds[i] = DOUBLE;
+			} else {
+				throw new IllegalArgumentException("Replicated component " + mapper.type.getName() + " has field " + fields[i].getName() + " of unsupported type " + type.getName());
+			}
+		}
+	}
+
+	/** Add the non-static, non-transient fields declared by the class itself. */
+	private static void addReplicatedFields(@NotNull Class<?> type, @NotNull ArrayList<Field> fields) {
+		for (Field field : type.getDeclaredFields()) {
+			final int modifiers = field.getModifiers();
+			if (field.isSynthetic() || Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+				continue;
+			}
+			field.setAccessible(true);
+			fields.add(field);
+		}
+	}
+
+	/** @return fields of the mapper, or null if its component is not {@link Component.Replicated} */
+	@Nullable
+	static ReplicatedFields of(@NotNull Mapper<?> mapper) {
+		return Component.Replicated.class.isAssignableFrom(mapper.type) ? new ReplicatedFields(mapper) : null;
+	}
+
+	/** @return amount of the fields */
+	int size() {
+		return fields.length;
+	}
+
+	/** @return raw bits of the value of the field of the component of the entity */
+	long get(int entity, int field) {
+		final ComponentColumns columns = this.columns;
+		if (columns != null) {
+			return columns.getBits(field, entity);
+		}
+		final Object component = mapper.get(entity);
+		final Field f = fields[field];
+		try {
+			switch (kinds[field]) {
+				case BOOLEAN: return f.getBoolean(component) ? 1L : 0L;
+				case BYTE: return f.getByte(component);
+				case CHAR: return f.getChar(component);
+				case SHORT: return f.getShort(component);
+				case INT: return f.getInt(component);
+				case LONG: return f.getLong(component);
+				case FLOAT: return Float.floatToRawIntBits(f.getFloat(component));
+				case DOUBLE: return Double.doubleToRawLongBits(f.getDouble(component));
+				default: throw new AssertionError();
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Could not read field " + f.getName() + " of " + mapper.type.getName(), e);
+		}
+	}
+
+	/** Set the value of the field of the component of the entity from raw bits. */
+	void set(int entity, int field, long bits) {
+		final ComponentColumns columns = this.columns;
+		if (columns != null) {
+			columns.setBits(field, entity, bits);
+			return;
+		}
+		final Object component = mapper.get(entity);
+		final Field f = fields[field];
+		try {
+			switch (kinds[field]) {
+				case BOOLEAN: f.setBoolean(component, bits != 0L); break;
+				case BYTE: f.setByte(component, (byte) bits); break;
+				case CHAR: f.setChar(component, (char) bits); break;
+				case SHORT: f.setShort(component, (short) bits); break;
+				case INT: f.setInt(component, (int) bits); break;
+				case LONG: f.setLong(component, bits); break;
+				case FLOAT: f.setFloat(component, Float.intBitsToFloat((int) bits)); break;
+				case DOUBLE: f.setDouble(component, Double.longBitsToDouble(bits)); break;
+				default: throw new AssertionError();
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Could not write field " + f.getName() + " of " + mapper.type.getName(), e);
+		}
+	}
+
+	/** Write the raw bits of the value of the field. */
+	void write(@NotNull DeltaBuffer out, int field, long bits) {
+		switch (kinds[field]) {
+			case BOOLEAN:
+			case BYTE: out.writeByte((int) bits); break;
+			case CHAR: out.writeVarLong(bits & 0xFFFFL); break;
+			case SHORT:
+			case INT:
+			case LONG: out.writeZigZag(bits); break;
+			// Floating point values rarely have short variable length encoding
+			case FLOAT: out.writeFixed(bits, 4); break;
+			case DOUBLE: out.writeFixed(bits, 8); break;
+			default: throw new AssertionError();
+		}
+	}
+
+	/** @return raw bits of the value of the field, written by {@link #write(DeltaBuffer, int, long)} */
+	long read(@NotNull DeltaBuffer in, int field) {
+		switch (kinds[field]) {
+			case BOOLEAN:
+			case BYTE: return in.readByte();
+			case CHAR: return in.readVarLong();
+			case SHORT:
+			case INT:
+			case LONG: return in.readZigZag();
+			case FLOAT: return (int) in.readFixed(4);
+			case DOUBLE: return in.readFixed(8);
+			default: throw new AssertionError();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Replays deltas captured by a {@link ReplicationRecorder} onto a client {@link Engine},
+ * which must use the same {@link ComponentSet}, in the same order.
+ * <p>
+ * The client starts with a {@link ReplicationRecorder#captureSnapshot() snapshot} or with the first delta, which contains everything,
+ * and then has to apply all following deltas in order, each of them at most once per {@link Engine#update()},
+ * so that the IDs of destroyed entities are released as fast as on the server.
+ * The entities of the client engine should not be modified otherwise, or the deltas may not apply.
+ * <p>
+ * Added components are created through {@link Mapper#create(int)}, so they must have a zero-arg constructor,
+ * or through {@link ComponentColumns#add(int)} for {@link Component.Columnar} components.
+ */
+public final class ReplicationApplier {
+
+	@NotNull
+	private final Engine             engine;
+	/** Fields of each mapper, null for components which are not {@link Component.Replicated} */
+	@NotNull
+	private final ReplicatedFields[] replicatedFields;
+	/** Whether the component of each mapper is {@link Component.Columnar} */
+	@NotNull
+	private final boolean[]          columnar;
+
+	@NotNull
+	private final DeltaBuffer buffer = new DeltaBuffer();
+
+	public ReplicationApplier(@NotNull Engine engine) {
+		this.engine = engine;
+		final Mapper<?>[] mappers = engine.componentMappers;
+		this.replicatedFields = new ReplicatedFields[mappers.length];
+		this.columnar = new boolean[mappers.length];
+		for (int i = 0; i < mappers.length; i++) {
+			replicatedFields[i] = ReplicatedFields.of(mappers[i]);
+			columnar[i] = Component.Columnar.class.isAssignableFrom(mappers[i].type);
+		}
+	}
+
+	/**
+	 * Apply the delta and flush the engine.
+	 *
+	 * @param data which contain the delta, captured by {@link ReplicationRecorder#capture()} or {@link ReplicationRecorder#captureSnapshot()}
+	 * @param offset of the delta in the data
+	 * @param length of the delta in bytes
+	 * @throws IllegalArgumentException if the delta is malformed
+	 * @throws IllegalStateException if the delta does not fit the engine, for example when an entity it creates already exists
+	 */
+	public void apply(@NotNull byte[] data, int offset, int length) {
+		final Engine engine = this.engine;
+		final DeltaBuffer in = this.buffer;
+		in.startReading(data, offset, length);
+		try {
+			in.startList();
+			for (int entity = in.readEntity(); entity != -1; entity = in.readEntity()) {
+				if (!engine.createEntity(entity)) {
+					throw new IllegalStateException("Entity " + entity + " already exists or was destroyed too recently");
+				}
+			}
+
+			in.startList();
+			for (int entity = in.readEntity(); entity != -1; entity = in.readEntity()) {
+				engine.destroyEntity(entity);
+			}
+
+			final Mapper<?>[] mappers = engine.componentMappers;
+			for (int c = in.readVarInt() - 1; c != -1; c = in.readVarInt() - 1) {
+				if (c >= mappers.length) {
+					throw new IllegalArgumentException("Delta refers to unknown component " + c);
+				}
+				applyComponent(in, mappers[c], replicatedFields[c], columnar[c]);
+			}
+
+			if (!in.isFullyRead()) {
+				throw new IllegalArgumentException("Delta is followed by unexpected data");
+			}
+		} finally {
+			in.finishReading();
+		}
+
+		engine.flush();
+	}
+
+	private static void applyComponent(@NotNull DeltaBuffer in, @NotNull Mapper<?> mapper, @Nullable ReplicatedFields fields, boolean columnar) {
+		final int fieldCount = fields == null ? 0 : fields.size();
+
+		in.startList();
+		for (int entity = in.readEntity(); entity != -1; entity = in.readEntity()) {
+			if (columnar) {
+				mapper.getColumns().add(entity);
+			} else {
+				mapper.create(entity);
+			}
+			for (int f = 0; f < fieldCount; f++) {
+				fields.set(entity, f, fields.read(in, f));
+			}
+		}
+
+		in.startList();
+		for (int entity = in.readEntity(); entity != -1; entity = in.readEntity()) {
+			mapper.remove(entity);
+		}
+
+		if (fields == null) {
+			return;
+		}
+
+		in.startList();
+		for (int entity = in.readEntity(); entity != -1; entity = in.readEntity()) {
+			long changedFields = in.readVarLong();
+			if (changedFields == 0L || 64 - Long.numberOfLeadingZeros(changedFields) > fieldCount) {
+				throw new IllegalArgumentException("Delta is malformed");
+			}
+			do {
+				final int f = Long.numberOfTrailingZeros(changedFields);
+				fields.set(entity, f, fields.read(in, f));
+				changedFields &= changedFields - 1L;
+			} while (changedFields != 0L);
+		}
+	}
+}
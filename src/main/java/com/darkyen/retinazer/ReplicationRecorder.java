@@ -0,0 +1,364 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.util.CompressedMask;
+import com.darkyen.retinazer.util.LongBag;
+import com.darkyen.retinazer.util.Mask;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Service which captures the changes of its {@link Engine} since the previous capture into a compact binary delta,
+ * which can be sent over the network and replayed onto another engine by a {@link ReplicationApplier}:
+ * <ul>
+ *     <li>created and destroyed entities</li>
+ *     <li>added and removed components (of entities which were not destroyed)</li>
+ *     <li>changed field values of {@link Component.Replicated} components</li>
+ * </ul>
+ * Each {@link #update()} captures a delta, so the recorder should be the last service of the engine.
+ * The delta is then available through {@link #getData()} and {@link #getSize()} until the next capture.
+ * Only one recorder can be registered in an engine.
+ * <p>
+ * The changes are found by comparing the engine with its state at the previous capture,
+ * so only the net effect is captured, for example components added and removed between two captures are not in the delta.
+ * Only the parts of masks which were modified since then are compared, except for the values of {@link Component.Replicated}
+ * components, which are compared for all entities. When the component is also {@link Component.Tracked}, only the values
+ * of entities marked by {@link Mapper#markChanged(int)} are compared, so changes which were not marked are not captured.
+ * Capturing allocates no memory, except when the internal buffers grow.
+ * <p>
+ * A client which joins later starts from a {@link #captureSnapshot() snapshot}.
+ * Both sides must use the same {@link ComponentSet}, in the same order.
+ */
+public final class ReplicationRecorder implements EngineService {
+
+	@Wire
+	private Engine engine;
+
+	/** Words of entity masks which contain changes since the previous capture, maintained by {@link Engine#flush()} */
+	@NotNull
+	final         Mask     changedWords       = new Mask();
+	/** Decoded {@link #changedWords}, used during capture */
+	@NotNull
+	private final IntArray changedWordIndices = new IntArray();
+
+	/** Entities as of the previous capture */
+	@NotNull
+	private final Mask                sentEntities = new Mask();
+	/** Components of each mapper as of the previous capture */
+	private       Mask[]              sentComponents;
+	/** Fields of each mapper, null for components which are not {@link Component.Replicated} */
+	private       ReplicatedFields[]  replicatedFields;
+	/** Raw bits of the field values as of the previous capture, by mapper, field and entity, null for components which are not replicated */
+	private       LongBag[][]         sentValues;
+	/**
+	 * Entities whose component was marked as changed since the previous capture, by mapper, maintained by {@link Engine#flush()},
+	 * null for components which are not both {@link Component.Replicated} and {@link Component.Tracked}
+	 */
+	private       Mask[]              changedValues;
+	/** Raw bits of the field values of one entity, used during capture */
+	@NotNull
+	private final long[]              values       = new long[64];
+
+	@NotNull
+	private final DeltaBuffer buffer = new DeltaBuffer();
+
+	@Override
+	public void initialize() {
+		final Engine engine = this.engine;
+		final Mapper<?>[] mappers = engine.componentMappers;
+		sentComponents = new Mask[mappers.length];
+		replicatedFields = new ReplicatedFields[mappers.length];
+		sentValues = new LongBag[mappers.length][];
+		final Mask[] changedValues = new Mask[mappers.length];
+		for (int i = 0; i < mappers.length; i++) {
+			final Mapper<?> mapper = mappers[i];
+			sentComponents[i] = mapper.componentsMask instanceof CompressedMask ? new CompressedMask() : new Mask();
+			final ReplicatedFields fields = replicatedFields[i] = ReplicatedFields.of(mapper);
+			if (fields != null) {
+				final LongBag[] values = sentValues[i] = new LongBag[fields.size()];
+				for (int f = 0; f < values.length; f++) {
+					values[f] = new LongBag();
+				}
+				if (mapper.changedMask != null) {
+					changedValues[i] = mapper.changedMask instanceof CompressedMask ? new CompressedMask() : new Mask();
+				}
+			}
+		}
+		this.changedValues = changedValues;
+
+		// Entities which exist before the first flush, for example restored from a MappedStorage
+		final Mask entities = engine.entities;
+		for (int w = entities.nextNonEmptyWord(0); w != -1; w = entities.nextNonEmptyWord(w + 1)) {
+			changedWords.set(w);
+		}
+	}
+
+	/**
+	 * Remember the entities whose component has been marked as changed, before {@link Mapper#clearChanges(IntArray)}.
+	 * Only the words given by {@code dirtyWords} may contain them.
+	 */
+	void recordChanges(@NotNull Mapper<?> mapper, @NotNull IntArray dirtyWords) {
+		final Mask[] changedValues = this.changedValues;
+		final Mask changed = changedValues == null ? null : changedValues[mapper.index];
+		final Mask changedMask = mapper.changedMask;
+		if (changed == null || changedMask == null) {
+			return;
+		}
+		final int[] words = dirtyWords.items;
+		for (int i = 0, n = dirtyWords.size; i < n; i++) {
+			final long word = changedMask.getWord(words[i]);
+			if (word != 0L) {
+				changed.setWord(words[i], changed.getWord(words[i]) | word);
+			}
+		}
+	}
+
+	/** Captures the delta, see {@link #capture()}. */
+	@Override
+	public void update() {
+		capture();
+	}
+
+	/**
+	 * Flush the engine and capture its changes since the previous capture.
+	 * The first capture contains the whole engine.
+	 *
+	 * @return size of the delta in bytes
+	 * @see #getData()
+	 */
+	public int capture() {
+		return capture(false);
+	}
+
+	/**
+	 * Flush the engine and capture its whole state, as a delta from an empty engine, for clients which join.
+	 * Such client has to apply the snapshot first and then all deltas captured after it.
+	 * This does not affect the deltas, so it must be captured right after a delta, before the engine is modified,
+	 * for example right after {@link Engine#update()}.
+	 *
+	 * @return size of the snapshot in bytes
+	 * @throws IllegalStateException if entities or components were modified since the previous delta
+	 * @see #getData()
+	 */
+	public int captureSnapshot() {
+		return capture(true);
+	}
+
+	/** @return buffer which holds the last captured delta or snapshot, at the beginning, valid until the next capture */
+	@NotNull
+	public byte[] getData() {
+		return buffer.data;
+	}
+
+	/** @return size of the last captured delta or snapshot in bytes */
+	public int getSize() {
+		return buffer.position;
+	}
+
+	/**
+	 * The delta consists of:
+	 * <ol>
+	 *     <li>list of created entities</li>
+	 *     <li>list of destroyed entities</li>
+	 *     <li>section of each component with changes, terminated by 0, which consists of:
+	 *     <ol>
+	 *         <li>component index + 1</li>
+	 *         <li>list of entities which got the component, each followed by all field values if it is replicated</li>
+	 *         <li>list of entities which lost the component</li>
+	 *         <li>if replicated, list of entities whose field values changed, each followed by the bit mask of changed fields
+	 *         and their values</li>
+	 *     </ol>
+	 *     </li>
+	 * </ol>
+	 * See {@link DeltaBuffer} for the encoding of numbers and lists and {@link ReplicatedFields} for the encoding of values.
+	 *
+	 * @param full whether to capture everything, instead of changes since the previous capture
+	 */
+	private int capture(boolean full) {
+		final Engine engine = this.engine;
+		engine.flush();
+		if (full && !changedWords.isEmpty()) {
+			throw new IllegalStateException("Snapshot must be captured right after a delta");
+		}
+
+		final DeltaBuffer out = this.buffer;
+		out.clearForWriting();
+
+		final Mask entities = engine.entities;
+		final IntArray changedWordIndices = this.changedWordIndices;
+		changedWordIndices.clear();
+		if (full) {
+			for (int w = entities.nextNonEmptyWord(0); w != -1; w = entities.nextNonEmptyWord(w + 1)) {
+				changedWordIndices.add(w);
+			}
+		} else {
+			changedWords.getIndices(changedWordIndices);
+		}
+		final int[] words = changedWordIndices.items;
+		final int wordCount = changedWordIndices.size;
+
+		final Mask sentEntities = this.sentEntities;
+		out.startList();
+		for (int i = 0; i < wordCount; i++) {
+			final int word = words[i];
+			writeEntities(out, word, entities.getWord(word) & ~(full ? 0L : sentEntities.getWord(word)));
+		}
+		out.endList();
+
+		out.startList();
+		if (!full) {
+			for (int i = 0; i < wordCount; i++) {
+				final int word = words[i];
+				writeEntities(out, word, sentEntities.getWord(word) & ~entities.getWord(word));
+			}
+		}
+		out.endList();
+
+		final Mapper<?>[] mappers = engine.componentMappers;
+		for (int c = 0; c < mappers.length; c++) {
+			final int sectionStart = out.position;
+			out.writeVarLong(c + 1);
+			if (!writeComponent(out, c, full, words, wordCount)) {
+				// Nothing has changed, leave the section out
+				out.position = sectionStart;
+			}
+		}
+		out.writeByte(0);
+
+		if (!full) {
+			for (int i = 0; i < wordCount; i++) {
+				final int word = words[i];
+				sentEntities.setWord(word, entities.getWord(word));
+				for (int c = 0; c < mappers.length; c++) {
+					sentComponents[c].setWord(word, mappers[c].componentsMask.getWord(word));
+					final Mask changed = changedValues[c];
+					if (changed != null && changed.getWord(word) != 0L) {
+						changed.setWord(word, 0L);
+					}
+				}
+			}
+			changedWords.clear();
+		}
+		changedWordIndices.clear();
+		return out.position;
+	}
+
+	/**
+	 * Write the section of the component with given index, without its index.
+	 * @return whether the section contains any changes
+	 */
+	private boolean writeComponent(@NotNull DeltaBuffer out, int c, boolean full, @NotNull int[] words, int wordCount) {
+		final Mask entities = engine.entities;
+		final Mask components = engine.componentMappers[c].componentsMask;
+		final Mask sentComponents = this.sentComponents[c];
+		final ReplicatedFields fields = replicatedFields[c];
+		final LongBag[] sentValues = this.sentValues[c];
+		final int fieldCount = fields == null ? 0 : fields.size();
+		boolean changed = false;
+
+		// Added components
+		out.startList();
+		for (int i = 0; i < wordCount; i++) {
+			final int word = words[i];
+			long added = components.getWord(word) & ~(full ? 0L : sentComponents.getWord(word));
+			if (added == 0L) {
+				continue;
+			}
+			changed = true;
+			final int wordBase = word << 6;
+			do {
+				final int entity = wordBase + Long.numberOfTrailingZeros(added);
+				out.writeEntity(entity);
+				for (int f = 0; f < fieldCount; f++) {
+					final long value = fields.get(entity, f);
+					fields.write(out, f, value);
+					if (!full) {
+						sentValues[f].set(entity, value);
+					}
+				}
+				added &= added - 1L;
+			} while (added != 0L);
+		}
+		out.endList();
+
+		// Removed components, of entities which were not destroyed, because those lose them anyway
+		out.startList();
+		if (!full) {
+			for (int i = 0; i < wordCount; i++) {
+				final int word = words[i];
+				final long removed = sentComponents.getWord(word) & ~components.getWord(word) & entities.getWord(word);
+				if (removed != 0L) {
+					changed = true;
+					writeEntities(out, word, removed);
+				}
+			}
+		}
+		out.endList();
+
+		if (fields == null) {
+			return changed;
+		}
+
+		// Changed values, of components which were already present, all fields of added components were written above
+		out.startList();
+		if (!full && fieldCount > 0) {
+			final Mask changedValues = this.changedValues[c];
+			if (changedValues != null) {
+				// Only the marked entities can have changed, and their words are among the changed words
+				for (int i = 0; i < wordCount; i++) {
+					final int word = words[i];
+					final long present = changedValues.getWord(word) & components.getWord(word) & sentComponents.getWord(word);
+					changed |= writeChangedValues(out, word, present, fields, sentValues);
+				}
+			} else {
+				for (int word = components.nextNonEmptyWord(0); word != -1; word = components.nextNonEmptyWord(word + 1)) {
+					final long present = components.getWord(word) & sentComponents.getWord(word);
+					changed |= writeChangedValues(out, word, present, fields, sentValues);
+				}
+			}
+		}
+		out.endList();
+		return changed;
+	}
+
+	/**
+	 * Write the entities of the word whose field values differ from the sent ones, with the changed values, and remember them as sent.
+	 * @param present entities of the word which have the component, now and at the previous capture
+	 * @return whether any entity was written
+	 */
+	private boolean writeChangedValues(@NotNull DeltaBuffer out, int word, long present, @NotNull ReplicatedFields fields, @NotNull LongBag[] sentValues) {
+		final long[] values = this.values;
+		final int fieldCount = fields.size();
+		final int wordBase = word << 6;
+		boolean changed = false;
+		for (; present != 0L; present &= present - 1L) {
+			final int entity = wordBase + Long.numberOfTrailingZeros(present);
+			long changedFields = 0L;
+			for (int f = 0; f < fieldCount; f++) {
+				final long value = values[f] = fields.get(entity, f);
+				if (value != sentValues[f].get(entity)) {
+					changedFields |= 1L << f;
+				}
+			}
+			if (changedFields == 0L) {
+				continue;
+			}
+			changed = true;
+			out.writeEntity(entity);
+			out.writeVarLong(changedFields);
+			do {
+				final int f = Long.numberOfTrailingZeros(changedFields);
+				fields.write(out, f, values[f]);
+				sentValues[f].set(entity, values[f]);
+				changedFields &= changedFields - 1L;
+			} while (changedFields != 0L);
+		}
+		return changed;
+	}
+
+	private static void writeEntities(@NotNull DeltaBuffer out, int word, long bits) {
+		final int wordBase = word << 6;
+		for (; bits != 0L; bits &= bits - 1L) {
+			out.writeEntity(wordBase + Long.numberOfTrailingZeros(bits));
+		}
+	}
+}
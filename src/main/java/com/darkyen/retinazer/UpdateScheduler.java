@@ -0,0 +1,22 @@
+package com.darkyen.retinazer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * UpdateScheduler takes over running of the services in {@link Engine#update()}.
+ * When the engine has no scheduler, it calls {@link EngineService#update()} of every service
+ * in the order in which they were given and {@link Engine#flush()} after each one.
+ * At most one service of an engine can be a scheduler.
+ *
+ * @see com.darkyen.retinazer.schedulers.ParallelUpdateScheduler
+ */
+public interface UpdateScheduler extends EngineService {
+
+	/**
+	 * Run {@link EngineService#update()} of all the services, except this one, and flush the engine,
+	 * so that all changes are flushed when this returns.
+	 *
+	 * @param services of the engine, in the order in which they were given, including this one
+	 */
+	void updateServices(@NotNull EngineService[] services);
+}
@@ -1,87 +1,268 @@
 package com.darkyen.retinazer;
 
-import com.badlogic.gdx.utils.ObjectMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Wires {@link Wire} fields of objects.
+ * The {@link Engine}, its {@link EngineService}s and {@link Mapper}s (by the generic parameter) are wired directly,
+ * other fields are offered to the {@link WireResolver}s.
+ * <p>
+ * Which fields of a class are wired and how is decided only once per class, in a {@link WirePlan},
+ * which is shared by all engines, because that takes a lot of reflection.
+ * When the class has a {@link GeneratedWiring}, the plan uses it and reflects only on the fields it leaves out.
+ * Classes without own wired fields share the plan of their superclass.
+ */
 final class WireManager {
+
+	/** Plans of all classes which were ever wired, shared by all engines */
 	@NotNull
-	private final WireResolver[]                 wireResolvers;
+	private static final ClassValue<WirePlan> PLANS = new ClassValue<WirePlan>() {
+		@Override
+		protected WirePlan computeValue(Class<?> type) {
+			final Class<?> superclass = type.getSuperclass();
+			if (superclass != null && superclass != Object.class && !WirePlan.declaresWiredFields(type)) {
+				return get(superclass);
+			}
+			return new WirePlan(type);
+		}
+	};
+
 	@NotNull
-	private final ObjectMap<Class<?>, WireCache> wireCaches = new ObjectMap<>();
+	private final Engine         engine;
+	@NotNull
+	private final WireResolver[] wireResolvers;
 
-	WireManager(@NotNull List<@NotNull WireResolver> wireResolvers) {
+	WireManager(@NotNull Engine engine, @NotNull List<@NotNull WireResolver> wireResolvers) {
+		this.engine = engine;
 		this.wireResolvers = wireResolvers.toArray(new WireResolver[0]);
 	}
 
 	/** Wire up given object. */
 	void wire(@NotNull Object object) {
-		final Class<?> type = object.getClass();
-		WireCache cache = wireCaches.get(type);
-		if (cache == null) {
-			wireCaches.put(type, cache = new WireCache(type));
-		}
-
-		cache.wire(object, wireResolvers);
+		PLANS.get(object.getClass()).wire(object, engine, wireResolvers);
 	}
 
-	/** Remove all wiring cache to free up memory. */
-	void flushCache() {
-		wireCaches.clear();
-	}
+	/** Field is wired by {@link WireResolver}s */
+	private static final byte RESOLVED = 0;
+	/** Field is wired with the {@link Engine} */
+	private static final byte ENGINE   = 1;
+	/** Field is wired with the {@link Mapper} of its type argument */
+	private static final byte MAPPER   = 2;
+	/** Field is wired with the {@link EngineService} of its type */
+	private static final byte SERVICE  = 3;
+	/** Field is wired with the list of {@link EngineService}s of its type argument */
+	private static final byte SERVICES = 4;
 
-	private static final class WireCache {
+	/** Precomputed wiring of a class. Does not depend on any engine. */
+	private static final class WirePlan {
 		@NotNull
 		private static final Field[] NO_FIELDS = new Field[0];
 
+		/** Wires the class, except for the {@link #fields}, null if there is none */
+		@Nullable
+		private final GeneratedWiring generated;
+
+		/** Fields wired by reflection */
+		@NotNull
+		private final Field[]        fields;
+		/** How is each field wired, {@link #RESOLVED}, {@link #ENGINE}, ... */
+		@NotNull
+		private final byte[]         kinds;
+		/** Type which determines the wired value of each field, if its kind needs it */
 		@NotNull
-		private final Field[] fields;
+		private final Class<?>[]     types;
+		/** Setters of the fields, of type (Object, Object)void, null for {@link #RESOLVED} fields */
+		@NotNull
+		private final MethodHandle[] setters;
 
-		WireCache(@NotNull Class<?> type) {
-			final List<Field> fields = new ArrayList<>();
+		WirePlan(@NotNull Class<?> type) {
+			this.generated = findGeneratedWiring(type);
 
-			for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
-				for (Field field : current.getDeclaredFields()) {
-					if (field.isSynthetic() || field.getDeclaredAnnotation(Wire.class) == null) {
-						continue;
+			final List<Field> fields = new ArrayList<>();
+			if (generated != null) {
+				for (Class<?> reflective : generated.getReflectivelyWiredClasses()) {
+					if (!reflective.isAssignableFrom(type)) {
+						throw new IllegalStateException("Generated wiring of " + type.getName() + " refers to " + reflective.getName() + ", which is not its superclass");
 					}
+					addWiredFields(reflective, fields);
+				}
+			} else {
+				for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+					addWiredFields(current, fields);
+				}
+			}
 
-					final int modifiers = field.getModifiers();
-					if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
-						throw new IllegalArgumentException("Neither static nor final fields can be wired (" + current.getName() + "#" + field.getName() + ")");
+			this.fields = fields.toArray(NO_FIELDS);
+			this.kinds = new byte[this.fields.length];
+			this.types = new Class<?>[this.fields.length];
+			this.setters = new MethodHandle[this.fields.length];
+			final MethodHandles.Lookup lookup = MethodHandles.lookup();
+			final MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+			for (int i = 0; i < this.fields.length; i++) {
+				final Field field = this.fields[i];
+				final Class<?> fieldType = field.getType();
+				if (fieldType == Engine.class) {
+					kinds[i] = ENGINE;
+				} else if (fieldType == Mapper.class) {
+					types[i] = getTypeArgument(field.getGenericType());
+					kinds[i] = types[i] == null ? RESOLVED : MAPPER;
+				} else if (EngineService.class.isAssignableFrom(fieldType)) {
+					types[i] = fieldType;
+					kinds[i] = SERVICE;
+				} else if (List.class.isAssignableFrom(fieldType)) {
+					types[i] = getTypeArgument(field.getGenericType());
+					kinds[i] = types[i] == null ? RESOLVED : SERVICES;
+				} else {
+					kinds[i] = RESOLVED;
+				}
+
+				if (kinds[i] != RESOLVED) {
+					try {
+						setters[i] = lookup.unreflectSetter(field).asType(setterType);
+					} catch (IllegalAccessException e) {
+						throw new IllegalArgumentException("Field " + type.getName() + "#" + field.getName() + " is not accessible", e);
 					}
+				}
+			}
+		}
 
-					field.setAccessible(true);
-					fields.add(field);
+		/** Add the fields of the class itself which should be wired. */
+		private static void addWiredFields(@NotNull Class<?> type, @NotNull List<Field> fields) {
+			for (Field field : type.getDeclaredFields()) {
+				if (field.isSynthetic() || field.getDeclaredAnnotation(Wire.class) == null) {
+					continue;
 				}
+
+				final int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+					throw new IllegalArgumentException("Neither static nor final fields can be wired (" + type.getName() + "#" + field.getName() + ")");
+				}
+
+				field.setAccessible(true);
+				fields.add(field);
 			}
+		}
 
-			this.fields = fields.toArray(NO_FIELDS);
+		/** @return whether the class itself has any fields annotated with {@link Wire} */
+		private static boolean declaresWiredFields(@NotNull Class<?> type) {
+			for (Field field : type.getDeclaredFields()) {
+				if (!field.isSynthetic() && field.getDeclaredAnnotation(Wire.class) != null) {
+					return true;
+				}
+			}
+			return false;
 		}
 
-		public void wire(@NotNull Object object, @NotNull WireResolver[] wireResolvers) {
-			fields:
-			for (final Field field : fields) {
-				for (WireResolver wireResolver : wireResolvers) {
-					try {
-						if (wireResolver.wire(object, field)) {
-							continue fields;
-						}
-					} catch (Exception e) {
-						throw new RuntimeException("Failed to wire field "
-								+ field.getDeclaringClass().getName() + "." + field.getName()
-								+ " of type " + field.getType().getName(), e);
+		@Nullable
+		private static GeneratedWiring findGeneratedWiring(@NotNull Class<?> type) {
+			final Class<?> wiringType;
+			try {
+				wiringType = Class.forName(type.getName() + "$$Wiring", true, type.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				return null;
+			}
+			if (!GeneratedWiring.class.isAssignableFrom(wiringType)) {
+				return null;
+			}
+			try {
+				return (GeneratedWiring) wiringType.getConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Generated wiring " + wiringType.getName() + " can't be created", e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void wire(@NotNull Object object, @NotNull Engine engine, @NotNull WireResolver[] wireResolvers) {
+			final GeneratedWiring generated = this.generated;
+			if (generated != null) {
+				try {
+					generated.wire(object, engine);
+				} catch (RuntimeException e) {
+					throw new RuntimeException("Failed to wire " + object.getClass().getName(), e);
+				}
+			}
+
+			final Field[] fields = this.fields;
+			final byte[] kinds = this.kinds;
+			final Class<?>[] types = this.types;
+			for (int i = 0; i < fields.length; i++) {
+				final byte kind = kinds[i];
+				if (kind == RESOLVED) {
+					resolve(object, fields[i], wireResolvers);
+					continue;
+				}
+
+				try {
+					final Object value;
+					switch (kind) {
+						case ENGINE: value = engine; break;
+						case MAPPER: value = engine.getMapper((Class<? extends Component>) types[i]); break;
+						case SERVICE: value = engine.getService((Class<? extends EngineService>) types[i]); break;
+						default: value = engine.getServices(types[i]); break;
 					}
+					setters[i].invokeExact(object, value);
+				} catch (Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw failedToWire(fields[i], e);
 				}
+			}
+		}
 
-				throw new RuntimeException("Failed to wire field "
-						+ field.getDeclaringClass().getName() + "." + field.getName()
-						+ " of type " + field.getType().getName() + " - no resolver");
+		private static void resolve(@NotNull Object object, @NotNull Field field, @NotNull WireResolver[] wireResolvers) {
+			for (WireResolver wireResolver : wireResolvers) {
+				try {
+					if (wireResolver.wire(object, field)) {
+						return;
+					}
+				} catch (Exception e) {
+					throw failedToWire(field, e);
+				}
+			}
+
+			throw new RuntimeException("Failed to wire field "
+					+ field.getDeclaringClass().getName() + "." + field.getName()
+					+ " of type " + field.getType().getName() + " - no resolver");
+		}
+
+		@NotNull
+		private static RuntimeException failedToWire(@NotNull Field field, @NotNull Throwable cause) {
+			return new RuntimeException("Failed to wire field "
+					+ field.getDeclaringClass().getName() + "." + field.getName()
+					+ " of type " + field.getType().getName(), cause);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Nullable
+		private static <T> Class<? extends T> getTypeArgument(@NotNull Type genericType) {
+			if (genericType instanceof ParameterizedType) {
+				Type[] actualTypes = ((ParameterizedType) genericType).getActualTypeArguments();
+				if (actualTypes.length > 0) {
+					Type actualType = actualTypes[0];
+					if (actualType instanceof Class)
+						return (Class<T>) actualType;
+					else if (actualType instanceof ParameterizedType)
+						return (Class<T>) ((ParameterizedType) actualType).getRawType();
+					else if (actualType instanceof GenericArrayType) {
+						Type componentType = ((GenericArrayType) actualType).getGenericComponentType();
+						if (componentType instanceof Class) return (Class<T>) Array.newInstance((Class<?>) componentType, 0).getClass();
+					}
+				}
 			}
+			return null;
 		}
 	}
 }
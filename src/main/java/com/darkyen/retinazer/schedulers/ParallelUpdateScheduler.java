@@ -0,0 +1,223 @@
+package com.darkyen.retinazer.schedulers;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.AccessDeclaringService;
+import com.darkyen.retinazer.CommandBuffer;
+import com.darkyen.retinazer.ComponentAccess;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.UpdateScheduler;
+import com.darkyen.retinazer.Wire;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link UpdateScheduler} which runs independent services concurrently, on a {@link ForkJoinPool}.
+ * <p>
+ * Services are split into stages, which run one after another, with {@link Engine#flush()} after each one.
+ * A stage ends after a service which makes structural changes, because the following services
+ * must see them, as they would when running sequentially.
+ * Services which are not {@link AccessDeclaringService}s run alone, in a stage of their own.
+ * <p>
+ * Within a stage, services form a dependency graph: a service waits for all previous services of the stage
+ * whose {@link ComponentAccess} {@link ComponentAccess#conflictsWith(ComponentAccess) conflicts} with its own.
+ * Other services run concurrently, so the end result is the same as if they ran sequentially, in the given order.
+ * <p>
+ * Services which run concurrently must be careful:
+ * <ul>
+ *     <li>access only the declared components</li>
+ *     <li>record structural changes into {@link Engine#getCommandBuffer()}, never apply them directly,
+ *     the {@link CommandBuffer#setOrderGroup(int) order group} of the buffer is set to the index of the service,
+ *     so the changes are applied in the order of the services, no matter which one finished first</li>
+ *     <li>mark changes of {@link com.darkyen.retinazer.Component.Tracked} components with
+ *     {@link CommandBuffer#markChanged(int, Mapper)}, because {@link Mapper#markChanged(int)} is not thread-safe</li>
+ *     <li>iterate entity sets only through thread-safe methods, like {@link com.darkyen.retinazer.EntitySetView#getMask()}
+ *     or {@link com.darkyen.retinazer.EntitySetView#getIndices(int[], int)}, other methods may update shared caches</li>
+ * </ul>
+ */
+public final class ParallelUpdateScheduler implements UpdateScheduler {
+
+	@Wire
+	private Engine engine;
+
+	@NotNull
+	private final ForkJoinPool pool;
+
+	/** Built on first update */
+	@Nullable
+	private Stage[] stages = null;
+
+	/** Run the services on the {@link ForkJoinPool#commonPool()}. */
+	public ParallelUpdateScheduler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ParallelUpdateScheduler(@NotNull ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public void updateServices(@NotNull EngineService[] services) {
+		Stage[] stages = this.stages;
+		if (stages == null) {
+			this.stages = stages = buildStages(services);
+		}
+
+		for (Stage stage : stages) {
+			stage.run(engine, pool);
+			engine.flush();
+		}
+	}
+
+	@NotNull
+	private Stage[] buildStages(@NotNull EngineService[] services) {
+		final ArrayList<Stage> stages = new ArrayList<>();
+		final ArrayList<EngineService> stageServices = new ArrayList<>();
+		final ArrayList<ComponentAccess> stageAccess = new ArrayList<>();
+		final ArrayList<int[]> stageDependencies = new ArrayList<>();
+		final IntArray stageOrders = new IntArray();
+
+		for (int order = 0; order < services.length; order++) {
+			final EngineService service = services[order];
+			if (service == this) {
+				continue;
+			}
+			if (!(service instanceof AccessDeclaringService)) {
+				// Undeclared services may do anything, so they run alone
+				endStage(stages, stageServices, stageAccess, stageDependencies, stageOrders);
+				stages.add(new Stage(new EngineService[]{service}, new int[][]{NO_DEPENDENCIES}, new int[]{order}));
+				continue;
+			}
+
+			final ComponentAccess access = new ComponentAccess(engine.componentDomain);
+			((AccessDeclaringService) service).declareAccess(access);
+
+			int dependencyCount = 0;
+			final int[] dependencies = new int[stageAccess.size()];
+			for (int i = 0; i < stageAccess.size(); i++) {
+				if (stageAccess.get(i).conflictsWith(access)) {
+					dependencies[dependencyCount++] = i;
+				}
+			}
+			stageServices.add(service);
+			stageAccess.add(access);
+			stageDependencies.add(dependencyCount == 0 ? NO_DEPENDENCIES : Arrays.copyOf(dependencies, dependencyCount));
+			stageOrders.add(order);
+
+			if (access.isStructural()) {
+				endStage(stages, stageServices, stageAccess, stageDependencies, stageOrders);
+			}
+		}
+		endStage(stages, stageServices, stageAccess, stageDependencies, stageOrders);
+		return stages.toArray(new Stage[0]);
+	}
+
+	/** Create a stage from the collected services, if there are any, and clear the collections for the next stage. */
+	private static void endStage(@NotNull ArrayList<Stage> stages, @NotNull ArrayList<EngineService> services,
+	                             @NotNull ArrayList<ComponentAccess> access, @NotNull ArrayList<int[]> dependencies,
+	                             @NotNull IntArray orders) {
+		if (services.isEmpty()) {
+			return;
+		}
+		stages.add(new Stage(services.toArray(new EngineService[0]), dependencies.toArray(new int[0][]), orders.toArray()));
+		services.clear();
+		access.clear();
+		dependencies.clear();
+		orders.clear();
+	}
+
+	/**
+	 * @return the services of each stage, in the order in which the stages run, for introspection.
+	 * Empty until the first update.
+	 */
+	@NotNull
+	public EngineService[][] getStages() {
+		final Stage[] stages = this.stages;
+		if (stages == null) {
+			return new EngineService[0][];
+		}
+		final EngineService[][] result = new EngineService[stages.length][];
+		for (int i = 0; i < stages.length; i++) {
+			result[i] = stages[i].services.clone();
+		}
+		return result;
+	}
+
+	private static final int[] NO_DEPENDENCIES = new int[0];
+
+	private static final class Stage {
+		/** Services of the stage, in the original order */
+		@NotNull
+		final EngineService[] services;
+		/** For each service, indices of services in this stage which must finish before it starts */
+		@NotNull
+		final int[][]         dependencies;
+		/** For each service, its index in the engine, used as the order group of its commands */
+		@NotNull
+		final int[]           orders;
+
+		Stage(@NotNull EngineService[] services, @NotNull int[][] dependencies, @NotNull int[] orders) {
+			this.services = services;
+			this.dependencies = dependencies;
+			this.orders = orders;
+		}
+
+		/** Update the service, with the order group of the command buffer of the current thread set to the given order. */
+		private static void update(@NotNull Engine engine, @NotNull EngineService service, int order) {
+			final CommandBuffer commands = engine.getCommandBuffer();
+			final int originalOrderGroup = commands.getOrderGroup();
+			commands.setOrderGroup(order);
+			try {
+				service.update();
+			} finally {
+				commands.setOrderGroup(originalOrderGroup);
+			}
+		}
+
+		void run(@NotNull Engine engine, @NotNull ForkJoinPool pool) {
+			final EngineService[] services = this.services;
+			final int[] orders = this.orders;
+			if (services.length == 1) {
+				update(engine, services[0], orders[0]);
+				return;
+			}
+
+			final int[][] dependencies = this.dependencies;
+			final CompletableFuture<?>[] futures = new CompletableFuture<?>[services.length];
+			for (int i = 0; i < services.length; i++) {
+				final EngineService service = services[i];
+				final int order = orders[i];
+				final Runnable update = () -> update(engine, service, order);
+				final int[] serviceDependencies = dependencies[i];
+				if (serviceDependencies.length == 0) {
+					futures[i] = CompletableFuture.runAsync(update, pool);
+				} else {
+					final CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[serviceDependencies.length];
+					for (int d = 0; d < serviceDependencies.length; d++) {
+						dependencyFutures[d] = futures[serviceDependencies[d]];
+					}
+					futures[i] = CompletableFuture.allOf(dependencyFutures).thenRunAsync(update, pool);
+				}
+			}
+
+			try {
+				CompletableFuture.allOf(futures).join();
+			} catch (CompletionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.darkyen.retinazer.systems;
+
+import com.darkyen.retinazer.EntitySetView;
+import com.darkyen.retinazer.EntitySystem;
+import com.darkyen.retinazer.Family;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An {@link EntitySystem} which processes a {@link Family} of entities in batches.
+ * <p>
+ * Unlike {@link EntityProcessorSystem}, which makes a virtual call for each entity,
+ * this hands out whole chunks of entity IDs, so that the implementation can be a tight loop,
+ * with mappers and other loop-invariant state kept in local variables.
+ */
+public abstract class EntityBatchProcessorSystem extends EntitySystem {
+
+	/** Default maximum amount of entities in a single batch. */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	/** Entities of the family are decoded into this buffer, before being processed. */
+	private final int[] entityBuffer;
+
+	public EntityBatchProcessorSystem(@NotNull Family family) {
+		this(family, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param batchSize maximum amount of entities passed to a single {@link #process(int[], int)} call
+	 */
+	public EntityBatchProcessorSystem(@NotNull Family family, int batchSize) {
+		super(family);
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.entityBuffer = new int[batchSize];
+	}
+
+	@Override
+	public void update() {
+		final EntitySetView entities = getEntities();
+		final int[] buffer = this.entityBuffer;
+		for (int count, from = 0; (count = entities.getIndices(buffer, from)) > 0; from = buffer[count - 1] + 1) {
+			process(buffer, count);
+		}
+		clearChanges();
+	}
+
+	/**
+	 * Process a batch of entities in the family.
+	 *
+	 * @param entities IDs of the entities to process, in ascending order.
+	 *                 Only valid for the duration of the call, do not modify or store it.
+	 * @param count the amount of valid entities at the beginning of the array, always at least one
+	 */
+	protected abstract void process(@NotNull int[] entities, int count);
+}
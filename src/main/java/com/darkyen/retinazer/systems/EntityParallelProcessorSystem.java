@@ -0,0 +1,145 @@
+package com.darkyen.retinazer.systems;
+
+import com.darkyen.retinazer.CommandBuffer;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySystem;
+import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.util.Mask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An {@link EntitySystem} which processes a {@link Family} of entities in parallel, on a {@link ForkJoinPool}.
+ * <p>
+ * The family mask is split into ranges of whole 64-bit words, so no two tasks ever touch entities of the same word.
+ * {@link #update()} returns only after all entities have been processed.
+ * <p>
+ * <b>Contract:</b> {@link #process(int)} is called concurrently from multiple threads, so it may only:
+ * <ul>
+ *     <li>read and modify the components of the processed entity, obtained through {@link Mapper#get(int)},
+ *     {@link Mapper#getOrNull(int)} and {@link Mapper#has(int)}</li>
+ *     <li>read components of other entities, as long as no other task modifies them during this update</li>
+ *     <li>access its own thread-safe or thread-confined state</li>
+ * </ul>
+ * It must <b>not</b> make any structural changes directly, that is call {@link Mapper#create(int)}, {@link Mapper#add(int, com.darkyen.retinazer.Component)},
+ * {@link Mapper#remove(int)}, {@link Mapper#markChanged(int)}, {@link Engine#createEntity()}, {@link Engine#destroyEntity(int)},
+ * {@link Engine#flush()} or similar methods, because they modify state shared by all entities.
+ * Record them into {@link Engine#getCommandBuffer()} instead, changes of tracked components
+ * with {@link CommandBuffer#markChanged(int, Mapper)}. Its order key is set to the processed entity
+ * and its order group to the group of the thread which called {@link #update()},
+ * so the changes are applied in the same order as if the entities were processed sequentially.
+ */
+public abstract class EntityParallelProcessorSystem extends EntitySystem {
+
+	/** Default minimum amount of mask words (64 entities each) processed by a single task. */
+	public static final int DEFAULT_MIN_WORDS_PER_TASK = 16;
+
+	@NotNull
+	private final ForkJoinPool pool;
+	private final int          minWordsPerTask;
+
+	/** Process the entities on the {@link ForkJoinPool#commonPool()}. */
+	public EntityParallelProcessorSystem(@NotNull Family family) {
+		this(family, ForkJoinPool.commonPool());
+	}
+
+	public EntityParallelProcessorSystem(@NotNull Family family, @NotNull ForkJoinPool pool) {
+		this(family, pool, DEFAULT_MIN_WORDS_PER_TASK);
+	}
+
+	/**
+	 * @param pool on which the entities are processed
+	 * @param minWordsPerTask minimum amount of mask words (64 entities each) processed by a single task,
+	 *                        larger values reduce the scheduling overhead, but limit the parallelism for small families
+	 */
+	public EntityParallelProcessorSystem(@NotNull Family family, @NotNull ForkJoinPool pool, int minWordsPerTask) {
+		super(family);
+		if (minWordsPerTask <= 0) {
+			throw new IllegalArgumentException("minWordsPerTask must be positive: " + minWordsPerTask);
+		}
+		this.pool = pool;
+		this.minWordsPerTask = minWordsPerTask;
+	}
+
+	/** @return the pool on which the entities are processed */
+	@NotNull
+	public final ForkJoinPool getPool() {
+		return pool;
+	}
+
+	@Override
+	public void update() {
+		final Mask mask = getEntities().getMask();
+		final int words = (mask.length() + 63) >> 6;
+		if (words == 0) {
+			return;
+		}
+		// Few tasks per thread, to balance the load when the entities are not distributed evenly
+		final int wordsPerTask = Math.max(minWordsPerTask, words / (pool.getParallelism() * 4));
+		// Worker threads record with the group of the updating thread, set for example by the scheduler
+		final int orderGroup = engine.getCommandBuffer().getOrderGroup();
+		if (words <= wordsPerTask) {
+			processWords(mask, 0, words, orderGroup);
+		} else {
+			pool.invoke(new ProcessTask(mask, 0, words, wordsPerTask, orderGroup));
+		}
+		clearChanges();
+	}
+
+	/** Process entities of all words in the range [fromWord, toWord). */
+	private void processWords(@NotNull Mask mask, int fromWord, int toWord, int orderGroup) {
+		final CommandBuffer commands = engine.getCommandBuffer();
+		final int originalOrderGroup = commands.getOrderGroup();
+		final int originalOrderKey = commands.getOrderKey();
+		commands.setOrderGroup(orderGroup);
+		try {
+			for (int w = mask.nextNonEmptyWord(fromWord); w != -1 && w < toWord; w = mask.nextNonEmptyWord(w + 1)) {
+				long word = mask.getWord(w);
+				final int base = w << 6;
+				while (word != 0L) {
+					final int entity = base + Long.numberOfTrailingZeros(word);
+					commands.setOrderKey(entity);
+					process(entity);
+					word &= word - 1L;
+				}
+			}
+		} finally {
+			commands.setOrderGroup(originalOrderGroup);
+			commands.setOrderKey(originalOrderKey);
+		}
+	}
+
+	/**
+	 * Process single entity in the family.
+	 * Called concurrently, see the class documentation for what is allowed here.
+	 */
+	protected abstract void process(int entity);
+
+	private final class ProcessTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Mask mask;
+		private final int  fromWord, toWord, wordsPerTask, orderGroup;
+
+		ProcessTask(@NotNull Mask mask, int fromWord, int toWord, int wordsPerTask, int orderGroup) {
+			this.mask = mask;
+			this.fromWord = fromWord;
+			this.toWord = toWord;
+			this.wordsPerTask = wordsPerTask;
+			this.orderGroup = orderGroup;
+		}
+
+		@Override
+		protected void compute() {
+			if (toWord - fromWord <= wordsPerTask) {
+				processWords(mask, fromWord, toWord, orderGroup);
+				return;
+			}
+			final int middle = (fromWord + toWord) >>> 1;
+			invokeAll(new ProcessTask(mask, fromWord, middle, wordsPerTask, orderGroup), new ProcessTask(mask, middle, toWord, wordsPerTask, orderGroup));
+		}
+	}
+}
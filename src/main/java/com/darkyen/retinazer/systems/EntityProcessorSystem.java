@@ -1,8 +1,8 @@
 package com.darkyen.retinazer.systems;
 
+import com.darkyen.retinazer.EntitySetView;
 import com.darkyen.retinazer.EntitySystem;
 import com.darkyen.retinazer.Family;
-import com.darkyen.retinazer.util.Mask;
 import org.jetbrains.annotations.NotNull;
 
 /** An {@link EntitySystem} which processes a {@link Family} of entities. */
@@ -12,12 +12,19 @@ public abstract class EntityProcessorSystem extends EntitySystem {
 		super(family);
 	}
 
+	/** Entities of the family are decoded into this buffer in chunks, before being processed. */
+	private final int[] entityBuffer = new int[256];
+
 	@Override
 	public void update() {
-		final Mask mask = getEntities().getMask();
-		for (int entity = mask.nextSetBit(0); entity != -1; entity = mask.nextSetBit(entity + 1)) {
-			process(entity);
+		final EntitySetView entities = getEntities();
+		final int[] buffer = this.entityBuffer;
+		for (int count, from = 0; (count = entities.getIndices(buffer, from)) > 0; from = buffer[count - 1] + 1) {
+			for (int i = 0; i < count; i++) {
+				process(buffer[i]);
+			}
 		}
+		clearChanges();
 	}
 
 	/** Process single entity in the family. */
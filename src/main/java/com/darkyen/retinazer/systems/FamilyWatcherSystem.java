@@ -1,35 +1,55 @@
 package com.darkyen.retinazer.systems;
 
-import com.darkyen.retinazer.EntitySet;
 import com.darkyen.retinazer.EntitySetView;
 import com.darkyen.retinazer.EntitySystem;
 import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.FamilyDelta;
 import com.darkyen.retinazer.util.Mask;
 import org.jetbrains.annotations.NotNull;
 
-/** {@link EntitySystem} which watches for entities to be added or removed to/from a {@link Family}. */
+import java.util.function.IntConsumer;
+
+/**
+ * {@link EntitySystem} which watches for entities to be added or removed to/from a {@link Family}.
+ * The changes are tracked by the engine through {@link FamilyDelta}, so the cost of each update is proportional
+ * to the amount of changed entities, not to the size of the family.
+ */
 public abstract class FamilyWatcherSystem extends EntitySystem {
 
-	private final Mask      lastEntities = new Mask();
-	private final EntitySet workingSet   = new EntitySet();
+	private FamilyDelta delta;
 
 	protected FamilyWatcherSystem(@NotNull Family family) {
 		super(family);
 	}
 
+	@Override
+	public void initialize() {
+		super.initialize();
+		delta = engine.getFamilyDelta(getFamily());
+	}
+
+	@Override
+	public void dispose() {
+		super.dispose();
+		if (delta != null) {
+			engine.releaseFamilyDelta(delta);
+			delta = null;
+		}
+	}
+
 	@Override
 	public void update() {
-		final EntitySet workingSet = this.workingSet;
-		final Mask lastEntities = this.lastEntities;
-		final Mask currentEntities = this.getEntities().getMask();
-		// Get added entities
-		workingSet.getMaskForModification().set(currentEntities).andNot(lastEntities);
-		insertedEntities(workingSet);
-		// Get removed entities
-		workingSet.getMaskForModification().set(lastEntities).andNot(currentEntities);
-		removedEntities(workingSet);
-
-		lastEntities.set(currentEntities);
+		final FamilyDelta delta = this.delta;
+		// Removals first, the ID of a removed entity may have been reused by an added one
+		removedEntities(delta.getRemoved());
+		insertedEntities(delta.getAdded());
+		delta.clear();
+	}
+
+	/** @return the delta of the family, which is cleared at the end of each {@link #update()} */
+	@NotNull
+	protected final FamilyDelta getFamilyDelta() {
+		return delta;
 	}
 
 	/** Called on each update. {@code entities} contains all removed entities in this step, if any. */
@@ -41,10 +61,22 @@ public abstract class FamilyWatcherSystem extends EntitySystem {
 	/** Simplified {@link FamilyWatcherSystem} which gets the notification per-entity, not in bulk. */
 	public static abstract class Single extends FamilyWatcherSystem {
 
+		private final IntConsumer insertedEntity = this::insertedEntity;
+		private final IntConsumer removedEntity  = this::removedEntity;
+
 		protected Single(@NotNull Family family) {
 			super(family);
 		}
 
+		@Override
+		public void update() {
+			final FamilyDelta delta = getFamilyDelta();
+			// Visits only the changed parts of the delta, instead of iterating over the whole sets
+			delta.forEachRemoved(removedEntity);
+			delta.forEachAdded(insertedEntity);
+			delta.clear();
+		}
+
 		@Override
 		protected final void insertedEntities(@NotNull EntitySetView entities) {
 			final Mask mask = entities.getMask();
@@ -0,0 +1,1375 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Compressed {@link Mask}, whose memory consumption is proportional to the amount of set bits instead of the highest set bit.
+ * Good fit for very sparse masks, for example when entity IDs are assigned explicitly and can be very large.
+ * <p>
+ * Inspired by <a href="https://roaringbitmap.org/">Roaring bitmaps</a>. The index space is split into chunks of 65536 bits,
+ * empty chunks are not stored at all and each non-empty chunk is stored in a container, whose type depends on its content:
+ * <ul>
+ *     <li>array container - sorted array of set bits, for chunks with at most {@link #ARRAY_MAX} set bits</li>
+ *     <li>bitmap container - plain 8kB bitmap, for chunks with more set bits</li>
+ *     <li>run container - sorted array of set bit ranges, created by {@link #runOptimize()} when it is smaller</li>
+ * </ul>
+ * <p>
+ * Interoperable with other {@link Mask}s in all operations, although the operations with other mask types
+ * go through slower generic paths. Word-level operations ({@link #getWord(int)}, {@link #setWord(int, long)})
+ * are supported efficiently, but {@link #getWords()} has to create a flat copy of the whole mask, so it should be avoided.
+ */
+@SuppressWarnings("unused")
+public final class CompressedMask extends Mask {
+
+	/** Chunks with more set bits than this are stored as bitmaps. */
+	static final int ARRAY_MAX = 4096;
+	/** Amount of words in a chunk. */
+	private static final int CHUNK_WORDS = 1024;
+
+	private static final char[]      NO_KEYS       = new char[0];
+	private static final Container[] NO_CONTAINERS = new Container[0];
+
+	/** Sorted keys of the chunks ({@code index >>> 16}) */
+	private char[]      keys       = NO_KEYS;
+	/** Non-empty containers of chunks in {@link #keys} */
+	private Container[] containers = NO_CONTAINERS;
+	/** Amount of valid elements in {@link #keys} and {@link #containers} */
+	private int         size       = 0;
+
+	public CompressedMask() {
+		super(false);
+	}
+
+	/** @return index of the key in {@link #keys} or {@code -(insertionPoint + 1)} */
+	private int find(int key) {
+		// Fast path for the most common case - working with the last chunk
+		final int size = this.size;
+		if (size > 0 && keys[size - 1] == key) {
+			return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, (char) key);
+	}
+
+	/** @return index of the first chunk whose key is not smaller than the given key */
+	private int findAtLeast(int key) {
+		final int index = find(key);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private void insertChunk(int index, int key, @NotNull Container container) {
+		char[] keys = this.keys;
+		Container[] containers = this.containers;
+		final int size = this.size;
+		if (size == keys.length) {
+			final int newCapacity = Math.max(4, size + (size >> 1));
+			this.keys = keys = Arrays.copyOf(keys, newCapacity);
+			this.containers = containers = Arrays.copyOf(containers, newCapacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = (char) key;
+		containers[index] = container;
+		this.size = size + 1;
+	}
+
+	private void removeChunk(int index) {
+		final int newSize = --size;
+		System.arraycopy(keys, index + 1, keys, index, newSize - index);
+		System.arraycopy(containers, index + 1, containers, index, newSize - index);
+		containers[newSize] = null;
+	}
+
+	/** Store the container at given chunk index, or remove the chunk if the container is empty. */
+	private void updateChunk(int index, @NotNull Container container) {
+		if (container.cardinality() == 0) {
+			removeChunk(index);
+		} else {
+			containers[index] = container;
+		}
+	}
+
+	/** Remove chunks which were nulled out during a bulk operation. */
+	private void compact() {
+		final char[] keys = this.keys;
+		final Container[] containers = this.containers;
+		final int size = this.size;
+		int newSize = 0;
+		for (int i = 0; i < size; i++) {
+			final Container container = containers[i];
+			if (container != null) {
+				keys[newSize] = keys[i];
+				containers[newSize] = container;
+				newSize++;
+			}
+		}
+		Arrays.fill(containers, newSize, size, null);
+		this.size = newSize;
+	}
+
+	/**
+	 * Convert containers to a more compact representation where possible.
+	 * Masks with long runs of set bits, such as entity masks, benefit the most.
+	 * Any modification of a run container may convert it back to an uncompressed representation.
+	 */
+	public void runOptimize() {
+		final Container[] containers = this.containers;
+		for (int i = 0, size = this.size; i < size; i++) {
+			containers[i] = containers[i].runOptimize();
+		}
+	}
+
+	/** @return approximate amount of bytes used by the content of this mask */
+	public long memoryUsage() {
+		long bytes = keys.length * 2L + containers.length * 8L;
+		for (int i = 0; i < size; i++) {
+			bytes += containers[i].memoryUsage();
+		}
+		return bytes;
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull Mask other) {
+		if (other == this) {
+			return this;
+		}
+		if (other instanceof CompressedMask) {
+			final CompressedMask o = (CompressedMask) other;
+			final int size = o.size;
+			final char[] keys = this.keys.length >= size ? this.keys : new char[size];
+			final Container[] containers = this.containers.length >= size ? this.containers : new Container[size];
+			System.arraycopy(o.keys, 0, keys, 0, size);
+			for (int i = 0; i < size; i++) {
+				containers[i] = o.containers[i].copy();
+			}
+			Arrays.fill(containers, size, Math.max(size, this.size), null);
+			this.keys = keys;
+			this.containers = containers;
+			this.size = size;
+			return this;
+		}
+		setGeneric(other);
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull long[] otherWords) {
+		clear();
+		for (int i = 0; i < otherWords.length; i++) {
+			final long word = otherWords[i];
+			if (word != 0L) {
+				setWord(i, word);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(containers, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public void or(@NotNull Mask other) {
+		if (!(other instanceof CompressedMask)) {
+			orGeneric(other);
+			return;
+		}
+		final CompressedMask o = (CompressedMask) other;
+		for (int oi = 0; oi < o.size; oi++) {
+			final int key = o.keys[oi];
+			final Container otherContainer = o.containers[oi];
+			final int index = find(key);
+			if (index < 0) {
+				insertChunk(-index - 1, key, otherContainer.copy());
+			} else {
+				containers[index] = containers[index].or(otherContainer);
+			}
+		}
+	}
+
+	@Override
+	public void xor(@NotNull Mask other) {
+		if (!(other instanceof CompressedMask)) {
+			xorGeneric(other);
+			return;
+		}
+		final CompressedMask o = (CompressedMask) other;
+		for (int oi = 0; oi < o.size; oi++) {
+			final int key = o.keys[oi];
+			final Container otherContainer = o.containers[oi];
+			final int index = find(key);
+			if (index < 0) {
+				insertChunk(-index - 1, key, otherContainer.copy());
+			} else {
+				updateChunk(index, containers[index].xor(otherContainer));
+			}
+		}
+	}
+
+	@Override
+	public void and(@NotNull Mask other) {
+		if (!(other instanceof CompressedMask)) {
+			andGeneric(other);
+			return;
+		}
+		final CompressedMask o = (CompressedMask) other;
+		final char[] keys = this.keys;
+		final Container[] containers = this.containers;
+		int oi = 0;
+		for (int i = 0; i < size; i++) {
+			final int key = keys[i];
+			while (oi < o.size && o.keys[oi] < key) {
+				oi++;
+			}
+			if (oi < o.size && o.keys[oi] == key) {
+				final Container result = containers[i].and(o.containers[oi]);
+				containers[i] = result.cardinality() == 0 ? null : result;
+			} else {
+				containers[i] = null;
+			}
+		}
+		compact();
+	}
+
+	@Override
+	public void andNot(@NotNull Mask other) {
+		if (!(other instanceof CompressedMask)) {
+			andNotGeneric(other);
+			return;
+		}
+		final CompressedMask o = (CompressedMask) other;
+		final char[] keys = this.keys;
+		final Container[] containers = this.containers;
+		int oi = 0;
+		boolean removedAny = false;
+		for (int i = 0; i < size; i++) {
+			final int key = keys[i];
+			while (oi < o.size && o.keys[oi] < key) {
+				oi++;
+			}
+			if (oi < o.size && o.keys[oi] == key) {
+				final Container result = containers[i].andNot(o.containers[oi]);
+				if (result.cardinality() == 0) {
+					containers[i] = null;
+					removedAny = true;
+				} else {
+					containers[i] = result;
+				}
+			}
+		}
+		if (removedAny) {
+			compact();
+		}
+	}
+
+	@Override
+	public void set(int index) {
+		final int key = index >>> 16;
+		final int chunk = find(key);
+		if (chunk < 0) {
+			insertChunk(-chunk - 1, key, new ArrayContainer(index & 0xFFFF));
+		} else {
+			containers[chunk] = containers[chunk].add(index & 0xFFFF);
+		}
+	}
+
+	@Override
+	public boolean setChanged(int index) {
+		final int key = index >>> 16;
+		final int chunk = find(key);
+		if (chunk < 0) {
+			insertChunk(-chunk - 1, key, new ArrayContainer(index & 0xFFFF));
+			return true;
+		}
+		final Container container = containers[chunk];
+		final int low = index & 0xFFFF;
+		if (container.get(low)) {
+			return false;
+		}
+		containers[chunk] = container.add(low);
+		return true;
+	}
+
+	@Override
+	public void clear(int index) {
+		clearChanged(index);
+	}
+
+	@Override
+	public boolean clearChanged(int index) {
+		final int chunk = find(index >>> 16);
+		if (chunk < 0) {
+			return false;
+		}
+		final Container container = containers[chunk];
+		final int low = index & 0xFFFF;
+		if (!container.get(low)) {
+			return false;
+		}
+		updateChunk(chunk, container.remove(low));
+		return true;
+	}
+
+	@Override
+	public boolean get(int index) {
+		final int chunk = find(index >>> 16);
+		return chunk >= 0 && containers[chunk].get(index & 0xFFFF);
+	}
+
+	@Override
+	public int nextSetBit(int index) {
+		final int key = index >>> 16;
+		int chunk = findAtLeast(key);
+		if (chunk >= size) {
+			return -1;
+		}
+		if (keys[chunk] == key) {
+			final int low = containers[chunk].nextSetBit(index & 0xFFFF);
+			if (low != -1) {
+				return (key << 16) | low;
+			}
+			if (++chunk >= size) {
+				return -1;
+			}
+		}
+		return (keys[chunk] << 16) | containers[chunk].nextSetBit(0);
+	}
+
+	@Override
+	public int nextClearBit(int index) {
+		int key = index >>> 16;
+		int chunk = find(key);
+		if (chunk < 0) {
+			return index;
+		}
+		final int low = containers[chunk].nextClearBit(index & 0xFFFF);
+		if (low < 0x10000) {
+			return (key << 16) | low;
+		}
+		// This chunk is full, find first chunk after which is not present or not full
+		while (true) {
+			key++;
+			chunk++;
+			if (chunk >= size || keys[chunk] != key) {
+				return key << 16;
+			}
+			final int nextLow = containers[chunk].nextClearBit(0);
+			if (nextLow < 0x10000) {
+				return (key << 16) | nextLow;
+			}
+		}
+	}
+
+	@Override
+	public boolean isSupersetOf(@NotNull Mask other) {
+		return isSupersetOfGeneric(other);
+	}
+
+	@Override
+	public boolean intersects(@NotNull Mask other) {
+		if (!(other instanceof CompressedMask)) {
+			return intersectsGeneric(other);
+		}
+		final CompressedMask o = (CompressedMask) other;
+		int oi = 0;
+		for (int i = 0; i < size; i++) {
+			final int key = keys[i];
+			while (oi < o.size && o.keys[oi] < key) {
+				oi++;
+			}
+			if (oi < o.size && o.keys[oi] == key && containers[i].intersects(o.containers[oi])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	@Override
+	public int length() {
+		final int size = this.size;
+		if (size == 0) {
+			return 0;
+		}
+		return (keys[size - 1] << 16) + containers[size - 1].last() + 1;
+	}
+
+	@Override
+	public long getWord(int index) {
+		final int chunk = find(index >>> 10);
+		return chunk < 0 ? 0L : containers[chunk].getWord(index & (CHUNK_WORDS - 1));
+	}
+
+	@Override
+	public void setWord(int index, long word) {
+		final int key = index >>> 10;
+		final int chunk = find(key);
+		if (chunk < 0) {
+			if (word != 0L) {
+				insertChunk(-chunk - 1, key, new ArrayContainer().setWord(index & (CHUNK_WORDS - 1), word));
+			}
+		} else {
+			updateChunk(chunk, containers[chunk].setWord(index & (CHUNK_WORDS - 1), word));
+		}
+	}
+
+	@Override
+	public int nextNonEmptyWord(int wordIndex) {
+		final int key = wordIndex >>> 10;
+		int chunk = findAtLeast(key);
+		if (chunk >= size) {
+			return -1;
+		}
+		if (keys[chunk] == key) {
+			final int word = containers[chunk].nextNonEmptyWord(wordIndex & (CHUNK_WORDS - 1));
+			if (word != -1) {
+				return (key << 10) | word;
+			}
+			if (++chunk >= size) {
+				return -1;
+			}
+		}
+		return (keys[chunk] << 10) | containers[chunk].nextNonEmptyWord(0);
+	}
+
+	@Override
+	public int getIndices(@NotNull int[] buffer, int offset, int fromIndex) {
+		final int fromKey = fromIndex >>> 16;
+		int i = offset;
+		for (int chunk = findAtLeast(fromKey); chunk < size && i < buffer.length; chunk++) {
+			final int key = keys[chunk];
+			i = containers[chunk].getIndices(buffer, i, key == fromKey ? fromIndex & 0xFFFF : 0, key << 16);
+		}
+		return i - offset;
+	}
+
+	@Override
+	public int getWordCount() {
+		return size == 0 ? 0 : (length() - 1) >> 6;
+	}
+
+	/** Creates a flat copy of the words of this mask. Modifying it does not change this mask. */
+	@NotNull
+	@Override
+	public long[] getWords() {
+		final long[] words = new long[(length() + 63) >> 6];
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			words[w] = getWord(w);
+		}
+		return words;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Mask))
+			return false;
+		return equalsGeneric((Mask) obj);
+	}
+
+	@Override
+	public int hashCode() {
+		// Same as Mask.hashCode, which is a sum of word hashes, each multiplied by 31^wordIndex
+		int h = 0;
+		int power = 1;
+		int lastWord = 0;
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			power *= pow31(w - lastWord);
+			lastWord = w;
+			final long word = getWord(w);
+			h += power * (int) (word ^ (word >>> 32));
+		}
+		return h;
+	}
+
+	private static int pow31(int exponent) {
+		int result = 1;
+		int base = 31;
+		while (exponent != 0) {
+			if ((exponent & 1) != 0) {
+				result *= base;
+			}
+			base *= base;
+			exponent >>>= 1;
+		}
+		return result;
+	}
+
+	/** Storage of a single 65536 bit chunk. Containers of other masks are never modified. */
+	private static abstract class Container {
+		abstract int cardinality();
+
+		abstract boolean get(int low);
+
+		/** @return container with the bit set, may be this */
+		@NotNull
+		abstract Container add(int low);
+
+		/** @return container with the bit cleared, may be this */
+		@NotNull
+		abstract Container remove(int low);
+
+		/** @return first set bit at or after low, or -1 */
+		abstract int nextSetBit(int low);
+
+		/** @return first clear bit at or after low, or 0x10000 */
+		abstract int nextClearBit(int low);
+
+		/** @return highest set bit, container must not be empty */
+		abstract int last();
+
+		abstract long getWord(int word);
+
+		/** @return container with the word set, may be this */
+		@NotNull
+		abstract Container setWord(int word, long value);
+
+		/** @return first non-empty word at or after given word, or -1 */
+		abstract int nextNonEmptyWord(int word);
+
+		@NotNull
+		abstract Container copy();
+
+		/**
+		 * Write set bits at or after fromLow, offset by base, into the buffer at index i, until it is full.
+		 * @return index after the last written index
+		 */
+		int getIndices(@NotNull int[] buffer, int i, int fromLow, int base) {
+			int w = nextNonEmptyWord(fromLow >>> 6);
+			if (w == -1) {
+				return i;
+			}
+			long word = getWord(w);
+			if (w == fromLow >>> 6) {
+				word &= -1L << fromLow;
+			}
+			final int capacity = buffer.length;
+			while (true) {
+				while (word != 0L) {
+					if (i == capacity) {
+						return i;
+					}
+					buffer[i++] = base + (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1L;
+				}
+				if (++w == CHUNK_WORDS || (w = nextNonEmptyWord(w)) == -1) {
+					return i;
+				}
+				word = getWord(w);
+			}
+		}
+
+		/** @return bitmap with the same content, this if this is a bitmap */
+		@NotNull
+		abstract BitmapContainer toBitmap();
+
+		@NotNull
+		abstract Container runOptimize();
+
+		abstract long memoryUsage();
+
+		/** @return container with content of this and other, may be this */
+		@NotNull
+		Container or(@NotNull Container other) {
+			if (other instanceof ArrayContainer) {
+				final ArrayContainer array = (ArrayContainer) other;
+				Container result = this;
+				for (int i = 0; i < array.size; i++) {
+					result = result.add(array.values[i]);
+				}
+				return result;
+			}
+			final BitmapContainer result = toBitmap();
+			for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+				result.words[w] |= other.getWord(w);
+			}
+			result.recount();
+			return result;
+		}
+
+		/** @return container with content of this xor other, may be this */
+		@NotNull
+		Container xor(@NotNull Container other) {
+			final BitmapContainer result = toBitmap();
+			for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+				result.words[w] ^= other.getWord(w);
+			}
+			result.recount();
+			return result.shrink();
+		}
+
+		/** @return container with content of this and other, may be this */
+		@NotNull
+		Container and(@NotNull Container other) {
+			if (other instanceof ArrayContainer) {
+				return ((ArrayContainer) other).filteredCopy(this, true);
+			}
+			final BitmapContainer result = toBitmap();
+			final long[] words = result.words;
+			for (int w = 0; w < CHUNK_WORDS; w++) {
+				if (words[w] != 0L) {
+					words[w] &= other.getWord(w);
+				}
+			}
+			result.recount();
+			return result.shrink();
+		}
+
+		/** @return container with content of this without other, may be this */
+		@NotNull
+		Container andNot(@NotNull Container other) {
+			final BitmapContainer result = toBitmap();
+			final long[] words = result.words;
+			for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+				words[w] &= ~other.getWord(w);
+			}
+			result.recount();
+			return result.shrink();
+		}
+
+		boolean intersects(@NotNull Container other) {
+			for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+				if ((getWord(w) & other.getWord(w)) != 0L) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/** Sorted array of set bits. */
+	private static final class ArrayContainer extends Container {
+		char[] values;
+		int    size;
+
+		ArrayContainer() {
+			values = new char[4];
+		}
+
+		ArrayContainer(int value) {
+			values = new char[4];
+			values[0] = (char) value;
+			size = 1;
+		}
+
+		ArrayContainer(@NotNull char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		/** @return index of the value or {@code -(insertionPoint + 1)} */
+		private int find(int low) {
+			return Arrays.binarySearch(values, 0, size, (char) low);
+		}
+
+		private int findAtLeast(int low) {
+			if (low > 0xFFFF) {
+				return size;
+			}
+			final int index = find(low);
+			return index >= 0 ? index : -index - 1;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		boolean get(int low) {
+			return find(low) >= 0;
+		}
+
+		@NotNull
+		@Override
+		Container add(int low) {
+			int index = find(low);
+			if (index >= 0) {
+				return this;
+			}
+			index = -index - 1;
+			final int size = this.size;
+			if (size >= ARRAY_MAX) {
+				return toBitmap().add(low);
+			}
+			char[] values = this.values;
+			if (size == values.length) {
+				this.values = values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = (char) low;
+			this.size = size + 1;
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container remove(int low) {
+			final int index = find(low);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+			return this;
+		}
+
+		@Override
+		int nextSetBit(int low) {
+			final int index = findAtLeast(low);
+			return index < size ? values[index] : -1;
+		}
+
+		@Override
+		int nextClearBit(int low) {
+			int index = find(low);
+			if (index < 0) {
+				return low;
+			}
+			// Walk through consecutive values
+			final char[] values = this.values;
+			while (index + 1 < size && values[index + 1] == values[index] + 1) {
+				index++;
+			}
+			return values[index] + 1;
+		}
+
+		@Override
+		int last() {
+			return values[size - 1];
+		}
+
+		@Override
+		long getWord(int word) {
+			final int start = word << 6;
+			final char[] values = this.values;
+			long result = 0L;
+			for (int i = findAtLeast(start); i < size && values[i] < start + 64; i++) {
+				result |= 1L << values[i];
+			}
+			return result;
+		}
+
+		@NotNull
+		@Override
+		Container setWord(int word, long value) {
+			final int start = word << 6;
+			final int from = findAtLeast(start);
+			final int to = findAtLeast(start + 64);
+			final int newSize = size - (to - from) + Long.bitCount(value);
+			if (newSize > ARRAY_MAX) {
+				return toBitmap().setWord(word, value);
+			}
+			char[] values = this.values;
+			if (newSize > values.length) {
+				this.values = values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(newSize, values.length * 2)));
+			}
+			final int insertedEnd = from + Long.bitCount(value);
+			System.arraycopy(values, to, values, insertedEnd, size - to);
+			for (int i = from; value != 0L; i++) {
+				values[i] = (char) (start + Long.numberOfTrailingZeros(value));
+				value &= value - 1L;
+			}
+			size = newSize;
+			return this;
+		}
+
+		@Override
+		int nextNonEmptyWord(int word) {
+			final int index = findAtLeast(word << 6);
+			return index < size ? values[index] >>> 6 : -1;
+		}
+
+		@Override
+		int getIndices(@NotNull int[] buffer, int i, int fromLow, int base) {
+			final int from = findAtLeast(fromLow);
+			final int count = Math.min(size - from, buffer.length - i);
+			final char[] values = this.values;
+			for (int v = 0; v < count; v++) {
+				buffer[i + v] = base + values[from + v];
+			}
+			return i + count;
+		}
+
+		@NotNull
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 4)), size);
+		}
+
+		@NotNull
+		@Override
+		BitmapContainer toBitmap() {
+			final BitmapContainer bitmap = new BitmapContainer();
+			final long[] words = bitmap.words;
+			final char[] values = this.values;
+			for (int i = 0; i < size; i++) {
+				final int value = values[i];
+				words[value >>> 6] |= 1L << value;
+			}
+			bitmap.cardinality = size;
+			return bitmap;
+		}
+
+		@NotNull
+		@Override
+		Container runOptimize() {
+			final char[] values = this.values;
+			int runs = 0;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || values[i] != values[i - 1] + 1) {
+					runs++;
+				}
+			}
+			if (runs * 2 >= size) {
+				return this;
+			}
+			final char[] runValues = new char[runs * 2];
+			int run = -1;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || values[i] != values[i - 1] + 1) {
+					run++;
+					runValues[run * 2] = values[i];
+				}
+				runValues[run * 2 + 1] = values[i];
+			}
+			return new RunContainer(runValues, runs, size);
+		}
+
+		@Override
+		long memoryUsage() {
+			return 16 + values.length * 2L;
+		}
+
+		/** @return new container with values of this, which are (or are not, when {@code keep} is false) present in other */
+		@NotNull
+		ArrayContainer filteredCopy(@NotNull Container other, boolean keep) {
+			final char[] values = this.values;
+			final char[] result = new char[Math.max(size, 4)];
+			int resultSize = 0;
+			for (int i = 0; i < size; i++) {
+				if (other.get(values[i]) == keep) {
+					result[resultSize++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, resultSize);
+		}
+
+		@NotNull
+		@Override
+		Container and(@NotNull Container other) {
+			int newSize = 0;
+			final char[] values = this.values;
+			for (int i = 0; i < size; i++) {
+				if (other.get(values[i])) {
+					values[newSize++] = values[i];
+				}
+			}
+			size = newSize;
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container andNot(@NotNull Container other) {
+			int newSize = 0;
+			final char[] values = this.values;
+			for (int i = 0; i < size; i++) {
+				if (!other.get(values[i])) {
+					values[newSize++] = values[i];
+				}
+			}
+			size = newSize;
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container xor(@NotNull Container other) {
+			if (other instanceof ArrayContainer && size + ((ArrayContainer) other).size <= ARRAY_MAX) {
+				// Merge of two sorted arrays without common elements
+				final ArrayContainer o = (ArrayContainer) other;
+				final char[] result = new char[Math.max(4, size + o.size)];
+				int i = 0, j = 0, resultSize = 0;
+				while (i < size && j < o.size) {
+					final char a = values[i], b = o.values[j];
+					if (a < b) {
+						result[resultSize++] = a;
+						i++;
+					} else if (b < a) {
+						result[resultSize++] = b;
+						j++;
+					} else {
+						i++;
+						j++;
+					}
+				}
+				while (i < size) result[resultSize++] = values[i++];
+				while (j < o.size) result[resultSize++] = o.values[j++];
+				return new ArrayContainer(result, resultSize);
+			}
+			return super.xor(other);
+		}
+
+		@Override
+		boolean intersects(@NotNull Container other) {
+			for (int i = 0; i < size; i++) {
+				if (other.get(values[i])) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/** Plain bitmap of the whole chunk. */
+	private static final class BitmapContainer extends Container {
+		final long[] words = new long[CHUNK_WORDS];
+		int cardinality;
+
+		void recount() {
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+			this.cardinality = cardinality;
+		}
+
+		/** @return array container, if it would be smaller, this otherwise */
+		@NotNull
+		Container shrink() {
+			if (cardinality > ARRAY_MAX) {
+				return this;
+			}
+			final char[] values = new char[Math.max(4, cardinality)];
+			int size = 0;
+			final long[] words = this.words;
+			for (int w = 0; w < CHUNK_WORDS; w++) {
+				long word = words[w];
+				while (word != 0L) {
+					values[size++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1L;
+				}
+			}
+			return new ArrayContainer(values, size);
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean get(int low) {
+			return (words[low >>> 6] & (1L << low)) != 0L;
+		}
+
+		@NotNull
+		@Override
+		Container add(int low) {
+			final long word = words[low >>> 6];
+			final long newWord = word | (1L << low);
+			if (word != newWord) {
+				words[low >>> 6] = newWord;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container remove(int low) {
+			final long word = words[low >>> 6];
+			final long newWord = word & ~(1L << low);
+			if (word != newWord) {
+				words[low >>> 6] = newWord;
+				if (--cardinality <= ARRAY_MAX / 2) {
+					// With hysteresis, to not convert back and forth
+					return shrink();
+				}
+			}
+			return this;
+		}
+
+		@Override
+		int nextSetBit(int low) {
+			final long[] words = this.words;
+			int w = low >>> 6;
+			long word = words[w] & (-1L << low);
+			while (true) {
+				if (word != 0L)
+					return (w << 6) + Long.numberOfTrailingZeros(word);
+				if (++w == CHUNK_WORDS)
+					return -1;
+				word = words[w];
+			}
+		}
+
+		@Override
+		int nextClearBit(int low) {
+			final long[] words = this.words;
+			int w = low >>> 6;
+			long word = ~words[w] & (-1L << low);
+			while (true) {
+				if (word != 0L)
+					return (w << 6) + Long.numberOfTrailingZeros(word);
+				if (++w == CHUNK_WORDS)
+					return 0x10000;
+				word = ~words[w];
+			}
+		}
+
+		@Override
+		int last() {
+			final long[] words = this.words;
+			for (int w = CHUNK_WORDS - 1; w >= 0; w--) {
+				if (words[w] != 0L) {
+					return (w << 6) + 63 - Long.numberOfLeadingZeros(words[w]);
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		long getWord(int word) {
+			return words[word];
+		}
+
+		@NotNull
+		@Override
+		Container setWord(int word, long value) {
+			cardinality += Long.bitCount(value) - Long.bitCount(words[word]);
+			words[word] = value;
+			if (cardinality <= ARRAY_MAX / 2) {
+				return shrink();
+			}
+			return this;
+		}
+
+		@Override
+		int nextNonEmptyWord(int word) {
+			final long[] words = this.words;
+			for (int w = word; w < CHUNK_WORDS; w++) {
+				if (words[w] != 0L) {
+					return w;
+				}
+			}
+			return -1;
+		}
+
+		@NotNull
+		@Override
+		Container copy() {
+			final BitmapContainer copy = new BitmapContainer();
+			System.arraycopy(words, 0, copy.words, 0, CHUNK_WORDS);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		@NotNull
+		@Override
+		BitmapContainer toBitmap() {
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container runOptimize() {
+			final long[] words = this.words;
+			// Count the runs by counting 0->1 transitions
+			int runs = 0;
+			long previousTopBit = 0L;
+			for (int w = 0; w < CHUNK_WORDS; w++) {
+				final long word = words[w];
+				runs += Long.bitCount(word & ~((word << 1) | previousTopBit));
+				previousTopBit = word >>> 63;
+			}
+			if (runs * 4 >= CHUNK_WORDS * 8) {
+				return this;
+			}
+			final char[] runValues = new char[runs * 2];
+			int run = -1;
+			int runEnd = -2;
+			for (int w = 0; w < CHUNK_WORDS; w++) {
+				long word = words[w];
+				while (word != 0L) {
+					final int value = (w << 6) + Long.numberOfTrailingZeros(word);
+					if (value != runEnd + 1) {
+						run++;
+						runValues[run * 2] = (char) value;
+					}
+					runValues[run * 2 + 1] = (char) value;
+					runEnd = value;
+					word &= word - 1L;
+				}
+			}
+			return new RunContainer(runValues, runs, cardinality);
+		}
+
+		@Override
+		long memoryUsage() {
+			return 16 + CHUNK_WORDS * 8L;
+		}
+
+		@Override
+		boolean intersects(@NotNull Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.intersects(this);
+			}
+			return super.intersects(other);
+		}
+	}
+
+	/** Sorted, non-overlapping, non-adjacent ranges of set bits. */
+	private static final class RunContainer extends Container {
+		/** Pairs of inclusive starts and ends of runs */
+		char[] runs;
+		int    runCount;
+		int    cardinality;
+
+		RunContainer(@NotNull char[] runs, int runCount, int cardinality) {
+			this.runs = runs;
+			this.runCount = runCount;
+			this.cardinality = cardinality;
+		}
+
+		/** @return index of the last run which starts at or before low, or -1 */
+		private int findRun(int low) {
+			final char[] runs = this.runs;
+			int min = 0, max = runCount - 1;
+			while (min <= max) {
+				final int mid = (min + max) >>> 1;
+				if (runs[mid * 2] <= low) {
+					min = mid + 1;
+				} else {
+					max = mid - 1;
+				}
+			}
+			return max;
+		}
+
+		private void insertRun(int index, int start, int end) {
+			char[] runs = this.runs;
+			if (runCount * 2 + 2 > runs.length) {
+				this.runs = runs = Arrays.copyOf(runs, Math.max(4, runs.length * 2));
+			}
+			System.arraycopy(runs, index * 2, runs, index * 2 + 2, (runCount - index) * 2);
+			runs[index * 2] = (char) start;
+			runs[index * 2 + 1] = (char) end;
+			runCount++;
+		}
+
+		private void removeRun(int index) {
+			System.arraycopy(runs, index * 2 + 2, runs, index * 2, (runCount - index - 1) * 2);
+			runCount--;
+		}
+
+		/** Convert to a different container when runs stop being efficient. */
+		@NotNull
+		private Container checkSize() {
+			if (runCount * 4 > CHUNK_WORDS * 8) {
+				return toBitmap();
+			}
+			return this;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean get(int low) {
+			final int run = findRun(low);
+			return run >= 0 && low <= runs[run * 2 + 1];
+		}
+
+		@NotNull
+		@Override
+		Container add(int low) {
+			final int run = findRun(low);
+			final char[] runs = this.runs;
+			if (run >= 0 && low <= runs[run * 2 + 1]) {
+				return this;
+			}
+			cardinality++;
+			final boolean extendsPrevious = run >= 0 && runs[run * 2 + 1] + 1 == low;
+			final boolean extendsNext = run + 1 < runCount && runs[run * 2 + 2] == low + 1;
+			if (extendsPrevious && extendsNext) {
+				runs[run * 2 + 1] = runs[run * 2 + 3];
+				removeRun(run + 1);
+			} else if (extendsPrevious) {
+				runs[run * 2 + 1] = (char) low;
+			} else if (extendsNext) {
+				runs[run * 2 + 2] = (char) low;
+			} else {
+				insertRun(run + 1, low, low);
+				return checkSize();
+			}
+			return this;
+		}
+
+		@NotNull
+		@Override
+		Container remove(int low) {
+			final int run = findRun(low);
+			final char[] runs = this.runs;
+			if (run < 0 || low > runs[run * 2 + 1]) {
+				return this;
+			}
+			cardinality--;
+			final int start = runs[run * 2];
+			final int end = runs[run * 2 + 1];
+			if (start == end) {
+				removeRun(run);
+			} else if (low == start) {
+				runs[run * 2] = (char) (low + 1);
+			} else if (low == end) {
+				runs[run * 2 + 1] = (char) (low - 1);
+			} else {
+				runs[run * 2 + 1] = (char) (low - 1);
+				insertRun(run + 1, low + 1, end);
+				return checkSize();
+			}
+			return this;
+		}
+
+		@Override
+		int nextSetBit(int low) {
+			final int run = findRun(low);
+			if (run >= 0 && low <= runs[run * 2 + 1]) {
+				return low;
+			}
+			return run + 1 < runCount ? runs[run * 2 + 2] : -1;
+		}
+
+		@Override
+		int nextClearBit(int low) {
+			final int run = findRun(low);
+			if (run >= 0 && low <= runs[run * 2 + 1]) {
+				// Runs are never adjacent, so the bit after the run is always clear
+				return runs[run * 2 + 1] + 1;
+			}
+			return low;
+		}
+
+		@Override
+		int last() {
+			return runs[runCount * 2 - 1];
+		}
+
+		@Override
+		long getWord(int word) {
+			final int start = word << 6;
+			final int end = start + 63;
+			final char[] runs = this.runs;
+			long result = 0L;
+			int run = findRun(start);
+			if (run < 0) {
+				run = 0;
+			}
+			for (; run < runCount && runs[run * 2] <= end; run++) {
+				final int runStart = Math.max(start, runs[run * 2]);
+				final int runEnd = Math.min(end, runs[run * 2 + 1]);
+				if (runStart > runEnd) {
+					continue;
+				}
+				// Bits runStart..runEnd relative to start
+				final int length = runEnd - runStart + 1;
+				final long bits = length == 64 ? -1L : ((1L << length) - 1L);
+				result |= bits << (runStart - start);
+			}
+			return result;
+		}
+
+		@NotNull
+		@Override
+		Container setWord(int word, long value) {
+			if (getWord(word) == value) {
+				return this;
+			}
+			return toBitmap().setWord(word, value);
+		}
+
+		@Override
+		int nextNonEmptyWord(int word) {
+			final int next = nextSetBit(word << 6);
+			return next == -1 ? -1 : next >>> 6;
+		}
+
+		@Override
+		int getIndices(@NotNull int[] buffer, int i, int fromLow, int base) {
+			final char[] runs = this.runs;
+			final int capacity = buffer.length;
+			for (int run = Math.max(findRun(fromLow), 0); run < runCount; run++) {
+				for (int value = Math.max(fromLow, runs[run * 2]), end = runs[run * 2 + 1]; value <= end; value++) {
+					if (i == capacity) {
+						return i;
+					}
+					buffer[i++] = base + value;
+				}
+			}
+			return i;
+		}
+
+		@NotNull
+		@Override
+		Container copy() {
+			return new RunContainer(Arrays.copyOf(runs, Math.max(runCount * 2, 4)), runCount, cardinality);
+		}
+
+		@NotNull
+		@Override
+		BitmapContainer toBitmap() {
+			final BitmapContainer bitmap = new BitmapContainer();
+			final long[] words = bitmap.words;
+			final char[] runs = this.runs;
+			for (int run = 0; run < runCount; run++) {
+				for (int i = runs[run * 2], end = runs[run * 2 + 1]; i <= end; i++) {
+					words[i >>> 6] |= 1L << i;
+				}
+			}
+			bitmap.cardinality = cardinality;
+			return bitmap;
+		}
+
+		@NotNull
+		@Override
+		Container runOptimize() {
+			return this;
+		}
+
+		@Override
+		long memoryUsage() {
+			return 24 + runs.length * 2L;
+		}
+
+		@NotNull
+		@Override
+		Container and(@NotNull Container other) {
+			if (other instanceof ArrayContainer) {
+				return ((ArrayContainer) other).filteredCopy(this, true);
+			}
+			return super.and(other);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocation and explicit release of the direct buffers, which hold the off-heap masks and bags.
+ * The buffers can also be mapped from files, so that their content outlives the process.
+ */
+final class DirectMemory {
+
+	/** Releases the memory of a direct buffer, null when it is not possible on this JVM */
+	@Nullable
+	private static final Releaser RELEASER = createReleaser();
+
+	private interface Releaser {
+		void release(@NotNull ByteBuffer buffer) throws Exception;
+	}
+
+	@Nullable
+	private static Releaser createReleaser() {
+		try {
+			// Java 9+
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (Exception ignored) {
+		}
+		try {
+			// Java 8
+			final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> {
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleanMethod.invoke(cleaner);
+				}
+			};
+		} catch (Exception ignored) {
+		}
+		return null;
+	}
+
+	private DirectMemory() {
+	}
+
+	/** @return new zeroed direct buffer of given size, in native byte order */
+	@NotNull
+	static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/** @return new zeroed direct buffer of given size, with the content of the old buffer, which is released */
+	@NotNull
+	static ByteBuffer grow(@Nullable ByteBuffer old, int bytes) {
+		final ByteBuffer buffer = allocate(bytes);
+		if (old != null) {
+			final ByteBuffer source = old.duplicate();
+			source.clear();
+			buffer.put(source);
+			buffer.clear();
+			release(old);
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return new zeroed buffer of given size, with the content of the old buffer, which is released.
+	 * When the file is not null, the buffer is mapped from it instead and the file grows as needed.
+	 * @throws UncheckedIOException if the file can't be mapped
+	 */
+	@NotNull
+	static ByteBuffer grow(@Nullable FileChannel file, @Nullable ByteBuffer old, int bytes) {
+		if (file == null) {
+			return grow(old, bytes);
+		}
+		try {
+			// The old content is already in the file
+			final ByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+			release(old);
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not map " + bytes + " bytes", e);
+		}
+	}
+
+	/** Open the file, which holds the content of a mapped mask or bag, create it if it does not exist. */
+	@NotNull
+	static FileChannel open(@NotNull Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	}
+
+	/**
+	 * @param unit size of the stored elements in bytes, a trailing partial element is ignored
+	 * @return the whole existing content of the file mapped into memory, null if it is empty
+	 */
+	@Nullable
+	static ByteBuffer map(@NotNull FileChannel file, int unit) throws IOException {
+		final long size = file.size() / unit * unit;
+		if (size == 0) {
+			return null;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File is too large to be mapped: " + size + " bytes");
+		}
+		return file.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+	}
+
+	/** Close the file, if not null. Its mapped buffers stay valid. */
+	static void close(@Nullable FileChannel file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException ignored) {
+			// The mapped buffers do not depend on it
+		}
+	}
+
+	/**
+	 * Release the memory of the direct buffer right away, instead of waiting for the garbage collector.
+	 * The buffer and all its views must not be used afterwards.
+	 */
+	static void release(@Nullable ByteBuffer buffer) {
+		final Releaser releaser = RELEASER;
+		if (buffer == null || releaser == null) {
+			return;
+		}
+		try {
+			releaser.release(buffer);
+		} catch (Exception ignored) {
+			// The garbage collector will release it eventually
+		}
+	}
+}
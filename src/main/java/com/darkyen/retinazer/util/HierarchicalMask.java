@@ -0,0 +1,469 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * {@link Mask} with an additional summary layer, which has a bit set for each non-empty word of the mask.
+ * Operations use the summary to skip empty regions, so their cost is proportional to the amount
+ * of non-empty words instead of the highest set bit. This makes it a good fit for sparse masks,
+ * for example when entity IDs are assigned explicitly.
+ * <p>
+ * Interoperable with other {@link Mask}s in all operations.
+ */
+@SuppressWarnings("unused")
+public final class HierarchicalMask extends Mask {
+
+	/** Bit {@code i} is set iff {@code words[i] != 0}. */
+	private long[] summary = EMPTY;
+
+	/** Make sure that {@link #words} can hold at least {@code wordCount} words and {@link #summary} can describe them. */
+	private long[] ensureWords(int wordCount) {
+		long[] words = this.words;
+		if (words.length < wordCount) {
+			this.words = words = Arrays.copyOf(words, Bag.capacityFor(wordCount));
+		}
+		final int summaryCount = (words.length + 63) >> 6;
+		if (summary.length < summaryCount) {
+			summary = Arrays.copyOf(summary, summaryCount);
+		}
+		return words;
+	}
+
+	/** Update the summary bit of the word at given index. */
+	private void updateSummary(int wordIndex, long word) {
+		if (word == 0L) {
+			summary[wordIndex >> 6] &= ~(1L << wordIndex);
+		} else {
+			summary[wordIndex >> 6] |= 1L << wordIndex;
+		}
+	}
+
+	/** Recompute the whole summary from {@link #words}. */
+	private void rebuildSummary() {
+		final long[] words = this.words;
+		final long[] summary = this.summary = new long[(words.length + 63) >> 6];
+		for (int i = 0; i < words.length; i++) {
+			if (words[i] != 0L) {
+				summary[i >> 6] |= 1L << i;
+			}
+		}
+	}
+
+	/** @return summary of the other mask, or null if it does not have one */
+	private static long[] summaryOf(@NotNull Mask other) {
+		return other instanceof HierarchicalMask ? ((HierarchicalMask) other).summary : null;
+	}
+
+	/** @return index of the first non-empty word of the mask with given summary, which is at or after {@code wordIndex}, or -1 */
+	private static int nextWord(@NotNull long[] summary, int wordIndex) {
+		int summaryIndex = wordIndex >> 6;
+		if (summaryIndex >= summary.length) {
+			return -1;
+		}
+		long summaryWord = summary[summaryIndex] & (-1L << wordIndex);
+		while (true) {
+			if (summaryWord != 0L)
+				return (summaryIndex << 6) + Long.numberOfTrailingZeros(summaryWord);
+			if (++summaryIndex == summary.length)
+				return -1;
+			summaryWord = summary[summaryIndex];
+		}
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull Mask other) {
+		if (!other.flat) {
+			setGeneric(other);
+			return this;
+		}
+		final long[] otherSummary = summaryOf(other);
+		if (otherSummary == null) {
+			return set(other.words);
+		}
+
+		clear();
+		final long[] otherWords = other.words;
+		final long[] words = ensureWords(otherWords.length);
+		final long[] summary = this.summary;
+		for (int s = 0; s < otherSummary.length; s++) {
+			long summaryWord = otherSummary[s];
+			summary[s] = summaryWord;
+			if (summaryWord == -1L) {
+				System.arraycopy(otherWords, s << 6, words, s << 6, 64);
+				continue;
+			}
+			while (summaryWord != 0L) {
+				final int wordIndex = (s << 6) + Long.numberOfTrailingZeros(summaryWord);
+				words[wordIndex] = otherWords[wordIndex];
+				summaryWord &= summaryWord - 1L;
+			}
+		}
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull long[] otherWords) {
+		super.set(otherWords);
+		rebuildSummary();
+		return this;
+	}
+
+	@Override
+	public void clear() {
+		final long[] words = this.words;
+		final long[] summary = this.summary;
+		for (int s = 0; s < summary.length; s++) {
+			long summaryWord = summary[s];
+			if (summaryWord == -1L) {
+				Arrays.fill(words, s << 6, (s << 6) + 64, 0L);
+				summaryWord = 0L;
+			}
+			while (summaryWord != 0L) {
+				words[(s << 6) + Long.numberOfTrailingZeros(summaryWord)] = 0L;
+				summaryWord &= summaryWord - 1L;
+			}
+			summary[s] = 0L;
+		}
+	}
+
+	@Override
+	public void or(@NotNull Mask other) {
+		if (!other.flat) {
+			orGeneric(other);
+			return;
+		}
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		final long[] words = ensureWords(otherWords.length);
+		final long[] summary = this.summary;
+		if (otherSummary != null) {
+			for (int s = 0; s < otherSummary.length; s++) {
+				long summaryWord = otherSummary[s];
+				summary[s] |= summaryWord;
+				while (summaryWord != 0L) {
+					final int wordIndex = (s << 6) + Long.numberOfTrailingZeros(summaryWord);
+					words[wordIndex] |= otherWords[wordIndex];
+					summaryWord &= summaryWord - 1L;
+				}
+			}
+		} else {
+			for (int i = 0; i < otherWords.length; i++) {
+				final long otherWord = otherWords[i];
+				if (otherWord != 0L) {
+					words[i] |= otherWord;
+					summary[i >> 6] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void xor(@NotNull Mask other) {
+		if (!other.flat) {
+			xorGeneric(other);
+			return;
+		}
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		final long[] words = ensureWords(otherWords.length);
+		if (otherSummary != null) {
+			for (int s = 0; s < otherSummary.length; s++) {
+				long summaryWord = otherSummary[s];
+				while (summaryWord != 0L) {
+					final int wordIndex = (s << 6) + Long.numberOfTrailingZeros(summaryWord);
+					updateSummary(wordIndex, words[wordIndex] ^= otherWords[wordIndex]);
+					summaryWord &= summaryWord - 1L;
+				}
+			}
+		} else {
+			for (int i = 0; i < otherWords.length; i++) {
+				final long otherWord = otherWords[i];
+				if (otherWord != 0L) {
+					updateSummary(i, words[i] ^= otherWord);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void and(@NotNull Mask other) {
+		if (!other.flat) {
+			andGeneric(other);
+			return;
+		}
+		final long[] words = this.words;
+		final long[] summary = this.summary;
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		for (int s = 0; s < summary.length; s++) {
+			long summaryWord = summary[s];
+			if (summaryWord == 0L) {
+				continue;
+			}
+			if (otherSummary != null) {
+				// Words which are empty in the other mask can be cleared without looking at them
+				long cleared = summaryWord & ~(s < otherSummary.length ? otherSummary[s] : 0L);
+				summaryWord &= ~cleared;
+				while (cleared != 0L) {
+					words[(s << 6) + Long.numberOfTrailingZeros(cleared)] = 0L;
+					cleared &= cleared - 1L;
+				}
+			}
+
+			long newSummaryWord = summaryWord;
+			final int base = s << 6;
+			if (summaryWord == -1L && base + 64 <= otherWords.length) {
+				// Dense region, go linearly
+				for (int bit = 0; bit < 64; bit++) {
+					if ((words[base + bit] &= otherWords[base + bit]) == 0L) {
+						newSummaryWord &= ~(1L << bit);
+					}
+				}
+				summary[s] = newSummaryWord;
+				continue;
+			}
+			while (summaryWord != 0L) {
+				final int bit = Long.numberOfTrailingZeros(summaryWord);
+				final int wordIndex = base + bit;
+				final long word = words[wordIndex] &= wordIndex < otherWords.length ? otherWords[wordIndex] : 0L;
+				if (word == 0L) {
+					newSummaryWord &= ~(1L << bit);
+				}
+				summaryWord &= summaryWord - 1L;
+			}
+			summary[s] = newSummaryWord;
+		}
+	}
+
+	@Override
+	public void andNot(@NotNull Mask other) {
+		if (!other.flat) {
+			andNotGeneric(other);
+			return;
+		}
+		final long[] words = this.words;
+		final long[] summary = this.summary;
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		for (int s = 0; s < summary.length; s++) {
+			long summaryWord = summary[s];
+			if (otherSummary != null) {
+				// Only words which are non-empty in both masks can change
+				summaryWord &= s < otherSummary.length ? otherSummary[s] : 0L;
+			}
+			if (summaryWord == 0L) {
+				continue;
+			}
+
+			long newSummaryWord = summary[s];
+			final int base = s << 6;
+			if (summaryWord == -1L && base + 64 <= otherWords.length) {
+				// Dense region, go linearly
+				for (int bit = 0; bit < 64; bit++) {
+					if ((words[base + bit] &= ~otherWords[base + bit]) == 0L) {
+						newSummaryWord &= ~(1L << bit);
+					}
+				}
+				summary[s] = newSummaryWord;
+				continue;
+			}
+			while (summaryWord != 0L) {
+				final int bit = Long.numberOfTrailingZeros(summaryWord);
+				final int wordIndex = base + bit;
+				if (wordIndex < otherWords.length && (words[wordIndex] &= ~otherWords[wordIndex]) == 0L) {
+					newSummaryWord &= ~(1L << bit);
+				}
+				summaryWord &= summaryWord - 1L;
+			}
+			summary[s] = newSummaryWord;
+		}
+	}
+
+	@Override
+	public void set(int index) {
+		final int wordIndex = index >> 6;
+		final long[] words = ensureWords(wordIndex + 1);
+		// Note: index is truncated before shifting
+		words[wordIndex] |= 1L << index;
+		summary[wordIndex >> 6] |= 1L << wordIndex;
+	}
+
+	@Override
+	public boolean setChanged(int index) {
+		final int wordIndex = index >> 6;
+		final long[] words = ensureWords(wordIndex + 1);
+		// Note: index is truncated before shifting
+		final long bit = 1L << index;
+		final long word = words[wordIndex];
+		if ((word & bit) != 0L) {
+			return false;
+		}
+		words[wordIndex] = word | bit;
+		summary[wordIndex >> 6] |= 1L << wordIndex;
+		return true;
+	}
+
+	@Override
+	public void clear(int index) {
+		clearChanged(index);
+	}
+
+	@Override
+	public boolean clearChanged(int index) {
+		final long[] words = this.words;
+		final int wordIndex = index >> 6;
+		if (wordIndex >= words.length) {
+			return false;
+		}
+
+		final long bit = 1L << index;
+		final long word = words[wordIndex];
+		if ((word & bit) == 0L) {
+			return false;
+		}
+		if ((words[wordIndex] = word & ~bit) == 0L) {
+			summary[wordIndex >> 6] &= ~(1L << wordIndex);
+		}
+		return true;
+	}
+
+	@Override
+	public int nextSetBit(int index) {
+		final long[] words = this.words;
+		int wordIndex = index >> 6;
+		if (wordIndex >= words.length) {
+			return -1;
+		}
+		final long word = words[wordIndex] & (-1L << index);
+		if (word != 0L) {
+			return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+		}
+		wordIndex = nextWord(summary, wordIndex + 1);
+		if (wordIndex == -1) {
+			return -1;
+		}
+		return (wordIndex << 6) + Long.numberOfTrailingZeros(words[wordIndex]);
+	}
+
+	@Override
+	public boolean isSupersetOf(@NotNull Mask other) {
+		if (!other.flat) {
+			return isSupersetOfGeneric(other);
+		}
+		final long[] words = this.words;
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		if (otherSummary == null) {
+			return super.isSupersetOf(other);
+		}
+		final long[] summary = this.summary;
+		for (int s = 0; s < otherSummary.length; s++) {
+			long summaryWord = otherSummary[s];
+			if ((summaryWord & ~(s < summary.length ? summary[s] : 0L)) != 0L) {
+				// The other mask has a non-empty word where this mask is empty
+				return false;
+			}
+			while (summaryWord != 0L) {
+				final int wordIndex = (s << 6) + Long.numberOfTrailingZeros(summaryWord);
+				final long otherWord = otherWords[wordIndex];
+				if ((words[wordIndex] & otherWord) != otherWord) {
+					return false;
+				}
+				summaryWord &= summaryWord - 1L;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean intersects(@NotNull Mask other) {
+		if (!other.flat) {
+			return intersectsGeneric(other);
+		}
+		final long[] words = this.words;
+		final long[] summary = this.summary;
+		final long[] otherWords = other.words;
+		final long[] otherSummary = summaryOf(other);
+		for (int s = 0; s < summary.length; s++) {
+			long summaryWord = summary[s];
+			if (otherSummary != null) {
+				summaryWord &= s < otherSummary.length ? otherSummary[s] : 0L;
+			}
+			while (summaryWord != 0L) {
+				final int wordIndex = (s << 6) + Long.numberOfTrailingZeros(summaryWord);
+				if (wordIndex < otherWords.length && (words[wordIndex] & otherWords[wordIndex]) != 0L) {
+					return true;
+				}
+				summaryWord &= summaryWord - 1L;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int cardinality() {
+		final long[] words = this.words;
+		final long[] summary = this.summary;
+		int cardinality = 0;
+		for (int s = 0; s < summary.length; s++) {
+			long summaryWord = summary[s];
+			if (summaryWord == -1L) {
+				// Dense region, go linearly
+				for (int i = s << 6, end = i + 64; i < end; i++) {
+					cardinality += Long.bitCount(words[i]);
+				}
+				continue;
+			}
+			while (summaryWord != 0L) {
+				cardinality += Long.bitCount(words[(s << 6) + Long.numberOfTrailingZeros(summaryWord)]);
+				summaryWord &= summaryWord - 1L;
+			}
+		}
+		return cardinality;
+	}
+
+	@Override
+	public int length() {
+		final long[] summary = this.summary;
+		for (int s = summary.length - 1; s >= 0; s--) {
+			final long summaryWord = summary[s];
+			if (summaryWord != 0L) {
+				final int wordIndex = (s << 6) + 63 - Long.numberOfLeadingZeros(summaryWord);
+				return (wordIndex << 6) + (64 - Long.numberOfLeadingZeros(words[wordIndex]));
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void setWord(int index, long word) {
+		final long[] words = ensureWords(index + 1);
+		words[index] = word;
+		updateSummary(index, word);
+	}
+
+	@Override
+	public int nextNonEmptyWord(int wordIndex) {
+		return nextWord(summary, wordIndex);
+	}
+
+	@Override
+	public int getIndices(@NotNull int[] buffer, int offset, int fromIndex) {
+		// Skips empty words through the summary
+		return getIndicesGeneric(buffer, offset, fromIndex);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (long summaryWord : this.summary) {
+			if (summaryWord != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -7,13 +7,32 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
 
-/** Bit mask of an arbitrary size. */
+/**
+ * Bit mask of an arbitrary size.
+ *
+ * @see HierarchicalMask for a variant which is faster for sparse masks
+ */
 @SuppressWarnings("unused")
-public final class Mask implements Poolable {
+public class Mask implements Poolable {
 
-	private static final long[] EMPTY = new long[0];
+	static final long[] EMPTY = new long[0];
 
-	private long[] words = EMPTY;
+	/** Bits of the mask, subclasses must keep it up to date, unless they are not {@link #flat}. */
+	long[] words = EMPTY;
+
+	/**
+	 * Whether the bits of this mask are stored in {@link #words}.
+	 * Operations with masks which are not flat go through the (slower) generic word-by-word path.
+	 */
+	final boolean flat;
+
+	public Mask() {
+		this(true);
+	}
+
+	Mask(boolean flat) {
+		this.flat = flat;
+	}
 
 	/**
 	 * Sets this mask to the value of the other mask.
@@ -23,6 +42,10 @@ public final class Mask implements Poolable {
 	 */
 	@NotNull
 	public Mask set(@NotNull Mask other) {
+		if (!other.flat) {
+			setGeneric(other);
+			return this;
+		}
 		return set(other.words);
 	}
 
@@ -46,18 +69,18 @@ public final class Mask implements Poolable {
 
 	/** Sets all bits in this mask that are set in the other mask. */
 	public void or(@NotNull Mask other) {
+		if (!other.flat) {
+			orGeneric(other);
+			return;
+		}
 		long[] words = this.words;
 		final long[] otherWords = other.words;
 
-		final int commonWords;
 		if (words.length < otherWords.length) {
-			commonWords = words.length;
-			this.words = words = Arrays.copyOf(otherWords, otherWords.length);
-		} else {
-			commonWords = otherWords.length;
+			this.words = words = Arrays.copyOf(words, otherWords.length);
 		}
 
-		for (int i = 0; i < commonWords; i++) {
+		for (int i = 0; i < otherWords.length; i++) {
 			words[i] |= otherWords[i];
 		}
 	}
@@ -69,18 +92,18 @@ public final class Mask implements Poolable {
 	 * @param other The other operand.
 	 */
 	public void xor(@NotNull Mask other) {
+		if (!other.flat) {
+			xorGeneric(other);
+			return;
+		}
 		long[] words = this.words;
 		final long[] otherWords = other.words;
 
-		final int commonWords;
 		if (words.length < otherWords.length) {
-			commonWords = words.length;
-			this.words = words = Arrays.copyOf(otherWords, otherWords.length);
-		} else {
-			commonWords = otherWords.length;
+			this.words = words = Arrays.copyOf(words, otherWords.length);
 		}
 
-		for (int i = 0; i < commonWords; i++) {
+		for (int i = 0; i < otherWords.length; i++) {
 			words[i] ^= otherWords[i];
 		}
 	}
@@ -91,6 +114,10 @@ public final class Mask implements Poolable {
 	 * @param other The other operand.
 	 */
 	public void and(@NotNull Mask other) {
+		if (!other.flat) {
+			andGeneric(other);
+			return;
+		}
 		final long[] words = this.words;
 		final long[] otherWords = other.words;
 		int commonWords = Math.min(words.length, otherWords.length);
@@ -109,6 +136,10 @@ public final class Mask implements Poolable {
 	 * @param other The other operand.
 	 */
 	public void andNot(@NotNull Mask other) {
+		if (!other.flat) {
+			andNotGeneric(other);
+			return;
+		}
 		final long[] words = this.words;
 		final long[] otherWords = other.words;
 		final int commonWords = Math.min(words.length, otherWords.length);
@@ -238,9 +269,10 @@ public final class Mask implements Poolable {
 	 * @return The index of the next clear bit.
 	 */
 	public int nextClearBit(int index) {
+		final long[] words = this.words;
 		int wordIndex = index >> 6;
 		if (wordIndex >= words.length) {
-			return words.length >> 6;
+			return index;
 		}
 		long word = ~words[wordIndex] & (-1L << index);
 		while (true) {
@@ -259,6 +291,9 @@ public final class Mask implements Poolable {
 	 * @return Whether this mask is a superset of the other mask.
 	 */
 	public boolean isSupersetOf(@NotNull Mask other) {
+		if (!other.flat) {
+			return isSupersetOfGeneric(other);
+		}
 		final long[] words = this.words;
 		final long[] otherWords = other.words;
 		final int commonWords = Math.min(words.length, otherWords.length);
@@ -288,6 +323,9 @@ public final class Mask implements Poolable {
 	 * @return Whether this mask intersects the other mask.
 	 */
 	public boolean intersects(@NotNull Mask other) {
+		if (!other.flat) {
+			return intersectsGeneric(other);
+		}
 		final long[] words = this.words;
 		final long[] otherWords = other.words;
 		final int commonWords = Math.min(words.length, otherWords.length);
@@ -326,25 +364,71 @@ public final class Mask implements Poolable {
 	 */
 	@NotNull
 	public int[] getIndices() {
-		int[] indices = new int[cardinality()];
-		for (int i = 0, b = nextSetBit(0), n = indices.length; i < n; i++, b = nextSetBit(b + 1)) {
-			indices[i] = b;
-		}
+		final int[] indices = new int[cardinality()];
+		getIndices(indices, 0, 0);
 		return indices;
 	}
 
 	/** Add the indices of the set bits into the given {@link IntArray}. */
 	public void getIndices(@NotNull IntArray out) {
-		final int offset = out.size;
-		int count = cardinality();
+		final int count = cardinality();
 		out.ensureCapacity(count);
-		int[] items = out.items;
-		for (int i = 0, b = nextSetBit(0); i < count; i++, b = nextSetBit(b + 1)) {
-			items[offset + i] = b;
-		}
+		getIndices(out.items, out.size, 0);
 		out.size += count;
 	}
 
+	/**
+	 * Decodes the indices of the set bits, which are at or after {@code fromIndex}, into the buffer.
+	 * Bits are decoded a whole word at a time, which is much faster than calling {@link #nextSetBit(int)} repeatedly.
+	 * Decoding stops when the buffer is full, continue with {@code fromIndex = buffer[count - 1] + 1}:
+	 * <pre>
+	 * for (int count, from = 0; (count = mask.getIndices(buffer, from)) &gt; 0; from = buffer[count - 1] + 1) {
+	 *     for (int i = 0; i &lt; count; i++) {
+	 *         process(buffer[i]);
+	 *     }
+	 * }
+	 * </pre>
+	 *
+	 * @param buffer non-empty buffer to fill with indices
+	 * @param fromIndex the first index to consider
+	 * @return amount of indices written to the beginning of the buffer, 0 if there are no more set bits
+	 */
+	public int getIndices(@NotNull int[] buffer, int fromIndex) {
+		return getIndices(buffer, 0, fromIndex);
+	}
+
+	/**
+	 * Like {@link #getIndices(int[], int)}, but starts writing into the buffer at given offset.
+	 *
+	 * @return amount of indices written to the buffer
+	 */
+	public int getIndices(@NotNull int[] buffer, int offset, int fromIndex) {
+		if (!flat) {
+			return getIndicesGeneric(buffer, offset, fromIndex);
+		}
+		final long[] words = this.words;
+		int wordIndex = fromIndex >> 6;
+		if (wordIndex >= words.length) {
+			return 0;
+		}
+		final int capacity = buffer.length;
+		int i = offset;
+		long word = words[wordIndex] & (-1L << fromIndex);
+		while (true) {
+			while (word != 0L) {
+				if (i == capacity) {
+					return i - offset;
+				}
+				buffer[i++] = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1L;
+			}
+			if (++wordIndex == words.length) {
+				return i - offset;
+			}
+			word = words[wordIndex];
+		}
+	}
+
 	public long getWord(int index) {
 		final long[] words = this.words;
 		return index < words.length ? words[index] : 0L;
@@ -371,7 +455,7 @@ public final class Mask implements Poolable {
 		return 0;
 	}
 
-	/** Gets the backing buffer of this mask. Does not exclude trailing zero words. */
+	/** Gets the backing buffer of this mask. Does not exclude trailing zero words. Do <b>not</b> modify this. */
 	@NotNull
 	public long[] getWords() {
 		return words;
@@ -387,6 +471,121 @@ public final class Mask implements Poolable {
 		return true;
 	}
 
+	/**
+	 * Returns the index of the first word with at least one bit set,
+	 * which is at or after the given word index. Returns -1 if there is no such word.
+	 */
+	public int nextNonEmptyWord(int wordIndex) {
+		final long[] words = this.words;
+		for (int i = wordIndex; i < words.length; i++) {
+			if (words[i] != 0L) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Generic implementations, which work on any combination of masks, through the word access methods
+
+	final int getIndicesGeneric(@NotNull int[] buffer, int offset, int fromIndex) {
+		final int capacity = buffer.length;
+		int i = offset;
+		int wordIndex = nextNonEmptyWord(fromIndex >> 6);
+		if (wordIndex == -1) {
+			return 0;
+		}
+		long word = getWord(wordIndex);
+		if (wordIndex == fromIndex >> 6) {
+			word &= -1L << fromIndex;
+		}
+		while (true) {
+			while (word != 0L) {
+				if (i == capacity) {
+					return i - offset;
+				}
+				buffer[i++] = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1L;
+			}
+			wordIndex = nextNonEmptyWord(wordIndex + 1);
+			if (wordIndex == -1) {
+				return i - offset;
+			}
+			word = getWord(wordIndex);
+		}
+	}
+
+	final void setGeneric(@NotNull Mask other) {
+		clear();
+		for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+			setWord(w, other.getWord(w));
+		}
+	}
+
+	final void orGeneric(@NotNull Mask other) {
+		for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+			setWord(w, getWord(w) | other.getWord(w));
+		}
+	}
+
+	final void xorGeneric(@NotNull Mask other) {
+		for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+			setWord(w, getWord(w) ^ other.getWord(w));
+		}
+	}
+
+	final void andGeneric(@NotNull Mask other) {
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			final long word = getWord(w);
+			final long newWord = word & other.getWord(w);
+			if (word != newWord) {
+				setWord(w, newWord);
+			}
+		}
+	}
+
+	final void andNotGeneric(@NotNull Mask other) {
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			final long otherWord = other.getWord(w);
+			if (otherWord != 0L) {
+				setWord(w, getWord(w) & ~otherWord);
+			}
+		}
+	}
+
+	final boolean isSupersetOfGeneric(@NotNull Mask other) {
+		for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+			final long otherWord = other.getWord(w);
+			if ((getWord(w) & otherWord) != otherWord) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	final boolean intersectsGeneric(@NotNull Mask other) {
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			if ((getWord(w) & other.getWord(w)) != 0L) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	final boolean equalsGeneric(@NotNull Mask other) {
+		for (int w = nextNonEmptyWord(0); w != -1; w = nextNonEmptyWord(w + 1)) {
+			if (getWord(w) != other.getWord(w)) {
+				return false;
+			}
+		}
+		// All non-empty words of this are in other, now check that other does not have more
+		for (int w = other.nextNonEmptyWord(0); w != -1; w = other.nextNonEmptyWord(w + 1)) {
+			if (getWord(w) == 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@NotNull
 	@Override
 	public String toString() {
@@ -404,6 +603,9 @@ public final class Mask implements Poolable {
 		if (!(obj instanceof Mask))
 			return false;
 		Mask mask = (Mask) obj;
+		if (!mask.flat) {
+			return equalsGeneric(mask);
+		}
 		long[] shorterWords = this.words;
 		long[] longerWords = mask.words;
 		if (shorterWords.length > longerWords.length) {
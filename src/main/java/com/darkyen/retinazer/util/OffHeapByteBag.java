@@ -0,0 +1,98 @@
+package com.darkyen.retinazer.util;
+
+import com.badlogic.gdx.utils.Disposable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Dynamically sized container for bytes, like {@link ByteBag}, but the values are stored outside of the Java heap,
+ * in a direct buffer, so that the garbage collector does not have to copy them around.
+ * The memory is released by {@link #dispose()}.
+ * <p>
+ * The buffer can be also mapped from a file, see {@link #OffHeapByteBag(Path)}.
+ */
+public final class OffHeapByteBag implements Disposable {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/** Memory of {@link #buffer}, null when nothing is allocated */
+	@Nullable
+	private ByteBuffer  memory = null;
+	@NotNull
+	private ByteBuffer  buffer = EMPTY;
+	/** File from which {@link #memory} is mapped, null when it is not mapped */
+	@Nullable
+	private FileChannel file   = null;
+
+	public OffHeapByteBag() {
+	}
+
+	/**
+	 * Creates a bag whose values are mapped from the given file, which is created if it does not exist.
+	 * Values previously stored in the file are preserved, and all changes are written back to the file.
+	 * The values are stored in native byte order, like in memory.
+	 */
+	public OffHeapByteBag(@NotNull Path file) throws IOException {
+		final FileChannel channel = this.file = DirectMemory.open(file);
+		final ByteBuffer memory = this.memory = DirectMemory.map(channel, 1);
+		if (memory != null) {
+			buffer = memory;
+		}
+	}
+
+	/**
+	 * Ensure that the internal buffer has at least the given capacity.
+	 * Returns internal buffer, use its absolute get and put methods.
+	 */
+	@NotNull
+	public ByteBuffer ensureCapacity(int capacity) {
+		final ByteBuffer buffer = this.buffer;
+		if (buffer.capacity() >= capacity)
+			return buffer;
+		final ByteBuffer memory = this.memory = DirectMemory.grow(file, this.memory, Bag.capacityFor(capacity) * 1);
+		return this.buffer = memory;
+	}
+
+	/**
+	 * Get the value at given index.
+	 * If the value was never assigned, it will be zero.
+	 */
+	public byte get(int index) {
+		final ByteBuffer buffer = this.buffer;
+		if (index >= buffer.capacity()) {
+			return 0;
+		}
+		return buffer.get(index);
+	}
+
+	/** Set the value at given index. */
+	public void set(int index, byte value) {
+		ensureCapacity(index + 1).put(index, value);
+	}
+
+	/** Set all values to zero. */
+	public void clear() {
+		final ByteBuffer buffer = this.buffer;
+		for (int i = buffer.capacity() - 1; i >= 0; i--) {
+			buffer.put(i, (byte) 0);
+		}
+	}
+
+	/**
+	 * Release the off-heap memory of this bag, all values become zero.
+	 * The bag can be used afterwards, but it will allocate new memory, which is not mapped from the file anymore.
+	 */
+	@Override
+	public void dispose() {
+		DirectMemory.release(memory);
+		memory = null;
+		DirectMemory.close(file);
+		file = null;
+		buffer = EMPTY;
+	}
+}
@@ -0,0 +1,325 @@
+package com.darkyen.retinazer.util;
+
+import com.badlogic.gdx.utils.Disposable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * {@link Mask} whose words are stored outside of the Java heap, in a direct buffer,
+ * so that the garbage collector does not have to copy them around. Intended for very large worlds.
+ * Usable as the {@link com.darkyen.retinazer.Engine} mask factory, in which case
+ * {@link com.darkyen.retinazer.Engine#dispose()} releases the memory of all such masks.
+ * <p>
+ * Interoperable with other {@link Mask}s in all operations, but as it is not flat, they go through the generic word-by-word path.
+ * {@link #getWords()} has to create a copy of the whole mask, so it should be avoided.
+ * <p>
+ * The words can be also mapped from a file, see {@link #OffHeapMask(Path)}.
+ */
+@SuppressWarnings("unused")
+public final class OffHeapMask extends Mask implements Disposable {
+
+	private static final LongBuffer NO_WORDS = LongBuffer.allocate(0);
+
+	/** Memory of {@link #offHeapWords}, null when nothing is allocated */
+	@Nullable
+	private ByteBuffer  memory       = null;
+	@NotNull
+	private LongBuffer  offHeapWords = NO_WORDS;
+	/** Amount of words in {@link #offHeapWords} */
+	private int         capacity     = 0;
+	/** File from which {@link #memory} is mapped, null when it is not mapped */
+	@Nullable
+	private FileChannel file         = null;
+
+	public OffHeapMask() {
+		super(false);
+	}
+
+	/**
+	 * Creates a mask whose words are mapped from the given file, which is created if it does not exist.
+	 * Words previously stored in the file are preserved, and all changes are written back to the file.
+	 * The words are stored in native byte order, like in memory.
+	 */
+	public OffHeapMask(@NotNull Path file) throws IOException {
+		super(false);
+		final FileChannel channel = this.file = DirectMemory.open(file);
+		final ByteBuffer memory = this.memory = DirectMemory.map(channel, 8);
+		if (memory != null) {
+			offHeapWords = memory.asLongBuffer();
+			capacity = offHeapWords.capacity();
+		}
+	}
+
+	@NotNull
+	private LongBuffer ensureWords(int wordCount) {
+		if (wordCount > capacity) {
+			final int capacity = Bag.capacityFor(wordCount);
+			memory = DirectMemory.grow(file, memory, capacity << 3);
+			offHeapWords = memory.asLongBuffer();
+			this.capacity = capacity;
+		}
+		return offHeapWords;
+	}
+
+	@Override
+	public long getWord(int index) {
+		return index < capacity ? offHeapWords.get(index) : 0L;
+	}
+
+	@Override
+	public void setWord(int index, long word) {
+		if (index >= capacity) {
+			if (word == 0L) {
+				return;
+			}
+			ensureWords(index + 1);
+		}
+		offHeapWords.put(index, word);
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull Mask other) {
+		setGeneric(other);
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Mask set(@NotNull long[] otherWords) {
+		clear();
+		for (int i = 0; i < otherWords.length; i++) {
+			if (otherWords[i] != 0L) {
+				setWord(i, otherWords[i]);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public void clear() {
+		final LongBuffer words = this.offHeapWords;
+		for (int i = 0, capacity = this.capacity; i < capacity; i++) {
+			words.put(i, 0L);
+		}
+	}
+
+	@Override
+	public void or(@NotNull Mask other) {
+		orGeneric(other);
+	}
+
+	@Override
+	public void xor(@NotNull Mask other) {
+		xorGeneric(other);
+	}
+
+	@Override
+	public void and(@NotNull Mask other) {
+		andGeneric(other);
+	}
+
+	@Override
+	public void andNot(@NotNull Mask other) {
+		andNotGeneric(other);
+	}
+
+	@Override
+	public void set(int index) {
+		final int wordIndex = index >> 6;
+		setWord(wordIndex, getWord(wordIndex) | 1L << index);
+	}
+
+	@Override
+	public boolean setChanged(int index) {
+		final int wordIndex = index >> 6;
+		final long word = getWord(wordIndex);
+		final long newWord = word | 1L << index;
+		if (word == newWord) {
+			return false;
+		}
+		setWord(wordIndex, newWord);
+		return true;
+	}
+
+	@Override
+	public void clear(int index) {
+		final int wordIndex = index >> 6;
+		if (wordIndex < capacity) {
+			offHeapWords.put(wordIndex, offHeapWords.get(wordIndex) & ~(1L << index));
+		}
+	}
+
+	@Override
+	public boolean clearChanged(int index) {
+		final int wordIndex = index >> 6;
+		if (wordIndex >= capacity) {
+			return false;
+		}
+		final long word = offHeapWords.get(wordIndex);
+		final long newWord = word & ~(1L << index);
+		if (word == newWord) {
+			return false;
+		}
+		offHeapWords.put(wordIndex, newWord);
+		return true;
+	}
+
+	@Override
+	public boolean get(int index) {
+		return (getWord(index >> 6) & 1L << index) != 0L;
+	}
+
+	@Override
+	public int nextSetBit(int index) {
+		int wordIndex = index >> 6;
+		if (wordIndex >= capacity) {
+			return -1;
+		}
+		final LongBuffer words = this.offHeapWords;
+		long word = words.get(wordIndex) & (-1L << index);
+		while (true) {
+			if (word != 0L) {
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++wordIndex == capacity) {
+				return -1;
+			}
+			word = words.get(wordIndex);
+		}
+	}
+
+	@Override
+	public int nextClearBit(int index) {
+		int wordIndex = index >> 6;
+		if (wordIndex >= capacity) {
+			return index;
+		}
+		final LongBuffer words = this.offHeapWords;
+		long word = ~words.get(wordIndex) & (-1L << index);
+		while (true) {
+			if (word != 0L) {
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++wordIndex == capacity) {
+				return wordIndex << 6;
+			}
+			word = ~words.get(wordIndex);
+		}
+	}
+
+	@Override
+	public boolean isSupersetOf(@NotNull Mask other) {
+		return isSupersetOfGeneric(other);
+	}
+
+	@Override
+	public boolean intersects(@NotNull Mask other) {
+		return intersectsGeneric(other);
+	}
+
+	@Override
+	public int cardinality() {
+		final LongBuffer words = this.offHeapWords;
+		int count = 0;
+		for (int i = 0, capacity = this.capacity; i < capacity; i++) {
+			count += Long.bitCount(words.get(i));
+		}
+		return count;
+	}
+
+	@Override
+	public int length() {
+		final LongBuffer words = this.offHeapWords;
+		for (int i = capacity - 1; i >= 0; i--) {
+			final long word = words.get(i);
+			if (word != 0L) {
+				return (i << 6) + 64 - Long.numberOfLeadingZeros(word);
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public int nextNonEmptyWord(int wordIndex) {
+		final LongBuffer words = this.offHeapWords;
+		for (int i = wordIndex, capacity = this.capacity; i < capacity; i++) {
+			if (words.get(i) != 0L) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getIndices(@NotNull int[] buffer, int offset, int fromIndex) {
+		return getIndicesGeneric(buffer, offset, fromIndex);
+	}
+
+	@Override
+	public int getWordCount() {
+		// Same as Mask.getWordCount
+		final LongBuffer words = this.offHeapWords;
+		for (int i = capacity - 1; i > 0; i--) {
+			if (words.get(i) != 0L) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/** Creates a heap copy of the words of this mask. Modifying it does not change this mask. */
+	@NotNull
+	@Override
+	public long[] getWords() {
+		final long[] words = new long[capacity];
+		offHeapWords.duplicate().get(words);
+		return words;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return nextNonEmptyWord(0) == -1;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Mask))
+			return false;
+		return equalsGeneric((Mask) obj);
+	}
+
+	@Override
+	public int hashCode() {
+		// Same as Mask.hashCode
+		final LongBuffer words = this.offHeapWords;
+		int h = 0;
+		for (int i = capacity - 1; i >= 0; i--) {
+			final long word = words.get(i);
+			h = h * 31 + (int) (word ^ (word >>> 32));
+		}
+		return h;
+	}
+
+	/**
+	 * Release the off-heap memory of this mask, which becomes empty.
+	 * The mask can be used afterwards, but it will allocate new memory, which is not mapped from the file anymore.
+	 */
+	@Override
+	public void dispose() {
+		DirectMemory.release(memory);
+		memory = null;
+		DirectMemory.close(file);
+		file = null;
+		offHeapWords = NO_WORDS;
+		capacity = 0;
+	}
+}
@@ -0,0 +1,99 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Dynamically sized container for objects, like {@link Bag}, but the values are stored in fixed-size pages.
+ * Growing never copies the values, only the small table of pages, and pages in ranges where no value
+ * was ever set are not allocated at all. Random access has to go through the page table,
+ * so it is slightly slower than with {@link Bag}.
+ * <p>
+ * Accessing negative indices always results in an exception.
+ * Accessing zero or positive indices behaves as if this was an infinite array.
+ */
+public final class PagedBag<E> {
+
+	/** Binary logarithm of {@link #PAGE_SIZE}, shared by all paged bags */
+	public static final int PAGE_SHIFT = 12;
+	/** Amount of values in a single page, shared by all paged bags */
+	public static final int PAGE_SIZE  = 1 << PAGE_SHIFT;
+	/** Mask of the index into a page */
+	public static final int PAGE_MASK  = PAGE_SIZE - 1;
+
+	private static final Object[][] EMPTY = new Object[0][];
+
+	private Object[][] pages = EMPTY;
+
+	/** @return capacity of the page table, to hold given page */
+	static int pageTableCapacityFor(int pageIndex, int oldCapacity) {
+		return Math.max(pageIndex + 1, Math.max(16, oldCapacity * 2));
+	}
+
+	/**
+	 * Get the page with given index, allocating it when needed.
+	 * Page holds the values of indices [pageIndex * {@link #PAGE_SIZE}, (pageIndex + 1) * {@link #PAGE_SIZE}).
+	 */
+	@NotNull
+	public Object[] getPage(int pageIndex) {
+		Object[][] pages = this.pages;
+		if (pageIndex >= pages.length) {
+			this.pages = pages = Arrays.copyOf(pages, pageTableCapacityFor(pageIndex, pages.length));
+		}
+		Object[] page = pages[pageIndex];
+		if (page == null) {
+			pages[pageIndex] = page = new Object[PAGE_SIZE];
+		}
+		return page;
+	}
+
+	/**
+	 * Get the value at given index.
+	 * If the value was never assigned, it will be null.
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		final Object[][] pages = this.pages;
+		final int pageIndex = index >> PAGE_SHIFT;
+		if (pageIndex >= pages.length) {
+			return null;
+		}
+		final Object[] page = pages[pageIndex];
+		if (page == null) {
+			return null;
+		}
+		return (E) page[index & PAGE_MASK];
+	}
+
+	/** Set the value at given index. */
+	public void set(int index, E value) {
+		getPage(index >> PAGE_SHIFT)[index & PAGE_MASK] = value;
+	}
+
+	/** Remove value at given index and return the old value. */
+	@SuppressWarnings("unchecked")
+	public E remove(int index) {
+		final Object[][] pages = this.pages;
+		final int pageIndex = index >> PAGE_SHIFT;
+		if (pageIndex >= pages.length) {
+			return null;
+		}
+		final Object[] page = pages[pageIndex];
+		if (page == null) {
+			return null;
+		}
+		final E result = (E) page[index & PAGE_MASK];
+		page[index & PAGE_MASK] = null;
+		return result;
+	}
+
+	/** Set all values to null. */
+	public void clear() {
+		for (Object[] page : pages) {
+			if (page != null) {
+				Arrays.fill(page, null);
+			}
+		}
+	}
+}
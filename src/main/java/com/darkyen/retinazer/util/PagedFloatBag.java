@@ -0,0 +1,67 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Dynamically sized container for floats, like {@link FloatBag}, but the values are stored in fixed-size pages.
+ * Growing never copies the values, only the small table of pages, and pages in ranges where no value
+ * was ever set are not allocated at all. Random access has to go through the page table,
+ * so it is slightly slower than with {@link FloatBag}.
+ * See {@link PagedBag} for the page size.
+ */
+public final class PagedFloatBag {
+
+	private static final float[][] EMPTY = new float[0][];
+
+	private float[][] pages = EMPTY;
+
+	/**
+	 * Get the page with given index, allocating it when needed.
+	 * Page holds the values of indices [pageIndex * {@link PagedBag#PAGE_SIZE}, (pageIndex + 1) * {@link PagedBag#PAGE_SIZE}).
+	 */
+	@NotNull
+	public float[] getPage(int pageIndex) {
+		float[][] pages = this.pages;
+		if (pageIndex >= pages.length) {
+			this.pages = pages = Arrays.copyOf(pages, PagedBag.pageTableCapacityFor(pageIndex, pages.length));
+		}
+		float[] page = pages[pageIndex];
+		if (page == null) {
+			pages[pageIndex] = page = new float[PagedBag.PAGE_SIZE];
+		}
+		return page;
+	}
+
+	/**
+	 * Get the value at given index.
+	 * If the value was never assigned, it will be zero.
+	 */
+	public float get(int index) {
+		final float[][] pages = this.pages;
+		final int pageIndex = index >> PagedBag.PAGE_SHIFT;
+		if (pageIndex >= pages.length) {
+			return 0;
+		}
+		final float[] page = pages[pageIndex];
+		if (page == null) {
+			return 0;
+		}
+		return page[index & PagedBag.PAGE_MASK];
+	}
+
+	/** Set the value at given index. */
+	public void set(int index, float value) {
+		getPage(index >> PagedBag.PAGE_SHIFT)[index & PagedBag.PAGE_MASK] = value;
+	}
+
+	/** Set all values to zero. */
+	public void clear() {
+		for (float[] page : pages) {
+			if (page != null) {
+				Arrays.fill(page, 0f);
+			}
+		}
+	}
+}
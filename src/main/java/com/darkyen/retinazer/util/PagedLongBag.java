@@ -0,0 +1,67 @@
+package com.darkyen.retinazer.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Dynamically sized container for longs, like {@link LongBag}, but the values are stored in fixed-size pages.
+ * Growing never copies the values, only the small table of pages, and pages in ranges where no value
+ * was ever set are not allocated at all. Random access has to go through the page table,
+ * so it is slightly slower than with {@link LongBag}.
+ * See {@link PagedBag} for the page size.
+ */
+public final class PagedLongBag {
+
+	private static final long[][] EMPTY = new long[0][];
+
+	private long[][] pages = EMPTY;
+
+	/**
+	 * Get the page with given index, allocating it when needed.
+	 * Page holds the values of indices [pageIndex * {@link PagedBag#PAGE_SIZE}, (pageIndex + 1) * {@link PagedBag#PAGE_SIZE}).
+	 */
+	@NotNull
+	public long[] getPage(int pageIndex) {
+		long[][] pages = this.pages;
+		if (pageIndex >= pages.length) {
+			this.pages = pages = Arrays.copyOf(pages, PagedBag.pageTableCapacityFor(pageIndex, pages.length));
+		}
+		long[] page = pages[pageIndex];
+		if (page == null) {
+			pages[pageIndex] = page = new long[PagedBag.PAGE_SIZE];
+		}
+		return page;
+	}
+
+	/**
+	 * Get the value at given index.
+	 * If the value was never assigned, it will be zero.
+	 */
+	public long get(int index) {
+		final long[][] pages = this.pages;
+		final int pageIndex = index >> PagedBag.PAGE_SHIFT;
+		if (pageIndex >= pages.length) {
+			return 0;
+		}
+		final long[] page = pages[pageIndex];
+		if (page == null) {
+			return 0;
+		}
+		return page[index & PagedBag.PAGE_MASK];
+	}
+
+	/** Set the value at given index. */
+	public void set(int index, long value) {
+		getPage(index >> PagedBag.PAGE_SHIFT)[index & PagedBag.PAGE_MASK] = value;
+	}
+
+	/** Set all values to zero. */
+	public void clear() {
+		for (long[] page : pages) {
+			if (page != null) {
+				Arrays.fill(page, 0L);
+			}
+		}
+	}
+}
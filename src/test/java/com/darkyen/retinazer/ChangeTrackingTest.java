@@ -0,0 +1,207 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.systems.EntityParallelProcessorSystem;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeTrackingTest {
+
+	public static final class Transform implements Component.Tracked {
+		public float x;
+	}
+
+	public static final class Hidden implements Component.Tag {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Transform.class, Hidden.class);
+	private static final Family CHANGED_VISIBLE = DOMAIN.familyWithout(Hidden.class).changed(Transform.class);
+
+	public static final class SyncSystem extends EntityProcessorSystem {
+		final IntArray processed = new IntArray();
+
+		public SyncSystem() {
+			super(CHANGED_VISIBLE);
+		}
+
+		@Override
+		protected void process(int entity) {
+			processed.add(entity);
+		}
+	}
+
+	/** Moves the given entity in each update */
+	public static final class MoveSystem implements EngineService {
+		@Wire
+		Mapper<Transform> transform;
+		int entity = -1;
+
+		@Override
+		public void update() {
+			if (entity != -1) {
+				transform.get(entity).x++;
+				transform.markChanged(entity);
+			}
+		}
+	}
+
+	@Test
+	public void testChanges() {
+		final SyncSystem sync = new SyncSystem();
+		final Engine engine = new Engine(DOMAIN, sync);
+		final Mapper<Transform> mTransform = engine.getMapper(Transform.class);
+		final Mapper<Hidden> mHidden = engine.getMapper(Hidden.class);
+		for (int i = 0; i < 100; i++) {
+			mTransform.create(engine.createEntity());
+		}
+
+		// Added components are changed
+		engine.update();
+		assertEquals(100, sync.processed.size);
+		sync.processed.clear();
+
+		engine.update();
+		assertEquals(0, sync.processed.size);
+
+		mTransform.markChanged(5);
+		mTransform.markChanged(70);
+		mTransform.markChanged(70);
+		mTransform.markChanged(90);
+		mHidden.create(90);
+		engine.update();
+		assertEquals(2, sync.processed.size);
+		assertEquals(5, sync.processed.get(0));
+		assertEquals(70, sync.processed.get(1));
+		sync.processed.clear();
+
+		// Entities which don't match anymore are dropped
+		mTransform.markChanged(6);
+		mTransform.markChanged(7);
+		engine.flush();
+		mTransform.remove(6);
+		engine.destroyEntity(7);
+		engine.update();
+		assertEquals(0, sync.processed.size);
+	}
+
+	@Test
+	public void testSinceLastRun() {
+		// The mover runs after the sync, so the sync sees the change on the next update
+		final SyncSystem sync = new SyncSystem();
+		final MoveSystem move = new MoveSystem();
+		final Engine engine = new Engine(DOMAIN, sync, move);
+		final Mapper<Transform> mTransform = engine.getMapper(Transform.class);
+		final int entity = engine.createEntity();
+		mTransform.create(entity);
+		engine.update();
+		assertEquals(1, sync.processed.size);
+		sync.processed.clear();
+
+		move.entity = entity;
+		engine.update();
+		assertEquals(0, sync.processed.size);
+		move.entity = -1;
+		engine.update();
+		assertEquals(1, sync.processed.size);
+		engine.update();
+		assertEquals(1, sync.processed.size);
+	}
+
+	/** Moves the even entities in parallel */
+	public static final class ParallelMoveSystem extends EntityParallelProcessorSystem {
+		@Wire
+		Mapper<Transform> transform;
+
+		public ParallelMoveSystem(ForkJoinPool pool) {
+			super(DOMAIN.familyWith(Transform.class), pool, 1);
+		}
+
+		@Override
+		protected void process(int entity) {
+			if (entity % 2 == 0) {
+				transform.get(entity).x++;
+				engine.getCommandBuffer().markChanged(entity, transform);
+			}
+		}
+	}
+
+	@Test
+	public void testParallelChanges() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final SyncSystem sync = new SyncSystem();
+			final Engine engine = new Engine(DOMAIN, new ParallelMoveSystem(pool), sync);
+			final Mapper<Transform> mTransform = engine.getMapper(Transform.class);
+			for (int i = 0; i < 5000; i++) {
+				mTransform.create(engine.createEntity());
+			}
+			engine.update();
+			sync.processed.clear();
+
+			engine.update();
+			assertEquals(2500, sync.processed.size);
+			for (int i = 0; i < sync.processed.size; i++) {
+				assertEquals(i * 2, sync.processed.get(i));
+			}
+			assertThrows(UnsupportedOperationException.class, () -> engine.getCommandBuffer().markChanged(0, engine.getMapper(Hidden.class)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testIndependentSets() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Transform> mTransform = engine.getMapper(Transform.class);
+		final EntitySetView first = engine.trackChanges(CHANGED_VISIBLE);
+		final EntitySetView second = engine.trackChanges(CHANGED_VISIBLE);
+		final EntitySetView shared = engine.getEntities(CHANGED_VISIBLE);
+		assertNotSame(first, second);
+		assertNotSame(first, shared);
+		assertSame(shared, engine.getEntities(CHANGED_VISIBLE));
+
+		mTransform.create(engine.createEntity());
+		engine.flush();
+		assertTrue(first.contains(0));
+		assertTrue(second.contains(0));
+		assertTrue(shared.contains(0));
+		engine.clearChanges(first);
+		assertFalse(first.contains(0));
+		assertTrue(second.contains(0));
+		engine.clearChanges(shared);
+		assertFalse(engine.getEntities(CHANGED_VISIBLE).contains(0));
+
+		// Released sets are no longer updated
+		engine.releaseChanges(second);
+		engine.clearChanges(first);
+		mTransform.markChanged(0);
+		engine.flush();
+		assertTrue(first.contains(0));
+		assertTrue(shared.contains(0));
+		assertThrows(IllegalArgumentException.class, () -> engine.clearChanges(second));
+		assertThrows(IllegalArgumentException.class, () -> engine.releaseChanges(second));
+		assertThrows(IllegalArgumentException.class, () -> engine.releaseChanges(shared));
+
+		assertThrows(IllegalArgumentException.class, () -> engine.clearChanges(engine.getEntities(DOMAIN.familyWith(Transform.class))));
+		assertThrows(IllegalArgumentException.class, () -> engine.trackChanges(DOMAIN.familyWith(Transform.class)));
+	}
+
+	@Test
+	public void testNotTracked() {
+		final Engine engine = new Engine(DOMAIN);
+		assertThrows(IllegalArgumentException.class, () -> DOMAIN.family().changed(Hidden.class));
+		assertThrows(UnsupportedOperationException.class, () -> engine.getMapper(Hidden.class).markChanged(0));
+		assertTrue(CHANGED_VISIBLE.requires(Transform.class));
+		assertTrue(CHANGED_VISIBLE.requiresChange(Transform.class));
+		assertFalse(CHANGED_VISIBLE.equals(DOMAIN.familyWith(Transform.class).without(Hidden.class)));
+	}
+}
@@ -0,0 +1,198 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.systems.EntityParallelProcessorSystem;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.darkyen.retinazer.Components.FULL_SET;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandBufferTest {
+
+	@Test
+	public void testCommands() {
+		final Engine engine = new Engine(FULL_SET);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final Mapper<Components.FlagComponentB> mapperB = engine.getMapper(Components.FlagComponentB.class);
+		final int existing = engine.createEntity();
+		mapperA.create(existing);
+		engine.flush();
+
+		final CommandBuffer commands = engine.getCommandBuffer();
+		assertTrue(commands.isEmpty());
+		final int created = commands.createEntity();
+		assertTrue(created < 0);
+		commands.create(created, mapperB);
+		commands.remove(existing, mapperA);
+		commands.add(existing, mapperB, new Components.FlagComponentB());
+		assertFalse(commands.isEmpty());
+		// Nothing happens until flush
+		assertTrue(mapperA.has(existing));
+		assertFalse(mapperB.has(existing));
+
+		engine.flush();
+		assertTrue(commands.isEmpty());
+		assertFalse(mapperA.has(existing));
+		assertTrue(mapperB.has(existing));
+		assertArrayEquals(new int[]{existing, existing + 1}, engine.getEntities(FULL_SET.familyWith(Components.FlagComponentB.class)).getIndices().toArray());
+
+		commands.destroyEntity(existing);
+		engine.flush();
+		assertArrayEquals(new int[]{existing + 1}, engine.getEntities().getIndices().toArray());
+	}
+
+	@Test
+	public void testOrderKey() {
+		final Engine engine = new Engine(FULL_SET);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final CommandBuffer commands = engine.getCommandBuffer();
+		final int[] entities = new int[5];
+		// Recorded in reverse, applied in the order of the keys
+		for (int i = 4; i >= 0; i--) {
+			commands.setOrderKey(i);
+			entities[i] = commands.createEntity();
+			if (i % 2 == 0) {
+				commands.create(entities[i], mapperA);
+			}
+		}
+		commands.setOrderKey(0);
+		engine.flush();
+		assertArrayEquals(new int[]{0, 2, 4}, engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class)).getIndices().toArray());
+	}
+
+	private static final int ENTITIES = 5_000;
+
+	/**
+	 * Each entity with A is either destroyed, or it spawns a new entity with B or C,
+	 * so the result depends on the order in which the commands are applied.
+	 */
+	private static void spawnOrDie(CommandBuffer commands, Mapper<Components.FlagComponentB> mapperB, Mapper<Components.FlagComponentC> mapperC, int entity) {
+		if (entity % 3 == 0) {
+			commands.destroyEntity(entity);
+		} else {
+			final int child = commands.createEntity();
+			if (entity % 2 == 0) {
+				commands.create(child, mapperB);
+			} else {
+				commands.create(child, mapperC);
+			}
+		}
+	}
+
+	public static final class SequentialSpawnSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Components.FlagComponentB> mapperB;
+		@Wire
+		private Mapper<Components.FlagComponentC> mapperC;
+
+		public SequentialSpawnSystem() {
+			super(FULL_SET.familyWith(Components.FlagComponentA.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			final CommandBuffer commands = engine.getCommandBuffer();
+			commands.setOrderKey(entity);
+			spawnOrDie(commands, mapperB, mapperC, entity);
+		}
+	}
+
+	public static final class ParallelSpawnSystem extends EntityParallelProcessorSystem {
+		@Wire
+		private Mapper<Components.FlagComponentB> mapperB;
+		@Wire
+		private Mapper<Components.FlagComponentC> mapperC;
+
+		public ParallelSpawnSystem(ForkJoinPool pool) {
+			super(FULL_SET.familyWith(Components.FlagComponentA.class), pool, 1);
+		}
+
+		@Override
+		protected void process(int entity) {
+			spawnOrDie(engine.getCommandBuffer(), mapperB, mapperC, entity);
+		}
+	}
+
+	private static int[] runSpawning(EngineService system) {
+		final Engine engine = new Engine(FULL_SET, system);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			if (i % 7 != 0) {
+				mapperA.create(entity);
+			}
+		}
+		engine.update();
+		engine.update();
+		final int[] withB = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentB.class)).getIndices().toArray();
+		final int[] withC = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentC.class)).getIndices().toArray();
+		final int[] result = Arrays.copyOf(withB, withB.length + withC.length);
+		System.arraycopy(withC, 0, result, withB.length, withC.length);
+		return result;
+	}
+
+	@Test
+	public void testParallelDeterminism() {
+		final int[] expected = runSpawning(new SequentialSpawnSystem());
+		assertTrue(expected.length > ENTITIES / 2);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertArrayEquals(expected, runSpawning(new ParallelSpawnSystem(pool)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Each thread creates entities with its own component, in its own order group. */
+	private static void spawnInGroup(Engine engine, Mapper<?> mapper, int orderGroup) {
+		final CommandBuffer commands = engine.getCommandBuffer();
+		commands.setOrderGroup(orderGroup);
+		for (int i = 0; i < 10; i++) {
+			commands.create(commands.createEntity(), mapper);
+		}
+	}
+
+	private static int[] runThreads(boolean reversed) throws InterruptedException {
+		final Engine engine = new Engine(FULL_SET);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final Mapper<Components.FlagComponentB> mapperB = engine.getMapper(Components.FlagComponentB.class);
+		final Thread first = new Thread(() -> spawnInGroup(engine, mapperA, 1));
+		final Thread second = new Thread(() -> spawnInGroup(engine, mapperB, 2));
+		// The order in which the threads first use their buffers must not matter
+		for (Thread thread : reversed ? new Thread[]{second, first} : new Thread[]{first, second}) {
+			thread.start();
+			thread.join();
+		}
+		engine.flush();
+		return engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class)).getIndices().toArray();
+	}
+
+	@Test
+	public void testThreadOrderDeterminism() throws InterruptedException {
+		final int[] expected = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+		assertArrayEquals(expected, runThreads(false));
+		assertArrayEquals(expected, runThreads(true));
+	}
+
+	@Test
+	public void testTerminatedThreadBuffers() throws InterruptedException {
+		final Engine engine = new Engine(FULL_SET);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final Thread thread = new Thread(() -> engine.getCommandBuffer().create(engine.getCommandBuffer().createEntity(), mapperA));
+		thread.start();
+		thread.join();
+		assertTrue(engine.commandBuffers.containsKey(thread));
+
+		// Commands of the terminated thread are still applied, then its buffer is dropped
+		engine.flush();
+		assertTrue(mapperA.has(0));
+		assertFalse(engine.commandBuffers.containsKey(thread));
+	}
+}
@@ -0,0 +1,162 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.DoubleBag;
+import com.darkyen.retinazer.util.FloatBag;
+import com.darkyen.retinazer.util.IntBag;
+import com.darkyen.retinazer.util.OffHeapFloatBag;
+import com.darkyen.retinazer.util.OffHeapLongBag;
+import com.darkyen.retinazer.util.OffHeapMask;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ComponentColumnsTest {
+
+	public static final class Position implements Component.Columnar {
+		public float x, y;
+		public int layer;
+		public static final double UNUSED = 1.0;
+	}
+
+	public static final class Velocity implements Component.Columnar {
+		public double speed;
+	}
+
+	public static final class OffHeapPosition implements Component.OffHeapColumnar {
+		public float x, y;
+		public long id;
+	}
+
+	public static final class Bad implements Component.Columnar {
+		public String name;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class, Components.FlagComponentA.class);
+
+	@Test
+	public void testColumns() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Position> mPosition = engine.getMapper(Position.class);
+		final ComponentColumns columns = mPosition.getColumns();
+		final FloatBag x = columns.getFloatColumn("x");
+		final FloatBag y = columns.getFloatColumn("y");
+		final IntBag layer = columns.getIntColumn("layer");
+
+		final int entity = engine.createEntity();
+		columns.add(entity);
+		assertTrue(mPosition.has(entity));
+		assertEquals(0f, x.get(entity));
+		x.set(entity, 1f);
+		y.set(entity, 2f);
+		layer.set(entity, 3);
+
+		final Position template = new Position();
+		template.x = 10f;
+		template.y = 20f;
+		template.layer = 30;
+		final int other = engine.createEntity();
+		mPosition.add(other, template);
+		assertEquals(10f, x.get(other));
+		assertEquals(20f, y.get(other));
+		assertEquals(30, layer.get(other));
+
+		engine.flush();
+		assertEquals(2, engine.getEntities(DOMAIN.familyWith(Position.class)).size());
+		assertEquals(0, engine.getEntities(DOMAIN.familyWith(Velocity.class)).size());
+
+		mPosition.remove(entity);
+		engine.flush();
+		assertFalse(mPosition.has(entity));
+		assertEquals(1, engine.getEntities(DOMAIN.familyWith(Position.class)).size());
+
+		// Re-added component starts zeroed
+		columns.add(entity);
+		assertEquals(0f, x.get(entity));
+		assertEquals(0, layer.get(entity));
+		assertEquals(10f, x.get(other));
+
+		assertThrows(IllegalArgumentException.class, () -> columns.add(entity));
+	}
+
+	@Test
+	public void testObjectAccessFails() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Position> mPosition = engine.getMapper(Position.class);
+		final int entity = engine.createEntity();
+		mPosition.getColumns().add(entity);
+
+		assertNull(mPosition.getOrNull(entity));
+		assertThrows(UnsupportedOperationException.class, () -> mPosition.get(entity));
+		assertThrows(UnsupportedOperationException.class, () -> mPosition.create(engine.createEntity()));
+		assertThrows(UnsupportedOperationException.class, () -> engine.getMapper(Components.FlagComponentA.class).getColumns());
+	}
+
+	@Test
+	public void testWrongField() {
+		final Engine engine = new Engine(DOMAIN);
+		final ComponentColumns columns = engine.getMapper(Position.class).getColumns();
+		assertThrows(IllegalArgumentException.class, () -> columns.getFloatColumn("z"));
+		assertThrows(IllegalArgumentException.class, () -> columns.getFloatColumn("layer"));
+		assertThrows(IllegalArgumentException.class, () -> columns.getDoubleColumn("UNUSED"));
+		final DoubleBag speed = engine.getMapper(Velocity.class).getColumns().getDoubleColumn("speed");
+		assertEquals(0.0, speed.get(0));
+	}
+
+	@Test
+	public void testUnsupportedField() {
+		assertThrows(IllegalArgumentException.class, () -> new Engine(new ComponentSet(Bad.class)));
+	}
+
+	@Test
+	public void testOffHeap() {
+		final ComponentSet domain = new ComponentSet(OffHeapPosition.class, Position.class);
+		final Engine engine = new Engine(domain, OffHeapMask::new);
+		final Mapper<OffHeapPosition> mPosition = engine.getMapper(OffHeapPosition.class);
+		final ComponentColumns columns = mPosition.getColumns();
+		final OffHeapFloatBag x = columns.getOffHeapFloatColumn("x");
+		final OffHeapLongBag id = columns.getOffHeapLongColumn("id");
+		assertThrows(UnsupportedOperationException.class, () -> columns.getFloatColumn("x"));
+		assertThrows(UnsupportedOperationException.class, () -> engine.getMapper(Position.class).getColumns().getOffHeapFloatColumn("x"));
+		assertThrows(IllegalArgumentException.class, () -> columns.getOffHeapIntColumn("x"));
+
+		for (int i = 0; i < 1000; i++) {
+			final int entity = engine.createEntity();
+			if (i % 2 == 0) {
+				columns.add(entity);
+				x.set(entity, i);
+			}
+		}
+		final OffHeapPosition template = new OffHeapPosition();
+		template.id = 1234567890123L;
+		mPosition.add(1, template);
+		engine.flush();
+
+		final EntitySetView positioned = engine.getEntities(domain.familyWith(OffHeapPosition.class));
+		assertTrue(positioned.getMask() instanceof OffHeapMask);
+		assertEquals(501, positioned.size());
+		assertEquals(998f, x.get(998));
+		assertEquals(1234567890123L, id.get(1));
+
+		engine.dispose();
+		assertEquals(0f, x.get(998));
+		assertTrue(positioned.getMask().isEmpty());
+	}
+
+	@Test
+	public void testCommandBuffer() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Position> mPosition = engine.getMapper(Position.class);
+		final CommandBuffer commands = engine.getCommandBuffer();
+		final int entity = commands.createEntity();
+		commands.create(entity, mPosition).x = 5f;
+		engine.flush();
+
+		final int created = engine.getEntities().getIndices().get(0);
+		assertTrue(mPosition.has(created));
+		assertEquals(5f, mPosition.getColumns().getFloatColumn("x").get(created));
+	}
+}
@@ -0,0 +1,76 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.Pool;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ComponentPoolTest {
+
+	@PoolConfig(initial = 8, max = 16, trimTo = 2)
+	public static final class Bullet implements Component.Pooled, Pool.Poolable {
+		public float damage;
+
+		@Override
+		public void reset() {
+			damage = 0f;
+		}
+	}
+
+	public static final class Spark implements Component.Pooled {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Bullet.class, Spark.class, Components.FlagComponentA.class);
+
+	@Test
+	public void testConfiguredPool() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Bullet> mBullet = engine.getMapper(Bullet.class);
+		final ComponentPool<Bullet> pool = mBullet.getPool();
+		assertEquals(8, pool.getFree());
+
+		for (int i = 0; i < 20; i++) {
+			mBullet.create(engine.createEntity()).damage = i;
+		}
+		assertEquals(20, pool.getObtained());
+		assertEquals(12, pool.getMisses());
+		assertEquals(0, pool.getFree());
+
+		engine.flush();
+		final int[] entities = engine.getEntities().getIndices().toArray();
+		for (int entity : entities) {
+			engine.destroyEntity(entity);
+		}
+		engine.flush();
+		assertEquals(20, pool.getFreed());
+		assertEquals(4, pool.getDiscarded());
+		assertEquals(16, pool.getFree());
+		assertEquals(0f, pool.obtain().damage);
+
+		pool.trim();
+		assertEquals(2, pool.getFree());
+		assertEquals(17, pool.getDiscarded());
+		pool.prewarm(10);
+		assertEquals(10, pool.getFree());
+		pool.prewarm(100);
+		assertEquals(16, pool.getFree());
+
+		pool.resetCounters();
+		assertEquals(0, pool.getObtained());
+		assertEquals(0, pool.getMisses());
+	}
+
+	@Test
+	public void testDefaultPool() {
+		final Engine engine = new Engine(DOMAIN);
+		final ComponentPool<Spark> pool = engine.getMapper(Spark.class).getPool();
+		assertEquals(0, pool.getFree());
+		final Spark spark = pool.obtain();
+		assertEquals(1, pool.getMisses());
+		pool.free(spark);
+		pool.trim();
+		assertEquals(0, pool.getFree());
+		assertThrows(UnsupportedOperationException.class, () -> engine.getMapper(Components.FlagComponentA.class).getPool());
+	}
+}
@@ -2,18 +2,21 @@ package com.darkyen.retinazer;
 
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.resolvers.SimpleWireResolver;
 import com.darkyen.retinazer.systems.EntityProcessorSystem;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static com.darkyen.retinazer.Components.FULL_SET;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class EngineTest {
 	private Array<EngineService> initializedSystems = new Array<>();
@@ -265,6 +268,62 @@ public class EngineTest {
 						FULL_SET.familyWith(Components.FlagComponentC.class).without(Components.FlagComponentA.class, Components.FlagComponentB.class)).getIndices()));
 	}
 
+	@Test
+	public void testEntityIdReuse() {
+		Engine engine = new Engine(FULL_SET);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, engine.createEntity());
+		}
+		engine.destroyEntity(3);
+		engine.destroyEntity(7);
+
+		// Removed IDs are not available this update cycle, nor the one after
+		assertEquals(10, engine.createEntity());
+		engine.update();
+		assertEquals(11, engine.createEntity());
+		engine.update();
+		assertEquals(3, engine.createEntity());
+		assertEquals(7, engine.createEntity());
+		assertEquals(12, engine.createEntity());
+
+		assertTrue(engine.createEntity(20));
+		assertEquals(13, engine.createEntity());
+	}
+
+	@Test
+	public void testCreateEntities() {
+		final Engine single = new Engine(FULL_SET);
+		final Engine bulk = new Engine(FULL_SET);
+		final IntArray singleIds = new IntArray();
+		final IntArray bulkIds = new IntArray();
+		final Random random = new Random(42);
+
+		for (int round = 0; round < 20; round++) {
+			final int count = random.nextInt(300);
+			singleIds.clear();
+			for (int i = 0; i < count; i++) {
+				singleIds.add(single.createEntity());
+			}
+			bulkIds.clear();
+			bulk.createEntities(count, bulkIds);
+			assertEquals(singleIds, bulkIds);
+
+			// Interleave with single creation, which must continue where the bulk left off
+			assertEquals(single.createEntity(), bulk.createEntity());
+
+			final IntArray alive = single.getEntities().getIndices();
+			for (int i = 0; i < alive.size; i++) {
+				if (random.nextInt(3) == 0) {
+					single.destroyEntity(alive.get(i));
+					bulk.destroyEntity(alive.get(i));
+				}
+			}
+			single.update();
+			bulk.update();
+			assertEquals(single.getEntities().getIndices(), bulk.getEntities().getIndices());
+		}
+	}
+
 	public static class MissingService {
 	}
 
@@ -317,4 +376,26 @@ public class EngineTest {
 		assertSame(engine.getMapper(Components.FlagComponentC.class), system.mFlagC);
 		assertEquals(new HashSet<>(Arrays.asList(flagSystemA, flagSystemB, flagSystemC)), new HashSet<>(system.processorSystemsList));
 	}
+
+	public static class ResolvedConsumer {
+		@Wire
+		private Engine engine;
+		@Wire
+		private Mapper<Components.FlagComponentA> mFlagA;
+		@Wire
+		private String name;
+	}
+
+	@Test
+	public void testWiringAcrossEngines() {
+		for (int i = 0; i < 3; i++) {
+			final String name = "engine " + i;
+			final Engine engine = new Engine(FULL_SET, new SimpleWireResolver(name));
+			final ResolvedConsumer consumer = new ResolvedConsumer();
+			engine.wire(consumer);
+			assertSame(engine, consumer.engine);
+			assertSame(engine.getMapper(Components.FlagComponentA.class), consumer.mFlagA);
+			assertSame(name, consumer.name);
+		}
+	}
 }
@@ -0,0 +1,64 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.systems.EntityBatchProcessorSystem;
+import com.darkyen.retinazer.util.Mask;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EntityBatchProcessorSystemTest {
+	public static final class TestEntityBatchProcessorSystem extends EntityBatchProcessorSystem {
+		public EntitySet processedEntities = new EntitySet();
+		public int batches = 0;
+
+		public TestEntityBatchProcessorSystem(int batchSize) {
+			super(ComponentSet.EMPTY.family(), batchSize);
+		}
+
+		@Override
+		protected void process(int[] entities, int count) {
+			assertTrue(count > 0);
+			batches++;
+			for (int i = 0; i < count; i++) {
+				final int entity = entities[i];
+				if (processedEntities.contains(entity))
+					throw new AssertionError("entity already processed: " + entity);
+				processedEntities.addEntity(entity);
+			}
+		}
+	}
+
+	@Test
+	public void testEntityBatchProcessorSystem() {
+		TestEntityBatchProcessorSystem system = new TestEntityBatchProcessorSystem(3);
+		Engine engine = new Engine(ComponentSet.EMPTY, system);
+		Mask entities = new Mask();
+		for (int i = 0; i < 100; i++) {
+			entities.set(engine.createEntity());
+		}
+		engine.update();
+		assertEquals(entities, system.processedEntities.getMask());
+		assertEquals(34, system.batches);
+
+		system.processedEntities.clear();
+		system.batches = 0;
+		for (int i = 0; i < 100; i += 2) {
+			engine.destroyEntity(i);
+			entities.clear(i);
+		}
+		engine.update();
+		assertEquals(entities, system.processedEntities.getMask());
+		assertEquals(17, system.batches);
+
+		system.processedEntities.clear();
+		system.batches = 0;
+		for (int i = 1; i < 100; i += 2) {
+			engine.destroyEntity(i);
+		}
+		engine.update();
+		system.processedEntities.clear();
+		engine.update();
+		assertEquals(true, system.processedEntities.isEmpty());
+	}
+}
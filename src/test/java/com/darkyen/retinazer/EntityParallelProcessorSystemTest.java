@@ -0,0 +1,51 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.systems.EntityParallelProcessorSystem;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class EntityParallelProcessorSystemTest {
+
+	private static final int ENTITIES = 20_000;
+
+	public static final class TestEntityParallelProcessorSystem extends EntityParallelProcessorSystem {
+		public final AtomicIntegerArray processed = new AtomicIntegerArray(ENTITIES);
+
+		public TestEntityParallelProcessorSystem(ForkJoinPool pool) {
+			super(Components.FULL_SET.familyWith(Components.FlagComponentA.class), pool, 1);
+		}
+
+		@Override
+		protected void process(int entity) {
+			processed.incrementAndGet(entity);
+		}
+	}
+
+	@Test
+	public void testEntityParallelProcessorSystem() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final TestEntityParallelProcessorSystem system = new TestEntityParallelProcessorSystem(pool);
+			final Engine engine = new Engine(Components.FULL_SET, system);
+			final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+			for (int i = 0; i < ENTITIES; i++) {
+				final int entity = engine.createEntity();
+				if (i % 3 != 0 && i % 1000 < 900) {
+					mapperA.create(entity);
+				}
+			}
+
+			engine.update();
+			engine.update();
+			for (int i = 0; i < ENTITIES; i++) {
+				assertEquals(mapperA.has(i) ? 2 : 0, system.processed.get(i), "entity " + i);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.darkyen.retinazer;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.util.Mask;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FamilyDeltaTest {
+
+	private static final Family FAMILY_B = Components.FULL_SET.familyWith(Components.FlagComponentB.class);
+
+	private static void assertEntities(EntitySetView set, int... entities) {
+		final Mask expected = new Mask();
+		for (int entity : entities) {
+			expected.set(entity);
+		}
+		assertEquals(expected, set.getMask());
+	}
+
+	@Test
+	public void testDelta() {
+		final Engine engine = new Engine(Components.FULL_SET);
+		final Mapper<Components.FlagComponentB> mFlagB = engine.getMapper(Components.FlagComponentB.class);
+		for (int i = 0; i < 200; i++) {
+			final int entity = engine.createEntity();
+			if (i % 2 == 0) {
+				mFlagB.create(entity);
+			}
+		}
+		engine.flush();
+
+		// Existing members are added
+		final FamilyDelta delta = engine.getFamilyDelta(FAMILY_B);
+		assertEquals(100, delta.getAdded().size());
+		assertTrue(delta.getRemoved().isEmpty());
+		delta.clear();
+		assertTrue(delta.isEmpty());
+		assertTrue(delta.getAdded().isEmpty());
+
+		mFlagB.create(1);
+		mFlagB.remove(2);
+		engine.destroyEntity(150);
+		engine.flush();
+		assertFalse(delta.isEmpty());
+		assertEntities(delta.getAdded(), 1);
+		assertEntities(delta.getRemoved(), 2, 150);
+		final IntArray removed = new IntArray();
+		delta.forEachRemoved(removed::add);
+		assertEquals(2, removed.size);
+		assertEquals(2, removed.get(0));
+		assertEquals(150, removed.get(1));
+		delta.clear();
+
+		// Changes which cancel out between clears are not reported
+		mFlagB.create(3);
+		engine.flush();
+		mFlagB.remove(3);
+		engine.flush();
+		assertTrue(delta.isEmpty());
+		assertEntities(delta.getAdded());
+
+		// Leaving and joining again is reported as both
+		mFlagB.remove(4);
+		engine.flush();
+		mFlagB.create(4);
+		engine.flush();
+		assertEntities(delta.getAdded(), 4);
+		assertEntities(delta.getRemoved(), 4);
+	}
+
+	@Test
+	public void testIndependentDeltas() {
+		final Engine engine = new Engine(Components.FULL_SET);
+		final Mapper<Components.FlagComponentB> mFlagB = engine.getMapper(Components.FlagComponentB.class);
+		final FamilyDelta first = engine.getFamilyDelta(FAMILY_B);
+		final FamilyDelta second = engine.getFamilyDelta(FAMILY_B);
+
+		mFlagB.create(engine.createEntity());
+		engine.flush();
+		first.clear();
+		mFlagB.create(engine.createEntity());
+		engine.flush();
+		assertEntities(first.getAdded(), 1);
+		assertEntities(second.getAdded(), 0, 1);
+
+		// Released deltas are no longer updated
+		engine.releaseFamilyDelta(second);
+		mFlagB.create(engine.createEntity());
+		engine.flush();
+		assertEntities(first.getAdded(), 1, 2);
+		assertThrows(IllegalArgumentException.class, () -> engine.releaseFamilyDelta(second));
+		assertThrows(IllegalArgumentException.class, () -> new Engine(Components.FULL_SET).releaseFamilyDelta(first));
+	}
+
+	public static final class Transform implements Component.Tracked {
+	}
+
+	@Test
+	public void testChangedFamily() {
+		final ComponentSet domain = new ComponentSet(Transform.class);
+		final Engine engine = new Engine(domain);
+		assertThrows(IllegalArgumentException.class, () -> engine.getFamilyDelta(domain.family().changed(Transform.class)));
+	}
+}
@@ -0,0 +1,134 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.Mask;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FamilyPlanTest {
+
+	public static final class A implements Component {}
+	public static final class B implements Component {}
+	public static final class C implements Component {}
+	public static final class D implements Component {}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final Class<? extends Component>[] TYPES = new Class[]{A.class, B.class, C.class, D.class};
+	private static final ComponentSet DOMAIN = new ComponentSet(TYPES);
+
+	private static Mask components(int... indices) {
+		final Mask mask = new Mask();
+		for (int index : indices) {
+			mask.set(index);
+		}
+		return mask;
+	}
+
+	@Test
+	public void testSharedNodes() {
+		final Engine engine = new Engine(DOMAIN);
+		// {A, B}, {A, B, C}, {A, B, !D}, {}
+		final FamilyPlan plan = new FamilyPlan(engine.entities, engine.getMappers(),
+				new Mask[]{components(0, 1), components(0, 1, 2), components(0, 1), components()},
+				new Mask[]{components(), components(), components(3), components()});
+		// Root, A, AB, ABC, AB!D
+		assertEquals(5, plan.size());
+
+		final Mapper<A> mA = engine.getMapper(A.class);
+		final Mapper<B> mB = engine.getMapper(B.class);
+		final Mapper<C> mC = engine.getMapper(C.class);
+		final Mapper<D> mD = engine.getMapper(D.class);
+		for (int i = 0; i < 4; i++) {
+			final int entity = engine.createEntity();
+			mA.create(entity);
+			mB.create(entity);
+		}
+		mC.create(1);
+		mD.create(2);
+		engine.createEntity();
+		engine.flush();
+
+		for (int f = 0; f < 4; f++) {
+			plan.require(f);
+		}
+		plan.prepare();
+		plan.evaluate(new int[]{0}, 0, 1);
+		assertEquals(0b01111L, plan.getWord(0, 0));
+		assertEquals(0b00010L, plan.getWord(1, 0));
+		assertEquals(0b01011L, plan.getWord(2, 0));
+		assertEquals(0b11111L, plan.getWord(3, 0));
+	}
+
+	@Test
+	public void testRandomFamilies() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<?>[] mappers = engine.getMappers();
+		final Random random = new Random(7);
+
+		final ArrayList<Family> families = new ArrayList<>();
+		final ArrayList<EntitySetView> sets = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			Family family = DOMAIN.family();
+			for (Class<? extends Component> type : TYPES) {
+				switch (random.nextInt(3)) {
+					case 0:
+						family = family.with(type);
+						break;
+					case 1:
+						family = family.without(type);
+						break;
+				}
+			}
+			families.add(family);
+			sets.add(engine.getEntities(family));
+		}
+
+		final Mask destroyed = new Mask();
+		for (int round = 0; round < 20; round++) {
+			destroyed.clear();
+			for (int i = 0; i < 500; i++) {
+				final int entity = random.nextInt(2000);
+				if (destroyed.get(entity)) {
+					continue;
+				}
+				if (!engine.getEntities().contains(entity)) {
+					engine.createEntity(entity);
+				} else if (random.nextInt(10) == 0) {
+					engine.destroyEntity(entity);
+					destroyed.set(entity);
+				} else {
+					final Mapper<?> mapper = mappers[random.nextInt(mappers.length)];
+					if (mapper.has(entity)) {
+						mapper.remove(entity);
+					} else {
+						mapper.create(entity);
+					}
+				}
+			}
+			engine.flush();
+
+			// Families registered later are added to the plan
+			if (round == 10) {
+				final Family family = DOMAIN.familyWith(A.class, C.class).without(D.class);
+				families.add(family);
+				sets.add(engine.getEntities(family));
+			}
+
+			for (int f = 0; f < families.size(); f++) {
+				final Mask expected = new Mask();
+				expected.set(engine.entities);
+				for (int c = 0; c < mappers.length; c++) {
+					if (families.get(f).requiredComponents.get(c)) {
+						expected.and(mappers[c].componentsMask);
+					} else if (families.get(f).excludedComponents.get(c)) {
+						expected.andNot(mappers[c].componentsMask);
+					}
+				}
+				assertEquals(expected, sets.get(f).getMask(), "Family " + f + " in round " + round);
+			}
+		}
+	}
+}
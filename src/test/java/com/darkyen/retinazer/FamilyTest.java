@@ -1,8 +1,11 @@
 package com.darkyen.retinazer;
 
+import com.darkyen.retinazer.util.CompressedMask;
+import com.darkyen.retinazer.util.HierarchicalMask;
 import org.junit.jupiter.api.Test;
 
 import static com.darkyen.retinazer.Components.FULL_SET;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
@@ -35,4 +38,86 @@ public class FamilyTest {
 				engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class)),
 				engine.getEntities(FULL_SET.familyWithout(Components.FlagComponentA.class)));
 	}
+
+	@Test
+	public void testIncrementalMembership() {
+		Engine engine = new Engine(FULL_SET);
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final Mapper<Components.FlagComponentB> mapperB = engine.getMapper(Components.FlagComponentB.class);
+		final EntitySetView all = engine.getEntities(FULL_SET.family());
+		final EntitySetView withA = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class));
+		final EntitySetView withB = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentB.class));
+		final EntitySetView withoutA = engine.getEntities(FULL_SET.familyWithout(Components.FlagComponentA.class));
+		final EntitySetView withAWithoutB = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class).without(Components.FlagComponentB.class));
+
+		final int e0 = engine.createEntity();
+		final int e1 = engine.createEntity();
+		mapperA.create(e1);
+		engine.flush();
+		assertArrayEquals(new int[]{e0, e1}, all.getIndices().toArray());
+		assertArrayEquals(new int[]{e1}, withA.getIndices().toArray());
+		assertArrayEquals(new int[]{}, withB.getIndices().toArray());
+		assertArrayEquals(new int[]{e0}, withoutA.getIndices().toArray());
+		assertArrayEquals(new int[]{e1}, withAWithoutB.getIndices().toArray());
+
+		// Only B changes
+		mapperB.create(e1);
+		engine.flush();
+		assertArrayEquals(new int[]{e1}, withA.getIndices().toArray());
+		assertArrayEquals(new int[]{e1}, withB.getIndices().toArray());
+		assertArrayEquals(new int[]{}, withAWithoutB.getIndices().toArray());
+
+		// Only A is removed
+		mapperA.remove(e1);
+		engine.flush();
+		assertArrayEquals(new int[]{}, withA.getIndices().toArray());
+		assertArrayEquals(new int[]{e0, e1}, withoutA.getIndices().toArray());
+
+		// Destroying an entity removes it from families which require its components
+		engine.destroyEntity(e1);
+		engine.flush();
+		assertArrayEquals(new int[]{e0}, all.getIndices().toArray());
+		assertArrayEquals(new int[]{}, withB.getIndices().toArray());
+		assertArrayEquals(new int[]{e0}, withoutA.getIndices().toArray());
+
+		// Destroying an entity without components
+		engine.destroyEntity(e0);
+		engine.flush();
+		assertArrayEquals(new int[]{}, all.getIndices().toArray());
+		assertArrayEquals(new int[]{}, withoutA.getIndices().toArray());
+	}
+
+	@Test
+	public void testSparseMembership() {
+		testSparseMembership(new Engine(FULL_SET));
+		testSparseMembership(new Engine(FULL_SET, HierarchicalMask::new));
+		testSparseMembership(new Engine(FULL_SET, CompressedMask::new));
+	}
+
+	private static void testSparseMembership(Engine engine) {
+		final Mapper<Components.FlagComponentA> mapperA = engine.getMapper(Components.FlagComponentA.class);
+		final EntitySetView withA = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class));
+		final EntitySetView withoutA = engine.getEntities(FULL_SET.familyWithout(Components.FlagComponentA.class));
+
+		final int[] entities = {3, 64, 100, 1000, 5000, 100_000};
+		for (int entity : entities) {
+			engine.createEntity(entity);
+		}
+		engine.flush();
+		assertArrayEquals(entities, withoutA.getIndices().toArray());
+
+		mapperA.create(64);
+		mapperA.create(100_000);
+		engine.flush();
+		assertArrayEquals(new int[]{64, 100_000}, withA.getIndices().toArray());
+		assertArrayEquals(new int[]{3, 100, 1000, 5000}, withoutA.getIndices().toArray());
+
+		engine.destroyEntity(100_000);
+		mapperA.remove(64);
+		mapperA.create(1000);
+		engine.flush();
+		assertArrayEquals(new int[]{1000}, withA.getIndices().toArray());
+		assertArrayEquals(new int[]{3, 64, 100, 5000}, withoutA.getIndices().toArray());
+		assertEquals(false, mapperA.has(100_000));
+	}
 }
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  *
@@ -87,6 +88,10 @@ public class FamilyWatcherTest {
 		protected void removedEntities(@NotNull EntitySetView entities) {
 			removed += entities.getMask().cardinality();
 		}
+
+		FamilyDelta delta() {
+			return getFamilyDelta();
+		}
 	}
 
 	@Test
@@ -182,4 +187,12 @@ public class FamilyWatcherTest {
 		assertEquals(1, watcher.removed, "Removed");
 	}
 
+	@Test
+	public void testDisposeReleasesDelta() {
+		final EntityWatcher watcher = new EntityWatcher();
+		final Engine engine = new Engine(ComponentSet.EMPTY, watcher);
+		final FamilyDelta delta = watcher.delta();
+		engine.dispose();
+		assertThrows(IllegalArgumentException.class, () -> engine.releaseFamilyDelta(delta));
+	}
 }
@@ -0,0 +1,98 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.CompressedMask;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashComponentStorageTest {
+
+	public static final class Marker implements Component.Rare {
+		public int value;
+	}
+
+	public static final class Invalid implements Component.Rare, Component.Packed {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Marker.class, Components.FlagComponentA.class);
+
+	@Test
+	public void testStorage() {
+		final HashComponentStorage<Marker> storage = new HashComponentStorage<>();
+		final Map<Integer, Marker> expected = new HashMap<>();
+		final Random random = new Random(11);
+
+		for (int i = 0; i < 20_000; i++) {
+			// Small range, so that collisions and removals of colliding entries are common
+			final int entity = random.nextInt(2_000) * 1024;
+			final Marker present = expected.get(entity);
+			assertSame(present, storage.get(entity));
+			if (present == null) {
+				final Marker marker = new Marker();
+				storage.put(entity, marker);
+				expected.put(entity, marker);
+			} else {
+				assertSame(present, storage.remove(entity));
+				expected.remove(entity);
+			}
+			assertEquals(expected.size(), storage.size());
+		}
+		for (Map.Entry<Integer, Marker> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), storage.get(entry.getKey()));
+		}
+
+		// Absent entities end the probe at an empty slot
+		final int size = storage.size();
+		assertThrows(NoSuchElementException.class, () -> storage.remove(1));
+		assertEquals(size, storage.size());
+
+		for (Integer entity : expected.keySet()) {
+			storage.remove(entity);
+		}
+		assertEquals(0, storage.size());
+		assertEquals(8, storage.capacity());
+		assertThrows(NoSuchElementException.class, () -> storage.remove(0));
+	}
+
+	@Test
+	public void testHugeEntityIds() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Marker> mMarker = engine.getMapper(Marker.class);
+		assertTrue(mMarker.componentsMask instanceof CompressedMask);
+
+		final int[] entities = {9_000_000, 123_456_789, 5};
+		for (int entity : entities) {
+			assertTrue(engine.createEntity(entity));
+			mMarker.create(entity).value = entity;
+		}
+		engine.flush();
+		assertEquals(3, engine.getEntities(DOMAIN.familyWith(Marker.class)).size());
+		assertEquals(0, engine.getEntities(DOMAIN.familyWith(Marker.class, Components.FlagComponentA.class)).size());
+		for (int entity : entities) {
+			assertEquals(entity, mMarker.get(entity).value);
+		}
+		assertNull(mMarker.getOrNull(9_000_001));
+
+		mMarker.remove(9_000_000);
+		engine.destroyEntity(5);
+		engine.flush();
+		assertNull(mMarker.getOrNull(9_000_000));
+		assertNull(mMarker.getOrNull(5));
+		assertEquals(123_456_789, mMarker.get(123_456_789).value);
+		assertEquals(1, engine.getEntities(DOMAIN.familyWith(Marker.class)).size());
+	}
+
+	@Test
+	public void testInvalid() {
+		assertThrows(IllegalArgumentException.class, () -> new Engine(new ComponentSet(Invalid.class)));
+	}
+}
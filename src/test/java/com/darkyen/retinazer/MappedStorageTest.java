@@ -0,0 +1,120 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.Mask;
+import com.darkyen.retinazer.util.OffHeapFloatBag;
+import com.darkyen.retinazer.util.OffHeapIntBag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedStorageTest {
+
+	public static final class Position implements Component.OffHeapColumnar {
+		public float x, y;
+		public int layer;
+	}
+
+	public static final class Frozen implements Component.Tag {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Frozen.class, Components.FlagComponentA.class);
+
+	private static void delete(Path directory) {
+		final File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+			}
+		}
+		//noinspection ResultOfMethodCallIgnored
+		directory.toFile().delete();
+	}
+
+	@Test
+	public void testRestore() throws IOException {
+		final Path directory = Files.createTempDirectory("retinazer");
+		try {
+			testRestore(directory);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static void testRestore(Path directory) throws IOException {
+		final int removed;
+		{
+			final Engine engine = new Engine(DOMAIN, Mask::new, new MappedStorage(directory));
+			final ComponentColumns columns = engine.getMapper(Position.class).getColumns();
+			final OffHeapFloatBag x = columns.getOffHeapFloatColumn("x");
+			final Mapper<Frozen> mFrozen = engine.getMapper(Frozen.class);
+			for (int i = 0; i < 5000; i++) {
+				final int entity = engine.createEntity();
+				if (i % 3 == 0) {
+					columns.add(entity);
+					x.set(entity, i);
+				}
+				if (i % 5 == 0) {
+					mFrozen.create(entity);
+				}
+				engine.getMapper(Components.FlagComponentA.class).create(entity);
+			}
+			removed = 3;
+			engine.destroyEntity(removed);
+			engine.update();
+			engine.dispose();
+		}
+
+		final Engine engine = new Engine(DOMAIN, Mask::new, new MappedStorage(directory));
+		assertEquals(4999, engine.getEntities().size());
+		assertFalse(engine.getEntities().getMask().get(removed));
+		assertEquals(1666, engine.getEntities(DOMAIN.familyWith(Position.class)).size());
+		assertEquals(1000, engine.getEntities(DOMAIN.familyWith(Frozen.class)).size());
+		// Not stored
+		assertEquals(0, engine.getEntities(DOMAIN.familyWith(Components.FlagComponentA.class)).size());
+
+		final OffHeapFloatBag x = engine.getMapper(Position.class).getColumns().getOffHeapFloatColumn("x");
+		final OffHeapIntBag layer = engine.getMapper(Position.class).getColumns().getOffHeapIntColumn("layer");
+		assertEquals(4998f, x.get(4998));
+		assertEquals(0, layer.get(4998));
+		final Mapper<Frozen> mFrozen = engine.getMapper(Frozen.class);
+		assertNotNull(mFrozen.get(10));
+		assertNull(mFrozen.getOrNull(11));
+
+		final int created = engine.createEntity();
+		assertEquals(removed, created);
+		assertNotEquals(removed, engine.createEntity());
+		engine.dispose();
+	}
+
+	@Test
+	public void testLock() throws IOException {
+		final Path directory = Files.createTempDirectory("retinazer");
+		try {
+			testLock(directory);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static void testLock(Path directory) throws IOException {
+		final MappedStorage storage = new MappedStorage(directory);
+		assertThrows(IOException.class, () -> new MappedStorage(directory));
+		final Engine engine = new Engine(DOMAIN, Mask::new, storage);
+		assertThrows(IllegalArgumentException.class, () -> new Engine(DOMAIN, Mask::new, storage));
+		engine.dispose();
+
+		new Engine(DOMAIN, Mask::new, new MappedStorage(directory)).dispose();
+	}
+}
@@ -2,6 +2,13 @@ package com.darkyen.retinazer;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class MapperTest {
@@ -35,6 +42,25 @@ public class MapperTest {
 		assertThrows(RuntimeException.class, () -> mReallyBad.create(entity));
 	}
 
+	// Component classes don't have to be public, only their constructor does
+	private static final class PrivateComponent implements Component {
+		int value = 5;
+
+		public PrivateComponent() {
+		}
+	}
+
+	@Test
+	public void testCreate() {
+		final Engine engine = new Engine(new ComponentSet(Components.FlagComponentA.class, PrivateComponent.class));
+		final Mapper<Components.FlagComponentA> mFlagA = engine.getMapper(Components.FlagComponentA.class);
+		final Mapper<PrivateComponent> mPrivate = engine.getMapper(PrivateComponent.class);
+		final int entity = engine.createEntity();
+		assertNotSame(mFlagA.create(entity), mFlagA.createComponent());
+		assertEquals(5, mPrivate.create(entity).value);
+		assertNotSame(mPrivate.get(entity), mPrivate.createComponent());
+	}
+
 	@Test
 	public void testRemoveNothing() {
 		Engine engine = new Engine(Components.FULL_SET);
@@ -56,4 +82,59 @@ public class MapperTest {
 		mFlagA.add(entity, new Components.FlagComponentA());
 		assertThrows(IllegalArgumentException.class, () -> mFlagA.add(entity, new Components.FlagComponentA()));
 	}
+
+	public static final class IsolatedComponent implements Component {
+		public int value = 7;
+	}
+
+	/** Defines {@link IsolatedComponent} again, so that the class of that name seen by {@link Mapper} is a different one. */
+	private static final class IsolatingClassLoader extends ClassLoader {
+		IsolatingClassLoader() {
+			super(MapperTest.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(IsolatedComponent.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				final Class<?> loaded = findLoadedClass(name);
+				if (loaded != null) {
+					return loaded;
+				}
+				try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+					if (in == null) {
+						throw new ClassNotFoundException(name);
+					}
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					final byte[] buffer = new byte[4096];
+					for (int read; (read = in.read(buffer)) != -1; ) {
+						bytes.write(buffer, 0, read);
+					}
+					return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCreateFromChildClassLoader() throws Exception {
+		@SuppressWarnings("unchecked")
+		final Class<? extends Component> isolated = (Class<? extends Component>) Class.forName(IsolatedComponent.class.getName(), true, new IsolatingClassLoader());
+		assertNotSame(IsolatedComponent.class, isolated);
+
+		final Engine engine = new Engine(new ComponentSet(isolated));
+		final Mapper<? extends Component> mapper = engine.getMapper(isolated);
+		final int entity = engine.createEntity();
+		assertSame(isolated, mapper.create(entity).getClass());
+		assertSame(isolated, mapper.createComponent().getClass());
+		assertEquals(7, isolated.getField("value").getInt(mapper.get(entity)));
+
+		// Factories are cached per class, so the original class still gets its own
+		final Engine originalEngine = new Engine(new ComponentSet(IsolatedComponent.class));
+		assertEquals(7, originalEngine.getMapper(IsolatedComponent.class).create(originalEngine.createEntity()).value);
+	}
 }
@@ -0,0 +1,101 @@
+package com.darkyen.retinazer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PackedComponentStorageTest {
+
+	public static final class Rare implements Component.Packed {
+		public int value;
+	}
+
+	public static final class PooledRare implements Component.Packed, Component.Pooled {
+	}
+
+	public static final class Both implements Component.Packed, Component.Columnar {
+		public int value;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Rare.class, PooledRare.class, Components.FlagComponentA.class);
+
+	@Test
+	public void testPacked() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Rare> mRare = engine.getMapper(Rare.class);
+		final PackedComponentStorage<Rare> storage = mRare.getPackedStorage();
+		final Map<Integer, Rare> expected = new HashMap<>();
+		final Random random = new Random(7);
+
+		for (int round = 0; round < 50; round++) {
+			for (int i = 0; i < 20; i++) {
+				final int entity = random.nextInt(100_000);
+				if (!engine.getEntities().getMask().get(entity) && engine.createEntity(entity)) {
+					final Rare rare = mRare.create(entity);
+					rare.value = entity;
+					expected.put(entity, rare);
+				}
+			}
+			for (Integer entity : expected.keySet().toArray(new Integer[0])) {
+				if (random.nextInt(4) == 0) {
+					mRare.remove(entity);
+					expected.remove(entity);
+				}
+			}
+			engine.flush();
+
+			assertEquals(expected.size(), storage.size());
+			for (int i = 0; i < storage.size(); i++) {
+				final int entity = storage.getEntity(i);
+				assertSame(expected.get(entity), storage.getComponent(i));
+				assertSame(expected.get(entity), mRare.get(entity));
+				assertEquals(entity, storage.getComponent(i).value);
+			}
+			assertEquals(expected.size(), engine.getEntities(DOMAIN.familyWith(Rare.class)).size());
+		}
+	}
+
+	@Test
+	public void testGetMissing() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Rare> mRare = engine.getMapper(Rare.class);
+		final int e0 = engine.createEntity();
+		final int e1 = engine.createEntity();
+		mRare.create(e0);
+		assertNull(mRare.getOrNull(e1));
+		assertNull(mRare.getOrNull(5_000_000));
+
+		mRare.remove(e0);
+		engine.flush();
+		assertNull(mRare.getOrNull(e0));
+		mRare.create(e1);
+		assertNull(mRare.getOrNull(e0));
+		assertEquals(1, mRare.getPackedStorage().size());
+	}
+
+	@Test
+	public void testDestroyedEntity() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<PooledRare> mPooled = engine.getMapper(PooledRare.class);
+		final int entity = engine.createEntity();
+		final PooledRare component = mPooled.create(entity);
+		engine.destroyEntity(entity);
+		engine.flush();
+		assertEquals(0, mPooled.getPackedStorage().size());
+		// Returned to the pool
+		assertSame(component, mPooled.createComponent());
+	}
+
+	@Test
+	public void testInvalid() {
+		assertThrows(UnsupportedOperationException.class, () -> new Engine(DOMAIN).getMapper(Components.FlagComponentA.class).getPackedStorage());
+		assertThrows(IllegalArgumentException.class, () -> new Engine(new ComponentSet(Both.class)));
+	}
+}
@@ -21,7 +21,7 @@ public class ReadmeExample {
 
 		final int fallingEntity = engine.createEntity();
 		positioned.add(fallingEntity, new Positioned());
-		falling.add(fallingEntity, Falling.INSTANCE);
+		falling.create(fallingEntity);
 
 		final int staticEntity = engine.createEntity();
 		positioned.add(staticEntity, new Positioned());
@@ -40,8 +40,9 @@ class Positioned implements Component {
 	public int y;
 }
 
-class Falling implements Component {
-	public static final Falling INSTANCE = new Falling();
+class Falling implements Component.Tag {
+	public Falling() {
+	}
 }
 
 class GravitySystem extends EntityProcessorSystem {
@@ -0,0 +1,250 @@
+package com.darkyen.retinazer;
+
+import com.darkyen.retinazer.util.Mask;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReplicationTest {
+
+	public static final class Position implements Component.Replicated, Component.Pooled {
+		public float x, y;
+		public boolean visible;
+		public transient int cached;
+	}
+
+	public static final class Health implements Component.Replicated, Component.Columnar {
+		public int value;
+		public double regeneration;
+	}
+
+	public static final class Frozen implements Component.Tag {
+	}
+
+	public static final class Name implements Component {
+		public String name = "unnamed";
+	}
+
+	public static abstract class Vector {
+		public float x, y;
+	}
+
+	public static final class Velocity extends Vector implements Component.Replicated {
+		public float limit;
+	}
+
+	public static final class Damage extends Vector implements Component.Replicated, Component.Columnar {
+		public int amount;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Health.class, Frozen.class, Name.class);
+
+	private static void assertReplicated(Engine server, Engine client) {
+		assertEquals(server.getEntities().getMask(), client.getEntities().getMask());
+		final Mapper<?>[] serverMappers = server.getMappers();
+		final Mapper<?>[] clientMappers = client.getMappers();
+		for (int i = 0; i < serverMappers.length; i++) {
+			assertEquals(serverMappers[i].componentsMask, clientMappers[i].componentsMask, serverMappers[i].toString());
+		}
+
+		final Mapper<Position> serverPosition = server.getMapper(Position.class);
+		final Mapper<Position> clientPosition = client.getMapper(Position.class);
+		final Mask positions = serverPosition.componentsMask;
+		for (int entity = positions.nextSetBit(0); entity != -1; entity = positions.nextSetBit(entity + 1)) {
+			assertEquals(serverPosition.get(entity).x, clientPosition.get(entity).x);
+			assertEquals(serverPosition.get(entity).y, clientPosition.get(entity).y);
+			assertEquals(serverPosition.get(entity).visible, clientPosition.get(entity).visible);
+		}
+
+		final ComponentColumns serverHealth = server.getMapper(Health.class).getColumns();
+		final ComponentColumns clientHealth = client.getMapper(Health.class).getColumns();
+		final Mask healths = server.getMapper(Health.class).componentsMask;
+		for (int entity = healths.nextSetBit(0); entity != -1; entity = healths.nextSetBit(entity + 1)) {
+			assertEquals(serverHealth.getIntColumn("value").get(entity), clientHealth.getIntColumn("value").get(entity));
+			assertEquals(serverHealth.getDoubleColumn("regeneration").get(entity), clientHealth.getDoubleColumn("regeneration").get(entity));
+		}
+	}
+
+	private static void tick(Engine server, ReplicationRecorder recorder, Engine client, ReplicationApplier applier) {
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		client.update();
+		assertReplicated(server, client);
+	}
+
+	@Test
+	public void testReplication() {
+		final ReplicationRecorder recorder = new ReplicationRecorder();
+		final Engine server = new Engine(DOMAIN, recorder);
+		final Engine client = new Engine(DOMAIN);
+		final ReplicationApplier applier = new ReplicationApplier(client);
+		final Mapper<Position> mPosition = server.getMapper(Position.class);
+		final ComponentColumns health = server.getMapper(Health.class).getColumns();
+		final Mapper<Frozen> mFrozen = server.getMapper(Frozen.class);
+		final Mapper<Name> mName = server.getMapper(Name.class);
+
+		for (int i = 0; i < 200; i++) {
+			final int entity = server.createEntity();
+			final Position position = mPosition.create(entity);
+			position.x = i;
+			position.y = -i;
+			position.visible = i % 3 == 0;
+			if (i % 2 == 0) {
+				health.add(entity);
+				health.getIntColumn("value").set(entity, 100 - i);
+				health.getDoubleColumn("regeneration").set(entity, i / 7.0);
+			}
+			if (i % 5 == 0) {
+				mFrozen.create(entity);
+			}
+			if (i % 7 == 0) {
+				mName.create(entity);
+			}
+		}
+		tick(server, recorder, client, applier);
+
+		// Nothing has changed
+		tick(server, recorder, client, applier);
+		assertEquals(3, recorder.getSize());
+
+		// Changes of values
+		mPosition.get(10).x = 1000f;
+		mPosition.get(11).cached = 5;
+		health.getIntColumn("value").set(20, -5);
+		tick(server, recorder, client, applier);
+		assertEquals(0, client.getMapper(Position.class).get(11).cached);
+
+		// Structural changes
+		server.destroyEntity(0);
+		server.destroyEntity(150);
+		mPosition.remove(3);
+		mFrozen.remove(5);
+		health.add(1);
+		mFrozen.create(1);
+		mName.create(2);
+		final int created = server.createEntity();
+		mPosition.create(created).y = 42f;
+		tick(server, recorder, client, applier);
+		assertFalse(client.getEntities().getMask().get(0));
+		assertTrue(client.getMapper(Name.class).has(2));
+
+		// Entity IDs are reused
+		for (int i = 0; i < 3; i++) {
+			server.createEntity();
+			tick(server, recorder, client, applier);
+		}
+	}
+
+	@Test
+	public void testSnapshot() {
+		final ReplicationRecorder recorder = new ReplicationRecorder();
+		final Engine server = new Engine(DOMAIN, recorder);
+		final Mapper<Position> mPosition = server.getMapper(Position.class);
+		for (int i = 0; i < 100; i++) {
+			mPosition.create(server.createEntity()).x = i;
+		}
+		server.update();
+		mPosition.get(50).y = 7f;
+		server.destroyEntity(60);
+		server.update();
+
+		// Late client starts with a snapshot and continues with the following deltas
+		recorder.captureSnapshot();
+		final Engine client = new Engine(DOMAIN);
+		final ReplicationApplier applier = new ReplicationApplier(client);
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		assertReplicated(server, client);
+
+		mPosition.get(51).y = 8f;
+		mPosition.create(server.createEntity());
+		tick(server, recorder, client, applier);
+
+		// Snapshot would overlap with the next delta
+		server.destroyEntity(1);
+		assertThrows(IllegalStateException.class, recorder::captureSnapshot);
+	}
+
+	public static final class Score implements Component.Replicated, Component.Tracked {
+		public int value;
+	}
+
+	@Test
+	public void testTrackedValues() {
+		final ComponentSet domain = new ComponentSet(Score.class);
+		final ReplicationRecorder recorder = new ReplicationRecorder();
+		final Engine server = new Engine(domain, recorder);
+		final Engine client = new Engine(domain);
+		final ReplicationApplier applier = new ReplicationApplier(client);
+		final Mapper<Score> serverScore = server.getMapper(Score.class);
+		final Mapper<Score> clientScore = client.getMapper(Score.class);
+		for (int i = 0; i < 200; i++) {
+			serverScore.create(server.createEntity()).value = i;
+		}
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		assertEquals(150, clientScore.get(150).value);
+
+		// Only the marked changes are captured
+		serverScore.get(10).value = -10;
+		serverScore.get(150).value = -150;
+		serverScore.markChanged(150);
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		assertEquals(10, clientScore.get(10).value);
+		assertEquals(-150, clientScore.get(150).value);
+
+		// Also when marked across multiple flushes
+		serverScore.markChanged(10);
+		server.flush();
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		assertEquals(-10, clientScore.get(10).value);
+
+		// Nothing has changed
+		server.update();
+		assertEquals(3, recorder.getSize());
+	}
+
+	@Test
+	public void testMalformed() {
+		final Engine client = new Engine(DOMAIN);
+		final ReplicationApplier applier = new ReplicationApplier(client);
+		assertThrows(IllegalArgumentException.class, () -> applier.apply(new byte[]{1, 0}, 0, 2));
+		assertThrows(IllegalArgumentException.class, () -> applier.apply(new byte[]{0, 0, 10, 0, 0, 0}, 0, 6));
+		assertThrows(IllegalArgumentException.class, () -> applier.apply(new byte[]{0, 0, 0, 0}, 0, 4));
+	}
+
+	@Test
+	public void testInheritedFields() {
+		final ComponentSet domain = new ComponentSet(Velocity.class);
+		final ReplicationRecorder recorder = new ReplicationRecorder();
+		final Engine server = new Engine(domain, recorder);
+		final Engine client = new Engine(domain);
+		final ReplicationApplier applier = new ReplicationApplier(client);
+		final Mapper<Velocity> mVelocity = server.getMapper(Velocity.class);
+
+		final int entity = server.createEntity();
+		final Velocity velocity = mVelocity.create(entity);
+		velocity.x = 3f;
+		velocity.y = -4f;
+		velocity.limit = 5f;
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+
+		velocity.y = 4f;
+		server.update();
+		applier.apply(recorder.getData(), 0, recorder.getSize());
+		client.update();
+
+		final Velocity replicated = client.getMapper(Velocity.class).get(entity);
+		assertEquals(3f, replicated.x);
+		assertEquals(4f, replicated.y);
+		assertEquals(5f, replicated.limit);
+
+		final Engine columnar = new Engine(new ComponentSet(Damage.class));
+		assertThrows(IllegalArgumentException.class, () -> new ReplicationApplier(columnar));
+	}
+}
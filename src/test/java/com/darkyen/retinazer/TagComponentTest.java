@@ -0,0 +1,88 @@
+package com.darkyen.retinazer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TagComponentTest {
+
+	public static final class Hot implements Component.Tag {
+	}
+
+	public static final class Shared implements Component.Tag {
+		public static final Shared INSTANCE = new Shared();
+	}
+
+	public static final class Singleton implements Component.Tag {
+		public static final Singleton INSTANCE = new Singleton();
+
+		private Singleton() {
+		}
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Hot.class, Shared.class, Components.FlagComponentA.class);
+
+	@Test
+	public void testSingleInstance() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Hot> mHot = engine.getMapper(Hot.class);
+		final int e0 = engine.createEntity();
+		final int e1 = engine.createEntity();
+		final int e2 = engine.createEntity();
+
+		final Hot hot = mHot.create(e0);
+		assertSame(hot, mHot.create(e1));
+		mHot.add(e2, new Hot());
+		assertSame(hot, mHot.get(e2));
+		assertThrows(IllegalArgumentException.class, () -> mHot.create(e0));
+
+		engine.flush();
+		assertEquals(3, engine.getEntities(DOMAIN.familyWith(Hot.class)).size());
+		mHot.remove(e1);
+		engine.flush();
+		assertNull(mHot.getOrNull(e1));
+		assertSame(hot, mHot.getOrNull(e0));
+		assertEquals(2, engine.getEntities(DOMAIN.familyWith(Hot.class)).size());
+	}
+
+	@Test
+	public void testBulk() {
+		final Engine engine = new Engine(DOMAIN);
+		final Mapper<Shared> mShared = engine.getMapper(Shared.class);
+		final Mapper<Components.FlagComponentA> mFlagA = engine.getMapper(Components.FlagComponentA.class);
+		for (int i = 0; i < 1000; i++) {
+			final int entity = engine.createEntity();
+			if (i % 3 == 0) {
+				mFlagA.create(entity);
+			}
+		}
+		engine.flush();
+		final EntitySetView flagged = engine.getEntities(DOMAIN.familyWith(Components.FlagComponentA.class));
+
+		mShared.add(0, Shared.INSTANCE);
+		mShared.addAll(flagged);
+		engine.flush();
+		final EntitySetView shared = engine.getEntities(DOMAIN.familyWith(Shared.class));
+		assertEquals(flagged.getIndices(), shared.getIndices());
+		assertSame(Shared.INSTANCE, mShared.get(999));
+
+		mShared.removeAll(engine.getEntities());
+		assertTrue(mShared.has(3));
+		engine.flush();
+		assertEquals(0, shared.size());
+		assertFalse(mShared.has(3));
+
+		assertThrows(UnsupportedOperationException.class, () -> mFlagA.addAll(flagged));
+		assertThrows(UnsupportedOperationException.class, () -> mFlagA.removeAll(flagged));
+	}
+
+	@Test
+	public void testNoArgConstructorRequired() {
+		assertThrows(IllegalArgumentException.class, () -> new Engine(new ComponentSet(Singleton.class)));
+	}
+}
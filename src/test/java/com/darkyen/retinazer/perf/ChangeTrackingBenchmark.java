@@ -0,0 +1,115 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Measures an update of 100 000 entities, of which 2% move, followed by a system which synchronizes
+ * the transforms to the renderer, which processes either all entities, or only the changed ones.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChangeTrackingBenchmark {
+
+	public static final class Transform implements Component.Tracked {
+		public float x, y;
+	}
+
+	public static final class Renderable implements Component {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Transform.class, Renderable.class);
+
+	private static final int ENTITIES = 100_000;
+	private static final int MOVING = ENTITIES / 50;
+
+	public static final class MoveSystem implements EngineService {
+		@Wire
+		private Mapper<Transform> transform;
+		@Wire
+		private Engine engine;
+		private final Random random = new Random(123);
+
+		@Override
+		public void update() {
+			for (int i = 0; i < MOVING; i++) {
+				final int entity = random.nextInt(ENTITIES);
+				transform.get(entity).x += 1f;
+				transform.markChanged(entity);
+			}
+		}
+	}
+
+	public static final class SyncSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Transform> transform;
+		@Wire
+		private Mapper<Renderable> renderable;
+
+		public SyncSystem(Family family) {
+			super(family);
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Transform t = transform.get(entity);
+			final Renderable r = renderable.get(entity);
+			r.x = t.x;
+			r.y = t.y;
+		}
+	}
+
+	private Engine allEngine;
+	private Engine changedEngine;
+
+	@Setup
+	public void setUp() {
+		allEngine = createEngine(DOMAIN.familyWith(Transform.class, Renderable.class));
+		changedEngine = createEngine(DOMAIN.familyWith(Renderable.class).changed(Transform.class));
+	}
+
+	private static Engine createEngine(Family syncFamily) {
+		final Engine engine = new Engine(DOMAIN, new MoveSystem(), new SyncSystem(syncFamily));
+		final Mapper<Transform> transform = engine.getMapper(Transform.class);
+		final Mapper<Renderable> renderable = engine.getMapper(Renderable.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			transform.create(entity);
+			renderable.create(entity);
+		}
+		engine.update();
+		return engine;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void syncAll() {
+		allEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void syncChanged() {
+		changedEngine.update();
+	}
+}
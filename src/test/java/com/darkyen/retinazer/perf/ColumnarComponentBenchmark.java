@@ -0,0 +1,160 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentColumns;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySystem;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import com.darkyen.retinazer.util.FloatBag;
+import com.darkyen.retinazer.util.Mask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Compares a position/velocity integration system over object components and over {@link Component.Columnar} components.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ColumnarComponentBenchmark {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component {
+		public float x, y;
+	}
+
+	public static final class ColumnPosition implements Component.Columnar {
+		public float x, y;
+	}
+
+	public static final class ColumnVelocity implements Component.Columnar {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class, ColumnPosition.class, ColumnVelocity.class);
+
+	private static final int ENTITIES = 200_000;
+
+	public static final class ObjectSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Position> position;
+		@Wire
+		private Mapper<Velocity> velocity;
+
+		public ObjectSystem() {
+			super(DOMAIN.familyWith(Position.class, Velocity.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Position p = position.get(entity);
+			final Velocity v = velocity.get(entity);
+			p.x += v.x * 0.01f;
+			p.y += v.y * 0.01f;
+		}
+	}
+
+	public static final class ColumnSystem extends EntitySystem {
+		private FloatBag px, py, vx, vy;
+
+		public ColumnSystem() {
+			super(DOMAIN.familyWith(ColumnPosition.class, ColumnVelocity.class));
+		}
+
+		@Override
+		public void initialize() {
+			super.initialize();
+			final ComponentColumns position = engine.getMapper(ColumnPosition.class).getColumns();
+			final ComponentColumns velocity = engine.getMapper(ColumnVelocity.class).getColumns();
+			px = position.getFloatColumn("x");
+			py = position.getFloatColumn("y");
+			vx = velocity.getFloatColumn("x");
+			vy = velocity.getFloatColumn("y");
+		}
+
+		@Override
+		public void update() {
+			final Mask mask = getEntities().getMask();
+			final int length = mask.length();
+			final float[] px = this.px.ensureCapacity(length);
+			final float[] py = this.py.ensureCapacity(length);
+			final float[] vx = this.vx.ensureCapacity(length);
+			final float[] vy = this.vy.ensureCapacity(length);
+			for (int w = mask.nextNonEmptyWord(0); w != -1; w = mask.nextNonEmptyWord(w + 1)) {
+				long word = mask.getWord(w);
+				final int base = w << 6;
+				while (word != 0L) {
+					final int e = base + Long.numberOfTrailingZeros(word);
+					px[e] += vx[e] * 0.01f;
+					py[e] += vy[e] * 0.01f;
+					word &= word - 1L;
+				}
+			}
+		}
+	}
+
+	private Engine objectEngine;
+	private Engine columnEngine;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(3);
+
+		objectEngine = new Engine(DOMAIN, new ObjectSystem());
+		final Mapper<Position> position = objectEngine.getMapper(Position.class);
+		final Mapper<Velocity> velocity = objectEngine.getMapper(Velocity.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = objectEngine.createEntity();
+			position.create(entity);
+			velocity.create(entity).x = random.nextFloat();
+		}
+		// Interleave the allocations, as in a real world
+		for (int i = 0; i < ENTITIES; i += 2) {
+			objectEngine.destroyEntity(i);
+		}
+		objectEngine.update();
+
+		columnEngine = new Engine(DOMAIN, new ColumnSystem());
+		final ComponentColumns columnPosition = columnEngine.getMapper(ColumnPosition.class).getColumns();
+		final ComponentColumns columnVelocity = columnEngine.getMapper(ColumnVelocity.class).getColumns();
+		final FloatBag velocityX = columnVelocity.getFloatColumn("x");
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = columnEngine.createEntity();
+			columnPosition.add(entity);
+			columnVelocity.add(entity);
+			velocityX.set(entity, random.nextFloat());
+		}
+		for (int i = 0; i < ENTITIES; i += 2) {
+			columnEngine.destroyEntity(i);
+		}
+		columnEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void objects() {
+		objectEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void columns() {
+		columnEngine.update();
+	}
+}
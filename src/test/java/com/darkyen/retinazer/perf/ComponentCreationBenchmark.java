@@ -0,0 +1,99 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Mapper;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Measures the throughput of {@link Mapper#create(int)} for pooled and unpooled components,
+ * compared with plain reflective construction, which the mapper used to do.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ComponentCreationBenchmark {
+
+	public static final class Plain implements Component {
+		public float x, y;
+	}
+
+	public static final class Pooled implements Component.Pooled {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Plain.class, Pooled.class);
+
+	private static final int ENTITIES = 1024;
+
+	private Engine engine;
+	private Mapper<Plain> plain;
+	private Mapper<Pooled> pooled;
+	private Constructor<Plain> constructor;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		engine = new Engine(DOMAIN);
+		for (int i = 0; i < ENTITIES; i++) {
+			engine.createEntity();
+		}
+		plain = engine.getMapper(Plain.class);
+		pooled = engine.getMapper(Pooled.class);
+		constructor = Plain.class.getConstructor();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void createUnpooled() {
+		final Mapper<Plain> plain = this.plain;
+		for (int i = 0; i < ENTITIES; i++) {
+			plain.create(i);
+		}
+		for (int i = 0; i < ENTITIES; i++) {
+			plain.remove(i);
+		}
+		engine.flush();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void createPooled() {
+		final Mapper<Pooled> pooled = this.pooled;
+		for (int i = 0; i < ENTITIES; i++) {
+			pooled.create(i);
+		}
+		for (int i = 0; i < ENTITIES; i++) {
+			pooled.remove(i);
+		}
+		engine.flush();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void createComponent(Blackhole blackhole) {
+		final Mapper<Plain> plain = this.plain;
+		for (int i = 0; i < ENTITIES; i++) {
+			blackhole.consume(plain.createComponent());
+		}
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void reflectiveBaseline(Blackhole blackhole) throws ReflectiveOperationException {
+		final Constructor<Plain> constructor = this.constructor;
+		for (int i = 0; i < ENTITIES; i++) {
+			blackhole.consume(constructor.newInstance());
+		}
+	}
+}
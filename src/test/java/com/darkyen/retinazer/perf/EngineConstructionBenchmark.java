@@ -0,0 +1,178 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the construction of an {@link Engine} with 60 services, which is dominated by wiring,
+ * as it happens when an engine is created for each match or room.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EngineConstructionBenchmark {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class);
+
+	public static class WiredService implements EngineService {
+		@Wire
+		private Engine engine;
+		@Wire
+		private Mapper<Position> position;
+		@Wire
+		private Mapper<Velocity> velocity;
+		@Wire
+		private S00 first;
+		@Wire
+		private S59 last;
+	}
+
+	public static final class S00 extends WiredService {}
+	public static final class S01 extends WiredService {}
+	public static final class S02 extends WiredService {}
+	public static final class S03 extends WiredService {}
+	public static final class S04 extends WiredService {}
+	public static final class S05 extends WiredService {}
+	public static final class S06 extends WiredService {}
+	public static final class S07 extends WiredService {}
+	public static final class S08 extends WiredService {}
+	public static final class S09 extends WiredService {}
+	public static final class S10 extends WiredService {}
+	public static final class S11 extends WiredService {}
+	public static final class S12 extends WiredService {}
+	public static final class S13 extends WiredService {}
+	public static final class S14 extends WiredService {}
+	public static final class S15 extends WiredService {}
+	public static final class S16 extends WiredService {}
+	public static final class S17 extends WiredService {}
+	public static final class S18 extends WiredService {}
+	public static final class S19 extends WiredService {}
+	public static final class S20 extends WiredService {}
+	public static final class S21 extends WiredService {}
+	public static final class S22 extends WiredService {}
+	public static final class S23 extends WiredService {}
+	public static final class S24 extends WiredService {}
+	public static final class S25 extends WiredService {}
+	public static final class S26 extends WiredService {}
+	public static final class S27 extends WiredService {}
+	public static final class S28 extends WiredService {}
+	public static final class S29 extends WiredService {}
+	public static final class S30 extends WiredService {}
+	public static final class S31 extends WiredService {}
+	public static final class S32 extends WiredService {}
+	public static final class S33 extends WiredService {}
+	public static final class S34 extends WiredService {}
+	public static final class S35 extends WiredService {}
+	public static final class S36 extends WiredService {}
+	public static final class S37 extends WiredService {}
+	public static final class S38 extends WiredService {}
+	public static final class S39 extends WiredService {}
+	public static final class S40 extends WiredService {}
+	public static final class S41 extends WiredService {}
+	public static final class S42 extends WiredService {}
+	public static final class S43 extends WiredService {}
+	public static final class S44 extends WiredService {}
+	public static final class S45 extends WiredService {}
+	public static final class S46 extends WiredService {}
+	public static final class S47 extends WiredService {}
+	public static final class S48 extends WiredService {}
+	public static final class S49 extends WiredService {}
+	public static final class S50 extends WiredService {}
+	public static final class S51 extends WiredService {}
+	public static final class S52 extends WiredService {}
+	public static final class S53 extends WiredService {}
+	public static final class S54 extends WiredService {}
+	public static final class S55 extends WiredService {}
+	public static final class S56 extends WiredService {}
+	public static final class S57 extends WiredService {}
+	public static final class S58 extends WiredService {}
+	public static final class S59 extends WiredService {}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public Engine construct() {
+		return new Engine(DOMAIN,
+				new S00(),
+				new S01(),
+				new S02(),
+				new S03(),
+				new S04(),
+				new S05(),
+				new S06(),
+				new S07(),
+				new S08(),
+				new S09(),
+				new S10(),
+				new S11(),
+				new S12(),
+				new S13(),
+				new S14(),
+				new S15(),
+				new S16(),
+				new S17(),
+				new S18(),
+				new S19(),
+				new S20(),
+				new S21(),
+				new S22(),
+				new S23(),
+				new S24(),
+				new S25(),
+				new S26(),
+				new S27(),
+				new S28(),
+				new S29(),
+				new S30(),
+				new S31(),
+				new S32(),
+				new S33(),
+				new S34(),
+				new S35(),
+				new S36(),
+				new S37(),
+				new S38(),
+				new S39(),
+				new S40(),
+				new S41(),
+				new S42(),
+				new S43(),
+				new S44(),
+				new S45(),
+				new S46(),
+				new S47(),
+				new S48(),
+				new S49(),
+				new S50(),
+				new S51(),
+				new S52(),
+				new S53(),
+				new S54(),
+				new S55(),
+				new S56(),
+				new S57(),
+				new S58(),
+				new S59());
+	}
+}
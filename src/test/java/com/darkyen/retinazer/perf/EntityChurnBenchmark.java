@@ -0,0 +1,76 @@
+package com.darkyen.retinazer.perf;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.util.Mask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Tests the entity ID allocation, in a large world where many entities are destroyed and created every update.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EntityChurnBenchmark {
+
+	public static final class Marker implements Component {}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Marker.class);
+
+	private static final int ENTITIES = 500_000;
+	private static final int CHURN = 10_000;
+
+	private final Random   random  = new Random(1);
+	private final IntArray created = new IntArray();
+	private Engine engine;
+
+	@Setup
+	public void setup() {
+		engine = new Engine(DOMAIN);
+		engine.createEntities(ENTITIES, created);
+		engine.update();
+	}
+
+	private void destroyRandom() {
+		final Mask alive = engine.getEntities().getMask();
+		for (int i = 0; i < CHURN; i++) {
+			int entity = alive.nextSetBit(random.nextInt(ENTITIES));
+			if (entity == -1) {
+				entity = alive.nextSetBit(0);
+			}
+			engine.destroyEntity(entity);
+		}
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void createEntity() {
+		destroyRandom();
+		for (int i = 0; i < CHURN; i++) {
+			engine.createEntity();
+		}
+		engine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void createEntities() {
+		destroyRandom();
+		created.clear();
+		engine.createEntities(CHURN, created);
+		engine.update();
+	}
+}
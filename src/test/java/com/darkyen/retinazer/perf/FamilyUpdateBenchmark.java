@@ -0,0 +1,109 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.Mapper;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Tests how the cost of {@link Engine#flush()} scales with the amount of families
+ * that depend on the modified components.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FamilyUpdateBenchmark {
+
+	public static final class C0 implements Component {}
+	public static final class C1 implements Component {}
+	public static final class C2 implements Component {}
+	public static final class C3 implements Component {}
+	public static final class C4 implements Component {}
+	public static final class C5 implements Component {}
+	public static final class C6 implements Component {}
+	public static final class C7 implements Component {}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final Class<? extends Component>[] COMPONENTS = new Class[]{C0.class, C1.class, C2.class, C3.class, C4.class, C5.class, C6.class, C7.class};
+	private static final ComponentSet DOMAIN = new ComponentSet(COMPONENTS);
+
+	private static final int ENTITIES = 200_000;
+
+	private Engine      engine;
+	private Mapper<?>[] mappers;
+	private int         touchedEntity;
+
+	@Setup
+	public void setup() {
+		final Engine engine = this.engine = new Engine(DOMAIN);
+		final Mapper<?>[] mappers = this.mappers = engine.getMappers();
+
+		// 8 + 8*7 + 8*7 = 120 families, each component is a dependency of 29 of them
+		for (Class<? extends Component> a : COMPONENTS) {
+			engine.getEntities(DOMAIN.familyWith(a));
+			for (Class<? extends Component> b : COMPONENTS) {
+				if (a == b) continue;
+				final Family withA = DOMAIN.familyWith(a);
+				engine.getEntities(withA.with(b));
+				engine.getEntities(withA.without(b));
+			}
+		}
+
+		final Random random = new Random(42);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			for (Mapper<?> mapper : mappers) {
+				if (random.nextBoolean()) {
+					mapper.create(entity);
+				}
+			}
+		}
+		engine.flush();
+		touchedEntity = ENTITIES / 2;
+	}
+
+	private static void toggle(Mapper<?> mapper, int entity) {
+		if (mapper.has(entity)) {
+			mapper.remove(entity);
+		} else {
+			mapper.create(entity);
+		}
+	}
+
+	/** Changes a single component type, only the families which depend on it should be recomputed. */
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void flushOneComponentChanged() {
+		toggle(mappers[0], touchedEntity);
+		engine.flush();
+	}
+
+	/** Changes all component types, all families have to be recomputed. */
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void flushAllComponentsChanged() {
+		for (Mapper<?> mapper : mappers) {
+			toggle(mapper, touchedEntity);
+		}
+		engine.flush();
+	}
+
+	/** Nothing changes, nothing should be recomputed. */
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void flushNothingChanged() {
+		engine.flush();
+	}
+}
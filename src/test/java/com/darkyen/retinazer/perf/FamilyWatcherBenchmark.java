@@ -0,0 +1,150 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.EntitySet;
+import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.FamilyDelta;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.FamilyWatcherSystem;
+import com.darkyen.retinazer.util.Mask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Measures an update of 100 000 entities, of which 100 change their family membership,
+ * watched by 30 {@link FamilyDelta}s, as in {@link FamilyWatcherSystem}, or by 30 watchers which compare copies
+ * of the family mask, as {@link FamilyWatcherSystem} used to.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FamilyWatcherBenchmark {
+
+	public static final class Visible implements Component {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Visible.class);
+	private static final Family       FAMILY = DOMAIN.familyWith(Visible.class);
+
+	private static final int ENTITIES = 100_000;
+	private static final int TOGGLED  = 100;
+	private static final int WATCHERS = 30;
+
+	public static final class ToggleSystem implements EngineService {
+		@Wire
+		private Mapper<Visible> visible;
+		private final Random random = new Random(123);
+
+		@Override
+		public void update() {
+			for (int i = 0; i < TOGGLED; i++) {
+				final int entity = random.nextInt(ENTITIES);
+				if (visible.has(entity)) {
+					visible.remove(entity);
+				} else {
+					visible.create(entity);
+				}
+			}
+		}
+	}
+
+	/** 30 watchers with {@link FamilyDelta}s, as used by {@link FamilyWatcherSystem.Single} */
+	public static final class DeltaWatchers implements EngineService {
+		@Wire
+		private Engine engine;
+		public int changes;
+		private final FamilyDelta[] deltas  = new FamilyDelta[WATCHERS];
+		private final IntConsumer   added   = entity -> changes++;
+		private final IntConsumer   removed = entity -> changes--;
+
+		@Override
+		public void initialize() {
+			for (int i = 0; i < WATCHERS; i++) {
+				deltas[i] = engine.getFamilyDelta(FAMILY);
+			}
+		}
+
+		@Override
+		public void update() {
+			for (FamilyDelta delta : deltas) {
+				delta.forEachRemoved(removed);
+				delta.forEachAdded(added);
+				delta.clear();
+			}
+		}
+	}
+
+	/** 30 watchers with the original implementation of {@link FamilyWatcherSystem} */
+	public static final class MaskCopyWatchers implements EngineService {
+		@Wire
+		private Engine engine;
+		private final Mask[]    lastEntities = new Mask[WATCHERS];
+		private final EntitySet workingSet   = new EntitySet();
+		public int changes;
+
+		@Override
+		public void initialize() {
+			for (int i = 0; i < WATCHERS; i++) {
+				lastEntities[i] = new Mask();
+			}
+		}
+
+		@Override
+		public void update() {
+			final Mask currentEntities = engine.getEntities(FAMILY).getMask();
+			for (Mask lastEntities : this.lastEntities) {
+				workingSet.getMaskForModification().set(currentEntities).andNot(lastEntities);
+				changes += workingSet.size();
+				workingSet.getMaskForModification().set(lastEntities).andNot(currentEntities);
+				changes -= workingSet.size();
+				lastEntities.set(currentEntities);
+			}
+		}
+	}
+
+	private Engine deltaEngine;
+	private Engine maskCopyEngine;
+
+	@Setup
+	public void setUp() {
+		deltaEngine = createEngine(new DeltaWatchers());
+		maskCopyEngine = createEngine(new MaskCopyWatchers());
+	}
+
+	private static Engine createEngine(EngineService watchers) {
+		final Engine engine = new Engine(DOMAIN, new ToggleSystem(), watchers);
+		final Mapper<Visible> visible = engine.getMapper(Visible.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			visible.create(engine.createEntity());
+		}
+		engine.update();
+		return engine;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void delta() {
+		deltaEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void maskCopy() {
+		maskCopyEngine.update();
+	}
+}
@@ -0,0 +1,163 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.util.CompressedMask;
+import com.darkyen.retinazer.util.HierarchicalMask;
+import com.darkyen.retinazer.util.Mask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Compares {@link Mask}, {@link HierarchicalMask} and {@link CompressedMask} on dense and sparse masks.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class MaskBenchmark {
+
+	private static final int SIZE = 1_000_000;
+
+	/** How many bits are set in the masks: 50 for sparse, half for dense. */
+	@Param({"50", "500000"})
+	public int bits = 50;
+
+	private final Mask             flat         = new Mask();
+	private final Mask             flatOther    = new Mask();
+	private final HierarchicalMask hierarchical      = new HierarchicalMask();
+	private final HierarchicalMask hierarchicalOther = new HierarchicalMask();
+	private final Mask             flatResult         = new Mask();
+	private final HierarchicalMask hierarchicalResult = new HierarchicalMask();
+	private final CompressedMask   compressed         = new CompressedMask();
+	private final CompressedMask   compressedOther    = new CompressedMask();
+	private final CompressedMask   compressedResult   = new CompressedMask();
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(42);
+		for (int i = 0; i < bits; i++) {
+			flat.set(random.nextInt(SIZE));
+			flatOther.set(random.nextInt(SIZE));
+		}
+		// Make sure that both masks span the whole range
+		flat.set(SIZE - 1);
+		flatOther.set(SIZE - 1);
+		hierarchical.set(flat);
+		hierarchicalOther.set(flatOther);
+		compressed.set(flat);
+		compressedOther.set(flatOther);
+	}
+
+	private static int iterate(Mask mask) {
+		int sum = 0;
+		for (int i = mask.nextSetBit(0); i != -1; i = mask.nextSetBit(i + 1)) {
+			sum += i;
+		}
+		return sum;
+	}
+
+	private final int[] buffer = new int[256];
+
+	private int iterateChunked(Mask mask) {
+		final int[] buffer = this.buffer;
+		int sum = 0;
+		for (int count, from = 0; (count = mask.getIndices(buffer, from)) > 0; from = buffer[count - 1] + 1) {
+			for (int i = 0; i < count; i++) {
+				sum += buffer[i];
+			}
+		}
+		return sum;
+	}
+
+	private static int and(Mask result, Mask mask, Mask other) {
+		result.set(mask);
+		result.and(other);
+		return result.cardinality();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateFlat() {
+		return iterate(flat);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateHierarchical() {
+		return iterate(hierarchical);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateCompressed() {
+		return iterate(compressed);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateFlatChunked() {
+		return iterateChunked(flat);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateHierarchicalChunked() {
+		return iterateChunked(hierarchical);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int iterateCompressedChunked() {
+		return iterateChunked(compressed);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int cardinalityFlat() {
+		return flat.cardinality();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int cardinalityHierarchical() {
+		return hierarchical.cardinality();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int cardinalityCompressed() {
+		return compressed.cardinality();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public boolean intersectsFlat() {
+		return flat.intersects(flatOther);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public boolean intersectsHierarchical() {
+		return hierarchical.intersects(hierarchicalOther);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public boolean intersectsCompressed() {
+		return compressed.intersects(compressedOther);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int andFlat() {
+		return and(flatResult, flat, flatOther);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int andHierarchical() {
+		return and(hierarchicalResult, hierarchical, hierarchicalOther);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int andCompressed() {
+		return and(compressedResult, compressed, compressedOther);
+	}
+}
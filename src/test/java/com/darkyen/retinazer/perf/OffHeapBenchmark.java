@@ -0,0 +1,150 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentColumns;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySystem;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import com.darkyen.retinazer.util.Mask;
+import com.darkyen.retinazer.util.OffHeapFloatBag;
+import com.darkyen.retinazer.util.OffHeapMask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Soak test of a large world with entity churn, stored in object components and heap masks,
+ * or in {@link Component.OffHeapColumnar} components and {@link OffHeapMask}s.
+ * Run with {@code -prof gc} to compare the allocation rate and GC time; the off-heap world keeps almost nothing on the heap.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class OffHeapBenchmark {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class OffHeapPosition implements Component.OffHeapColumnar {
+		public float x, y;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, OffHeapPosition.class);
+
+	private static final int ENTITIES = 1_000_000;
+	private static final int CHURN = 10_000;
+
+	public static final class ObjectSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Position> position;
+
+		public ObjectSystem() {
+			super(DOMAIN.familyWith(Position.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			position.get(entity).x += 0.01f;
+		}
+	}
+
+	public static final class OffHeapSystem extends EntitySystem {
+		private OffHeapFloatBag x;
+
+		public OffHeapSystem() {
+			super(DOMAIN.familyWith(OffHeapPosition.class));
+		}
+
+		@Override
+		public void initialize() {
+			super.initialize();
+			x = engine.getMapper(OffHeapPosition.class).getColumns().getOffHeapFloatColumn("x");
+		}
+
+		@Override
+		public void update() {
+			final Mask mask = getEntities().getMask();
+			final FloatBuffer x = this.x.ensureCapacity(mask.length());
+			for (int w = mask.nextNonEmptyWord(0); w != -1; w = mask.nextNonEmptyWord(w + 1)) {
+				long word = mask.getWord(w);
+				final int base = w << 6;
+				while (word != 0L) {
+					final int e = base + Long.numberOfTrailingZeros(word);
+					x.put(e, x.get(e) + 0.01f);
+					word &= word - 1L;
+				}
+			}
+		}
+	}
+
+	private final Random random = new Random(5);
+	private Engine objectEngine;
+	private Engine offHeapEngine;
+
+	@Setup
+	public void setup() {
+		objectEngine = new Engine(DOMAIN, new ObjectSystem());
+		final Mapper<Position> position = objectEngine.getMapper(Position.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			position.create(objectEngine.createEntity());
+		}
+		objectEngine.update();
+
+		offHeapEngine = new Engine(DOMAIN, OffHeapMask::new, new OffHeapSystem());
+		final ComponentColumns columns = offHeapEngine.getMapper(OffHeapPosition.class).getColumns();
+		for (int i = 0; i < ENTITIES; i++) {
+			columns.add(offHeapEngine.createEntity());
+		}
+		offHeapEngine.update();
+	}
+
+	@TearDown
+	public void tearDown() {
+		objectEngine.dispose();
+		offHeapEngine.dispose();
+	}
+
+	private void destroyRandom(Engine engine) {
+		final int entity = engine.getEntities().getMask().nextSetBit(random.nextInt(ENTITIES));
+		if (entity != -1) {
+			engine.destroyEntity(entity);
+		}
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void objects() {
+		final Mapper<Position> position = objectEngine.getMapper(Position.class);
+		for (int i = 0; i < CHURN; i++) {
+			destroyRandom(objectEngine);
+			position.create(objectEngine.createEntity());
+		}
+		objectEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void offHeap() {
+		final ComponentColumns columns = offHeapEngine.getMapper(OffHeapPosition.class).getColumns();
+		for (int i = 0; i < CHURN; i++) {
+			destroyRandom(offHeapEngine);
+			columns.add(offHeapEngine.createEntity());
+		}
+		offHeapEngine.update();
+	}
+}
@@ -0,0 +1,106 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySetView;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.PackedComponentStorage;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Compares the default storage with {@link Component.Packed} storage, for a component held by a small part of entities.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PackedStorageBenchmark {
+
+	public static final class Value implements Component {
+		public int value;
+	}
+
+	public static final class PackedValue implements Component.Packed {
+		public int value;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Value.class, PackedValue.class);
+
+	private static final int ENTITIES = 1_000_000;
+
+	/** Percentage of entities which have the component */
+	@Param({"1", "10"})
+	public int percent = 1;
+
+	private Engine                              engine;
+	private Mapper<Value>                       value;
+	private Mapper<PackedValue>                 packedValue;
+	private PackedComponentStorage<PackedValue> packedStorage;
+	private EntitySetView                       valueEntities;
+	private EntitySetView                       packedValueEntities;
+
+	@Setup
+	public void setup() {
+		engine = new Engine(DOMAIN);
+		value = engine.getMapper(Value.class);
+		packedValue = engine.getMapper(PackedValue.class);
+		packedStorage = packedValue.getPackedStorage();
+		final Random random = new Random(5);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			if (random.nextInt(100) < percent) {
+				value.create(entity).value = i;
+				packedValue.create(entity).value = i;
+			}
+		}
+		engine.flush();
+		valueEntities = engine.getEntities(DOMAIN.familyWith(Value.class));
+		packedValueEntities = engine.getEntities(DOMAIN.familyWith(PackedValue.class));
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public long bagByFamily() {
+		final Mapper<Value> value = this.value;
+		long sum = 0;
+		final int[] entities = valueEntities.getIndices().items;
+		for (int i = 0, size = valueEntities.size(); i < size; i++) {
+			sum += value.get(entities[i]).value;
+		}
+		return sum;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public long packedByFamily() {
+		final Mapper<PackedValue> value = this.packedValue;
+		long sum = 0;
+		final int[] entities = packedValueEntities.getIndices().items;
+		for (int i = 0, size = packedValueEntities.size(); i < size; i++) {
+			sum += value.get(entities[i]).value;
+		}
+		return sum;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public long packedDense() {
+		final PackedComponentStorage<PackedValue> storage = this.packedStorage;
+		long sum = 0;
+		for (int i = 0, size = storage.size(); i < size; i++) {
+			sum += storage.getComponent(i).value;
+		}
+		return sum;
+	}
+}
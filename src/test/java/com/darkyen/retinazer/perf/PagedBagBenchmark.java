@@ -0,0 +1,82 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.util.IntBag;
+import com.darkyen.retinazer.util.PagedIntBag;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Compares the flat {@link IntBag} with the {@link PagedIntBag}:
+ * the time to fill up a bag with a million values and the cost of random access.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PagedBagBenchmark {
+
+	private static final int SIZE = 1_000_000;
+
+	private final int[] randomIndices = new int[100_000];
+	private IntBag      filledBag;
+	private PagedIntBag filledPagedBag;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(9);
+		for (int i = 0; i < randomIndices.length; i++) {
+			randomIndices[i] = random.nextInt(SIZE);
+		}
+		filledBag = fillBag();
+		filledPagedBag = fillPagedBag();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public IntBag fillBag() {
+		final IntBag bag = new IntBag();
+		for (int i = 0; i < SIZE; i++) {
+			bag.set(i, i);
+		}
+		return bag;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public PagedIntBag fillPagedBag() {
+		final PagedIntBag bag = new PagedIntBag();
+		for (int i = 0; i < SIZE; i++) {
+			bag.set(i, i);
+		}
+		return bag;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public long randomAccessBag() {
+		final IntBag bag = this.filledBag;
+		long sum = 0;
+		for (int index : randomIndices) {
+			sum += bag.get(index);
+		}
+		return sum;
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public long randomAccessPagedBag() {
+		final PagedIntBag bag = this.filledPagedBag;
+		long sum = 0;
+		for (int index : randomIndices) {
+			sum += bag.get(index);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,121 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityParallelProcessorSystem;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests how {@link EntityParallelProcessorSystem} scales with the amount of threads,
+ * compared to the single-threaded {@link EntityProcessorSystem}.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParallelProcessorBenchmark {
+
+	public static final class Body implements Component {
+		public float x, y, vx, vy;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Body.class);
+
+	private static final int ENTITIES = 200_000;
+
+	/** Some work, which is not entirely dominated by memory access. */
+	static void simulate(Body body) {
+		final float distance = (float) Math.sqrt(body.x * body.x + body.y * body.y) + 1f;
+		body.vx -= body.x / (distance * distance * distance);
+		body.vy -= body.y / (distance * distance * distance);
+		body.x += body.vx * 0.01f;
+		body.y += body.vy * 0.01f;
+	}
+
+	public static final class SequentialSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Body> body;
+
+		public SequentialSystem() {
+			super(DOMAIN.familyWith(Body.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			simulate(body.get(entity));
+		}
+	}
+
+	public static final class ParallelSystem extends EntityParallelProcessorSystem {
+		@Wire
+		private Mapper<Body> body;
+
+		public ParallelSystem(ForkJoinPool pool) {
+			super(DOMAIN.familyWith(Body.class), pool);
+		}
+
+		@Override
+		protected void process(int entity) {
+			simulate(body.get(entity));
+		}
+	}
+
+	@Param({"1", "2", "4", "8", "16"})
+	public int threads = 4;
+
+	private ForkJoinPool pool;
+	private Engine       sequentialEngine;
+	private Engine       parallelEngine;
+
+	private static void populate(Engine engine) {
+		final Mapper<Body> body = engine.getMapper(Body.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			final Body b = body.create(engine.createEntity());
+			b.x = i % 1000;
+			b.y = i / 1000f;
+		}
+		engine.flush();
+	}
+
+	@Setup
+	public void setup() {
+		pool = new ForkJoinPool(threads);
+		sequentialEngine = new Engine(DOMAIN, new SequentialSystem());
+		parallelEngine = new Engine(DOMAIN, new ParallelSystem(pool));
+		populate(sequentialEngine);
+		populate(parallelEngine);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void sequential() {
+		sequentialEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void parallel() {
+		parallelEngine.update();
+	}
+}
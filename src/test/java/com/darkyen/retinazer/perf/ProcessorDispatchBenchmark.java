@@ -0,0 +1,171 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import com.darkyen.retinazer.systems.EntityBatchProcessorSystem;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Compares per-entity dispatch of {@link EntityProcessorSystem}
+ * with batch dispatch of {@link EntityBatchProcessorSystem}.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ProcessorDispatchBenchmark {
+
+	public static final class Position implements Component {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component {
+		public float x, y;
+	}
+
+	public static final class Drag implements Component {
+		public float factor = 0.99f;
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class, Drag.class);
+
+	private static final int ENTITIES = 100_000;
+
+	public static final class MovementSystem extends EntityProcessorSystem {
+		@Wire
+		private Mapper<Position> position;
+		@Wire
+		private Mapper<Velocity> velocity;
+		@Wire
+		private Mapper<Drag> drag;
+
+		public MovementSystem() {
+			super(DOMAIN.familyWith(Position.class, Velocity.class));
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Position p = position.get(entity);
+			final Velocity v = velocity.get(entity);
+			final Drag d = drag.getOrNull(entity);
+			if (d != null) {
+				v.x *= d.factor;
+				v.y *= d.factor;
+			}
+			p.x += v.x;
+			p.y += v.y;
+		}
+	}
+
+	public static final class MovementBatchSystem extends EntityBatchProcessorSystem {
+		@Wire
+		private Mapper<Position> position;
+		@Wire
+		private Mapper<Velocity> velocity;
+		@Wire
+		private Mapper<Drag> drag;
+
+		public MovementBatchSystem() {
+			super(DOMAIN.familyWith(Position.class, Velocity.class));
+		}
+
+		@Override
+		protected void process(int[] entities, int count) {
+			final Mapper<Position> position = this.position;
+			final Mapper<Velocity> velocity = this.velocity;
+			final Mapper<Drag> drag = this.drag;
+			for (int i = 0; i < count; i++) {
+				final int entity = entities[i];
+				final Position p = position.get(entity);
+				final Velocity v = velocity.get(entity);
+				final Drag d = drag.getOrNull(entity);
+				if (d != null) {
+					v.x *= d.factor;
+					v.y *= d.factor;
+				}
+				p.x += v.x;
+				p.y += v.y;
+			}
+		}
+	}
+
+	/**
+	 * Which entities have which components:
+	 * "moving" - all have position and velocity,
+	 * "mixed" - all have position, half have velocity, some have drag,
+	 * "sparse" - all have position, every tenth has velocity and drag.
+	 */
+	@Param({"moving", "mixed", "sparse"})
+	public String mix = "moving";
+
+	private Engine perEntityEngine;
+	private Engine batchEngine;
+
+	private void populate(Engine engine) {
+		final Mapper<Position> position = engine.getMapper(Position.class);
+		final Mapper<Velocity> velocity = engine.getMapper(Velocity.class);
+		final Mapper<Drag> drag = engine.getMapper(Drag.class);
+		final Random random = new Random(7);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			position.create(entity);
+			switch (mix) {
+				case "moving":
+					velocity.create(entity).x = 1f;
+					break;
+				case "mixed":
+					if (random.nextBoolean()) {
+						velocity.create(entity).x = 1f;
+						if (random.nextInt(4) == 0) {
+							drag.create(entity);
+						}
+					}
+					break;
+				case "sparse":
+					if (i % 10 == 0) {
+						velocity.create(entity).y = 1f;
+						drag.create(entity);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException(mix);
+			}
+		}
+		engine.flush();
+	}
+
+	@Setup
+	public void setup() {
+		perEntityEngine = new Engine(DOMAIN, new MovementSystem());
+		batchEngine = new Engine(DOMAIN, new MovementBatchSystem());
+		populate(perEntityEngine);
+		populate(batchEngine);
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void perEntity() {
+		perEntityEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void batch() {
+		batchEngine.update();
+	}
+}
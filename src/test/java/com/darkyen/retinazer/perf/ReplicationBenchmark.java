@@ -0,0 +1,118 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.ReplicationRecorder;
+import com.darkyen.retinazer.util.Mask;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Measures a tick of a world of 10 000 entities, where 1% of entities move and 10 entities are replaced,
+ * followed by a capture of the delta, or of a full snapshot for comparison.
+ * The size of the last delta and snapshot is in {@link #deltaBytes} and {@link #snapshotBytes}.
+ * Run with {@code -prof gc} to see that capturing deltas does not allocate.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ReplicationBenchmark {
+
+	public static final class Position implements Component.Replicated {
+		public float x, y;
+	}
+
+	public static final class Velocity implements Component.Replicated {
+		public float x, y;
+	}
+
+	public static final class Player implements Component.Tag {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class, Player.class);
+
+	private static final int ENTITIES = 10_000;
+	private static final int MOVING = ENTITIES / 100;
+	private static final int CHURN = 10;
+
+	private final Random random = new Random(123);
+	private ReplicationRecorder recorder;
+	private Engine engine;
+	private Mapper<Position> position;
+	private Mapper<Velocity> velocity;
+
+	public int deltaBytes;
+	public int snapshotBytes;
+
+	@Setup
+	public void setUp() {
+		recorder = new ReplicationRecorder();
+		engine = new Engine(DOMAIN, recorder);
+		position = engine.getMapper(Position.class);
+		velocity = engine.getMapper(Velocity.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			createEntity();
+		}
+		engine.update();
+	}
+
+	private void createEntity() {
+		final int entity = engine.createEntity();
+		final Position p = position.create(entity);
+		p.x = random.nextFloat() * 1000f;
+		p.y = random.nextFloat() * 1000f;
+		final Velocity v = velocity.create(entity);
+		v.x = random.nextFloat();
+		v.y = random.nextFloat();
+	}
+
+	private void tick() {
+		final Mask entities = engine.getEntities().getMask();
+		final int length = entities.length();
+		for (int i = 0; i < MOVING; i++) {
+			final int entity = entities.nextSetBit(random.nextInt(length));
+			if (entity != -1) {
+				final Position p = position.get(entity);
+				final Velocity v = velocity.get(entity);
+				p.x += v.x;
+				p.y += v.y;
+			}
+		}
+		for (int i = 0; i < CHURN; i++) {
+			final int entity = entities.nextSetBit(random.nextInt(length));
+			if (entity != -1) {
+				engine.destroyEntity(entity);
+			}
+			createEntity();
+		}
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int delta() {
+		tick();
+		// The recorder captures the delta
+		engine.update();
+		return deltaBytes = recorder.getSize();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public int snapshot() {
+		tick();
+		engine.update();
+		return snapshotBytes = recorder.captureSnapshot();
+	}
+}
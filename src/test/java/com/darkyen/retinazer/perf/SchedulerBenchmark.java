@@ -0,0 +1,142 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.AccessDeclaringService;
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentAccess;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.schedulers.ParallelUpdateScheduler;
+import com.darkyen.retinazer.systems.EntityProcessorSystem;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the default sequential update with {@link ParallelUpdateScheduler},
+ * for systems which each work with a different component.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+
+	public static class Value implements Component {
+		public float value;
+	}
+
+	public static final class V0 extends Value {}
+	public static final class V1 extends Value {}
+	public static final class V2 extends Value {}
+	public static final class V3 extends Value {}
+	public static final class V4 extends Value {}
+	public static final class V5 extends Value {}
+	public static final class V6 extends Value {}
+	public static final class V7 extends Value {}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final Class<? extends Value>[] COMPONENTS = new Class[]{V0.class, V1.class, V2.class, V3.class, V4.class, V5.class, V6.class, V7.class};
+	private static final ComponentSet DOMAIN = new ComponentSet(COMPONENTS);
+
+	private static final int ENTITIES = 50_000;
+
+	/** Works with a single component type, so all such systems are independent. */
+	public static abstract class ValueSystem extends EntityProcessorSystem implements AccessDeclaringService {
+		private final Class<? extends Value> type;
+		private Mapper<? extends Value> mapper;
+
+		ValueSystem(Class<? extends Value> type) {
+			super(DOMAIN.familyWith(type));
+			this.type = type;
+		}
+
+		@Override
+		public void initialize() {
+			super.initialize();
+			mapper = engine.getMapper(type);
+		}
+
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.writes(type);
+		}
+
+		@Override
+		protected void process(int entity) {
+			final Value value = mapper.get(entity);
+			value.value = (float) Math.sqrt(value.value * value.value + entity);
+		}
+	}
+
+	public static final class S0 extends ValueSystem { public S0() { super(V0.class); } }
+	public static final class S1 extends ValueSystem { public S1() { super(V1.class); } }
+	public static final class S2 extends ValueSystem { public S2() { super(V2.class); } }
+	public static final class S3 extends ValueSystem { public S3() { super(V3.class); } }
+	public static final class S4 extends ValueSystem { public S4() { super(V4.class); } }
+	public static final class S5 extends ValueSystem { public S5() { super(V5.class); } }
+	public static final class S6 extends ValueSystem { public S6() { super(V6.class); } }
+	public static final class S7 extends ValueSystem { public S7() { super(V7.class); } }
+
+	private static EngineService[] systems() {
+		return new EngineService[]{new S0(), new S1(), new S2(), new S3(), new S4(), new S5(), new S6(), new S7()};
+	}
+
+	@Param({"1", "2", "4", "8"})
+	public int threads = 4;
+
+	private ForkJoinPool pool;
+	private Engine       sequentialEngine;
+	private Engine       parallelEngine;
+
+	private static void populate(Engine engine) {
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			for (Class<? extends Value> component : COMPONENTS) {
+				engine.getMapper(component).create(entity);
+			}
+		}
+		engine.flush();
+	}
+
+	@Setup
+	public void setup() {
+		pool = new ForkJoinPool(threads);
+		sequentialEngine = new Engine(DOMAIN, systems());
+		final EngineService[] systems = systems();
+		final EngineService[] parallelServices = new EngineService[systems.length + 1];
+		parallelServices[0] = new ParallelUpdateScheduler(pool);
+		System.arraycopy(systems, 0, parallelServices, 1, systems.length);
+		parallelEngine = new Engine(DOMAIN, parallelServices);
+		populate(sequentialEngine);
+		populate(parallelEngine);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void sequential() {
+		sequentialEngine.update();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void parallel() {
+		parallelEngine.update();
+	}
+}
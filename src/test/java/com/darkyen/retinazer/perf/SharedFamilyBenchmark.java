@@ -0,0 +1,102 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.Family;
+import com.darkyen.retinazer.Mapper;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Measures {@link Engine#flush()} of 100 000 entities, of which 2% change their core components,
+ * with 33 families, which all share the same core components, as many systems usually do.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SharedFamilyBenchmark {
+
+	public static final class Position implements Component {}
+	public static final class Velocity implements Component {}
+	public static final class Collider implements Component {}
+	public static final class C0 implements Component {}
+	public static final class C1 implements Component {}
+	public static final class C2 implements Component {}
+	public static final class C3 implements Component {}
+	public static final class C4 implements Component {}
+	public static final class C5 implements Component {}
+	public static final class C6 implements Component {}
+	public static final class C7 implements Component {}
+	public static final class C8 implements Component {}
+	public static final class C9 implements Component {}
+	public static final class C10 implements Component {}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final Class<? extends Component>[] OTHERS = new Class[]{C0.class, C1.class, C2.class, C3.class, C4.class, C5.class, C6.class, C7.class, C8.class, C9.class, C10.class};
+	private static final ComponentSet DOMAIN = new ComponentSet(Position.class, Velocity.class, Collider.class,
+			C0.class, C1.class, C2.class, C3.class, C4.class, C5.class, C6.class, C7.class, C8.class, C9.class, C10.class);
+
+	private static final int ENTITIES = 100_000;
+	private static final int TOGGLED  = ENTITIES / 50;
+
+	private final Random random = new Random(42);
+	private Engine          engine;
+	private Mapper<?>       position;
+	private Mapper<?>       velocity;
+
+	@Setup
+	public void setup() {
+		final Engine engine = this.engine = new Engine(DOMAIN);
+		position = engine.getMapper(Position.class);
+		velocity = engine.getMapper(Velocity.class);
+
+		final Family moving = DOMAIN.familyWith(Position.class, Velocity.class);
+		engine.getEntities(moving);
+		for (Class<? extends Component> other : OTHERS) {
+			engine.getEntities(moving.with(other));
+			engine.getEntities(moving.with(Collider.class).without(other));
+			engine.getEntities(moving.without(Collider.class, other));
+		}
+
+		final Mapper<?>[] mappers = engine.getMappers();
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			for (Mapper<?> mapper : mappers) {
+				if (random.nextInt(4) != 0) {
+					mapper.create(entity);
+				}
+			}
+		}
+		engine.flush();
+	}
+
+	private static void toggle(Mapper<?> mapper, int entity) {
+		if (mapper.has(entity)) {
+			mapper.remove(entity);
+		} else {
+			mapper.create(entity);
+		}
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void flushCoreComponentsChanged() {
+		for (int i = 0; i < TOGGLED; i++) {
+			toggle(position, random.nextInt(ENTITIES));
+			toggle(velocity, random.nextInt(ENTITIES));
+		}
+		engine.flush();
+	}
+}
@@ -0,0 +1,102 @@
+package com.darkyen.retinazer.perf;
+
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentSet;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EntitySetView;
+import com.darkyen.retinazer.Mapper;
+import jmh.mbr.junit5.Microbenchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares adding and removing a marker component to many entities,
+ * when it is an ordinary component and when it is a {@link Component.Tag}.
+ * <p>
+ * Individual benchmarks are commented out, because they take a long time to run and are not usually needed.
+ * Uncomment the @Benchmark annotations when you want to run them.
+ */
+@Microbenchmark
+@Measurement(iterations = 2)
+@Warmup(iterations = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TagComponentBenchmark {
+
+	public static final class Selected implements Component {
+		public static final Selected INSTANCE = new Selected();
+	}
+
+	public static final class SelectedTag implements Component.Tag {
+	}
+
+	public static final class Source implements Component {
+	}
+
+	private static final ComponentSet DOMAIN = new ComponentSet(Selected.class, SelectedTag.class, Source.class);
+
+	private static final int ENTITIES = 200_000;
+
+	private Engine              engine;
+	private Mapper<Selected>    selected;
+	private Mapper<SelectedTag> selectedTag;
+	private EntitySetView       sources;
+
+	@Setup
+	public void setup() {
+		engine = new Engine(DOMAIN);
+		selected = engine.getMapper(Selected.class);
+		selectedTag = engine.getMapper(SelectedTag.class);
+		final Mapper<Source> source = engine.getMapper(Source.class);
+		for (int i = 0; i < ENTITIES; i++) {
+			final int entity = engine.createEntity();
+			if (i % 2 == 0) {
+				source.add(entity, new Source());
+			}
+		}
+		engine.flush();
+		sources = engine.getEntities(DOMAIN.familyWith(Source.class));
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void component() {
+		final Mapper<Selected> selected = this.selected;
+		final int[] entities = sources.getIndices().items;
+		final int size = sources.size();
+		for (int i = 0; i < size; i++) {
+			selected.add(entities[i], Selected.INSTANCE);
+		}
+		engine.flush();
+		for (int i = 0; i < size; i++) {
+			selected.remove(entities[i]);
+		}
+		engine.flush();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void tag() {
+		final Mapper<SelectedTag> selected = this.selectedTag;
+		final int[] entities = sources.getIndices().items;
+		final int size = sources.size();
+		for (int i = 0; i < size; i++) {
+			selected.create(entities[i]);
+		}
+		engine.flush();
+		for (int i = 0; i < size; i++) {
+			selected.remove(entities[i]);
+		}
+		engine.flush();
+	}
+
+	//@org.openjdk.jmh.annotations.Benchmark // Uncomment when relevant
+	public void tagBulk() {
+		selectedTag.addAll(sources);
+		engine.flush();
+		selectedTag.removeAll(sources);
+		engine.flush();
+	}
+}
@@ -0,0 +1,205 @@
+package com.darkyen.retinazer.schedulers;
+
+import com.darkyen.retinazer.AccessDeclaringService;
+import com.darkyen.retinazer.Component;
+import com.darkyen.retinazer.ComponentAccess;
+import com.darkyen.retinazer.Components;
+import com.darkyen.retinazer.Engine;
+import com.darkyen.retinazer.EngineService;
+import com.darkyen.retinazer.Mapper;
+import com.darkyen.retinazer.Wire;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.darkyen.retinazer.Components.FULL_SET;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelUpdateSchedulerTest {
+
+	private static final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+	public static class LoggingService implements AccessDeclaringService {
+		@Override
+		public void declareAccess(ComponentAccess access) {
+		}
+
+		@Override
+		public void update() {
+			log.add(getClass().getSimpleName());
+		}
+	}
+
+	public static final class WritesA extends LoggingService {
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.writes(Components.FlagComponentA.class);
+		}
+
+		@Override
+		public void update() {
+			try {
+				// Give the dependent services a chance to start too early
+				Thread.sleep(20);
+			} catch (InterruptedException ignored) {
+			}
+			super.update();
+		}
+	}
+
+	public static final class ReadsB extends LoggingService {
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.reads(Components.FlagComponentB.class);
+		}
+	}
+
+	public static final class CreatesWithA extends LoggingService {
+		@Wire
+		private Engine engine;
+		@Wire
+		private Mapper<Components.FlagComponentA> mapperA;
+
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.reads(Components.FlagComponentA.class).structural();
+		}
+
+		@Override
+		public void update() {
+			super.update();
+			engine.getCommandBuffer().create(engine.getCommandBuffer().createEntity(), mapperA);
+		}
+	}
+
+	public static final class Undeclared implements EngineService {
+		@Override
+		public void update() {
+			log.add(getClass().getSimpleName());
+		}
+	}
+
+	public static final class CountsA extends LoggingService {
+		@Wire
+		private Engine engine;
+		int count = -1;
+
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.reads(Components.FlagComponentA.class);
+		}
+
+		@Override
+		public void update() {
+			super.update();
+			count = engine.getEntities(FULL_SET.familyWith(Components.FlagComponentA.class)).getMask().cardinality();
+		}
+	}
+
+	@Test
+	public void testStagesAndDependencies() {
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final ParallelUpdateScheduler scheduler = new ParallelUpdateScheduler(pool);
+			final WritesA writesA = new WritesA();
+			final ReadsB readsB = new ReadsB();
+			final CreatesWithA createsWithA = new CreatesWithA();
+			final Undeclared undeclared = new Undeclared();
+			final CountsA countsA = new CountsA();
+			final Engine engine = new Engine(FULL_SET, scheduler, writesA, readsB, createsWithA, undeclared, countsA);
+
+			log.clear();
+			engine.update();
+			final EngineService[][] stages = scheduler.getStages();
+			assertEquals(3, stages.length);
+			assertArrayEquals(new EngineService[]{writesA, readsB, createsWithA}, stages[0]);
+			assertArrayEquals(new EngineService[]{undeclared}, stages[1]);
+			assertArrayEquals(new EngineService[]{countsA}, stages[2]);
+
+			// Dependency order is kept, independent services may run in any order
+			assertEquals(5, log.size());
+			assertTrue(log.indexOf("WritesA") < log.indexOf("CreatesWithA"));
+			assertEquals("Undeclared", log.get(3));
+			assertEquals("CountsA", log.get(4));
+
+			// Structural changes are flushed before the next stage
+			assertEquals(1, countsA.count);
+			engine.update();
+			assertEquals(2, countsA.count);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public static class MeetsOther extends LoggingService {
+		final CyclicBarrier              barrier;
+		final Class<? extends Component> component;
+
+		MeetsOther(CyclicBarrier barrier, Class<? extends Component> component) {
+			this.barrier = barrier;
+			this.component = component;
+		}
+
+		@Override
+		public void declareAccess(ComponentAccess access) {
+			access.writes(component);
+		}
+
+		@Override
+		public void update() {
+			try {
+				// Fails, unless the other service runs at the same time
+				barrier.await(10, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				throw new AssertionError("Services did not run concurrently", e);
+			}
+		}
+	}
+
+	/** Services must have unique types */
+	public static final class MeetsOtherB extends MeetsOther {
+		MeetsOtherB(CyclicBarrier barrier) {
+			super(barrier, Components.FlagComponentB.class);
+		}
+	}
+
+	@Test
+	public void testIndependentServicesRunConcurrently() {
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			final CyclicBarrier barrier = new CyclicBarrier(2);
+			final Engine engine = new Engine(FULL_SET, new ParallelUpdateScheduler(pool),
+					new MeetsOther(barrier, Components.FlagComponentA.class), new MeetsOtherB(barrier));
+			engine.update();
+			engine.update();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public static final class Throws extends LoggingService {
+		@Override
+		public void update() {
+			throw new IllegalStateException("expected");
+		}
+	}
+
+	@Test
+	public void testExceptionPropagates() {
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			final Engine engine = new Engine(FULL_SET, new ParallelUpdateScheduler(pool), new ReadsB(), new Throws());
+			assertThrows(IllegalStateException.class, engine::update);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
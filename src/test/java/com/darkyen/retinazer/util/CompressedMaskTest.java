@@ -0,0 +1,223 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompressedMaskTest {
+
+	/** Sets random bits, some of them in long runs, to exercise all container types. */
+	private static Mask randomMask(Mask mask, Random random, int size, int bits) {
+		for (int i = 0; i < bits; i++) {
+			final int index = random.nextInt(size);
+			if (random.nextInt(100) == 0) {
+				final int end = Math.min(size, index + random.nextInt(20_000));
+				for (int j = index; j < end; j++) {
+					mask.set(j);
+				}
+			} else {
+				mask.set(index);
+			}
+		}
+		return mask;
+	}
+
+	private static void assertSameBits(Mask expected, Mask actual) {
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertEquals(expected.length(), actual.length());
+		assertEquals(expected.getWordCount(), actual.getWordCount());
+		assertArrayEquals(expected.getIndices(), actual.getIndices());
+		for (int i = 0; i < expected.length() + 70; i += 37) {
+			assertEquals(expected.get(i), actual.get(i));
+			assertEquals(expected.nextSetBit(i), actual.nextSetBit(i));
+			assertEquals(expected.nextClearBit(i), actual.nextClearBit(i));
+			assertEquals(expected.getWord(i >> 6), actual.getWord(i >> 6));
+			assertEquals(expected.nextNonEmptyWord(i >> 6), actual.nextNonEmptyWord(i >> 6));
+		}
+	}
+
+	@Test
+	public void testSingleBits() {
+		final CompressedMask mask = new CompressedMask();
+		assertEquals(true, mask.isEmpty());
+		assertEquals(-1, mask.nextSetBit(0));
+		assertEquals(0, mask.nextClearBit(0));
+		mask.set(10_000_000);
+		assertEquals(false, mask.isEmpty());
+		assertEquals(10_000_000, mask.nextSetBit(0));
+		assertEquals(10_000_001, mask.length());
+		assertEquals(10_000_001, mask.nextClearBit(10_000_000));
+		mask.set(5);
+		assertEquals(5, mask.nextSetBit(0));
+		assertEquals(10_000_000, mask.nextSetBit(6));
+		assertEquals(2, mask.cardinality());
+		assertEquals(true, mask.clearChanged(10_000_000));
+		assertEquals(false, mask.clearChanged(10_000_000));
+		assertEquals(-1, mask.nextSetBit(6));
+		assertEquals(6, mask.length());
+		mask.clear(5);
+		assertEquals(true, mask.isEmpty());
+		assertEquals(0, mask.cardinality());
+	}
+
+	@Test
+	public void testContainerConversions() {
+		final CompressedMask mask = new CompressedMask();
+		final Mask expected = new Mask();
+		// Fill the whole first chunk and a bit of the next one, array -> bitmap
+		for (int i = 0; i < 70_000; i++) {
+			mask.set(i);
+			expected.set(i);
+		}
+		assertSameBits(expected, mask);
+		assertEquals(70_000, mask.nextClearBit(0));
+
+		// Bitmap -> run
+		final long bitmapMemory = mask.memoryUsage();
+		mask.runOptimize();
+		assertTrue(mask.memoryUsage() < bitmapMemory);
+		assertSameBits(expected, mask);
+
+		// Modifications of runs
+		for (int i = 100; i < 70_000; i += 1000) {
+			mask.clear(i);
+			expected.clear(i);
+		}
+		mask.set(500);
+		expected.set(500);
+		mask.set(1100);
+		expected.set(1100);
+		assertSameBits(expected, mask);
+
+		// Run -> bitmap through word modification, bitmap -> array
+		for (int i = 0; i < 70_000; i += 3) {
+			mask.clear(i);
+			expected.clear(i);
+		}
+		mask.setWord(10, 0xF0F0L);
+		expected.setWord(10, 0xF0F0L);
+		assertSameBits(expected, mask);
+		for (int i = 0; i < 60_000; i++) {
+			mask.clear(i);
+			expected.clear(i);
+		}
+		assertSameBits(expected, mask);
+		mask.runOptimize();
+		assertSameBits(expected, mask);
+	}
+
+	@Test
+	public void testBulkOperations() {
+		final Random random = new Random(4321);
+		for (int round = 0; round < 150; round++) {
+			final int size = 1 + random.nextInt(round % 5 == 0 ? 1_000_000 : 200_000);
+			final int bitsA = random.nextInt(round % 2 == 0 ? 50 : 10_000);
+			final int bitsB = random.nextInt(round % 3 == 0 ? 50 : 10_000);
+			final long seed = random.nextLong();
+
+			// Compressed-Compressed, Compressed-Mask and Compressed-Hierarchical combinations
+			for (int variant = 0; variant < 3; variant++) {
+				final Random maskRandom = new Random(seed);
+				final Mask expectedA = randomMask(new Mask(), maskRandom, size, bitsA);
+				final Mask expectedB = randomMask(new Mask(), maskRandom, size, bitsB);
+				final CompressedMask a = new CompressedMask();
+				a.set(expectedA);
+				if (round % 4 == 0) {
+					a.runOptimize();
+				}
+				final Mask b = variant == 0 ? new CompressedMask() : variant == 1 ? new Mask() : new HierarchicalMask();
+				b.set(expectedB);
+				if (round % 4 == 1 && b instanceof CompressedMask) {
+					((CompressedMask) b).runOptimize();
+				}
+				assertSameBits(expectedA, a);
+				assertSameBits(expectedB, b);
+
+				assertEquals(expectedA.intersects(expectedB), a.intersects(b));
+				assertEquals(expectedA.intersects(expectedB), b.intersects(a));
+				assertEquals(expectedA.isSupersetOf(expectedB), a.isSupersetOf(b));
+				assertEquals(expectedB.isSupersetOf(expectedA), b.isSupersetOf(a));
+
+				final CompressedMask result = new CompressedMask();
+				final Mask expected = new Mask();
+
+				result.set(a);
+				result.and(b);
+				expected.set(expectedA);
+				expected.and(expectedB);
+				assertSameBits(expected, result);
+				assertEquals(true, a.isSupersetOf(result));
+
+				result.set(a);
+				result.andNot(b);
+				expected.set(expectedA);
+				expected.andNot(expectedB);
+				assertSameBits(expected, result);
+				assertEquals(false, result.intersects(b));
+
+				result.set(a);
+				result.or(b);
+				expected.set(expectedA);
+				expected.or(expectedB);
+				assertSameBits(expected, result);
+
+				result.set(a);
+				result.xor(b);
+				expected.set(expectedA);
+				expected.xor(expectedB);
+				assertSameBits(expected, result);
+
+				// Other mask types operating on compressed mask
+				final Mask other = variant == 1 ? new HierarchicalMask() : new Mask();
+				other.set(b);
+				other.or(a);
+				expected.set(expectedB);
+				expected.or(expectedA);
+				assertSameBits(expected, other);
+
+				result.set(b.getWords());
+				expected.set(expectedB);
+				assertSameBits(expected, result);
+
+				for (int i = 0; i < 100; i++) {
+					final int index = maskRandom.nextInt(size);
+					assertEquals(expected.clearChanged(index), result.clearChanged(index));
+					final int setIndex = maskRandom.nextInt(size);
+					assertEquals(expected.setChanged(setIndex), result.setChanged(setIndex));
+					final int word = maskRandom.nextInt((size + 63) >> 6);
+					final long value = maskRandom.nextBoolean() ? 0L : maskRandom.nextLong();
+					expected.setWord(word, value);
+					result.setWord(word, value);
+				}
+				assertSameBits(expected, result);
+
+				// The operations must not modify the operands
+				assertSameBits(expectedA, a);
+				assertSameBits(expectedB, b);
+
+				result.clear();
+				assertEquals(true, result.isEmpty());
+				assertEquals(-1, result.nextSetBit(0));
+			}
+		}
+	}
+
+	@Test
+	public void testMemoryUsage() {
+		final CompressedMask mask = new CompressedMask();
+		for (int i = 0; i < 100; i++) {
+			mask.set(i * 1_000_000);
+		}
+		// Flat mask would need over 12 MB
+		assertTrue(mask.memoryUsage() < 10_000);
+		assertEquals(99_000_001, mask.length());
+	}
+}
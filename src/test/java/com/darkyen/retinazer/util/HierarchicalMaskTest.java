@@ -0,0 +1,134 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HierarchicalMaskTest {
+
+	private static Mask randomMask(Mask mask, Random random, int size, int bits) {
+		for (int i = 0; i < bits; i++) {
+			mask.set(random.nextInt(size));
+		}
+		return mask;
+	}
+
+	private static void assertSameBits(Mask expected, Mask actual) {
+		assertEquals(expected, actual);
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertEquals(expected.length(), actual.length());
+		assertArrayEquals(expected.getIndices(), actual.getIndices());
+		for (int i = 0; i < expected.length() + 70; i += 7) {
+			assertEquals(expected.nextSetBit(i), actual.nextSetBit(i));
+		}
+	}
+
+	@Test
+	public void testSingleBits() {
+		final HierarchicalMask mask = new HierarchicalMask();
+		assertEquals(true, mask.isEmpty());
+		assertEquals(-1, mask.nextSetBit(0));
+		mask.set(100_000);
+		assertEquals(false, mask.isEmpty());
+		assertEquals(100_000, mask.nextSetBit(0));
+		assertEquals(100_001, mask.length());
+		mask.set(5);
+		assertEquals(5, mask.nextSetBit(0));
+		assertEquals(100_000, mask.nextSetBit(6));
+		assertEquals(true, mask.clearChanged(100_000));
+		assertEquals(false, mask.clearChanged(100_000));
+		assertEquals(-1, mask.nextSetBit(6));
+		assertEquals(6, mask.length());
+		mask.clear(5);
+		assertEquals(true, mask.isEmpty());
+		assertEquals(0, mask.cardinality());
+	}
+
+	@Test
+	public void testBulkOperations() {
+		final Random random = new Random(1234);
+		for (int round = 0; round < 200; round++) {
+			final int size = 1 + random.nextInt(20_000);
+			final int bitsA = random.nextInt(round % 2 == 0 ? 50 : 5000);
+			final int bitsB = random.nextInt(round % 3 == 0 ? 50 : 5000);
+			final long seed = random.nextLong();
+
+			// Hierarchical-Hierarchical and Hierarchical-Mask combinations
+			for (int variant = 0; variant < 2; variant++) {
+				final Random maskRandom = new Random(seed);
+				final Mask expectedA = randomMask(new Mask(), maskRandom, size, bitsA);
+				final Mask expectedB = randomMask(new Mask(), maskRandom, size, bitsB);
+				final HierarchicalMask a = new HierarchicalMask();
+				a.set(expectedA);
+				final Mask b = variant == 0 ? new HierarchicalMask() : new Mask();
+				b.set(expectedB);
+				assertSameBits(expectedA, a);
+				assertSameBits(expectedB, b);
+
+				assertEquals(expectedA.intersects(expectedB), a.intersects(b));
+				assertEquals(expectedA.isSupersetOf(expectedB), a.isSupersetOf(b));
+				assertEquals(expectedB.isSupersetOf(expectedA), b.isSupersetOf(a));
+
+				final HierarchicalMask result = new HierarchicalMask();
+				final Mask expected = new Mask();
+
+				result.set(a);
+				result.and(b);
+				expected.set(expectedA);
+				expected.and(expectedB);
+				assertSameBits(expected, result);
+				assertEquals(true, a.isSupersetOf(result));
+
+				result.set(a);
+				result.andNot(b);
+				expected.set(expectedA);
+				expected.andNot(expectedB);
+				assertSameBits(expected, result);
+				assertEquals(false, result.intersects(b));
+
+				result.set(a);
+				result.or(b);
+				expected.set(expectedA);
+				expected.or(expectedB);
+				assertSameBits(expected, result);
+
+				result.set(a);
+				result.xor(b);
+				expected.set(expectedA);
+				expected.xor(expectedB);
+				assertSameBits(expected, result);
+
+				result.set(b.getWords());
+				expected.set(expectedB);
+				assertSameBits(expected, result);
+
+				for (int i = 0; i < 100; i++) {
+					final int index = maskRandom.nextInt(size);
+					assertEquals(expected.clearChanged(index), result.clearChanged(index));
+					final int setIndex = maskRandom.nextInt(size);
+					assertEquals(expected.setChanged(setIndex), result.setChanged(setIndex));
+				}
+				assertSameBits(expected, result);
+
+				result.clear();
+				assertEquals(true, result.isEmpty());
+				assertEquals(-1, result.nextSetBit(0));
+			}
+		}
+	}
+
+	@Test
+	public void testSetWord() {
+		final HierarchicalMask mask = new HierarchicalMask();
+		mask.setWord(1000, 0b101L);
+		assertEquals(64_000, mask.nextSetBit(0));
+		assertEquals(64_002, mask.nextSetBit(64_001));
+		mask.setWord(1000, 0L);
+		assertEquals(true, mask.isEmpty());
+		assertEquals(-1, mask.nextSetBit(0));
+	}
+}
@@ -2,6 +2,8 @@ package com.darkyen.retinazer.util;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -41,4 +43,62 @@ public class MaskTest {
 		mask.set(99);
 		assertArrayEquals(new int[]{1, 4, 6, 7, 8, 12, 16, 17, 99}, mask.getIndices());
 	}
+
+	@Test
+	public void testOrXorWithLongerMask() {
+		Mask mask = new Mask();
+		mask.set(3);
+		Mask longer = new Mask();
+		longer.set(3);
+		longer.set(5);
+		longer.set(10_000);
+
+		Mask or = new Mask();
+		or.set(mask);
+		or.or(longer);
+		assertArrayEquals(new int[]{3, 5, 10_000}, or.getIndices());
+
+		Mask xor = new Mask();
+		xor.set(mask);
+		xor.xor(longer);
+		assertArrayEquals(new int[]{5, 10_000}, xor.getIndices());
+	}
+
+	@Test
+	public void testGetIndicesChunked() {
+		final Random random = new Random(99);
+		for (int round = 0; round < 50; round++) {
+			final Mask[] masks = {new Mask(), new HierarchicalMask(), new CompressedMask()};
+			final int size = 1 + random.nextInt(100_000);
+			final int bits = random.nextInt(round % 2 == 0 ? 100 : 50_000);
+			for (int i = 0; i < bits; i++) {
+				final int bit = random.nextInt(size);
+				for (Mask mask : masks) {
+					mask.set(bit);
+				}
+			}
+
+			final int[] expected = masks[0].getIndices();
+			for (Mask mask : masks) {
+				assertArrayEquals(expected, mask.getIndices());
+				final int[] buffer = new int[1 + random.nextInt(100)];
+				final int[] decoded = new int[expected.length];
+				int decodedCount = 0;
+				for (int count, from = 0; (count = mask.getIndices(buffer, from)) > 0; from = buffer[count - 1] + 1) {
+					System.arraycopy(buffer, 0, decoded, decodedCount, count);
+					decodedCount += count;
+				}
+				assertEquals(expected.length, decodedCount);
+				assertArrayEquals(expected, decoded);
+
+				// Starting in the middle of a word
+				final int from = random.nextInt(size + 100);
+				final int count = mask.getIndices(buffer, from);
+				for (int i = 0, expectedIndex = mask.nextSetBit(from); i < count; i++, expectedIndex = mask.nextSetBit(expectedIndex + 1)) {
+					assertEquals(expectedIndex, buffer[i]);
+				}
+				assertEquals(mask.nextSetBit(from) == -1, count == 0);
+			}
+		}
+	}
 }
@@ -0,0 +1,49 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OffHeapFloatBagTest {
+
+	/**
+	 * Ensures that the elements of a bag are actually stored, also after it grows
+	 */
+	@Test
+	public void testStorage() {
+		OffHeapFloatBag bag = new OffHeapFloatBag();
+		for (int i = 0; i < 3000; i++) {
+			bag.set(i, (float) i);
+		}
+		for (int i = 0; i < 3000; i++) {
+			assertEquals((float) i, bag.get(i));
+		}
+		assertEquals((float) 0, bag.get(3000));
+		assertEquals((float) 5, bag.ensureCapacity(10).get(5));
+
+		bag.clear();
+		assertEquals((float) 0, bag.get(5));
+		bag.set(7, (float) 7);
+		bag.dispose();
+		assertEquals((float) 0, bag.get(7));
+		bag.set(7, (float) 7);
+		assertEquals((float) 7, bag.get(7));
+		bag.dispose();
+	}
+
+	/**
+	 * When a negative index is used, an {@link IndexOutOfBoundsException} should be thrown.
+	 */
+	@Test
+	public void testIndexOutOfBoundsException() {
+		OffHeapFloatBag bag = new OffHeapFloatBag();
+		bag.set(0, (float) 1);
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.set(-(1 << i_), (float) 0));
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.get(-(1 << i_)));
+		}
+		bag.dispose();
+	}
+}
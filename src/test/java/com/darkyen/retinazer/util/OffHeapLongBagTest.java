@@ -0,0 +1,49 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OffHeapLongBagTest {
+
+	/**
+	 * Ensures that the elements of a bag are actually stored, also after it grows
+	 */
+	@Test
+	public void testStorage() {
+		OffHeapLongBag bag = new OffHeapLongBag();
+		for (int i = 0; i < 3000; i++) {
+			bag.set(i, (long) i);
+		}
+		for (int i = 0; i < 3000; i++) {
+			assertEquals((long) i, bag.get(i));
+		}
+		assertEquals((long) 0, bag.get(3000));
+		assertEquals((long) 5, bag.ensureCapacity(10).get(5));
+
+		bag.clear();
+		assertEquals((long) 0, bag.get(5));
+		bag.set(7, (long) 7);
+		bag.dispose();
+		assertEquals((long) 0, bag.get(7));
+		bag.set(7, (long) 7);
+		assertEquals((long) 7, bag.get(7));
+		bag.dispose();
+	}
+
+	/**
+	 * When a negative index is used, an {@link IndexOutOfBoundsException} should be thrown.
+	 */
+	@Test
+	public void testIndexOutOfBoundsException() {
+		OffHeapLongBag bag = new OffHeapLongBag();
+		bag.set(0, (long) 1);
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.set(-(1 << i_), (long) 0));
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.get(-(1 << i_)));
+		}
+		bag.dispose();
+	}
+}
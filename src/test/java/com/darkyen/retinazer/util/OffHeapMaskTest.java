@@ -0,0 +1,118 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OffHeapMaskTest {
+
+	private static void assertSameBits(Mask expected, Mask actual) {
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertEquals(expected.length(), actual.length());
+		assertEquals(expected.getWordCount(), actual.getWordCount());
+		assertArrayEquals(expected.getIndices(), actual.getIndices());
+		for (int i = 0; i < expected.length() + 70; i += 37) {
+			assertEquals(expected.get(i), actual.get(i));
+			assertEquals(expected.nextSetBit(i), actual.nextSetBit(i));
+			assertEquals(expected.getWord(i >> 6), actual.getWord(i >> 6));
+			assertEquals(expected.nextNonEmptyWord(i >> 6), actual.nextNonEmptyWord(i >> 6));
+		}
+	}
+
+	@Test
+	public void testSingleBits() {
+		final OffHeapMask mask = new OffHeapMask();
+		assertEquals(true, mask.isEmpty());
+		assertEquals(-1, mask.nextSetBit(0));
+		assertEquals(0, mask.nextClearBit(0));
+		mask.set(100_000);
+		assertEquals(100_000, mask.nextSetBit(0));
+		assertEquals(100_001, mask.length());
+		assertEquals(100_001, mask.nextClearBit(100_000));
+		mask.set(5);
+		assertEquals(2, mask.cardinality());
+		assertEquals(true, mask.clearChanged(100_000));
+		assertEquals(false, mask.clearChanged(100_000));
+		assertEquals(6, mask.length());
+
+		mask.dispose();
+		assertEquals(true, mask.isEmpty());
+		mask.set(3);
+		assertEquals(3, mask.nextSetBit(0));
+		mask.dispose();
+	}
+
+	@Test
+	public void testOperations() {
+		final Random random = new Random(13);
+		for (int round = 0; round < 20; round++) {
+			final Mask expectedA = new Mask();
+			final Mask expectedB = new Mask();
+			final OffHeapMask a = new OffHeapMask();
+			final OffHeapMask b = new OffHeapMask();
+			for (int i = 0; i < 500; i++) {
+				final int bitA = random.nextInt(50_000);
+				final int bitB = random.nextInt(50_000);
+				expectedA.set(bitA);
+				a.set(bitA);
+				expectedB.set(bitB);
+				b.set(bitB);
+			}
+			assertSameBits(expectedA, a);
+			assertSameBits(expectedB, b);
+			assertEquals(expectedA.intersects(expectedB), a.intersects(b));
+			assertEquals(expectedA.intersects(expectedB), a.intersects(expectedB));
+
+			switch (round % 5) {
+				case 0: expectedA.or(expectedB); a.or(b); break;
+				case 1: expectedA.and(expectedB); a.and(expectedB); break;
+				case 2: expectedA.andNot(expectedB); a.andNot(b); break;
+				case 3: expectedA.xor(expectedB); a.xor(expectedB); break;
+				case 4: expectedA.set(expectedB); a.set(b.getWords()); break;
+			}
+			assertSameBits(expectedA, a);
+			assertEquals(expectedA.isSupersetOf(expectedB), a.isSupersetOf(b));
+
+			// Flat masks work with off-heap masks too
+			expectedB.or(a);
+			assertEquals(true, expectedB.isSupersetOf(a));
+			a.dispose();
+			b.dispose();
+		}
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		final Path file = Files.createTempFile("retinazer", ".mask");
+		try {
+			final Mask expected = new Mask();
+			final OffHeapMask mask = new OffHeapMask(file);
+			for (int i = 0; i < 10_000; i += 7) {
+				expected.set(i);
+				mask.set(i);
+			}
+			mask.dispose();
+
+			final OffHeapMask restored = new OffHeapMask(file);
+			assertSameBits(expected, restored);
+			restored.clear(7);
+			restored.dispose();
+			expected.clear(7);
+			final OffHeapMask reopened = new OffHeapMask(file);
+			assertEquals(expected, reopened);
+			reopened.dispose();
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
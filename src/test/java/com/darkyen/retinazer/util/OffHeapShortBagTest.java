@@ -0,0 +1,49 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OffHeapShortBagTest {
+
+	/**
+	 * Ensures that the elements of a bag are actually stored, also after it grows
+	 */
+	@Test
+	public void testStorage() {
+		OffHeapShortBag bag = new OffHeapShortBag();
+		for (int i = 0; i < 3000; i++) {
+			bag.set(i, (short) i);
+		}
+		for (int i = 0; i < 3000; i++) {
+			assertEquals((short) i, bag.get(i));
+		}
+		assertEquals((short) 0, bag.get(3000));
+		assertEquals((short) 5, bag.ensureCapacity(10).get(5));
+
+		bag.clear();
+		assertEquals((short) 0, bag.get(5));
+		bag.set(7, (short) 7);
+		bag.dispose();
+		assertEquals((short) 0, bag.get(7));
+		bag.set(7, (short) 7);
+		assertEquals((short) 7, bag.get(7));
+		bag.dispose();
+	}
+
+	/**
+	 * When a negative index is used, an {@link IndexOutOfBoundsException} should be thrown.
+	 */
+	@Test
+	public void testIndexOutOfBoundsException() {
+		OffHeapShortBag bag = new OffHeapShortBag();
+		bag.set(0, (short) 1);
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.set(-(1 << i_), (short) 0));
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.get(-(1 << i_)));
+		}
+		bag.dispose();
+	}
+}
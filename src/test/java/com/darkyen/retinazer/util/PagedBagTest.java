@@ -0,0 +1,54 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PagedBagTest {
+
+	/**
+	 * Ensures that the elements of a bag are actually stored, across multiple pages
+	 */
+	@Test
+	public void testStorage() {
+		PagedBag<Object> bag = new PagedBag<>();
+		final int[] indices = {0, 1, 7, PagedBag.PAGE_SIZE - 1, PagedBag.PAGE_SIZE, PagedBag.PAGE_SIZE * 100 + 3};
+		final Object[] elements = new Object[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			elements[i] = new Object();
+			bag.set(indices[i], elements[i]);
+		}
+		for (int i = 0; i < indices.length; i++) {
+			assertSame(elements[i], bag.get(indices[i]));
+		}
+		assertNull(bag.get(2));
+		assertNull(bag.get(PagedBag.PAGE_SIZE * 50));
+		assertSame(elements[4], bag.getPage(1)[0]);
+
+		assertSame(elements[1], bag.remove(1));
+		assertNull(bag.get(1));
+		assertNull(bag.remove(1));
+		assertNull(bag.remove(PagedBag.PAGE_SIZE * 1000));
+
+		bag.clear();
+		for (int index : indices) {
+			assertNull(bag.get(index));
+		}
+	}
+
+	/**
+	 * When a negative index is used, an {@link IndexOutOfBoundsException} should be thrown.
+	 */
+	@Test
+	public void testIndexOutOfBoundsException() {
+		PagedBag<Object> bag = new PagedBag<>();
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.set(-(1 << i_), null));
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.get(-(1 << i_)));
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.remove(-(1 << i_)));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.darkyen.retinazer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PagedShortBagTest {
+
+	/**
+	 * Ensures that the elements of a bag are actually stored, across multiple pages
+	 */
+	@Test
+	public void testStorage() {
+		PagedShortBag bag = new PagedShortBag();
+		final int[] indices = {0, 1, 7, PagedBag.PAGE_SIZE - 1, PagedBag.PAGE_SIZE, PagedBag.PAGE_SIZE * 100 + 3};
+		for (int i = 0; i < indices.length; i++) {
+			bag.set(indices[i], (short) (i + 1));
+		}
+		for (int i = 0; i < indices.length; i++) {
+			assertEquals((short) (i + 1), bag.get(indices[i]));
+		}
+		assertEquals((short) 0, bag.get(2));
+		assertEquals((short) 0, bag.get(PagedBag.PAGE_SIZE * 50));
+		assertEquals((short) 4, bag.getPage(0)[PagedBag.PAGE_SIZE - 1]);
+		assertEquals((short) 5, bag.getPage(1)[0]);
+
+		bag.clear();
+		for (int index : indices) {
+			assertEquals((short) 0, bag.get(index));
+		}
+	}
+
+	/**
+	 * Ensures that the bag contains the default value by default
+	 */
+	@Test
+	public void testDefault() {
+		PagedShortBag bag = new PagedShortBag();
+		assertEquals((short) 0, bag.get(0));
+		assertEquals((short) 0, bag.get(Integer.MAX_VALUE));
+		bag.set(0, (short) 1);
+		assertEquals((short) 0, bag.get(1));
+	}
+
+	/**
+	 * When a negative index is used, an {@link IndexOutOfBoundsException} should be thrown.
+	 */
+	@Test
+	public void testIndexOutOfBoundsException() {
+		PagedShortBag bag = new PagedShortBag();
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.set(-(1 << i_), (short) 0));
+		}
+
+		for (int i = 0; i < 32; i++) {
+			final int i_ = i;
+			assertThrows(IndexOutOfBoundsException.class, () -> bag.get(-(1 << i_)));
+		}
+	}
+}